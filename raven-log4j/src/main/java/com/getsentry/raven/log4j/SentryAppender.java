@@ -159,6 +159,9 @@ public class SentryAppender extends AppenderSkeleton {
 
         RavenEnvironment.startManagingThread();
         try {
+            if (raven.isSampledOut(formatLevel(loggingEvent.getLevel())))
+                return;
+
             Event event = buildEvent(loggingEvent);
             raven.sendEvent(event);
         } catch (Exception e) {
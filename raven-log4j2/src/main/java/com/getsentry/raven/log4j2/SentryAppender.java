@@ -211,6 +211,9 @@ public class SentryAppender extends AbstractAppender {
             if (raven == null)
                 initRaven();
 
+            if (raven.isSampledOut(formatLevel(logEvent.getLevel())))
+                return;
+
             Event event = buildEvent(logEvent);
             raven.sendEvent(event);
         } catch (Exception e) {
@@ -159,6 +159,9 @@ public class SentryAppender extends AppenderBase<ILoggingEvent> {
             if (minLevel != null && !iLoggingEvent.getLevel().isGreaterOrEqual(minLevel))
                 return;
 
+            if (raven.isSampledOut(formatLevel(iLoggingEvent.getLevel())))
+                return;
+
             Event event = buildEvent(iLoggingEvent);
             raven.sendEvent(event);
         } catch (Exception e) {
@@ -0,0 +1,113 @@
+package com.getsentry.raven;
+
+import com.getsentry.raven.event.Breadcrumb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring of the last {@link Breadcrumb}s recorded, safe to share between threads without locking.
+ * <p>
+ * Recording claims a position with a single atomic increment and overwrites the oldest breadcrumb, without
+ * allocating. Each slot has a sequence number, equal to the position of its breadcrumb plus one once published and to
+ * the opposite while a breadcrumb is being written; a snapshot only keeps the slots whose sequence number didn't change
+ * while their breadcrumb was read, so that it never holds a torn slot nor breadcrumbs out of order.
+ * <p>
+ * A breadcrumb whose slot has already been claimed by a later lap is dropped, as it would have been overwritten. A
+ * thread only waits for an other one when the ring wrapped around while that thread was writing the previous lap of
+ * the same slot, which requires as many concurrent records as the capacity of the ring.
+ */
+final class BreadcrumbRing {
+    private final int capacity;
+    private final AtomicReferenceArray<Breadcrumb> breadcrumbs;
+    private final AtomicLongArray sequences;
+    /**
+     * Next position to be recorded.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * First position kept by the ring, moved forward when the ring is cleared.
+     */
+    private volatile long head;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param capacity maximum number of breadcrumbs kept.
+     */
+    BreadcrumbRing(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The breadcrumb limit must be positive, got " + capacity);
+        this.capacity = capacity;
+        this.breadcrumbs = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Records a breadcrumb, replacing the oldest one if the ring is full.
+     *
+     * @param breadcrumb breadcrumb to record.
+     */
+    void record(Breadcrumb breadcrumb) {
+        long position = tail.getAndIncrement();
+        int index = (int) (position % capacity);
+        while (true) {
+            long sequence = sequences.get(index);
+            if (Math.abs(sequence) > position) {
+                // A later lap already claimed the slot.
+                return;
+            } else if (sequence < 0) {
+                // The previous lap is still being written.
+                Thread.yield();
+            } else if (sequences.compareAndSet(index, sequence, -(position + 1))) {
+                break;
+            }
+        }
+        breadcrumbs.lazySet(index, breadcrumb);
+        sequences.lazySet(index, position + 1);
+    }
+
+    /**
+     * Gets the breadcrumbs kept by the ring, from the oldest to the most recent.
+     *
+     * @return an immutable list of the breadcrumbs, possibly missing those being overwritten during the call.
+     */
+    List<Breadcrumb> snapshot() {
+        long end = tail.get();
+        long start = Math.max(head, end - capacity);
+        if (start >= end)
+            return Collections.emptyList();
+
+        Breadcrumb[] snapshot = new Breadcrumb[(int) (end - start)];
+        int count = 0;
+        for (long position = start; position < end; position++) {
+            int index = (int) (position % capacity);
+            long sequence = sequences.get(index);
+            Breadcrumb breadcrumb = breadcrumbs.get(index);
+            if (sequence == position + 1 && breadcrumb != null && sequences.get(index) == sequence)
+                snapshot[count++] = breadcrumb;
+        }
+        if (count < snapshot.length)
+            snapshot = Arrays.copyOf(snapshot, count);
+        return Collections.unmodifiableList(Arrays.asList(snapshot));
+    }
+
+    /**
+     * Forgets the breadcrumbs recorded so far, releasing those which aren't being overwritten.
+     */
+    void clear() {
+        long end = tail.get();
+        head = end;
+        for (int index = 0; index < capacity; index++) {
+            long sequence = sequences.get(index);
+            Breadcrumb breadcrumb = breadcrumbs.get(index);
+            // Only releases the breadcrumbs recorded before the clear, unless they have just been replaced.
+            if (sequence > 0 && sequence <= end && breadcrumb != null && sequences.get(index) == sequence)
+                breadcrumbs.compareAndSet(index, breadcrumb, null);
+        }
+    }
+}
@@ -2,19 +2,35 @@ package com.getsentry.raven;
 
 import com.getsentry.raven.connection.*;
 import com.getsentry.raven.dsn.Dsn;
+import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.helper.ContextBuilderHelper;
 import com.getsentry.raven.event.helper.HttpEventBuilderHelper;
 import com.getsentry.raven.event.interfaces.*;
 import com.getsentry.raven.marshaller.Marshaller;
 import com.getsentry.raven.marshaller.json.*;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.JmxRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
+import com.getsentry.raven.sampling.AdaptiveSampler;
+import com.getsentry.raven.sampling.LevelSampler;
+import com.getsentry.raven.sampling.Sampler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 /**
  * Default implementation of {@link RavenFactory}.
@@ -29,16 +45,125 @@ public class DefaultRavenFactory extends RavenFactory {
     public static final String NAIVE_PROTOCOL = "naive";
     /**
      * Option specific to raven-java, allowing to enable/disable the compression of requests to the Sentry Server.
+     * <p>
+     * With {@code gzip}, the requests are sent as raw gzip instead of deflated and encoded in base 64.
      */
     public static final String COMPRESSION_OPTION = "raven.compression";
+    /**
+     * Option for the compression level, from 0 (no compression) to 9 (best compression).
+     */
+    public static final String COMPRESSION_LEVEL_OPTION = "raven.compression.level";
+    /**
+     * Option for the compression strategy, {@code default}, {@code filtered} or {@code huffman}.
+     */
+    public static final String COMPRESSION_STRATEGY_OPTION = "raven.compression.strategy";
+    /**
+     * Option for the minimum size of an event to compress it, in bytes.
+     */
+    public static final String COMPRESSION_THRESHOLD_OPTION = "raven.compression.threshold";
     /**
      * Option specific to raven-java, allowing to set a timeout (in ms) for a request to the Sentry server.
      */
     public static final String TIMEOUT_OPTION = "raven.timeout";
+    /**
+     * Option to send events over a pool of kept-alive sockets.
+     */
+    public static final String HTTP_POOL_OPTION = "raven.http.pool";
+    /**
+     * Option for the maximum number of sockets in the pool.
+     */
+    public static final String HTTP_POOL_SIZE_OPTION = "raven.http.pool.size";
+    /**
+     * Option for the time after which an idle socket of the pool is closed, in milliseconds.
+     */
+    public static final String HTTP_POOL_IDLE_TIMEOUT_OPTION = "raven.http.pool.idletimeout";
+    /**
+     * Option to send the events over non-blocking sockets driven by a single thread.
+     */
+    public static final String HTTP_NIO_OPTION = "raven.http.nio";
+    /**
+     * Option for the maximum number of requests sent before receiving their responses, with the non-blocking sockets.
+     */
+    public static final String HTTP_NIO_PIPELINE_OPTION = "raven.http.nio.pipeline";
+    /**
+     * Option for the way events are handled while the connection stops sending them after a failure: {@code buffer},
+     * {@code drop} or {@code spool}.
+     */
+    public static final String CIRCUIT_BREAKER_FALLBACK_OPTION = "raven.breaker.fallback";
+    /**
+     * Option for the number of events kept in memory by the {@code buffer} fallback.
+     */
+    public static final String CIRCUIT_BREAKER_BUFFER_SIZE_OPTION = "raven.breaker.buffersize";
+    /**
+     * Option to store the events on the disk before sending them, to keep them while Sentry can't be reached.
+     */
+    public static final String SPOOL_OPTION = "raven.spool";
+    /**
+     * Option for the directory in which the events are spooled.
+     */
+    public static final String SPOOL_DIR_OPTION = "raven.spool.dir";
+    /**
+     * Option for the size of each file of the spool, in bytes.
+     */
+    public static final String SPOOL_SEGMENT_SIZE_OPTION = "raven.spool.segmentsize";
+    /**
+     * Option for the maximum space used by the spool, in bytes.
+     */
+    public static final String SPOOL_MAX_BYTES_OPTION = "raven.spool.maxbytes";
+    /**
+     * Option for the policy used to force the spool to the disk: {@code never}, {@code always} or {@code periodic}.
+     */
+    public static final String SPOOL_FSYNC_OPTION = "raven.spool.fsync";
+    /**
+     * Option for the interval between two forced writes of the spool with the {@code periodic} policy, in
+     * milliseconds.
+     */
+    public static final String SPOOL_FSYNC_INTERVAL_OPTION = "raven.spool.fsync.interval";
+    /**
+     * Option to fold identical events sent within a short window into a single follow-up event.
+     */
+    public static final String DEDUP_OPTION = "raven.dedup";
+    /**
+     * Option for the duration of the window during which identical events are folded, in milliseconds.
+     */
+    public static final String DEDUP_WINDOW_OPTION = "raven.dedup.window";
+    /**
+     * Option for the maximum number of groups of identical events tracked at the same time.
+     */
+    public static final String DEDUP_MAX_GROUPS_OPTION = "raven.dedup.maxgroups";
+    /**
+     * Option for the rate at which the events are sampled, between 0 and 1.
+     */
+    public static final String SAMPLE_RATE_OPTION = "raven.sample.rate";
+    /**
+     * Prefix of the options for the rate of a single level, such as {@code raven.sample.rate.debug}.
+     */
+    public static final String SAMPLE_RATE_LEVEL_OPTION_PREFIX = "raven.sample.rate.";
+    /**
+     * Option to lower the sample rate while the async connection can't keep up with the events.
+     */
+    public static final String SAMPLE_ADAPTIVE_OPTION = "raven.sample.adaptive";
+    /**
+     * Option for the factor applied to the sample rate when the async connection is under full pressure.
+     */
+    public static final String SAMPLE_ADAPTIVE_MIN_FACTOR_OPTION = "raven.sample.adaptive.minfactor";
+    /**
+     * Option for the time above which sending an event is considered too slow, in milliseconds.
+     */
+    public static final String SAMPLE_ADAPTIVE_SEND_TIME_OPTION = "raven.sample.adaptive.sendtime";
     /**
      * Option to send events asynchronously.
      */
     public static final String ASYNC_OPTION = "raven.async";
+    /**
+     * Option for the engine handing the events over to the async threads: {@code executor} or {@code ringbuffer}.
+     */
+    public static final String ASYNC_ENGINE_OPTION = "raven.async.engine";
+    /**
+     * Option for the way the thread of the {@code ringbuffer} engine waits for events: {@code spin}, {@code yield} or
+     * {@code park}.
+     */
+    public static final String ASYNC_WAIT_STRATEGY_OPTION = "raven.async.waitstrategy";
     /**
      * Option to disable the graceful shutdown.
      */
@@ -55,26 +180,108 @@ public class DefaultRavenFactory extends RavenFactory {
      * Option for the maximum size of the queue.
      */
     public static final String QUEUE_SIZE_OPTION = "raven.async.queuesize";
+    /**
+     * Option for the order in which the async executor sends the queued events: {@code fifo} or {@code priority}.
+     */
+    public static final String ASYNC_QUEUE_OPTION = "raven.async.queue";
+    /**
+     * Prefix of the options for the capacity of the {@code priority} queue reserved for a level, such as
+     * {@code raven.async.queue.reserved.fatal}.
+     */
+    public static final String ASYNC_QUEUE_RESERVED_OPTION_PREFIX = "raven.async.queue.reserved.";
+    /**
+     * Option to marshal the events before they are queued by the async executor, rather than when they are sent.
+     */
+    public static final String ASYNC_MARSHAL_OPTION = "raven.async.marshal";
+    /**
+     * Option for the maximum size of the marshalled events queued by the async executor, in bytes, instead of a
+     * maximum number of events.
+     */
+    public static final String ASYNC_QUEUE_MAX_BYTES_OPTION = "raven.async.queue.maxbytes";
+    /**
+     * Option for the way the async executor handles the events once its queue is full: {@code dropoldest},
+     * {@code dropnewest}, {@code block}, {@code callerruns} or {@code spill}.
+     */
+    public static final String ASYNC_OVERFLOW_OPTION = "raven.async.overflow";
+    /**
+     * Option for the maximum time a thread is blocked with the {@code block} overflow strategy, in milliseconds.
+     */
+    public static final String ASYNC_OVERFLOW_TIMEOUT_OPTION = "raven.async.overflow.timeout";
+    /**
+     * Option for the number of events kept aside with the {@code spill} overflow strategy.
+     */
+    public static final String ASYNC_OVERFLOW_SPILL_SIZE_OPTION = "raven.async.overflow.spillsize";
     /**
      * Option for the graceful shutdown timeout of the async executor, in milliseconds.
      */
     public static final String SHUTDOWN_TIMEOUT_OPTION = "raven.async.shutdowntimeout";
+    /**
+     * Option to expose the metrics of the Raven instance as an MBean.
+     */
+    public static final String METRICS_JMX_OPTION = "raven.metrics.jmx";
     /**
      * Option to hide common stackframes with enclosing exceptions.
      */
     public static final String HIDE_COMMON_FRAMES_OPTION = "raven.stacktrace.hidecommon";
+    /**
+     * Option to mark the frames of some packages as in-app, as a comma-separated list of prefixes.
+     */
+    public static final String IN_APP_FRAMES_OPTION = "raven.stacktrace.app.packages";
+    /**
+     * Option to mark the frames of some packages as not in-app, as a comma-separated list of prefixes added to the
+     * {@link #getNotInAppFrames() default ones}.
+     */
+    public static final String NOT_IN_APP_FRAMES_OPTION = "raven.stacktrace.notapp.packages";
+    /**
+     * Option for the approximate memory retained by the cache of the marshalled stack frames, in bytes (0 disables
+     * the cache).
+     */
+    public static final String FRAME_CACHE_SIZE_OPTION = "raven.stacktrace.cache.size";
     /**
      * The default async queue size if none is provided.
      */
     public static final int QUEUE_SIZE_DEFAULT = 50;
+    /**
+     * Proportion of the {@code priority} queue reserved by default for each of the fatal and error levels.
+     */
+    public static final double QUEUE_RESERVED_RATIO_DEFAULT = 0.1;
+    /**
+     * The default time a thread is blocked with the {@code block} overflow strategy, in milliseconds.
+     */
+    public static final long OVERFLOW_TIMEOUT_DEFAULT = 100;
+    /**
+     * The default number of events kept aside with the {@code spill} overflow strategy.
+     */
+    public static final int OVERFLOW_SPILL_SIZE_DEFAULT = 1000;
+    /**
+     * The default memory retained by the cache of the marshalled stack frames, in bytes.
+     */
+    public static final long FRAME_CACHE_SIZE_DEFAULT = 1024 * 1024;
+    /**
+     * The size of the ring buffer when an unlimited queue is requested.
+     */
+    public static final int RING_BUFFER_UNBOUNDED_SIZE = 65536;
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultRavenFactory.class);
     private static final String FALSE = Boolean.FALSE.toString();
+    private static final long SPOOL_FSYNC_INTERVAL_DEFAULT = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Number of the next Raven instance exposing its metrics, distinguishing the MBeans of a same project.
+     */
+    private static final AtomicInteger METRICS_NUMBER = new AtomicInteger(1);
 
     @Override
     public Raven createRavenInstance(Dsn dsn) {
         Raven raven = new Raven();
-        raven.setConnection(createConnection(dsn));
+        Connection connection = createConnection(dsn);
+        raven.setConnection(connection);
+        raven.setSampler(createSampler(dsn, connection));
+        RavenMetrics metrics = createMetrics(dsn, connection);
+        if (metrics != null) {
+            if (connection instanceof Instrumented)
+                ((Instrumented) connection).setMetrics(metrics);
+            raven.setMetrics(metrics);
+        }
         try {
             // `ServletRequestListener` was added in the Servlet 2.4 API, and
             // is used as part of the `HttpEventBuilderHelper`, see:
@@ -89,6 +296,76 @@ public class DefaultRavenFactory extends RavenFactory {
         return raven;
     }
 
+    /**
+     * Creates the {@link RavenMetrics} measuring the events, from the options of the Sentry DSN.
+     * <p>
+     * With the option {@link #METRICS_JMX_OPTION} the metrics are registered as the MBean
+     * {@code com.getsentry.raven:type=Raven,project=<project id>,id=<number>}.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection connection sending the events, whose queue depth is exposed.
+     * @return the metrics to use, or null if the events aren't measured.
+     */
+    protected RavenMetrics createMetrics(Dsn dsn, Connection connection) {
+        // Expose the metrics only if the option is set and its value isn't 'false'.
+        if (!dsn.getOptions().containsKey(METRICS_JMX_OPTION)
+                || FALSE.equalsIgnoreCase(dsn.getOptions().get(METRICS_JMX_OPTION)))
+            return null;
+
+        JmxRavenMetrics metrics = new JmxRavenMetrics(
+                connection instanceof ConnectionLoad ? (ConnectionLoad) connection : null);
+        try {
+            String project = ObjectName.quote(String.valueOf(dsn.getProjectId()));
+            metrics.register(new ObjectName("com.getsentry.raven:type=Raven,project=" + project
+                    + ",id=" + METRICS_NUMBER.getAndIncrement()));
+        } catch (MalformedObjectNameException e) {
+            logger.warn("The Raven metrics couldn't be registered.", e);
+        }
+        return metrics;
+    }
+
+    /**
+     * Creates the {@link Sampler} deciding which events are sent, from the options of the Sentry DSN.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection connection sending the events, whose load is followed by the adaptive sampling.
+     * @return the sampler to use, or null if every event is sent.
+     */
+    protected Sampler createSampler(Dsn dsn, Connection connection) {
+        Map<String, String> options = dsn.getOptions();
+        double defaultRate = 1;
+        if (options.containsKey(SAMPLE_RATE_OPTION))
+            defaultRate = Double.parseDouble(options.get(SAMPLE_RATE_OPTION));
+        LevelSampler levelSampler = new LevelSampler(defaultRate);
+        boolean sampled = defaultRate < 1;
+        for (Event.Level level : Event.Level.values()) {
+            String levelRate = options.get(SAMPLE_RATE_LEVEL_OPTION_PREFIX + level.name().toLowerCase(Locale.ENGLISH));
+            if (levelRate != null) {
+                levelSampler.withLevelRate(level, Double.parseDouble(levelRate));
+                sampled = true;
+            }
+        }
+
+        // Adapt the rate only if the option is set and its value isn't 'false'.
+        if (options.containsKey(SAMPLE_ADAPTIVE_OPTION)
+                && !FALSE.equalsIgnoreCase(options.get(SAMPLE_ADAPTIVE_OPTION))) {
+            if (!(connection instanceof ConnectionLoad)) {
+                logger.warn("The option '{}' is ignored, the load of the connection is unknown.",
+                        SAMPLE_ADAPTIVE_OPTION);
+            } else {
+                double minFactor = AdaptiveSampler.DEFAULT_MIN_FACTOR;
+                if (options.containsKey(SAMPLE_ADAPTIVE_MIN_FACTOR_OPTION))
+                    minFactor = Double.parseDouble(options.get(SAMPLE_ADAPTIVE_MIN_FACTOR_OPTION));
+                long targetSendTime = AdaptiveSampler.DEFAULT_TARGET_SEND_TIME;
+                if (options.containsKey(SAMPLE_ADAPTIVE_SEND_TIME_OPTION))
+                    targetSendTime = Long.parseLong(options.get(SAMPLE_ADAPTIVE_SEND_TIME_OPTION));
+                return new AdaptiveSampler(levelSampler, (ConnectionLoad) connection, minFactor, targetSendTime);
+            }
+        }
+
+        return sampled ? levelSampler : null;
+    }
+
     /**
      * Creates a connection to the given DSN by determining the protocol.
      *
@@ -100,8 +377,28 @@ public class DefaultRavenFactory extends RavenFactory {
         Connection connection;
 
         if (protocol.equalsIgnoreCase("http") || protocol.equalsIgnoreCase("https")) {
+            // Use non-blocking sockets only if the option is set and its value isn't 'false'.
+            if (dsn.getOptions().containsKey(HTTP_NIO_OPTION)
+                    && !FALSE.equalsIgnoreCase(dsn.getOptions().get(HTTP_NIO_OPTION))) {
+                logger.info("Using a non-blocking HTTP connection to Sentry.");
+                // The non-blocking connection is already asynchronous, it isn't wrapped in an other connection.
+                if (FALSE.equalsIgnoreCase(dsn.getOptions().get(ASYNC_OPTION)))
+                    logger.warn("The option '{}' is ignored, the non-blocking connection is always asynchronous.",
+                            ASYNC_OPTION);
+                if (dsn.getOptions().containsKey(HTTP_POOL_OPTION))
+                    logger.warn("The option '{}' is ignored with the non-blocking connection.", HTTP_POOL_OPTION);
+                if (dsn.getOptions().containsKey(SPOOL_OPTION))
+                    logger.warn("The option '{}' is ignored with the non-blocking connection.", SPOOL_OPTION);
+                return createDeduplicatingConnectionIfEnabled(dsn, createNioHttpConnection(dsn));
+            }
             logger.info("Using an HTTP connection to Sentry.");
             connection = createHttpConnection(dsn);
+            // Spool the events only if the option is set and its value isn't 'false', or if it's the fallback.
+            if ((dsn.getOptions().containsKey(SPOOL_OPTION)
+                    && !FALSE.equalsIgnoreCase(dsn.getOptions().get(SPOOL_OPTION)))
+                    || "spool".equalsIgnoreCase(dsn.getOptions().get(CIRCUIT_BREAKER_FALLBACK_OPTION))) {
+                connection = createSpoolingConnection(dsn, connection);
+            }
         } else if (protocol.equalsIgnoreCase("out")) {
             logger.info("Using StdOut to send events.");
             connection = createStdOutConnection(dsn);
@@ -117,9 +414,88 @@ public class DefaultRavenFactory extends RavenFactory {
             connection = createAsyncConnection(dsn, connection);
         }
 
+        return createDeduplicatingConnectionIfEnabled(dsn, connection);
+    }
+
+    private Connection createDeduplicatingConnectionIfEnabled(Dsn dsn, Connection connection) {
+        // Fold identical events only if the option is set and its value isn't 'false'.
+        if (dsn.getOptions().containsKey(DEDUP_OPTION) && !FALSE.equalsIgnoreCase(dsn.getOptions().get(DEDUP_OPTION)))
+            return createDeduplicatingConnection(dsn, connection);
         return connection;
     }
 
+    /**
+     * Encapsulates a connection in a {@link DeduplicatingConnection} and get the deduplication options from the Sentry
+     * DSN.
+     * <p>
+     * The identical events are folded before being handed to the async threads, sparing the space of the queue.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection connection to encapsulate in a {@link DeduplicatingConnection}.
+     * @return a {@link DeduplicatingConnection} sending the events over the given connection.
+     */
+    protected Connection createDeduplicatingConnection(Dsn dsn, Connection connection) {
+        long window = DeduplicatingConnection.DEFAULT_WINDOW;
+        if (dsn.getOptions().containsKey(DEDUP_WINDOW_OPTION))
+            window = Long.parseLong(dsn.getOptions().get(DEDUP_WINDOW_OPTION));
+
+        int maxGroups = DeduplicatingConnection.DEFAULT_MAX_GROUPS;
+        if (dsn.getOptions().containsKey(DEDUP_MAX_GROUPS_OPTION))
+            maxGroups = Integer.parseInt(dsn.getOptions().get(DEDUP_MAX_GROUPS_OPTION));
+
+        return new DeduplicatingConnection(connection, window, maxGroups, new DaemonThreadFactory(Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * Encapsulates an HTTP connection in a {@link SpoolingConnection} and get the spool options from the Sentry DSN.
+     * <p>
+     * If the spool can't be opened, the events are sent without being spooled.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection HTTP connection to encapsulate in a {@link SpoolingConnection}.
+     * @return a {@link SpoolingConnection} sending the events over the given connection.
+     */
+    protected Connection createSpoolingConnection(Dsn dsn, Connection connection) {
+        if (!(connection instanceof HttpConnection)) {
+            logger.warn("The option '{}' is only supported by HTTP connections.", SPOOL_OPTION);
+            return connection;
+        }
+
+        File directory = new File(System.getProperty("java.io.tmpdir"), "raven-spool-" + dsn.getProjectId());
+        if (dsn.getOptions().containsKey(SPOOL_DIR_OPTION))
+            directory = new File(dsn.getOptions().get(SPOOL_DIR_OPTION));
+
+        int segmentSize = SpoolingConnection.DEFAULT_SEGMENT_SIZE;
+        if (dsn.getOptions().containsKey(SPOOL_SEGMENT_SIZE_OPTION))
+            segmentSize = Integer.parseInt(dsn.getOptions().get(SPOOL_SEGMENT_SIZE_OPTION));
+
+        long maxBytes = SpoolingConnection.DEFAULT_MAX_BYTES;
+        if (dsn.getOptions().containsKey(SPOOL_MAX_BYTES_OPTION))
+            maxBytes = Long.parseLong(dsn.getOptions().get(SPOOL_MAX_BYTES_OPTION));
+
+        boolean forceOnAppend = false;
+        long forceInterval = 0;
+        String fsync = dsn.getOptions().get(SPOOL_FSYNC_OPTION);
+        if ("always".equalsIgnoreCase(fsync)) {
+            forceOnAppend = true;
+        } else if ("periodic".equalsIgnoreCase(fsync)) {
+            forceInterval = SPOOL_FSYNC_INTERVAL_DEFAULT;
+            if (dsn.getOptions().containsKey(SPOOL_FSYNC_INTERVAL_OPTION))
+                forceInterval = Long.parseLong(dsn.getOptions().get(SPOOL_FSYNC_INTERVAL_OPTION));
+        } else if (fsync != null && !"never".equalsIgnoreCase(fsync)) {
+            logger.warn("Unknown value '{}' for the option '{}', the spool won't be forced to the disk.",
+                    fsync, SPOOL_FSYNC_OPTION);
+        }
+
+        try {
+            return new SpoolingConnection((HttpConnection) connection, directory, segmentSize, maxBytes,
+                    forceOnAppend, forceInterval);
+        } catch (IOException e) {
+            logger.error("Couldn't open the spool in '" + directory + "', the events won't be spooled.", e);
+            return connection;
+        }
+    }
+
     /**
      * Encapsulates an already existing connection in an {@link AsyncConnection} and get the async options from the
      * Sentry DSN.
@@ -129,6 +505,11 @@ public class DefaultRavenFactory extends RavenFactory {
      * @return the asynchronous connection.
      */
     protected Connection createAsyncConnection(Dsn dsn, Connection connection) {
+        if ("ringbuffer".equalsIgnoreCase(dsn.getOptions().get(ASYNC_ENGINE_OPTION))) {
+            if (dsn.getOptions().containsKey(ASYNC_MARSHAL_OPTION))
+                logger.warn("The option '{}' is ignored with the ring buffer.", ASYNC_MARSHAL_OPTION);
+            return createRingBufferAsyncConnection(dsn, connection);
+        }
 
         int maxThreads;
         if (dsn.getOptions().containsKey(MAX_THREADS_OPTION)) {
@@ -144,42 +525,198 @@ public class DefaultRavenFactory extends RavenFactory {
             priority = Thread.MIN_PRIORITY;
         }
 
-        BlockingDeque<Runnable> queue;
-        if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION)) {
-            int queueSize = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
-            if (queueSize == -1) {
-                queue = new LinkedBlockingDeque<>();
+        // Marshal the events before queuing them only if the option is set and its value isn't 'false'.
+        boolean marshal = dsn.getOptions().containsKey(ASYNC_MARSHAL_OPTION)
+                && !FALSE.equalsIgnoreCase(dsn.getOptions().get(ASYNC_MARSHAL_OPTION));
+        if (marshal && !(connection instanceof PayloadConnection)) {
+            logger.warn("The option '{}' is ignored, the connection can't send marshalled events.",
+                    ASYNC_MARSHAL_OPTION);
+            marshal = false;
+        }
+        if (!marshal && dsn.getOptions().containsKey(ASYNC_QUEUE_MAX_BYTES_OPTION))
+            logger.warn("The option '{}' is ignored, the events aren't marshalled before being queued.",
+                    ASYNC_QUEUE_MAX_BYTES_OPTION);
+
+        ExecutorService executorService;
+        if ("priority".equalsIgnoreCase(dsn.getOptions().get(ASYNC_QUEUE_OPTION))) {
+            // The priority queue evicts the events itself, the rejected events are the ones with the lowest level.
+            executorService = new ThreadPoolExecutor(
+                    maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, createPriorityEventQueue(dsn),
+                    new DaemonThreadFactory(priority), new ThreadPoolExecutor.DiscardPolicy());
+        } else {
+            BlockingQueue<Runnable> queue;
+            if (marshal && dsn.getOptions().containsKey(ASYNC_QUEUE_MAX_BYTES_OPTION)) {
+                queue = new SizeBoundedEventQueue(Long.parseLong(dsn.getOptions().get(ASYNC_QUEUE_MAX_BYTES_OPTION)));
+            } else if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION)) {
+                int queueSize = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
+                if (queueSize == -1) {
+                    queue = new LinkedBlockingDeque<>();
+                } else {
+                    queue = new LinkedBlockingDeque<>(queueSize);
+                }
             } else {
-                queue = new LinkedBlockingDeque<>(queueSize);
+                queue = new LinkedBlockingDeque<>(QUEUE_SIZE_DEFAULT);
             }
-        } else {
-            queue = new LinkedBlockingDeque<>(QUEUE_SIZE_DEFAULT);
-        }
 
-        ExecutorService executorService = new ThreadPoolExecutor(
-                maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, queue,
-                new DaemonThreadFactory(priority), new ThreadPoolExecutor.DiscardOldestPolicy());
+            executorService = new ThreadPoolExecutor(
+                    maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, queue,
+                    new DaemonThreadFactory(priority), createOverflowPolicy(dsn));
+        }
 
         boolean gracefulShutdown = !FALSE.equalsIgnoreCase(dsn.getOptions().get(GRACEFUL_SHUTDOWN_OPTION));
 
+        AsyncConnection asyncConnection;
         String shutdownTimeoutStr = dsn.getOptions().get(SHUTDOWN_TIMEOUT_OPTION);
         if (shutdownTimeoutStr != null) {
             long shutdownTimeout = Long.parseLong(shutdownTimeoutStr);
-            return new AsyncConnection(connection, executorService, gracefulShutdown, shutdownTimeout);
+            asyncConnection = new AsyncConnection(connection, executorService, gracefulShutdown, shutdownTimeout);
         } else {
-            return new AsyncConnection(connection, executorService, gracefulShutdown);
+            asyncConnection = new AsyncConnection(connection, executorService, gracefulShutdown);
         }
+        if (marshal)
+            asyncConnection.setMarshaller(createMarshaller(dsn));
+        return asyncConnection;
+    }
+
+    /**
+     * Creates the {@link OverflowPolicy} handling the events once the queue of the async executor is full, from the
+     * options of the Sentry DSN.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return the overflow policy, dropping the oldest events by default.
+     */
+    protected OverflowPolicy createOverflowPolicy(Dsn dsn) {
+        String overflow = dsn.getOptions().get(ASYNC_OVERFLOW_OPTION);
+        if (overflow == null || "dropoldest".equalsIgnoreCase(overflow)) {
+            return OverflowPolicy.dropOldest();
+        } else if ("dropnewest".equalsIgnoreCase(overflow)) {
+            return OverflowPolicy.dropNewest();
+        } else if ("block".equalsIgnoreCase(overflow)) {
+            long timeout = OVERFLOW_TIMEOUT_DEFAULT;
+            if (dsn.getOptions().containsKey(ASYNC_OVERFLOW_TIMEOUT_OPTION))
+                timeout = Long.parseLong(dsn.getOptions().get(ASYNC_OVERFLOW_TIMEOUT_OPTION));
+            return OverflowPolicy.block(timeout);
+        } else if ("callerruns".equalsIgnoreCase(overflow)) {
+            return OverflowPolicy.callerRuns();
+        } else if ("spill".equalsIgnoreCase(overflow)) {
+            int spillSize = OVERFLOW_SPILL_SIZE_DEFAULT;
+            if (dsn.getOptions().containsKey(ASYNC_OVERFLOW_SPILL_SIZE_OPTION))
+                spillSize = Integer.parseInt(dsn.getOptions().get(ASYNC_OVERFLOW_SPILL_SIZE_OPTION));
+            return OverflowPolicy.spill(spillSize);
+        }
+        logger.warn("Unknown value '{}' for the option '{}', the oldest events are dropped.", overflow,
+                ASYNC_OVERFLOW_OPTION);
+        return OverflowPolicy.dropOldest();
+    }
+
+    /**
+     * Creates the {@link PriorityEventQueue} of the async executor from the options of the Sentry DSN.
+     * <p>
+     * Unless set otherwise, a tenth of a bounded queue is reserved for each of the fatal and error levels.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return a queue sending the events by decreasing level.
+     */
+    protected PriorityEventQueue createPriorityEventQueue(Dsn dsn) {
+        int capacity = QUEUE_SIZE_DEFAULT;
+        if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION))
+            capacity = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
+        boolean unbounded = capacity == -1;
+        if (unbounded)
+            capacity = Integer.MAX_VALUE;
+
+        int[] reserved = new int[Event.Level.values().length];
+        if (!unbounded) {
+            int defaultReserved = (int) (capacity * QUEUE_RESERVED_RATIO_DEFAULT);
+            reserved[Event.Level.FATAL.ordinal()] = defaultReserved;
+            reserved[Event.Level.ERROR.ordinal()] = defaultReserved;
+        }
+        for (Event.Level level : Event.Level.values()) {
+            String levelReserved = dsn.getOptions().get(ASYNC_QUEUE_RESERVED_OPTION_PREFIX
+                    + level.name().toLowerCase(Locale.ENGLISH));
+            if (levelReserved != null)
+                reserved[level.ordinal()] = Integer.parseInt(levelReserved);
+        }
+        return new PriorityEventQueue(capacity, reserved);
+    }
+
+    /**
+     * Encapsulates an already existing connection in a {@link RingBufferAsyncConnection} and get the async options
+     * from the Sentry DSN.
+     * <p>
+     * The events are sent by a single thread, so {@link #MAX_THREADS_OPTION} is ignored.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection Connection to encapsulate in a {@link RingBufferAsyncConnection}.
+     * @return the asynchronous connection.
+     */
+    protected Connection createRingBufferAsyncConnection(Dsn dsn, Connection connection) {
+        if (dsn.getOptions().containsKey(MAX_THREADS_OPTION))
+            logger.warn("The option '{}' is ignored, the ring buffer is consumed by a single thread.",
+                    MAX_THREADS_OPTION);
+
+        int priority = Thread.MIN_PRIORITY;
+        if (dsn.getOptions().containsKey(PRIORITY_OPTION))
+            priority = Integer.parseInt(dsn.getOptions().get(PRIORITY_OPTION));
+
+        int capacity = QUEUE_SIZE_DEFAULT;
+        if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION))
+            capacity = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
+        if (capacity == -1) {
+            logger.warn("The ring buffer can't be unbounded, its size is set to {}.", RING_BUFFER_UNBOUNDED_SIZE);
+            capacity = RING_BUFFER_UNBOUNDED_SIZE;
+        }
+
+        RingBufferAsyncConnection.WaitStrategy waitStrategy = RingBufferAsyncConnection.WaitStrategy.PARK;
+        String waitStrategyName = dsn.getOptions().get(ASYNC_WAIT_STRATEGY_OPTION);
+        if (waitStrategyName != null) {
+            try {
+                waitStrategy = RingBufferAsyncConnection.WaitStrategy.valueOf(waitStrategyName.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown value '{}' for the option '{}', the consumer thread will park.",
+                        waitStrategyName, ASYNC_WAIT_STRATEGY_OPTION);
+            }
+        }
+
+        boolean gracefulShutdown = !FALSE.equalsIgnoreCase(dsn.getOptions().get(GRACEFUL_SHUTDOWN_OPTION));
+
+        long shutdownTimeout = RingBufferAsyncConnection.DEFAULT_SHUTDOWN_TIMEOUT;
+        if (dsn.getOptions().containsKey(SHUTDOWN_TIMEOUT_OPTION))
+            shutdownTimeout = Long.parseLong(dsn.getOptions().get(SHUTDOWN_TIMEOUT_OPTION));
+
+        return new RingBufferAsyncConnection(connection, capacity, waitStrategy, new DaemonThreadFactory(priority),
+                gracefulShutdown, shutdownTimeout);
     }
 
     /**
      * Creates an HTTP connection to the Sentry server.
      *
      * @param dsn Data Source Name of the Sentry server.
-     * @return an {@link HttpConnection} to the server.
+     * @return an {@link HttpConnection} to the server, backed by a pool of sockets if {@link #HTTP_POOL_OPTION} is
+     * set.
      */
     protected Connection createHttpConnection(Dsn dsn) {
         URL sentryApiUrl = HttpConnection.getSentryApiUrl(dsn.getUri(), dsn.getProjectId());
-        HttpConnection httpConnection = new HttpConnection(sentryApiUrl, dsn.getPublicKey(), dsn.getSecretKey());
+        HttpConnection httpConnection;
+        // Use the pool of sockets only if the option is set and its value isn't 'false'.
+        if (dsn.getOptions().containsKey(HTTP_POOL_OPTION)
+                && !FALSE.equalsIgnoreCase(dsn.getOptions().get(HTTP_POOL_OPTION))) {
+            int poolSize;
+            if (dsn.getOptions().containsKey(HTTP_POOL_SIZE_OPTION)) {
+                poolSize = Integer.parseInt(dsn.getOptions().get(HTTP_POOL_SIZE_OPTION));
+            } else {
+                poolSize = Runtime.getRuntime().availableProcessors();
+            }
+
+            long idleTimeout = PooledHttpConnection.DEFAULT_IDLE_TIMEOUT;
+            if (dsn.getOptions().containsKey(HTTP_POOL_IDLE_TIMEOUT_OPTION))
+                idleTimeout = Long.parseLong(dsn.getOptions().get(HTTP_POOL_IDLE_TIMEOUT_OPTION));
+
+            httpConnection = new PooledHttpConnection(sentryApiUrl, dsn.getPublicKey(), dsn.getSecretKey(),
+                    poolSize, idleTimeout);
+        } else {
+            httpConnection = new HttpConnection(sentryApiUrl, dsn.getPublicKey(), dsn.getSecretKey());
+        }
         httpConnection.setMarshaller(createMarshaller(dsn));
 
         // Set the naive mode
@@ -187,9 +724,54 @@ public class DefaultRavenFactory extends RavenFactory {
         // Set the HTTP timeout
         if (dsn.getOptions().containsKey(TIMEOUT_OPTION))
             httpConnection.setTimeout(Integer.parseInt(dsn.getOptions().get(TIMEOUT_OPTION)));
+
+        // The spool is set up by createConnection, it keeps the events on the disk instead of in the buffer.
+        String fallback = dsn.getOptions().get(CIRCUIT_BREAKER_FALLBACK_OPTION);
+        if ("drop".equalsIgnoreCase(fallback)) {
+            httpConnection.setOpenCircuitFallback(AbstractConnection.OpenCircuitFallback.DROP);
+        } else if (fallback != null && !"buffer".equalsIgnoreCase(fallback) && !"spool".equalsIgnoreCase(fallback)) {
+            logger.warn("Unknown value '{}' for the option '{}', the events will be buffered.",
+                    fallback, CIRCUIT_BREAKER_FALLBACK_OPTION);
+        }
+        if (dsn.getOptions().containsKey(CIRCUIT_BREAKER_BUFFER_SIZE_OPTION))
+            httpConnection.setBufferSize(Integer.parseInt(dsn.getOptions().get(CIRCUIT_BREAKER_BUFFER_SIZE_OPTION)));
         return httpConnection;
     }
 
+    /**
+     * Creates a non-blocking HTTP connection to the Sentry server.
+     * <p>
+     * The connection reuses the async options for the size of its queue and its shutdown.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return a {@link NioHttpConnection} to the server.
+     */
+    protected Connection createNioHttpConnection(Dsn dsn) {
+        URL sentryApiUrl = HttpConnection.getSentryApiUrl(dsn.getUri(), dsn.getProjectId());
+
+        int pipelineDepth = NioHttpConnection.DEFAULT_PIPELINE_DEPTH;
+        if (dsn.getOptions().containsKey(HTTP_NIO_PIPELINE_OPTION))
+            pipelineDepth = Integer.parseInt(dsn.getOptions().get(HTTP_NIO_PIPELINE_OPTION));
+
+        int queueSize = QUEUE_SIZE_DEFAULT;
+        if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION))
+            queueSize = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
+
+        boolean gracefulShutdown = !FALSE.equalsIgnoreCase(dsn.getOptions().get(GRACEFUL_SHUTDOWN_OPTION));
+
+        NioHttpConnection nioHttpConnection = new NioHttpConnection(sentryApiUrl, dsn.getPublicKey(),
+                dsn.getSecretKey(), createMarshaller(dsn), pipelineDepth, queueSize, gracefulShutdown);
+
+        // Set the naive mode
+        nioHttpConnection.setBypassSecurity(dsn.getProtocolSettings().contains(NAIVE_PROTOCOL));
+        // Set the HTTP timeout
+        if (dsn.getOptions().containsKey(TIMEOUT_OPTION))
+            nioHttpConnection.setTimeout(Integer.parseInt(dsn.getOptions().get(TIMEOUT_OPTION)));
+        if (dsn.getOptions().containsKey(SHUTDOWN_TIMEOUT_OPTION))
+            nioHttpConnection.setShutdownTimeout(Long.parseLong(dsn.getOptions().get(SHUTDOWN_TIMEOUT_OPTION)));
+        return nioHttpConnection;
+    }
+
     /**
      * Uses stdout to send the logs.
      *
@@ -219,7 +801,14 @@ public class DefaultRavenFactory extends RavenFactory {
         // Enable common frames hiding unless its value is 'false'.
         stackTraceBinding.setRemoveCommonFramesWithEnclosing(
                 !FALSE.equalsIgnoreCase(dsn.getOptions().get(HIDE_COMMON_FRAMES_OPTION)));
-        stackTraceBinding.setNotInAppFrames(getNotInAppFrames());
+        Collection<String> notInAppFrames = new ArrayList<>(getNotInAppFrames());
+        notInAppFrames.addAll(parsePrefixes(dsn.getOptions().get(NOT_IN_APP_FRAMES_OPTION)));
+        stackTraceBinding.setNotInAppFrames(notInAppFrames);
+        stackTraceBinding.setInAppFrames(parsePrefixes(dsn.getOptions().get(IN_APP_FRAMES_OPTION)));
+        long frameCacheSize = FRAME_CACHE_SIZE_DEFAULT;
+        if (dsn.getOptions().containsKey(FRAME_CACHE_SIZE_OPTION))
+            frameCacheSize = Long.parseLong(dsn.getOptions().get(FRAME_CACHE_SIZE_OPTION));
+        stackTraceBinding.setFrameCacheSize(frameCacheSize);
 
         marshaller.addInterfaceBinding(StackTraceInterface.class, stackTraceBinding);
         marshaller.addInterfaceBinding(ExceptionInterface.class, new ExceptionInterfaceBinding(stackTraceBinding));
@@ -232,6 +821,20 @@ public class DefaultRavenFactory extends RavenFactory {
 
         // Enable compression unless the option is set to false
         marshaller.setCompression(!FALSE.equalsIgnoreCase(dsn.getOptions().get(COMPRESSION_OPTION)));
+        marshaller.setGzip("gzip".equalsIgnoreCase(dsn.getOptions().get(COMPRESSION_OPTION)));
+        if (dsn.getOptions().containsKey(COMPRESSION_LEVEL_OPTION))
+            marshaller.setCompressionLevel(Integer.parseInt(dsn.getOptions().get(COMPRESSION_LEVEL_OPTION)));
+        String compressionStrategy = dsn.getOptions().get(COMPRESSION_STRATEGY_OPTION);
+        if ("filtered".equalsIgnoreCase(compressionStrategy)) {
+            marshaller.setCompressionStrategy(Deflater.FILTERED);
+        } else if ("huffman".equalsIgnoreCase(compressionStrategy)) {
+            marshaller.setCompressionStrategy(Deflater.HUFFMAN_ONLY);
+        } else if (compressionStrategy != null && !"default".equalsIgnoreCase(compressionStrategy)) {
+            logger.warn("Unknown value '{}' for the option '{}', the default strategy is used.",
+                    compressionStrategy, COMPRESSION_STRATEGY_OPTION);
+        }
+        if (dsn.getOptions().containsKey(COMPRESSION_THRESHOLD_OPTION))
+            marshaller.setCompressionThreshold(Integer.parseInt(dsn.getOptions().get(COMPRESSION_THRESHOLD_OPTION)));
 
         return marshaller;
     }
@@ -254,6 +857,23 @@ public class DefaultRavenFactory extends RavenFactory {
                 "com.intellij.rt.");
     }
 
+    /**
+     * Parses a comma-separated list of class name prefixes.
+     *
+     * @param prefixes value of the option, possibly null.
+     * @return the non-empty prefixes of the list.
+     */
+    private static Collection<String> parsePrefixes(String prefixes) {
+        if (prefixes == null)
+            return Collections.emptyList();
+        Collection<String> parsedPrefixes = new ArrayList<>();
+        for (String prefix : prefixes.split(",")) {
+            if (!prefix.trim().isEmpty())
+                parsedPrefixes.add(prefix.trim());
+        }
+        return parsedPrefixes;
+    }
+
     /**
      * Thread factory generating daemon threads with a custom priority.
      * <p>
@@ -6,6 +6,9 @@ import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.EventBuilder;
 import com.getsentry.raven.event.helper.EventBuilderHelper;
 import com.getsentry.raven.event.interfaces.ExceptionInterface;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
+import com.getsentry.raven.sampling.Sampler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +16,8 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Raven is a client for Sentry allowing to send an {@link Event} that will be processed and sent to a Sentry server.
@@ -20,15 +25,37 @@ import java.util.Set;
  * It is recommended to create an instance of Raven through
  * {@link RavenFactory#createRavenInstance(com.getsentry.raven.dsn.Dsn)}, this will use the best factory available to
  * create a sensible instance of Raven.
+ * <p>
+ * If a {@link Sampler} is set, it is consulted before building each event: the events which aren't sampled are
+ * dropped before the {@link EventBuilderHelper}s run, and the events sent with a rate below 1 carry that rate in the
+ * extra {@link #SAMPLE_RATE_EXTRA}.
+ * <p>
+ * The time taken to build the events sent through {@link #sendEvent(EventBuilder)}, {@link #sendMessage(String)} and
+ * {@link #sendException(Throwable)} is reported to the {@link RavenMetrics}, which are closed along with the
+ * connection.
  */
 public class Raven {
+    /**
+     * Name of the extra holding the rate with which an event has been sampled.
+     */
+    public static final String SAMPLE_RATE_EXTRA = "sample_rate";
     private static final Logger logger = LoggerFactory.getLogger(Raven.class);
     private final Set<EventBuilderHelper> builderHelpers = new HashSet<>();
+    /**
+     * Number of events dropped by the sampler, for each level, the events without level being counted last.
+     */
+    private final AtomicLongArray sampledOutCounts = new AtomicLongArray(Event.Level.values().length + 1);
+    /**
+     * Rate of the last event sampled by the current thread, attached to the event by {@link #runBuilderHelpers}.
+     */
+    private final ThreadLocal<Double> pendingSampleRate = new ThreadLocal<>();
     private Connection connection;
+    private volatile Sampler sampler;
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
     private ThreadLocal<RavenContext> context = new ThreadLocal<RavenContext>() {
         @Override
         protected RavenContext initialValue() {
-            RavenContext ctx = new RavenContext();
+            RavenContext ctx = new RavenContext(Raven.this);
             ctx.activate();
             return ctx;
         }
@@ -41,11 +68,43 @@ public class Raven {
      * @param eventBuilder event builder containing a not yet finished event.
      */
     public void runBuilderHelpers(EventBuilder eventBuilder) {
+        Double sampleRate = pendingSampleRate.get();
+        if (sampleRate != null) {
+            pendingSampleRate.remove();
+            eventBuilder.withExtra(SAMPLE_RATE_EXTRA, sampleRate);
+        }
         for (EventBuilderHelper builderHelper : builderHelpers) {
             builderHelper.helpBuildingEvent(eventBuilder);
         }
     }
 
+    /**
+     * Decides whether an event of the given level is dropped by the {@link Sampler}.
+     * <p>
+     * This method is meant to be called before building an event, to save the cost of building the events which
+     * won't be sent. If the event is kept with a rate below 1, that rate is attached to the event by the next call to
+     * {@link #runBuilderHelpers(EventBuilder)} from the same thread.
+     *
+     * @param level level of the event, possibly null.
+     * @return true if the event has been sampled out and shouldn't be sent, false otherwise.
+     */
+    public boolean isSampledOut(Event.Level level) {
+        pendingSampleRate.remove();
+        Sampler currentSampler = sampler;
+        if (currentSampler == null)
+            return false;
+
+        double sampleRate = currentSampler.getSampleRate(level);
+        if (sampleRate >= 1)
+            return false;
+        if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            sampledOutCounts.incrementAndGet(level != null ? level.ordinal() : Event.Level.values().length);
+            return true;
+        }
+        pendingSampleRate.set(sampleRate);
+        return false;
+    }
+
     /**
      * Sends a built {@link Event} to the Sentry server.
      *
@@ -65,8 +124,9 @@ public class Raven {
      * @param eventBuilder {@link EventBuilder} to send to Sentry.
      */
     public void sendEvent(EventBuilder eventBuilder) {
-        runBuilderHelpers(eventBuilder);
-        sendEvent(eventBuilder.build());
+        if (isSampledOut(eventBuilder.getLevel()))
+            return;
+        buildAndSendEvent(eventBuilder, System.nanoTime());
     }
 
     /**
@@ -77,10 +137,12 @@ public class Raven {
      * @param message message to send to Sentry.
      */
     public void sendMessage(String message) {
+        if (isSampledOut(Event.Level.INFO))
+            return;
+        long start = System.nanoTime();
         EventBuilder eventBuilder = new EventBuilder().withMessage(message)
                 .withLevel(Event.Level.INFO);
-        runBuilderHelpers(eventBuilder);
-        sendEvent(eventBuilder.build());
+        buildAndSendEvent(eventBuilder, start);
     }
 
     /**
@@ -91,11 +153,26 @@ public class Raven {
      * @param throwable exception to send to Sentry.
      */
     public void sendException(Throwable throwable) {
+        if (isSampledOut(Event.Level.ERROR))
+            return;
+        long start = System.nanoTime();
         EventBuilder eventBuilder = new EventBuilder().withMessage(throwable.getMessage())
                 .withLevel(Event.Level.ERROR)
                 .withSentryInterface(new ExceptionInterface(throwable));
+        buildAndSendEvent(eventBuilder, start);
+    }
+
+    /**
+     * Runs the {@link EventBuilderHelper}s, builds the event and sends it, reporting the time taken to build it.
+     *
+     * @param eventBuilder {@link EventBuilder} to send to Sentry.
+     * @param start        value of {@link System#nanoTime()} when the event started being built.
+     */
+    private void buildAndSendEvent(EventBuilder eventBuilder, long start) {
         runBuilderHelpers(eventBuilder);
-        sendEvent(eventBuilder.build());
+        Event event = eventBuilder.build();
+        metrics.onBuilt(System.nanoTime() - start);
+        sendEvent(event);
     }
 
     /**
@@ -123,13 +200,15 @@ public class Raven {
     }
 
     /**
-     * Closes the connection for the Raven instance.
+     * Closes the connection for the Raven instance, as well as its {@link RavenMetrics}.
      */
     public void closeConnection() {
         try {
             connection.close();
         } catch (IOException e) {
             throw new RuntimeException("Couldn't close the Raven connection", e);
+        } finally {
+            metrics.close();
         }
     }
 
@@ -137,8 +216,54 @@ public class Raven {
         this.connection = connection;
     }
 
+    public RavenMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Sampler getSampler() {
+        return sampler;
+    }
+
+    public void setSampler(Sampler sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * Gets the number of events dropped by the {@link Sampler}.
+     *
+     * @return the number of events sampled out, whatever their level.
+     */
+    public long getSampledOutCount() {
+        long count = 0;
+        for (int i = 0; i < sampledOutCounts.length(); i++) {
+            count += sampledOutCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of events of a level dropped by the {@link Sampler}.
+     *
+     * @param level level of the events, or null for the events without level.
+     * @return the number of events of that level sampled out.
+     */
+    public long getSampledOutCount(Event.Level level) {
+        return sampledOutCounts.get(level != null ? level.ordinal() : Event.Level.values().length);
+    }
+
+    /**
+     * Gets the context of the current thread, which may have been propagated from an other thread with a
+     * {@link RavenContextSnapshot}.
+     *
+     * @return the context of the current thread.
+     */
     public RavenContext getContext() {
-        return context.get();
+        RavenContext activeContext = RavenContext.getActiveContext(this);
+        return activeContext != null ? activeContext : context.get();
     }
 
     @Override
@@ -1,11 +1,9 @@
 package com.getsentry.raven;
 
 import com.getsentry.raven.event.Breadcrumb;
-import com.getsentry.raven.util.CircularFifoQueue;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.IdentityHashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -16,10 +14,12 @@ import java.util.List;
  */
 public class RavenContext implements AutoCloseable {
 
+    private static final RavenContext[] NO_CONTEXTS = new RavenContext[0];
+
     /**
-     * Thread local set of active context objects. Note that an {@link IdentityHashMap}
-     * is used instead of a Set because there is no identity-set in the Java
-     * standard library.
+     * Thread local set of active context objects, kept as an array without duplicates which
+     * is copied when a context is activated or deactivated, so that it can be iterated without
+     * allocating each time a {@link Breadcrumb} is recorded.
      *
      * A set of active contexts is required in order to support running multiple Raven
      * clients within a single process. In *most* cases this set will contain a single
@@ -29,12 +29,11 @@ public class RavenContext implements AutoCloseable {
      * context objects globally, without passing context objects all the way down their
      * stacks. See {@link com.getsentry.raven.event.Breadcrumbs} for an example of how this may be used.
      */
-    private static ThreadLocal<IdentityHashMap<RavenContext, RavenContext>> activeContexts =
-        new ThreadLocal<IdentityHashMap<RavenContext, RavenContext>>() {
-            @Override
-            protected IdentityHashMap<RavenContext, RavenContext> initialValue() {
-                return new IdentityHashMap<>();
-            }
+    private static ThreadLocal<RavenContext[]> activeContexts = new ThreadLocal<RavenContext[]>() {
+        @Override
+        protected RavenContext[] initialValue() {
+            return NO_CONTEXTS;
+        }
     };
 
     /**
@@ -43,9 +42,14 @@ public class RavenContext implements AutoCloseable {
     private static final int DEFAULT_BREADCRUMB_LIMIT = 100;
 
     /**
-     * Ring buffer of {@link Breadcrumb} objects.
+     * Ring buffer of {@link Breadcrumb} objects, which may be shared between threads.
+     */
+    private final BreadcrumbRing breadcrumbs;
+
+    /**
+     * Raven client whose thread context this is, or null for the contexts created by users.
      */
-    private CircularFifoQueue<Breadcrumb> breadcrumbs;
+    private final Raven raven;
 
     /**
      * Create a new (empty) RavenContext object with the default Breadcrumb limit.
@@ -60,21 +64,56 @@ public class RavenContext implements AutoCloseable {
      * @param breadcrumbLimit Number of Breadcrumb objects to retain in ring buffer.
      */
     public RavenContext(int breadcrumbLimit) {
-        breadcrumbs = new CircularFifoQueue<>(breadcrumbLimit);
+        this(breadcrumbLimit, null);
+    }
+
+    /**
+     * Create a new (empty) RavenContext object for the threads of a Raven client.
+     *
+     * @param raven Raven client whose thread context this is.
+     */
+    RavenContext(Raven raven) {
+        this(DEFAULT_BREADCRUMB_LIMIT, raven);
+    }
+
+    private RavenContext(int breadcrumbLimit, Raven raven) {
+        breadcrumbs = new BreadcrumbRing(breadcrumbLimit);
+        this.raven = raven;
     }
 
     /**
      * Add this context to the active contexts for this thread.
      */
     public void activate() {
-        activeContexts.get().put(this, this);
+        RavenContext[] contexts = activeContexts.get();
+        if (indexOf(contexts, this) < 0) {
+            RavenContext[] activated = Arrays.copyOf(contexts, contexts.length + 1);
+            activated[contexts.length] = this;
+            activeContexts.set(activated);
+        }
     }
 
     /**
      * Remove this context from the active contexts for this thread.
      */
     public void deactivate() {
-        activeContexts.get().remove(this);
+        RavenContext[] contexts = activeContexts.get();
+        int index = indexOf(contexts, this);
+        if (index >= 0) {
+            RavenContext[] deactivated = new RavenContext[contexts.length - 1];
+            System.arraycopy(contexts, 0, deactivated, 0, index);
+            System.arraycopy(contexts, index + 1, deactivated, index, deactivated.length - index);
+            activeContexts.set(deactivated.length > 0 ? deactivated : NO_CONTEXTS);
+        }
+    }
+
+    private static int indexOf(RavenContext[] contexts, RavenContext context) {
+        for (int i = 0; i < contexts.length; i++) {
+            if (contexts[i] == context) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -98,10 +137,51 @@ public class RavenContext implements AutoCloseable {
      * @return List of active {@link RavenContext} objects.
      */
     public static List<RavenContext> getActiveContexts() {
-        Collection<RavenContext> ravenContexts = activeContexts.get().values();
-        List<RavenContext> list = new ArrayList<>(ravenContexts.size());
-        list.addAll(ravenContexts);
-        return list;
+        return new ArrayList<>(Arrays.asList(activeContexts.get()));
+    }
+
+    /**
+     * Returns the active context of a Raven client for the current thread, possibly propagated from an other thread.
+     *
+     * @param ravenClient Raven client whose context is looked for.
+     * @return the active context of the client, or null if the thread hasn't any yet.
+     */
+    static RavenContext getActiveContext(Raven ravenClient) {
+        for (RavenContext context : activeContexts.get()) {
+            if (context.raven == ravenClient) {
+                return context;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the active contexts of the current thread, as an array which is never modified.
+     *
+     * @return the active contexts.
+     */
+    static RavenContext[] getActiveContextArray() {
+        return activeContexts.get();
+    }
+
+    /**
+     * Replaces the active contexts of the current thread.
+     *
+     * @param contexts active contexts, obtained from {@link #getActiveContextArray()} in any thread.
+     */
+    static void setActiveContextArray(RavenContext[] contexts) {
+        activeContexts.set(contexts);
+    }
+
+    /**
+     * Record a single {@link Breadcrumb} into all the active contexts of the current thread, without allocating.
+     *
+     * @param breadcrumb Breadcrumb object to record
+     */
+    public static void recordBreadcrumbInActiveContexts(Breadcrumb breadcrumb) {
+        for (RavenContext context : activeContexts.get()) {
+            context.recordBreadcrumb(breadcrumb);
+        }
     }
 
     /**
@@ -110,16 +190,29 @@ public class RavenContext implements AutoCloseable {
      * @return Iterator of {@link Breadcrumb}s.
      */
     public Iterator<Breadcrumb> getBreadcrumbs() {
-        return breadcrumbs.iterator();
+        return breadcrumbs.snapshot().iterator();
+    }
+
+    /**
+     * Return a snapshot of the {@link Breadcrumb}s attached to this RavenContext, from the oldest to the most recent.
+     * <p>
+     * The snapshot is consistent even if other threads record breadcrumbs in this context at the same time.
+     *
+     * @return immutable List of {@link Breadcrumb}s.
+     */
+    public List<Breadcrumb> getBreadcrumbSnapshot() {
+        return breadcrumbs.snapshot();
     }
 
     /**
      * Record a single {@link Breadcrumb} into this context.
+     * <p>
+     * This method may be called from any thread, without locking.
      *
      * @param breadcrumb Breadcrumb object to record
      */
     public void recordBreadcrumb(Breadcrumb breadcrumb) {
-        breadcrumbs.add(breadcrumb);
+        breadcrumbs.record(breadcrumb);
     }
 
 }
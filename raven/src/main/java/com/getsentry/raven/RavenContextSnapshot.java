@@ -0,0 +1,89 @@
+package com.getsentry.raven;
+
+import com.getsentry.raven.servlet.RavenServletRequestListener;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Immutable snapshot of the Raven state bound to a thread: its active {@link RavenContext}s and the HTTP request it
+ * handles, captured in one thread to be attached to the threads doing part of its work.
+ * <p>
+ * The active contexts of a thread are kept in an array which is copied whenever a context is activated or
+ * deactivated, so capturing and attaching a snapshot only copies references, whatever the number of contexts and
+ * breadcrumbs. The contexts themselves are shared: the breadcrumbs recorded by the thread running a task are recorded
+ * in the contexts of the thread which submitted it.
+ *
+ * @see RavenExecutors
+ */
+public final class RavenContextSnapshot {
+    private static final boolean SERVLETS_AVAILABLE = servletsAvailable();
+    private final RavenContext[] activeContexts;
+    /**
+     * HTTP request of the thread, kept as an {@code Object} as the servlet API may not be available.
+     */
+    private final Object servletRequest;
+
+    private RavenContextSnapshot(RavenContext[] activeContexts, Object servletRequest) {
+        this.activeContexts = activeContexts;
+        this.servletRequest = servletRequest;
+    }
+
+    private static boolean servletsAvailable() {
+        try {
+            Class.forName("javax.servlet.ServletRequestListener", false, RavenContextSnapshot.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Captures the Raven state of the current thread.
+     *
+     * @return the snapshot of the current thread.
+     */
+    public static RavenContextSnapshot capture() {
+        return new RavenContextSnapshot(RavenContext.getActiveContextArray(),
+            SERVLETS_AVAILABLE ? ServletRequests.get() : null);
+    }
+
+    /**
+     * Binds the captured state to the current thread, replacing its own state until the returned snapshot is
+     * attached back.
+     *
+     * <pre>{@code
+     * RavenContextSnapshot previous = snapshot.attach();
+     * try {
+     *     ...
+     * } finally {
+     *     previous.attach();
+     * }
+     * }</pre>
+     *
+     * @return the state of the current thread before the call, to be restored once the work is done.
+     */
+    public RavenContextSnapshot attach() {
+        RavenContextSnapshot previous = capture();
+        RavenContext.setActiveContextArray(activeContexts);
+        if (SERVLETS_AVAILABLE)
+            ServletRequests.set(servletRequest);
+        return previous;
+    }
+
+    /**
+     * Access to the request bound by {@link RavenServletRequestListener}, in a class which is only loaded if the
+     * servlet API is available.
+     */
+    private static final class ServletRequests {
+        private ServletRequests() {
+        }
+
+        private static Object get() {
+            return RavenServletRequestListener.getServletRequest();
+        }
+
+        private static void set(Object servletRequest) {
+            RavenServletRequestListener.setServletRequest((HttpServletRequest) servletRequest);
+        }
+    }
+}
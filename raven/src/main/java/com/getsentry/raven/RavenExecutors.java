@@ -0,0 +1,159 @@
+package com.getsentry.raven;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wrappers propagating the Raven state of the thread submitting a task to the thread running it.
+ * <p>
+ * The {@link RavenContext}s and the HTTP request of the submitting thread are captured in a
+ * {@link RavenContextSnapshot} when the task is wrapped or submitted, attached to the thread running the task and
+ * replaced by the previous state of that thread once the task is done. Asynchronous code built on executors, such as
+ * the {@code CompletableFuture} methods taking an {@link Executor}, is covered by wrapping that executor.
+ */
+public final class RavenExecutors {
+    private RavenExecutors() {
+    }
+
+    /**
+     * Wraps a task to run it with the Raven state of the current thread.
+     *
+     * @param task task to wrap.
+     * @return a task running the given one with the current Raven state.
+     */
+    public static Runnable wrap(Runnable task) {
+        return new PropagatingRunnable(RavenContextSnapshot.capture(), task);
+    }
+
+    /**
+     * Wraps a task to call it with the Raven state of the current thread.
+     *
+     * @param task task to wrap.
+     * @param <T>  type of the result of the task.
+     * @return a task calling the given one with the current Raven state.
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        return new PropagatingCallable<>(RavenContextSnapshot.capture(), task);
+    }
+
+    /**
+     * Wraps an executor to run each task with the Raven state of the thread submitting it.
+     *
+     * @param executor executor running the tasks.
+     * @return an executor propagating the Raven state to the tasks.
+     */
+    public static Executor wrap(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(wrap(command));
+            }
+        };
+    }
+
+    /**
+     * Wraps an executor service to run each task with the Raven state of the thread submitting it.
+     *
+     * @param executorService executor service running the tasks.
+     * @return an executor service propagating the Raven state to the tasks.
+     */
+    public static ExecutorService wrap(ExecutorService executorService) {
+        return new PropagatingExecutorService(executorService);
+    }
+
+    /**
+     * Task running an other one with a captured Raven state.
+     */
+    private static final class PropagatingRunnable implements Runnable {
+        private final RavenContextSnapshot snapshot;
+        private final Runnable task;
+
+        private PropagatingRunnable(RavenContextSnapshot snapshot, Runnable task) {
+            this.snapshot = snapshot;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            RavenContextSnapshot previous = snapshot.attach();
+            try {
+                task.run();
+            } finally {
+                previous.attach();
+            }
+        }
+    }
+
+    /**
+     * Task calling an other one with a captured Raven state.
+     *
+     * @param <T> type of the result of the task.
+     */
+    private static final class PropagatingCallable<T> implements Callable<T> {
+        private final RavenContextSnapshot snapshot;
+        private final Callable<T> task;
+
+        private PropagatingCallable(RavenContextSnapshot snapshot, Callable<T> task) {
+            this.snapshot = snapshot;
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            RavenContextSnapshot previous = snapshot.attach();
+            try {
+                return task.call();
+            } finally {
+                previous.attach();
+            }
+        }
+    }
+
+    /**
+     * Executor service wrapping each task as it is executed.
+     * <p>
+     * The {@code submit} and {@code invoke} methods of {@link AbstractExecutorService} all go through
+     * {@link #execute(Runnable)} from the submitting thread, where the Raven state is captured.
+     */
+    private static final class PropagatingExecutorService extends AbstractExecutorService {
+        private final ExecutorService executorService;
+
+        private PropagatingExecutorService(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executorService.execute(wrap(command));
+        }
+
+        @Override
+        public void shutdown() {
+            executorService.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executorService.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executorService.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executorService.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executorService.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -2,53 +2,72 @@ package com.getsentry.raven.connection;
 
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Abstract connection to a Sentry server.
  * <p>
  * Provide the basic tools to submit events to the server (authentication header, dsn).<br>
- * To avoid spamming the network if and when Sentry is down, automatically lock the connection each time a
- * {@link ConnectionException} is caught.
+ * To avoid spamming the network if and when Sentry is down, a {@link CircuitBreaker} stops sending events for a while
+ * each time a {@link ConnectionException} is caught. The senders are never blocked: while the breaker is open, the
+ * events are handled by the {@link OpenCircuitFallback} of the connection.
+ * <p>
+ * When the server answers that it's rate limiting the client, with a 429 status or a {@code Retry-After} header, the
+ * breaker isn't opened: the events are dropped before being marshalled until the time requested by the server is
+ * over.
  */
-public abstract class AbstractConnection implements Connection {
+public abstract class AbstractConnection implements PayloadConnection, Instrumented {
     /**
      * Current sentry protocol version.
      */
     public static final String SENTRY_PROTOCOL_VERSION = "6";
     /**
-     * Default maximum duration for a lockdown.
+     * Default maximum duration the circuit breaker stays open.
      */
     public static final long DEFAULT_MAX_WAITING_TIME = TimeUnit.MINUTES.toMillis(5);
     /**
-     * Default base duration for a lockdown.
+     * Default duration the circuit breaker stays open after a first failure.
      */
     public static final long DEFAULT_BASE_WAITING_TIME = TimeUnit.MILLISECONDS.toMillis(10);
+    /**
+     * Default number of events kept in memory while the circuit breaker is open.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 50;
+    /**
+     * Default time the events are dropped when the server rate limits the client without {@code Retry-After} header.
+     */
+    public static final long DEFAULT_RETRY_AFTER = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * HTTP status sent by the Sentry server when it rate limits the client.
+     */
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
     private static final Logger logger = LoggerFactory.getLogger(AbstractConnection.class);
-    private final AtomicBoolean lockdown = new AtomicBoolean();
-    private final Lock lock = new ReentrantLock();
-    private final Condition condition = lock.newCondition();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(DEFAULT_BASE_WAITING_TIME,
+            DEFAULT_MAX_WAITING_TIME);
     private final String authHeader;
     /**
-     * Maximum duration for a lockdown.
+     * Way the events are handled while the circuit breaker is open.
      */
-    private long maxWaitingTime = DEFAULT_MAX_WAITING_TIME;
+    private volatile OpenCircuitFallback openCircuitFallback = OpenCircuitFallback.BUFFER;
     /**
-     * Base duration for a lockdown.
-     * <p>
-     * On each attempt the time is doubled until it reaches {@link #maxWaitingTime}.
+     * Events kept while the circuit breaker is open, sent once a request succeeds again.
      */
-    private long baseWaitingTime = DEFAULT_BASE_WAITING_TIME;
-    private long waitingTime = baseWaitingTime;
+    private volatile BlockingQueue<Event> buffer = new ArrayBlockingQueue<>(DEFAULT_BUFFER_SIZE);
+    /**
+     * Value of {@link System#nanoTime()} until which the events are dropped because the server rate limits the client.
+     */
+    private volatile long rateLimitedUntil = System.nanoTime();
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
     /**
      * Set of callbacks that will be called when an exception occurs while attempting to
      * send events to the Sentry server.
@@ -63,7 +82,18 @@ public abstract class AbstractConnection implements Connection {
      */
     protected AbstractConnection(String publicKey, String secretKey) {
         eventSendFailureCallbacks = new HashSet<>();
-        authHeader = "Sentry sentry_version=" + SENTRY_PROTOCOL_VERSION + ","
+        authHeader = createAuthHeader(publicKey, secretKey);
+    }
+
+    /**
+     * Creates an authentication header for the sentry protocol.
+     *
+     * @param publicKey public key (identifier) to the Sentry server.
+     * @param secretKey secret key (password) to the Sentry server.
+     * @return an authentication header as a String.
+     */
+    static String createAuthHeader(String publicKey, String secretKey) {
+        return "Sentry sentry_version=" + SENTRY_PROTOCOL_VERSION + ","
                 + "sentry_client=" + RavenEnvironment.NAME + ","
                 + "sentry_key=" + publicKey + ","
                 + "sentry_secret=" + secretKey;
@@ -78,71 +108,260 @@ public abstract class AbstractConnection implements Connection {
         return authHeader;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the server rate limits the client, the event is dropped without being marshalled. If the circuit breaker is
+     * open, the event isn't sent and is handled by the {@link OpenCircuitFallback} instead.
+     */
     @Override
     public final void send(Event event) {
+        if (isRateLimited()) {
+            handleRateLimited(event);
+            return;
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            handleOpenCircuit(event);
+            return;
+        }
+
         try {
-            waitIfLockedDown();
+            meteredSend(event, null);
+        } catch (ConnectionException e) {
+            handleConnectionException(event, e);
+            return;
+        } catch (RuntimeException e) {
+            circuitBreaker.onAbort();
+            throw e;
+        }
+        handleSuccess();
+    }
 
-            doSend(event);
-            waitingTime = baseWaitingTime;
+    /**
+     * Sends an event which has already been marshalled to the Sentry server.
+     * <p>
+     * The rate limiting, the circuit breaker and the {@link EventSendFailureCallback}s are handled exactly as in
+     * {@link #send(Event)}.
+     *
+     * @param event   captured event to add in Sentry.
+     * @param payload content of the event, as produced by the marshaller of this connection.
+     */
+    @Override
+    public final void send(Event event, byte[] payload) {
+        if (isRateLimited()) {
+            handleRateLimited(event);
+            return;
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            handleOpenCircuit(event);
+            return;
+        }
+
+        try {
+            meteredSend(event, payload);
         } catch (ConnectionException e) {
-            logger.warn("An exception due to the connection occurred, a lockdown will be initiated.", e);
-            lockDown();
-
-            for (EventSendFailureCallback eventSendFailureCallback : eventSendFailureCallbacks) {
-                try {
-                    eventSendFailureCallback.onFailure(event, e);
-                } catch (Exception exc) {
-                    logger.warn("An exception occurred while running an EventSendFailureCallback: "
-                        + eventSendFailureCallback.getClass().getName(), exc);
-                }
+            handleConnectionException(event, e);
+            return;
+        } catch (RuntimeException e) {
+            circuitBreaker.onAbort();
+            throw e;
+        }
+        handleSuccess();
+    }
+
+    /**
+     * Sends an already marshalled event which the caller keeps until it has been accepted.
+     * <p>
+     * The rate limiting and the circuit breaker are handled as in {@link #send(Event)}, but the
+     * {@link EventSendFailureCallback}s aren't notified and the {@link OpenCircuitFallback} isn't used: the failure is
+     * thrown back to the caller, which decides whether the event must be sent again.
+     *
+     * @param event   captured event, or null if only its marshalled content is still available.
+     * @param payload content of the event, as produced by the marshaller of this connection.
+     * @throws ConnectionException if the event couldn't be sent, or wasn't sent because the server rate limits the
+     *                             client or the circuit breaker is open.
+     */
+    final void sendOrThrow(Event event, byte[] payload) throws ConnectionException {
+        if (isRateLimited())
+            throw newRateLimitedException("The sentry server is rate limiting the client, the event hasn't been sent.");
+        if (!circuitBreaker.tryAcquire())
+            throw new ConnectionException("The circuit breaker is open, the event hasn't been sent.");
+
+        try {
+            meteredSend(event, payload);
+        } catch (ConnectionException e) {
+            metrics.onFailure();
+            if (!startRateLimit(e) && circuitBreaker.onFailure()) {
+                metrics.onCircuitOpened();
+                logger.warn("An exception due to the connection occurred, the circuit breaker is opened.", e);
             }
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.onAbort();
+            throw e;
         }
+        handleSuccess();
     }
 
     /**
-     * Pauses the current thread if there is a lockdown.
+     * Sends an event, measuring the time taken by the request.
+     *
+     * @param event   captured event to add in Sentry.
+     * @param payload content of the event, or null to marshal the event.
+     * @throws ConnectionException if the event couldn't be sent.
      */
-    private void waitIfLockedDown() {
-        while (lockdown.get()) {
-            lock.lock();
+    private void meteredSend(Event event, byte[] payload) throws ConnectionException {
+        long start = System.nanoTime();
+        if (payload != null)
+            doSend(event, payload);
+        else
+            doSend(event);
+        metrics.onSent(System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the time left before the circuit breaker lets a request through and the server accepts events again.
+     *
+     * @return the remaining time in milliseconds, 0 if events can be sent.
+     */
+    long getRemainingOpenTime() {
+        return Math.max(circuitBreaker.getRemainingOpenTime(), getRemainingRateLimitTime());
+    }
+
+    /**
+     * Checks whether the events must be dropped because the server rate limits the client.
+     *
+     * @return true until the time requested by the server is over.
+     */
+    final boolean isRateLimited() {
+        return System.nanoTime() - rateLimitedUntil < 0;
+    }
+
+    private long getRemainingRateLimitTime() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(rateLimitedUntil - System.nanoTime()));
+    }
+
+    /**
+     * Stops sending events if the server answered that it rate limits the client.
+     * <p>
+     * The server being reachable, the circuit breaker is closed rather than opened.
+     *
+     * @param e exception raised while sending an event.
+     * @return true if the exception is due to a rate limit, false if it's an actual failure.
+     */
+    private boolean startRateLimit(ConnectionException e) {
+        Long retryAfter = e.getRetryAfter();
+        Integer responseCode = e.getResponseCode();
+        if (retryAfter == null && (responseCode == null || responseCode != HTTP_TOO_MANY_REQUESTS))
+            return false;
+
+        long duration = retryAfter != null ? retryAfter : DEFAULT_RETRY_AFTER;
+        rateLimitedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(duration);
+        circuitBreaker.onSuccess();
+        logger.warn("The sentry server is rate limiting the client, the events are dropped for {}ms.", duration, e);
+        return true;
+    }
+
+    private ConnectionException newRateLimitedException(String message) {
+        return new ConnectionException(message, null, HTTP_TOO_MANY_REQUESTS, getRemainingRateLimitTime());
+    }
+
+    /**
+     * Drops an event which can't be sent because the server rate limits the client.
+     *
+     * @param event event that couldn't be sent.
+     */
+    private void handleRateLimited(Event event) {
+        metrics.onDropped();
+        logger.debug("The sentry server is rate limiting the client, the event {} is dropped.", event.getId());
+        notifyEventSendFailureCallbacks(event,
+                newRateLimitedException("The sentry server is rate limiting the client, the event has been dropped."));
+    }
+
+    /**
+     * Closes the circuit breaker and sends the events buffered while it was open.
+     */
+    private void handleSuccess() {
+        circuitBreaker.onSuccess();
+
+        while (!buffer.isEmpty() && !isRateLimited() && circuitBreaker.tryAcquire()) {
+            Event bufferedEvent = buffer.poll();
+            if (bufferedEvent == null) {
+                // Another thread sent the last buffered event, release the breaker if this thread was the probe.
+                circuitBreaker.onAbort();
+                break;
+            }
             try {
-                if (lockdown.get())
-                    condition.await();
-            } catch (InterruptedException e) {
-                logger.warn("An exception occurred during the lockdown.", e);
-            } finally {
-                lock.unlock();
+                meteredSend(bufferedEvent, null);
+                circuitBreaker.onSuccess();
+            } catch (ConnectionException e) {
+                handleConnectionException(bufferedEvent, e);
+            } catch (RuntimeException e) {
+                circuitBreaker.onAbort();
+                logger.error("An exception occurred while sending a buffered event to Sentry.", e);
             }
         }
     }
 
     /**
-     * Initiates a lockdown for {@link #waitingTime}ms and resume the paused threads once the lockdown ends.
+     * Handles an event which can't be sent because the circuit breaker is open.
+     *
+     * @param event event that couldn't be sent.
      */
-    private void lockDown() {
-        if (!lockdown.compareAndSet(false, true))
-            return;
+    private void handleOpenCircuit(Event event) {
+        if (openCircuitFallback == OpenCircuitFallback.BUFFER) {
+            BlockingQueue<Event> currentBuffer = buffer;
+            while (!currentBuffer.offer(event)) {
+                // Discard the oldest event to keep the most recent ones.
+                Event discardedEvent = currentBuffer.poll();
+                if (discardedEvent != null) {
+                    metrics.onDropped();
+                    notifyEventSendFailureCallbacks(discardedEvent, new ConnectionException(
+                            "The circuit breaker is open and the buffer is full, the event has been dropped."));
+                }
+            }
+        } else {
+            logger.debug("The circuit breaker is open, the event {} is dropped.", event.getId());
+            metrics.onDropped();
+            notifyEventSendFailureCallbacks(event,
+                    new ConnectionException("The circuit breaker is open, the event has been dropped."));
+        }
+    }
 
-        try {
-            logger.warn("Lockdown started for {}ms.", waitingTime);
-            Thread.sleep(waitingTime);
-
-            // Double the wait until the maximum is reached
-            if (waitingTime < maxWaitingTime)
-                waitingTime <<= 1;
-        } catch (Exception e) {
-            logger.warn("An exception occurred during the lockdown.", e);
-        } finally {
-            lockdown.set(false);
-
-            lock.lock();
+    /**
+     * Opens the circuit breaker, unless the server rate limits the client, and notifies the
+     * {@link EventSendFailureCallback}s of the failure.
+     *
+     * @param event event that couldn't be sent.
+     * @param e     exception raised while sending the event.
+     */
+    private void handleConnectionException(Event event, ConnectionException e) {
+        metrics.onFailure();
+        if (startRateLimit(e)) {
+            logger.debug("The event {} has been rejected by the rate limit of the sentry server.", event.getId());
+        } else if (circuitBreaker.onFailure()) {
+            metrics.onCircuitOpened();
+            logger.warn("An exception due to the connection occurred, the circuit breaker is opened.", e);
+        } else {
+            logger.debug("An exception due to the connection occurred while the circuit breaker is open.", e);
+        }
+        notifyEventSendFailureCallbacks(event, e);
+    }
+
+    /**
+     * Notifies the {@link EventSendFailureCallback}s that an event couldn't be sent.
+     *
+     * @param event event that couldn't be sent.
+     * @param e     exception explaining why the event couldn't be sent.
+     */
+    final void notifyEventSendFailureCallbacks(Event event, Exception e) {
+        for (EventSendFailureCallback eventSendFailureCallback : eventSendFailureCallbacks) {
             try {
-                condition.signalAll();
-            } finally {
-                lock.unlock();
+                eventSendFailureCallback.onFailure(event, e);
+            } catch (Exception exc) {
+                logger.warn("An exception occurred while running an EventSendFailureCallback: "
+                    + eventSendFailureCallback.getClass().getName(), exc);
             }
-            logger.warn("Lockdown ended.");
         }
     }
 
@@ -154,12 +373,62 @@ public abstract class AbstractConnection implements Connection {
      */
     protected abstract void doSend(Event event) throws ConnectionException;
 
+    /**
+     * Sends an already marshalled event to the sentry server.
+     * <p>
+     * Connections which can't send a marshalled payload as is send the event itself instead.
+     *
+     * @param event   captured event to add in Sentry.
+     * @param payload marshalled content of the event.
+     * @throws ConnectionException whenever a temporary exception due to the connection happened.
+     */
+    protected void doSend(Event event, byte[] payload) throws ConnectionException {
+        doSend(event);
+    }
+
+    /**
+     * Sets the maximum duration the circuit breaker stays open.
+     *
+     * @param maxWaitingTime maximum duration, in milliseconds.
+     */
     public void setMaxWaitingTime(long maxWaitingTime) {
-        this.maxWaitingTime = maxWaitingTime;
+        circuitBreaker.setMaxWaitingTime(maxWaitingTime);
     }
 
+    /**
+     * Sets the duration the circuit breaker stays open after a first failure, doubled on each consecutive failure.
+     *
+     * @param baseWaitingTime duration after a first failure, in milliseconds.
+     */
     public void setBaseWaitingTime(long baseWaitingTime) {
-        this.baseWaitingTime = baseWaitingTime;
+        circuitBreaker.setBaseWaitingTime(baseWaitingTime);
+    }
+
+    public void setOpenCircuitFallback(OpenCircuitFallback openCircuitFallback) {
+        this.openCircuitFallback = openCircuitFallback;
+    }
+
+    /**
+     * Sets the number of events kept in memory while the circuit breaker is open, with
+     * {@link OpenCircuitFallback#BUFFER}.
+     *
+     * @param bufferSize maximum number of buffered events, the oldest ones being dropped first.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    protected RavenMetrics getMetrics() {
+        return metrics;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     /**
@@ -172,4 +441,18 @@ public abstract class AbstractConnection implements Connection {
         eventSendFailureCallbacks.add(eventSendFailureCallback);
     }
 
+    /**
+     * Way the events are handled while the circuit breaker is open.
+     */
+    public enum OpenCircuitFallback {
+        /**
+         * The events are dropped and the {@link EventSendFailureCallback}s are notified.
+         */
+        DROP,
+        /**
+         * The events are kept in memory and sent once a request succeeds again, the oldest ones being dropped when
+         * the buffer is full.
+         */
+        BUFFER
+    }
 }
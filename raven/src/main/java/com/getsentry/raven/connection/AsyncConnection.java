@@ -2,13 +2,22 @@ package com.getsentry.raven.connection;
 
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,8 +25,14 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * Instead of synchronously sending each event to a connection, use a ThreadPool to establish the connection
  * and submit the event.
+ * <p>
+ * The usage of the queue of the executor and the time taken by the actual connection are exposed through
+ * {@link ConnectionLoad}.
+ * <p>
+ * With a {@link #setMarshaller marshaller}, the events are marshalled before being queued, so that the queue retains
+ * their content rather than the events themselves, with their stack traces, breadcrumbs and interfaces.
  */
-public class AsyncConnection implements Connection {
+public class AsyncConnection implements Connection, ConnectionLoad, Instrumented {
     private static final Logger logger = LoggerFactory.getLogger(AsyncConnection.class);
     /**
      * Default timeout of the {@link #executorService}, in milliseconds.
@@ -39,6 +54,12 @@ public class AsyncConnection implements Connection {
      * Shutdown hook used to stop the async connection properly when the JVM quits.
      */
     private final ShutDownHook shutDownHook = new ShutDownHook();
+    private final SendTimeAverage sendTimeAverage = new SendTimeAverage();
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
+    /**
+     * Marshaller of the events before they are queued, null to queue the events themselves.
+     */
+    private volatile Marshaller marshaller;
     /**
      * Boolean that represents if graceful shutdown is enabled.
      */
@@ -66,6 +87,13 @@ public class AsyncConnection implements Connection {
             this.executorService = Executors.newSingleThreadExecutor();
         else
             this.executorService = executorService;
+        if (this.executorService instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) this.executorService;
+            // An OverflowPolicy reports the events it drops itself.
+            if (!(threadPoolExecutor.getRejectedExecutionHandler() instanceof OverflowPolicy))
+                threadPoolExecutor.setRejectedExecutionHandler(
+                        new MeteredRejectedExecutionHandler(threadPoolExecutor.getRejectedExecutionHandler()));
+        }
         if (gracefulShutdown) {
             this.gracefulShutdown = gracefulShutdown;
             addShutdownHook();
@@ -102,8 +130,55 @@ public class AsyncConnection implements Connection {
      */
     @Override
     public void send(Event event) {
-        if (!closed)
-            executorService.execute(new EventSubmitter(event));
+        if (!closed) {
+            metrics.onEnqueued();
+            Marshaller currentMarshaller = marshaller;
+            if (currentMarshaller != null)
+                executorService.execute(marshal(event, currentMarshaller));
+            else
+                executorService.execute(new EventSubmitter(event, null));
+        }
+    }
+
+    /**
+     * Marshals an event, keeping only a summary of the event along with its content.
+     *
+     * @param event             event to send.
+     * @param currentMarshaller marshaller of the actual connection.
+     * @return a task sending the content of the event.
+     */
+    private EventSubmitter marshal(Event event, Marshaller currentMarshaller) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        currentMarshaller.marshall(event, outputStream);
+        metrics.onMarshalled(System.nanoTime() - start, outputStream.size());
+        Event summary = new EventBuilder(event.getId())
+                .withMessage(event.getMessage())
+                .withLevel(event.getLevel())
+                .withLogger(event.getLogger())
+                .withTimestamp(event.getTimestamp())
+                .withPlatform(event.getPlatform())
+                .withServerName(event.getServerName())
+                .withRelease(event.getRelease())
+                .build();
+        return new EventSubmitter(summary, outputStream.toByteArray());
+    }
+
+    /**
+     * Marshals the events when they are queued rather than when they are sent, so that the queue only retains their
+     * content.
+     * <p>
+     * The content is handed over to the actual connection along with a summary of the event (its id, message, level,
+     * logger, timestamp, platform, server name and release), which is what the {@link EventSendFailureCallback}s
+     * receive.
+     *
+     * @param marshaller marshaller of the actual connection, or null to queue the events themselves.
+     * @throws IllegalArgumentException if the actual connection can't send marshalled events.
+     */
+    public void setMarshaller(Marshaller marshaller) {
+        if (marshaller != null && !(actualConnection instanceof PayloadConnection))
+            throw new IllegalArgumentException("The connection " + actualConnection + " can't send marshalled events.");
+        this.marshaller = marshaller;
     }
 
     @Override
@@ -111,6 +186,102 @@ public class AsyncConnection implements Connection {
         actualConnection.addEventSendFailureCallback(eventSendFailureCallback);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events evicted by a {@link PriorityEventQueue} or rejected by the executor are reported as dropped, unless
+     * the executor handles them with an {@link OverflowPolicy}, which reports them itself.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+        if (executorService instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executorService;
+            if (threadPoolExecutor.getQueue() instanceof PriorityEventQueue)
+                ((PriorityEventQueue) threadPoolExecutor.getQueue()).setMetrics(metrics);
+            if (threadPoolExecutor.getRejectedExecutionHandler() instanceof OverflowPolicy)
+                ((OverflowPolicy) threadPoolExecutor.getRejectedExecutionHandler()).setMetrics(metrics);
+        }
+        if (actualConnection instanceof Instrumented)
+            ((Instrumented) actualConnection).setMetrics(metrics);
+        if (marshaller instanceof Instrumented)
+            ((Instrumented) marshaller).setMetrics(metrics);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The usage is only known for a {@link ThreadPoolExecutor} with a bounded queue, it is 0 otherwise. The usage of a
+     * {@link SizeBoundedEventQueue} is the proportion of its bytes in use.
+     */
+    @Override
+    public double getQueueUsage() {
+        if (!(executorService instanceof ThreadPoolExecutor))
+            return 0;
+        BlockingQueue<Runnable> queue = ((ThreadPoolExecutor) executorService).getQueue();
+        if (queue instanceof SizeBoundedEventQueue)
+            return ((SizeBoundedEventQueue) queue).getUsage();
+        int remainingCapacity = queue.remainingCapacity();
+        if (remainingCapacity == Integer.MAX_VALUE)
+            return 0;
+        int size = queue.size();
+        int capacity = size + remainingCapacity;
+        return capacity > 0 ? (double) size / capacity : 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The size is only known for a {@link ThreadPoolExecutor}, it is 0 otherwise.
+     */
+    @Override
+    public int getQueueSize() {
+        if (!(executorService instanceof ThreadPoolExecutor))
+            return 0;
+        return ((ThreadPoolExecutor) executorService).getQueue().size();
+    }
+
+    @Override
+    public long getAverageSendTime() {
+        return sendTimeAverage.getAverage();
+    }
+
+    /**
+     * Lets the {@link OverflowPolicy} of the executor know that a slot of the queue is available.
+     */
+    private void afterSend() {
+        if (!(executorService instanceof ThreadPoolExecutor))
+            return;
+        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executorService;
+        if (threadPoolExecutor.getRejectedExecutionHandler() instanceof OverflowPolicy)
+            ((OverflowPolicy) threadPoolExecutor.getRejectedExecutionHandler()).afterSend(threadPoolExecutor);
+    }
+
+    /**
+     * Gets the level of the event sent by a task of an {@link AsyncConnection}.
+     *
+     * @param task task queued by an {@link AsyncConnection}.
+     * @return the level of the event, or null if the event has no level or the task doesn't send an event.
+     */
+    static Event.Level getEventLevel(Runnable task) {
+        if (task instanceof EventSubmitter)
+            return ((EventSubmitter) task).event.getLevel();
+        return null;
+    }
+
+    /**
+     * Gets the size of the marshalled event sent by a task of an {@link AsyncConnection}.
+     *
+     * @param task task queued by an {@link AsyncConnection}.
+     * @return the size of the marshalled event in bytes, or 0 if the event hasn't been marshalled or the task doesn't
+     * send an event.
+     */
+    static int getPayloadSize(Runnable task) {
+        if (task instanceof EventSubmitter && ((EventSubmitter) task).payload != null)
+            return ((EventSubmitter) task).payload.length;
+        return 0;
+    }
+
     /**
      * {@inheritDoc}.
      * <p>
@@ -163,29 +334,66 @@ public class AsyncConnection implements Connection {
 
     /**
      * Simple runnable using the {@link #send(com.getsentry.raven.event.Event)} method of the
-     * {@link #actualConnection}.
+     * {@link #actualConnection}, or its {@link PayloadConnection#send(Event, byte[])} method once the event has been
+     * marshalled.
      */
     private final class EventSubmitter implements Runnable {
         private final Event event;
+        /**
+         * Marshalled content of the event, null if it hasn't been marshalled.
+         */
+        private final byte[] payload;
 
-        private EventSubmitter(Event event) {
+        private EventSubmitter(Event event, byte[] payload) {
             this.event = event;
+            this.payload = payload;
         }
 
         @Override
         public void run() {
-            RavenEnvironment.startManagingThread();
+            // With the caller-runs overflow policy, the thread sending the event may already be managed by raven.
+            boolean callerThread = RavenEnvironment.isManagingThread();
+            if (!callerThread)
+                RavenEnvironment.startManagingThread();
             try {
                 // The current thread is managed by raven
-                actualConnection.send(event);
+                long start = System.nanoTime();
+                if (payload != null)
+                    ((PayloadConnection) actualConnection).send(event, payload);
+                else
+                    actualConnection.send(event);
+                sendTimeAverage.record(System.nanoTime() - start);
             } catch (Exception e) {
                 logger.error("An exception occurred while sending the event to Sentry.", e);
             } finally {
-                RavenEnvironment.stopManagingThread();
+                if (!callerThread)
+                    RavenEnvironment.stopManagingThread();
+                afterSend();
             }
         }
     }
 
+    /**
+     * Rejection handler reporting the rejected events as dropped before handing them over to the original handler.
+     * <p>
+     * With {@link ThreadPoolExecutor.DiscardOldestPolicy} the dropped event is the oldest one rather than the
+     * rejected one, but one event is dropped either way.
+     */
+    private final class MeteredRejectedExecutionHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler rejectedExecutionHandler;
+
+        private MeteredRejectedExecutionHandler(RejectedExecutionHandler rejectedExecutionHandler) {
+            this.rejectedExecutionHandler = rejectedExecutionHandler;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown())
+                metrics.onDropped();
+            rejectedExecutionHandler.rejectedExecution(r, executor);
+        }
+    }
+
     private final class ShutDownHook extends Thread {
 
       /**
@@ -0,0 +1,147 @@
+package com.getsentry.raven.connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker stopping the requests to Sentry for a while after a failure, without blocking the senders.
+ * <p>
+ * The breaker is closed as long as the requests succeed. A failure opens it for {@link #waitingTime}ms, during which
+ * every request is refused. Once that time is over, the breaker is half-open: a single request goes through as a
+ * probe, its success closes the breaker again while its failure reopens it for twice the time, up to
+ * {@link #maxWaitingTime}ms.
+ * <p>
+ * Checking the breaker is lock-free; only the transitions after a request are synchronized.
+ */
+final class CircuitBreaker {
+    /**
+     * State of the breaker.
+     */
+    enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests are refused until the end of the waiting time.
+         */
+        OPEN,
+        /**
+         * A single probe request has been let through and its result is awaited.
+         */
+        HALF_OPEN
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    /**
+     * Maximum duration the breaker stays open.
+     */
+    private volatile long maxWaitingTime;
+    /**
+     * Duration the breaker stays open after the first failure.
+     * <p>
+     * On each consecutive failure the time is doubled until it reaches {@link #maxWaitingTime}.
+     */
+    private volatile long baseWaitingTime;
+    /**
+     * Duration the breaker stays open on the next failure, only modified while holding the monitor.
+     */
+    private volatile long waitingTime;
+    /**
+     * Value of {@link System#nanoTime()} when the breaker can let a probe through.
+     */
+    private volatile long openUntil;
+
+    /**
+     * Creates a closed circuit breaker.
+     *
+     * @param baseWaitingTime duration the breaker stays open after the first failure, in milliseconds.
+     * @param maxWaitingTime  maximum duration the breaker stays open, in milliseconds.
+     */
+    CircuitBreaker(long baseWaitingTime, long maxWaitingTime) {
+        this.baseWaitingTime = baseWaitingTime;
+        this.maxWaitingTime = maxWaitingTime;
+        this.waitingTime = baseWaitingTime;
+    }
+
+    /**
+     * Checks whether a request can be sent, turning the breaker half-open if its waiting time is over.
+     *
+     * @return true if the request can be sent, false if it must not be attempted.
+     */
+    boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED)
+            return true;
+        // Only the thread switching the breaker to half-open sends the probe.
+        return current == State.OPEN && System.nanoTime() - openUntil >= 0
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+    }
+
+    /**
+     * Closes the breaker after a successful request.
+     */
+    synchronized void onSuccess() {
+        waitingTime = baseWaitingTime;
+        state.set(State.CLOSED);
+    }
+
+    /**
+     * Opens the breaker after a failed request.
+     *
+     * @return true if the failure opened the breaker, false if it was already open.
+     */
+    synchronized boolean onFailure() {
+        if (state.get() == State.OPEN)
+            return false;
+
+        long duration = waitingTime;
+        openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(duration);
+        state.set(State.OPEN);
+        // Double the wait until the maximum is reached
+        waitingTime = Math.min(duration * 2, Math.max(maxWaitingTime, baseWaitingTime));
+        return true;
+    }
+
+    /**
+     * Lets another request probe the server when the probe didn't reach it, for example if its event couldn't be
+     * marshalled.
+     */
+    void onAbort() {
+        state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    /**
+     * Gets the time left before the breaker lets a probe through.
+     *
+     * @return the remaining time in milliseconds, 0 if requests can be attempted.
+     */
+    long getRemainingOpenTime() {
+        if (state.get() != State.OPEN)
+            return 0;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntil - System.nanoTime()));
+    }
+
+    State getState() {
+        return state.get();
+    }
+
+    long getWaitingTime() {
+        return waitingTime;
+    }
+
+    void setMaxWaitingTime(long maxWaitingTime) {
+        this.maxWaitingTime = maxWaitingTime;
+    }
+
+    /**
+     * Sets the duration the breaker stays open after a first failure, applied right away if the breaker is closed.
+     *
+     * @param baseWaitingTime duration after a first failure, in milliseconds.
+     */
+    synchronized void setBaseWaitingTime(long baseWaitingTime) {
+        this.baseWaitingTime = baseWaitingTime;
+        if (state.get() == State.CLOSED)
+            this.waitingTime = baseWaitingTime;
+    }
+}
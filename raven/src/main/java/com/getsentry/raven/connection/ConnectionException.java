@@ -6,20 +6,65 @@ package com.getsentry.raven.connection;
  * This allows connections to know when to back off for a while.
  */
 public class ConnectionException extends RuntimeException {
+    /**
+     * HTTP status of the response of the Sentry server, if the server answered.
+     */
+    private final Integer responseCode;
+    /**
+     * Time the Sentry server asked to wait before sending new events, in milliseconds.
+     */
+    private final Long retryAfter;
+
     //CHECKSTYLE.OFF: JavadocMethod
     public ConnectionException() {
+        this.responseCode = null;
+        this.retryAfter = null;
     }
 
     public ConnectionException(String message) {
         super(message);
+        this.responseCode = null;
+        this.retryAfter = null;
     }
 
     public ConnectionException(String message, Throwable cause) {
         super(message, cause);
+        this.responseCode = null;
+        this.retryAfter = null;
     }
 
     public ConnectionException(Throwable cause) {
         super(cause);
+        this.responseCode = null;
+        this.retryAfter = null;
+    }
+
+    public ConnectionException(String message, Throwable cause, Integer responseCode) {
+        this(message, cause, responseCode, null);
+    }
+
+    public ConnectionException(String message, Throwable cause, Integer responseCode, Long retryAfter) {
+        super(message, cause);
+        this.responseCode = responseCode;
+        this.retryAfter = retryAfter;
     }
     //CHECKSTYLE.ON: JavadocMethod
+
+    /**
+     * HTTP status sent by the Sentry server when it rejected the event.
+     *
+     * @return the status of the response, or null if no response has been received.
+     */
+    public Integer getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * Time the Sentry server asked to wait before sending new events, from its {@code Retry-After} header.
+     *
+     * @return the time to wait in milliseconds, or null if the server didn't ask to wait.
+     */
+    public Long getRetryAfter() {
+        return retryAfter;
+    }
 }
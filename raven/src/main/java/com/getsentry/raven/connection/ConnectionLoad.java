@@ -0,0 +1,27 @@
+package com.getsentry.raven.connection;
+
+/**
+ * Connection able to tell how loaded it is, allowing to send fewer events when it can't keep up.
+ */
+public interface ConnectionLoad {
+    /**
+     * Gets the proportion of the queue of the connection currently used.
+     *
+     * @return a value between 0 (empty) and 1 (full), 0 if the queue is unbounded.
+     */
+    double getQueueUsage();
+
+    /**
+     * Gets the number of events waiting in the queue of the connection.
+     *
+     * @return the number of queued events.
+     */
+    int getQueueSize();
+
+    /**
+     * Gets the average time taken to send an event to Sentry, once it has been taken from the queue.
+     *
+     * @return the average time in milliseconds, 0 if no event has been sent yet.
+     */
+    long getAverageSendTime();
+}
@@ -0,0 +1,376 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.event.interfaces.ExceptionInterface;
+import com.getsentry.raven.event.interfaces.MessageInterface;
+import com.getsentry.raven.event.interfaces.SentryException;
+import com.getsentry.raven.event.interfaces.SentryInterface;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.RavenMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection folding identical events sent within a short window into a single follow-up event.
+ * <p>
+ * Events are grouped by their fingerprint or, without fingerprint, by the types and stack frames of their exceptions
+ * (or by their logger, level and message when they have no exception). The first event of a group is sent right away.
+ * The identical events sent during the following {@link #window}ms aren't sent: once the window is over, the last of
+ * them is sent with the number of events it stands for in the extra {@link #OCCURRENCES_EXTRA}, and a new window
+ * starts. A group is forgotten once a window ends without any repeat.
+ * <p>
+ * At most {@link #maxGroups} groups are tracked at the same time, the events of the other groups being sent as is.
+ * <p>
+ * The load of the actual connection is exposed as is if it's a {@link ConnectionLoad}.
+ */
+public class DeduplicatingConnection implements Connection, ConnectionLoad, Instrumented {
+    /**
+     * Name of the extra holding the number of events a follow-up event stands for.
+     */
+    public static final String OCCURRENCES_EXTRA = "occurrences";
+    /**
+     * Default duration of the window during which identical events are folded, in milliseconds.
+     */
+    public static final long DEFAULT_WINDOW = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * Default maximum number of groups tracked at the same time.
+     */
+    public static final int DEFAULT_MAX_GROUPS = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(DeduplicatingConnection.class);
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /**
+     * Fingerprint element standing for the grouping Sentry would have done without fingerprint.
+     */
+    private static final String DEFAULT_FINGERPRINT = "{{ default }}";
+    /**
+     * Connection used to actually send the events.
+     */
+    private final Connection actualConnection;
+    private final long window;
+    private final int maxGroups;
+    private final ConcurrentMap<Long, Group> groups = new ConcurrentHashMap<>();
+    private final AtomicInteger groupCount = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Whether the connection is closed, the events then being handed to the actual connection as is.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection folding identical events.
+     * <p>
+     * Will propagate the {@link #close()} operation.
+     *
+     * @param actualConnection connection used to send the events.
+     * @param window           duration of the window during which identical events are folded, in milliseconds.
+     * @param maxGroups        maximum number of groups tracked at the same time.
+     * @param threadFactory    factory creating the thread sending the follow-up events.
+     */
+    public DeduplicatingConnection(Connection actualConnection, long window, int maxGroups,
+                                   ThreadFactory threadFactory) {
+        if (window <= 0)
+            throw new IllegalArgumentException("The deduplication window must be positive, got " + window);
+        this.actualConnection = actualConnection;
+        this.window = window;
+        this.maxGroups = maxGroups;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event is only sent if no identical event has been sent during the current window of its group.
+     */
+    @Override
+    public void send(Event event) {
+        if (closed) {
+            actualConnection.send(event);
+            return;
+        }
+
+        Long key = groupingHash(event);
+        while (true) {
+            Group group = groups.get(key);
+            if (group == null) {
+                if (groupCount.get() >= maxGroups) {
+                    actualConnection.send(event);
+                    return;
+                }
+                group = new Group(key);
+                if (groups.putIfAbsent(key, group) != null)
+                    continue;
+                groupCount.incrementAndGet();
+                scheduleEndOfWindow(group);
+                actualConnection.send(event);
+                return;
+            }
+            if (group.addRepeat(event))
+                return;
+            // The group has just been forgotten, the event starts a new one.
+        }
+    }
+
+    @Override
+    public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        actualConnection.addEventSendFailureCallback(eventSendFailureCallback);
+    }
+
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        if (actualConnection instanceof Instrumented)
+            ((Instrumented) actualConnection).setMetrics(metrics);
+    }
+
+    @Override
+    public double getQueueUsage() {
+        if (actualConnection instanceof ConnectionLoad)
+            return ((ConnectionLoad) actualConnection).getQueueUsage();
+        return 0;
+    }
+
+    @Override
+    public int getQueueSize() {
+        if (actualConnection instanceof ConnectionLoad)
+            return ((ConnectionLoad) actualConnection).getQueueSize();
+        return 0;
+    }
+
+    @Override
+    public long getAverageSendTime() {
+        if (actualConnection instanceof ConnectionLoad)
+            return ((ConnectionLoad) actualConnection).getAverageSendTime();
+        return 0;
+    }
+
+    int getGroupCount() {
+        return groupCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events folded in the current windows are sent before closing the actual connection.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        scheduler.shutdownNow();
+        try {
+            for (Group group : groups.values()) {
+                Event followUp = group.endWindow(true);
+                if (followUp != null)
+                    actualConnection.send(followUp);
+            }
+        } finally {
+            actualConnection.close();
+        }
+    }
+
+    private void scheduleEndOfWindow(final Group group) {
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    endWindow(group);
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The connection is closed, the group is flushed by close().
+            logger.debug("The end of a deduplication window couldn't be scheduled.", e);
+        }
+    }
+
+    /**
+     * Sends the follow-up event of a group once its window is over, starting a new window or forgetting the group.
+     *
+     * @param group group whose window is over.
+     */
+    private void endWindow(Group group) {
+        // The current thread is managed by raven
+        RavenEnvironment.startManagingThread();
+        try {
+            Event followUp = group.endWindow(false);
+            if (followUp == null)
+                return;
+            scheduleEndOfWindow(group);
+            actualConnection.send(followUp);
+        } catch (Exception e) {
+            logger.error("An exception occurred while sending a deduplicated event to Sentry.", e);
+        } finally {
+            RavenEnvironment.stopManagingThread();
+        }
+    }
+
+    /**
+     * Forgets a group which had no repeat during its last window.
+     *
+     * @param group group to forget.
+     */
+    private void forget(Group group) {
+        if (groups.remove(group.key, group))
+            groupCount.decrementAndGet();
+    }
+
+    /**
+     * Computes a 64-bit hash of the identity Sentry uses to group an event.
+     *
+     * @param event event to group.
+     * @return the hash of the fingerprint of the event, or of its exceptions, or of its message.
+     */
+    static long groupingHash(Event event) {
+        long hash = FNV_OFFSET_BASIS;
+        List<String> fingerprint = event.getFingerprint();
+        boolean defaultGrouping = fingerprint == null || fingerprint.isEmpty();
+        if (!defaultGrouping) {
+            for (String element : fingerprint) {
+                if (DEFAULT_FINGERPRINT.equals(element))
+                    defaultGrouping = true;
+                else
+                    hash = hash(hash, element);
+            }
+        }
+        if (!defaultGrouping)
+            return hash;
+
+        SentryInterface exceptionInterface = event.getSentryInterfaces().get(ExceptionInterface.EXCEPTION_INTERFACE);
+        if (exceptionInterface instanceof ExceptionInterface) {
+            for (SentryException exception : ((ExceptionInterface) exceptionInterface).getExceptions()) {
+                hash = hash(hash, exception.getExceptionPackageName());
+                hash = hash(hash, exception.getExceptionClassName());
+                for (StackTraceElement frame : exception.getStackTraceInterface().getStackTrace()) {
+                    hash = hash(hash, frame.getClassName());
+                    hash = hash(hash, frame.getMethodName());
+                    hash = hash(hash, frame.getLineNumber());
+                }
+            }
+            return hash;
+        }
+
+        hash = hash(hash, event.getLogger());
+        hash = hash(hash, event.getLevel() != null ? event.getLevel().name() : null);
+        // Group on the message before formatting, as Sentry does.
+        SentryInterface messageInterface = event.getSentryInterfaces().get(MessageInterface.MESSAGE_INTERFACE);
+        if (messageInterface instanceof MessageInterface)
+            return hash(hash, ((MessageInterface) messageInterface).getMessage());
+        return hash(hash, event.getMessage());
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null)
+            return hash(hash, -1);
+        long result = hash;
+        for (int i = 0; i < value.length(); i++) {
+            result = (result ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Separate consecutive values, "ab" + "c" must not hash as "a" + "bc".
+        return (result ^ value.length()) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * Creates a copy of an event with a new identifier and the number of occurrences it stands for.
+     *
+     * @param event       last event folded in the window.
+     * @param occurrences number of events folded in the window.
+     * @return the follow-up event.
+     */
+    private static Event createFollowUp(Event event, int occurrences) {
+        EventBuilder eventBuilder = new EventBuilder()
+                .withMessage(event.getMessage())
+                .withTimestamp(event.getTimestamp())
+                .withLevel(event.getLevel())
+                .withLogger(event.getLogger())
+                .withPlatform(event.getPlatform())
+                .withCulprit(event.getCulprit())
+                .withServerName(event.getServerName())
+                .withRelease(event.getRelease())
+                .withBreadcrumbs(new ArrayList<>(event.getBreadcrumbs()))
+                .withChecksum(event.getChecksum());
+        if (event.getFingerprint() != null)
+            eventBuilder.withFingerprint(event.getFingerprint());
+        for (Map.Entry<String, String> tag : event.getTags().entrySet()) {
+            eventBuilder.withTag(tag.getKey(), tag.getValue());
+        }
+        for (Map.Entry<String, Object> extra : event.getExtra().entrySet()) {
+            eventBuilder.withExtra(extra.getKey(), extra.getValue());
+        }
+        for (SentryInterface sentryInterface : event.getSentryInterfaces().values()) {
+            eventBuilder.withSentryInterface(sentryInterface);
+        }
+        return eventBuilder.withExtra(OCCURRENCES_EXTRA, occurrences).build();
+    }
+
+    /**
+     * Identical events sent during the current window.
+     */
+    private final class Group {
+        private final Long key;
+        /**
+         * Last event folded in the current window, null if no event has been folded yet.
+         */
+        private Event lastEvent;
+        private int repeats;
+        /**
+         * Whether the group has been forgotten, the next identical event then starting a new group.
+         */
+        private boolean forgotten;
+
+        private Group(Long key) {
+            this.key = key;
+        }
+
+        /**
+         * Folds an event in the current window.
+         *
+         * @param event identical event to fold.
+         * @return true if the event has been folded, false if the group has been forgotten.
+         */
+        private synchronized boolean addRepeat(Event event) {
+            if (forgotten)
+                return false;
+            lastEvent = event;
+            repeats++;
+            return true;
+        }
+
+        /**
+         * Ends the current window, forgetting the group if no event has been folded.
+         *
+         * @param closing whether the connection is being closed, in which case the group is forgotten in any case.
+         * @return the follow-up event to send, or null if no event has been folded.
+         */
+        private synchronized Event endWindow(boolean closing) {
+            Event followUp = null;
+            if (repeats > 0)
+                followUp = createFollowUp(lastEvent, repeats);
+            lastEvent = null;
+            repeats = 0;
+            if (followUp == null || closing) {
+                forgotten = true;
+                forget(this);
+            }
+            return followUp;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.getsentry.raven.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of marshalled events stored in memory-mapped files.
+ * <p>
+ * The log is split in segments of a fixed size, each one being a file named after its sequence number. A segment
+ * starts with a header identifying the format, followed by records made of the length of the payload, its CRC32 and
+ * the payload itself. The length of a record is written last, so a record only exists once it has been completely
+ * written. Consumed records are marked by negating their length and a segment is deleted once all of its records
+ * have been consumed.
+ * <p>
+ * When a spool is opened, the records left by a previous process are checked and kept for consumption, the log being
+ * truncated at the first record which isn't valid (for example a record torn by a crash). New records are always
+ * appended to a new segment.
+ * <p>
+ * Records are consumed in the order they have been appended, by a single consumer using {@link #peek()} and
+ * {@link #remove()}. Removals aren't forced to the disk, so a record may be consumed again after a crash.
+ */
+final class DiskSpool {
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpool.class);
+    /**
+     * Magic number identifying a segment, "RVSP".
+     */
+    private static final int MAGIC = 0x52565350;
+    private static final int VERSION = 1;
+    /**
+     * Size of the header of a segment: magic number and version.
+     */
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    /**
+     * Size of the header of a record: length and CRC32 of the payload.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CRC_OFFSET = 4;
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String SEGMENT_NAME_FORMAT = "%020d" + SEGMENT_SUFFIX;
+    private static final String LOCK_FILE_NAME = "spool.lock";
+    /**
+     * Segments in the order of their sequence numbers, the last one being the segment new records are appended to.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean forceOnAppend;
+    private final RandomAccessFile lockFile;
+    private final FileLock fileLock;
+    /**
+     * Segment new records are appended to, created with the first record appended by this process.
+     */
+    private Segment writeSegment;
+    private long nextSequence;
+    private int pendingCount;
+    private boolean closed;
+
+    /**
+     * Opens a spool in a directory, recovering the records left by a previous process.
+     *
+     * @param directory     directory in which the segments are stored, created if it doesn't exist.
+     * @param segmentSize   size of each segment, in bytes.
+     * @param maxBytes      maximum space used by the segments, in bytes. At least one segment is always allowed.
+     * @param forceOnAppend whether each record is forced to the disk once appended.
+     * @throws IOException if the directory can't be used as a spool or is already used by another process.
+     */
+    DiskSpool(File directory, int segmentSize, long maxBytes, boolean forceOnAppend) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("The size of a segment must be greater than "
+                    + (SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) + " bytes.");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Couldn't create the spool directory '" + directory + "'.");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / segmentSize));
+        this.forceOnAppend = forceOnAppend;
+
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+        try {
+            this.fileLock = lockFile.getChannel().tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            lockFile.close();
+            throw new IOException("Couldn't lock the spool directory '" + directory + "'.", e);
+        }
+        if (fileLock == null) {
+            lockFile.close();
+            throw new IOException("The spool directory '" + directory + "' is used by another process.");
+        }
+
+        recover();
+    }
+
+    /**
+     * Loads the segments left in the spool directory, deleting the ones without any record left to consume.
+     */
+    private void recover() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null)
+            return;
+        // Sequence numbers are zero-padded, the lexicographic order is the order of creation.
+        Arrays.sort(files);
+
+        for (File file : files) {
+            long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(0, file.getName().length()
+                        - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                logger.warn("The file '{}' isn't a spool segment and is ignored.", file);
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+
+            Segment segment;
+            try {
+                segment = Segment.open(file);
+            } catch (IOException e) {
+                logger.warn("The spool segment '" + file + "' couldn't be read and is deleted.", e);
+                delete(file);
+                continue;
+            }
+
+            if (segment == null) {
+                logger.warn("The spool segment '{}' isn't valid and is deleted.", file);
+                delete(file);
+            } else if (segment.pendingCount == 0) {
+                delete(file);
+            } else {
+                logger.info("{} events recovered from the spool segment '{}'.", segment.pendingCount, file);
+                segments.addLast(segment);
+                pendingCount += segment.pendingCount;
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the spool.
+     *
+     * @param payload content of the record.
+     * @return true if the record has been appended, false if it doesn't fit in the spool.
+     * @throws IOException if a new segment couldn't be created.
+     */
+    synchronized boolean append(byte[] payload) throws IOException {
+        if (payload.length == 0)
+            throw new IllegalArgumentException("An empty record can't be appended to the spool.");
+        if (closed)
+            return false;
+        if (payload.length > segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE) {
+            logger.warn("A record of {} bytes doesn't fit in a spool segment of {} bytes.",
+                    payload.length, segmentSize);
+            return false;
+        }
+
+        if (writeSegment == null || !writeSegment.hasRoomFor(payload.length)) {
+            // Release the segments which have been consumed before checking the space left.
+            nextReadSegment();
+            if (segments.size() >= maxSegments)
+                return false;
+            writeSegment = Segment.create(new File(directory, String.format(SEGMENT_NAME_FORMAT, nextSequence)),
+                    segmentSize);
+            nextSequence++;
+            segments.addLast(writeSegment);
+        }
+
+        writeSegment.append(payload);
+        pendingCount++;
+        if (forceOnAppend)
+            writeSegment.buffer.force();
+        return true;
+    }
+
+    /**
+     * Gets the oldest record which hasn't been removed yet.
+     *
+     * @return a copy of the content of the record, or null if the spool is empty.
+     */
+    synchronized byte[] peek() {
+        Segment segment = nextReadSegment();
+        return segment != null ? segment.peek() : null;
+    }
+
+    /**
+     * Removes the oldest record, once it has been consumed.
+     */
+    synchronized void remove() {
+        Segment segment = nextReadSegment();
+        if (segment == null)
+            throw new IllegalStateException("The spool is empty.");
+        segment.remove();
+        pendingCount--;
+    }
+
+    /**
+     * Gets the first segment with a record left to consume, deleting the consumed segments on the way.
+     *
+     * @return the segment holding the oldest record, or null if the spool is empty.
+     */
+    private Segment nextReadSegment() {
+        while (!segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            if (segment.pendingCount > 0)
+                return segment;
+            if (segment == writeSegment)
+                return null;
+            segments.removeFirst();
+            delete(segment.file);
+        }
+        return null;
+    }
+
+    /**
+     * Forces the records appended to the spool to the disk.
+     */
+    synchronized void force() {
+        if (writeSegment != null && !closed)
+            writeSegment.buffer.force();
+    }
+
+    /**
+     * Gets the number of records which haven't been removed yet.
+     *
+     * @return the number of records pending in the spool.
+     */
+    synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Forces the spool to the disk and releases the spool directory.
+     *
+     * @throws IOException if the spool directory couldn't be released.
+     */
+    synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+        writeSegment = null;
+        try {
+            fileLock.release();
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    private static void delete(File file) {
+        // The mapping of a segment can't be released explicitly, on some systems the file is deleted on a later start.
+        if (!file.delete())
+            logger.debug("The spool segment '{}' couldn't be deleted.", file);
+    }
+
+    /**
+     * Segment of the spool, mapped in memory.
+     */
+    private static final class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private int pendingCount;
+
+        private Segment(File file, MappedByteBuffer buffer, int readPosition, int writePosition) {
+            this.file = file;
+            this.buffer = buffer;
+            this.readPosition = readPosition;
+            this.writePosition = writePosition;
+        }
+
+        private static MappedByteBuffer map(File file, long size) throws IOException {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(size);
+                // The mapping stays valid once the channel is closed.
+                return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        /**
+         * Creates a new empty segment.
+         *
+         * @param file file of the segment.
+         * @param size size of the segment, in bytes.
+         * @return the new segment.
+         * @throws IOException if the file couldn't be created.
+         */
+        static Segment create(File file, int size) throws IOException {
+            MappedByteBuffer buffer = map(file, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            return new Segment(file, buffer, SEGMENT_HEADER_SIZE, SEGMENT_HEADER_SIZE);
+        }
+
+        /**
+         * Opens a segment written by a previous process, keeping the valid records which haven't been consumed.
+         *
+         * @param file file of the segment.
+         * @return the segment, or null if the file isn't a segment.
+         * @throws IOException if the file couldn't be read.
+         */
+        static Segment open(File file) throws IOException {
+            long size = file.length();
+            if (size < SEGMENT_HEADER_SIZE || size > Integer.MAX_VALUE)
+                return null;
+            MappedByteBuffer buffer = map(file, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION)
+                return null;
+
+            Segment segment = new Segment(file, buffer, SEGMENT_HEADER_SIZE, SEGMENT_HEADER_SIZE);
+            CRC32 crc32 = new CRC32();
+            int position = SEGMENT_HEADER_SIZE;
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0)
+                    break;
+                int payloadLength = Math.abs(length);
+                // Integer.MIN_VALUE stays negative and is caught here as well.
+                if (payloadLength < 0 || payloadLength > buffer.capacity() - position - RECORD_HEADER_SIZE) {
+                    logger.warn("The spool segment '{}' is truncated after a record with an invalid length.", file);
+                    break;
+                }
+
+                if (length > 0) {
+                    byte[] payload = new byte[payloadLength];
+                    read(buffer, position + RECORD_HEADER_SIZE, payload);
+                    crc32.reset();
+                    crc32.update(payload);
+                    if ((int) crc32.getValue() != buffer.getInt(position + CRC_OFFSET)) {
+                        logger.warn("The spool segment '{}' is truncated after a corrupted record.", file);
+                        break;
+                    }
+                    segment.pendingCount++;
+                } else if (segment.pendingCount == 0) {
+                    segment.readPosition = position + RECORD_HEADER_SIZE + payloadLength;
+                }
+                position += RECORD_HEADER_SIZE + payloadLength;
+            }
+            // Nothing is appended to a recovered segment, the end of its records is where the reading stops.
+            segment.writePosition = position;
+            return segment;
+        }
+
+        private static void read(MappedByteBuffer buffer, int position, byte[] destination) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.get(destination);
+        }
+
+        boolean hasRoomFor(int payloadLength) {
+            return buffer.capacity() - writePosition >= RECORD_HEADER_SIZE + payloadLength;
+        }
+
+        void append(byte[] payload) {
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload);
+            buffer.putInt(writePosition + CRC_OFFSET, (int) crc32.getValue());
+            ByteBuffer view = buffer.duplicate();
+            view.position(writePosition + RECORD_HEADER_SIZE);
+            view.put(payload);
+            // The length commits the record, it is written once the rest of the record is in place.
+            buffer.putInt(writePosition, payload.length);
+            writePosition += RECORD_HEADER_SIZE + payload.length;
+            pendingCount++;
+        }
+
+        byte[] peek() {
+            byte[] payload = new byte[buffer.getInt(readPosition)];
+            read(buffer, readPosition + RECORD_HEADER_SIZE, payload);
+            return payload;
+        }
+
+        void remove() {
+            int length = buffer.getInt(readPosition);
+            buffer.putInt(readPosition, -length);
+            readPosition += RECORD_HEADER_SIZE + length;
+            pendingCount--;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.getsentry.raven.connection;
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
 import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.RavenMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,20 +25,36 @@ import java.util.concurrent.TimeUnit;
  * It is possible to enable the "naive mode" to allow a connection over SSL using a certificate with a wildcard.
  */
 public class HttpConnection extends AbstractConnection {
-    private static final Charset UTF_8 = Charset.forName("UTF-8");
-    private static final Logger logger = LoggerFactory.getLogger(HttpConnection.class);
     /**
      * HTTP Header for the user agent.
      */
-    private static final String USER_AGENT = "User-Agent";
+    static final String USER_AGENT = "User-Agent";
     /**
      * HTTP Header for the authentication to Sentry.
      */
-    private static final String SENTRY_AUTH = "X-Sentry-Auth";
+    static final String SENTRY_AUTH = "X-Sentry-Auth";
+    /**
+     * HTTP Header telling how long to wait before sending new events.
+     */
+    static final String RETRY_AFTER = "Retry-After";
+    /**
+     * HTTP Header for the encoding of the content.
+     */
+    static final String CONTENT_ENCODING = "Content-Encoding";
+    /**
+     * Encoding of the raw gzip content.
+     */
+    static final String GZIP = "gzip";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Logger logger = LoggerFactory.getLogger(HttpConnection.class);
     /**
      * Default timeout of an HTTP connection to Sentry.
      */
     private static final int DEFAULT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Size of the buffer used to discard the body of a response.
+     */
+    private static final int DRAIN_BUFFER_SIZE = 256;
     /**
      * HostnameVerifier allowing wildcard certificates to work without adding them to the truststore.
      */
@@ -92,6 +110,24 @@ public class HttpConnection extends AbstractConnection {
         }
     }
 
+    /**
+     * Gets the encoding of a marshalled event from its first bytes.
+     * <p>
+     * The payload is read rather than the marshaller asked, as a spooled payload may have been marshalled before the
+     * configuration changed.
+     *
+     * @param payload marshalled event.
+     * @param length  length of the marshalled event, from the start of the payload.
+     * @return {@link #GZIP} for raw gzip content, null for JSON and base 64 content.
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    static String getContentEncoding(byte[] payload, int length) {
+        // The two bytes identifying the gzip format
+        if (length >= 2 && payload[0] == (byte) 0x1f && payload[1] == (byte) 0x8b)
+            return GZIP;
+        return null;
+    }
+
     /**
      * Opens a connection to the Sentry API allowing to send new events.
      *
@@ -114,25 +150,109 @@ public class HttpConnection extends AbstractConnection {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event is marshalled into the recycled buffer of the thread before opening the connection, as its encoding
+     * decides the headers of the request, then sent as a payload.
+     */
     @Override
     protected void doSend(Event event) {
+        PayloadBuffer body = PayloadBuffer.acquire();
+        try {
+            long start = System.nanoTime();
+            marshaller.marshall(event, body);
+            getMetrics().onMarshalled(System.nanoTime() - start, body.size());
+            post(body.array(), body.size());
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The payload is streamed with a fixed length. The response is fully read and the connection isn't disconnected
+     * once the event has been sent, leaving the socket in the keep-alive cache of {@link HttpURLConnection} so
+     * consecutive events reuse the same connection. The connection is only disconnected when the request failed.
+     */
+    @Override
+    protected void doSend(Event event, byte[] payload) {
+        post(payload, payload.length);
+    }
+
+    /**
+     * Posts a payload to Sentry.
+     *
+     * @param payload content of the request.
+     * @param length  length of the content, from the start of the payload.
+     */
+    private void post(byte[] payload, int length) {
         HttpURLConnection connection = getConnection();
         try {
+            String contentEncoding = getContentEncoding(payload, length);
+            if (contentEncoding != null)
+                connection.setRequestProperty(CONTENT_ENCODING, contentEncoding);
+            connection.setFixedLengthStreamingMode(length);
             connection.connect();
             OutputStream outputStream = connection.getOutputStream();
-            marshaller.marshall(event, outputStream);
+            outputStream.write(payload, 0, length);
             outputStream.close();
-            connection.getInputStream().close();
+            drain(connection.getInputStream());
         } catch (IOException e) {
-            String errorMessage = null;
-            final InputStream errorStream = connection.getErrorStream();
-            if (errorStream != null)
-                errorMessage = getErrorMessageFromStream(errorStream);
-            if (null == errorMessage || errorMessage.isEmpty())
-                errorMessage = "An exception occurred while submitting the event to the sentry server.";
-            throw new ConnectionException(errorMessage, e);
-        } finally {
+            ConnectionException connectionException = newConnectionException(connection, e);
             connection.disconnect();
+            throw connectionException;
+        }
+    }
+
+    /**
+     * Reads and closes a response body, allowing the underlying socket to be reused for a later request.
+     *
+     * @param inputStream body of the response.
+     * @throws IOException if the body couldn't be read.
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        try {
+            // Discard the content, Sentry's answer isn't used.
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            int read;
+            do {
+                read = inputStream.read(buffer);
+            } while (read != -1);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private ConnectionException newConnectionException(HttpURLConnection connection, IOException e) {
+        String errorMessage = null;
+        Integer responseCode = null;
+        Long retryAfter = null;
+        final InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+            errorMessage = getErrorMessageFromStream(errorStream);
+            responseCode = getResponseCode(connection);
+            retryAfter = HttpResponseParser.parseRetryAfter(connection.getHeaderField(RETRY_AFTER));
+        }
+        if (null == errorMessage || errorMessage.isEmpty())
+            errorMessage = "An exception occurred while submitting the event to the sentry server.";
+        return new ConnectionException(errorMessage, e, responseCode, retryAfter);
+    }
+
+    /**
+     * Gets the status of a response which has already been received.
+     *
+     * @param connection connection on which the server answered.
+     * @return the status of the response, or null if it isn't available.
+     */
+    private static Integer getResponseCode(HttpURLConnection connection) {
+        try {
+            int responseCode = connection.getResponseCode();
+            return responseCode > 0 ? responseCode : null;
+        } catch (IOException e) {
+            logger.debug("Couldn't read the status of the response of the sentry server.", e);
+            return null;
         }
     }
 
@@ -156,14 +276,42 @@ public class HttpConnection extends AbstractConnection {
         return sb.toString();
     }
 
+    protected URL getSentryUrl() {
+        return sentryUrl;
+    }
+
+    protected int getTimeout() {
+        return timeout;
+    }
+
     public void setTimeout(int timeout) {
         this.timeout = timeout;
     }
 
+    protected Marshaller getMarshaller() {
+        return marshaller;
+    }
+
     public void setMarshaller(Marshaller marshaller) {
         this.marshaller = marshaller;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The metrics are handed over to the marshaller, if it is instrumented.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        super.setMetrics(metrics);
+        if (marshaller instanceof Instrumented)
+            ((Instrumented) marshaller).setMetrics(metrics);
+    }
+
+    protected boolean isBypassSecurity() {
+        return bypassSecurity;
+    }
+
     public void setBypassSecurity(boolean bypassSecurity) {
         this.bypassSecurity = bypassSecurity;
     }
@@ -0,0 +1,77 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * Request line and headers of the HTTP/1.1 requests sent to a Sentry server by the connections handling their own
+ * sockets.
+ * <p>
+ * Every request sent to Sentry only differs by its content, so the head is built once and completed with the length
+ * of each request.
+ */
+final class HttpRequestHead {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String HTTPS = "https";
+    private static final String CRLF = "\r\n";
+    private static final int HTTP_DEFAULT_PORT = 80;
+    private static final int HTTPS_DEFAULT_PORT = 443;
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    /**
+     * Request line and headers common to every request.
+     */
+    private final byte[] commonHead;
+
+    /**
+     * Creates the head of the requests sent to a Sentry server.
+     *
+     * @param sentryUrl  URL to the Sentry API.
+     * @param authHeader value of the authentication header.
+     */
+    HttpRequestHead(URL sentryUrl, String authHeader) {
+        this.host = sentryUrl.getHost();
+        this.secure = HTTPS.equalsIgnoreCase(sentryUrl.getProtocol());
+        int defaultPort = secure ? HTTPS_DEFAULT_PORT : HTTP_DEFAULT_PORT;
+        this.port = sentryUrl.getPort() != -1 ? sentryUrl.getPort() : defaultPort;
+
+        String hostHeader = port == defaultPort ? host : host + ":" + port;
+        this.commonHead = ("POST " + sentryUrl.getFile() + " HTTP/1.1" + CRLF
+                + "Host: " + hostHeader + CRLF
+                + HttpConnection.USER_AGENT + ": " + RavenEnvironment.NAME + CRLF
+                + HttpConnection.SENTRY_AUTH + ": " + authHeader + CRLF).getBytes(ISO_8859_1);
+    }
+
+    /**
+     * Creates the complete head of a request, up to the empty line preceding its content.
+     *
+     * @param contentLength   length of the content of the request, in bytes.
+     * @param contentEncoding encoding of the content of the request, null if it isn't encoded.
+     * @return the request line and headers of the request.
+     */
+    byte[] create(int contentLength, String contentEncoding) {
+        String encodingHeader = "";
+        if (contentEncoding != null)
+            encodingHeader = HttpConnection.CONTENT_ENCODING + ": " + contentEncoding + CRLF;
+        byte[] length = (encodingHeader + "Content-Length: " + contentLength + CRLF + CRLF).getBytes(ISO_8859_1);
+        byte[] head = new byte[commonHead.length + length.length];
+        System.arraycopy(commonHead, 0, head, 0, commonHead.length);
+        System.arraycopy(length, 0, head, commonHead.length, length.length);
+        return head;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    boolean isSecure() {
+        return secure;
+    }
+}
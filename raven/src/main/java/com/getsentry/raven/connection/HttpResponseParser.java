@@ -0,0 +1,317 @@
+package com.getsentry.raven.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental parser of the HTTP/1.x responses sent by a Sentry server.
+ * <p>
+ * The content of the socket is given to {@link #parse(ByteBuffer)} as it arrives, which makes it possible to parse
+ * responses received over a non-blocking socket, several pipelined responses possibly arriving in the same buffer.
+ * Only the body of the error responses is kept.
+ * <p>
+ * This class isn't thread safe, it is meant to be used by a single selector thread.
+ */
+final class HttpResponseParser {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Maximum length accepted for the status line, a header or a chunk size of a response.
+     */
+    private static final int MAX_LINE_LENGTH = 8192;
+    /**
+     * Maximum number of bytes kept from the body of an error response.
+     */
+    private static final int MAX_BODY_LENGTH = 8192;
+    private static final int HEXADECIMAL = 16;
+    private static final int STATUS_CLASS = 100;
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * Format of the HTTP dates, as defined by RFC 7231.
+     */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private final StringBuilder line = new StringBuilder();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private State state = State.STATUS_LINE;
+    private int status;
+    private boolean keepAlive;
+    private boolean chunked;
+    private long contentLength;
+    /**
+     * Value of the {@code Retry-After} header of the current response, in milliseconds.
+     */
+    private Long retryAfter;
+    /**
+     * Number of bytes left in the body or the current chunk.
+     */
+    private long remaining;
+
+    /**
+     * Parses the content of a buffer until the end of the current response.
+     * <p>
+     * The bytes following the end of the response are left in the buffer.
+     *
+     * @param buffer content received from the server, in read mode.
+     * @return true if the current response is complete, in which case {@link #reset()} must be called before parsing
+     * the next one.
+     * @throws IOException if the response isn't valid.
+     */
+    boolean parse(ByteBuffer buffer) throws IOException {
+        while (state != State.COMPLETE && buffer.hasRemaining()) {
+            switch (state) {
+                case STATUS_LINE:
+                    if (readLine(buffer))
+                        parseStatusLine();
+                    break;
+                case HEADERS:
+                    if (readLine(buffer))
+                        parseHeader();
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine(buffer))
+                        parseChunkSize();
+                    break;
+                case CHUNK_END:
+                    if (readLine(buffer)) {
+                        line.setLength(0);
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    if (readLine(buffer))
+                        parseTrailer();
+                    break;
+                default:
+                    readBody(buffer);
+            }
+        }
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * Notifies the parser that the server closed the connection.
+     *
+     * @return true if the current response is complete, false if no response was being received.
+     * @throws EOFException if the connection has been closed in the middle of a response.
+     */
+    boolean endOfStream() throws EOFException {
+        if (state == State.BODY_UNTIL_CLOSE) {
+            state = State.COMPLETE;
+            return true;
+        } else if (state == State.STATUS_LINE && line.length() == 0) {
+            return false;
+        }
+        throw new EOFException("The sentry server closed the connection before the end of the response.");
+    }
+
+    /**
+     * Prepares the parser for the next response.
+     */
+    void reset() {
+        state = State.STATUS_LINE;
+        line.setLength(0);
+        body.reset();
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    /**
+     * Time the server asked to wait before sending new requests, from the {@code Retry-After} header.
+     *
+     * @return the time to wait in milliseconds, or null if the current response has no valid header.
+     */
+    Long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Parses the value of a {@code Retry-After} header, either a number of seconds or an HTTP date.
+     *
+     * @param value value of the header, possibly null.
+     * @return the time to wait in milliseconds, or null if the value isn't valid.
+     */
+    static Long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty())
+            return null;
+
+        String trimmedValue = value.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(trimmedValue)));
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, the value may be a date.
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = dateFormat.parse(trimmedValue);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the connection can be used for further requests once the current response is complete.
+     *
+     * @return true if the server keeps the connection alive.
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Body of the current response if it's an error.
+     *
+     * @return the beginning of the body of an error response, or an empty string.
+     */
+    String getBody() {
+        return new String(body.toByteArray(), UTF_8).trim();
+    }
+
+    private boolean readLine(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            char read = (char) (buffer.get() & BYTE_MASK);
+            if (read == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r')
+                    line.setLength(length - 1);
+                return true;
+            }
+            if (line.length() >= MAX_LINE_LENGTH)
+                throw new IOException("A line of the response of the sentry server is too long.");
+            line.append(read);
+        }
+        return false;
+    }
+
+    private void parseStatusLine() throws IOException {
+        String statusLine = line.toString();
+        line.setLength(0);
+        String[] statusParts = statusLine.split(" ");
+        if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/"))
+            throw new IOException("Invalid status line received from the sentry server '" + statusLine + "'.");
+
+        try {
+            status = Integer.parseInt(statusParts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line received from the sentry server '" + statusLine + "'.", e);
+        }
+        keepAlive = "HTTP/1.1".equals(statusParts[0]);
+        chunked = false;
+        contentLength = -1;
+        retryAfter = null;
+        state = State.HEADERS;
+    }
+
+    private void parseHeader() throws IOException {
+        String header = line.toString();
+        line.setLength(0);
+        if (header.isEmpty()) {
+            startBody();
+            return;
+        }
+
+        int separator = header.indexOf(':');
+        if (separator < 0)
+            return;
+        String name = header.substring(0, separator).trim().toLowerCase(Locale.ENGLISH);
+        String value = header.substring(separator + 1).trim();
+        if ("content-length".equals(name)) {
+            try {
+                contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid content length received from the sentry server '" + value + "'.", e);
+            }
+        } else if ("transfer-encoding".equals(name)) {
+            chunked = value.toLowerCase(Locale.ENGLISH).contains("chunked");
+        } else if ("retry-after".equals(name)) {
+            retryAfter = parseRetryAfter(value);
+        } else if ("connection".equals(name) && "close".equalsIgnoreCase(value)) {
+            keepAlive = false;
+        } else if ("connection".equals(name) && "keep-alive".equalsIgnoreCase(value)) {
+            keepAlive = true;
+        }
+    }
+
+    private void startBody() {
+        if (status / STATUS_CLASS == 1) {
+            // Informational responses are followed by the actual response.
+            state = State.STATUS_LINE;
+        } else if (status == HttpURLConnection.HTTP_NO_CONTENT || status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            state = State.COMPLETE;
+        } else if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            state = remaining > 0 ? State.BODY : State.COMPLETE;
+        } else {
+            // Without length the end of the body is the end of the connection.
+            remaining = Long.MAX_VALUE;
+            keepAlive = false;
+            state = State.BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private void parseChunkSize() throws IOException {
+        String sizeLine = line.toString();
+        line.setLength(0);
+        int extension = sizeLine.indexOf(';');
+        try {
+            remaining = Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(),
+                    HEXADECIMAL);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size received from the sentry server '" + sizeLine + "'.", e);
+        }
+        state = remaining > 0 ? State.CHUNK_DATA : State.TRAILERS;
+    }
+
+    private void parseTrailer() {
+        // Trailers are ignored until the final empty line.
+        if (line.length() == 0)
+            state = State.COMPLETE;
+        line.setLength(0);
+    }
+
+    private void readBody(ByteBuffer buffer) {
+        int length = (int) Math.min(buffer.remaining(), remaining);
+        if (status >= HttpURLConnection.HTTP_MULT_CHOICE && body.size() < MAX_BODY_LENGTH) {
+            int kept = Math.min(length, MAX_BODY_LENGTH - body.size());
+            for (int i = 0; i < kept; i++) {
+                body.write(buffer.get(buffer.position() + i));
+            }
+        }
+        buffer.position(buffer.position() + length);
+        if (state == State.BODY_UNTIL_CLOSE)
+            return;
+
+        remaining -= length;
+        if (remaining == 0)
+            state = state == State.CHUNK_DATA ? State.CHUNK_END : State.COMPLETE;
+    }
+
+    /**
+     * Part of the response currently parsed.
+     */
+    private enum State {
+        STATUS_LINE,
+        HEADERS,
+        BODY,
+        BODY_UNTIL_CLOSE,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_END,
+        TRAILERS,
+        COMPLETE
+    }
+}
@@ -0,0 +1,123 @@
+package com.getsentry.raven.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded queue with multiple producers and a single consumer, backed by preallocated arrays.
+ * <p>
+ * Each slot of the ring has a sequence number telling whether it can be written or read for a given position.
+ * Producers claim a position with a single compare-and-set on the tail, then publish the element by advancing the
+ * sequence of its slot; the consumer reads the slots in order without any atomic operation. Neither side takes a lock
+ * nor allocates memory.
+ *
+ * @param <E> type of the elements in the ring.
+ */
+final class MpscRingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    /**
+     * Sequence of each slot: equal to the position when the slot can be written, to the position plus one once the
+     * element at that position has been published.
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * Next position to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Next position to be read by the consumer, only accessed by the consumer thread.
+     */
+    private long head;
+
+    /**
+     * Creates a ring holding at least the given number of elements.
+     *
+     * @param minCapacity minimum number of elements, rounded up to the next power of two.
+     */
+    MpscRingBuffer(int minCapacity) {
+        if (minCapacity <= 0 || minCapacity > 1 << (Integer.SIZE - 2))
+            throw new IllegalArgumentException("Invalid capacity for the ring buffer: " + minCapacity);
+        int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+        if (capacity == 0)
+            capacity = 1;
+        this.mask = capacity - 1;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element at the end of the ring, from any thread.
+     *
+     * @param element element to add.
+     * @return true if the element has been added, false if the ring is full.
+     */
+    boolean offer(E element) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+            } else if (difference < 0) {
+                // The slot still holds the element from the previous lap.
+                return false;
+            }
+            // Otherwise another producer claimed the position first.
+        }
+        elements.lazySet(index, element);
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Removes the first element of the ring, from the consumer thread only.
+     *
+     * @return the first element, or null if the ring is empty.
+     */
+    E poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1)
+            return null;
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        // Hand the slot over to the producers of the next lap.
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return element;
+    }
+
+    /**
+     * Checks whether the consumer would find an element, from the consumer thread only.
+     *
+     * @return true if no element has been published at the head of the ring.
+     */
+    boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    /**
+     * Gets an estimate of the number of elements in the ring.
+     *
+     * @return the number of claimed positions which haven't been consumed yet.
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * Gets the number of slots of the ring.
+     *
+     * @return the maximum number of elements in the ring.
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,896 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Asynchronous connection to a Sentry server sending every event over non-blocking sockets driven by a single thread.
+ * <p>
+ * Unlike an {@link AsyncConnection} relying on a pool of threads each blocked on its own {@link HttpConnection}, this
+ * connection only queues the events in the thread calling {@link #send(Event)}. A single selector thread then marshals
+ * them and writes them over a kept-alive connection to the server, without waiting for the response of a request
+ * before sending the next one: up to {@link #pipelineDepth} requests can be in flight (HTTP pipelining), their
+ * responses being matched to the requests in order. HTTPS is handled with an {@link SSLEngine}.
+ * <p>
+ * When an event can't be sent, the {@link EventSendFailureCallback}s are notified from the selector thread and no new
+ * request is sent for a while, the duration of this lockdown doubling on each failure as with the circuit breaker of
+ * {@link AbstractConnection}. The events keep being queued in the meantime, the oldest ones being dropped once the
+ * queue is full.
+ * <p>
+ * When the server answers that it's rate limiting the client, with a 429 status or a {@code Retry-After} header, the
+ * queued events and the new ones are dropped without being marshalled until the time requested by the server is over.
+ * <p>
+ * An event is only marshalled when it is about to be written, at most {@link #pipelineDepth} events being held
+ * marshalled at the same time. If the selector thread stops unexpectedly, the connection is closed and the callbacks
+ * are notified for the events which won't be sent.
+ * <p>
+ * The sockets are opened directly, proxies configured through system properties are not used.
+ */
+public class NioHttpConnection implements Connection, Instrumented {
+    /**
+     * Default maximum number of requests sent to the server before receiving their responses.
+     */
+    public static final int DEFAULT_PIPELINE_DEPTH = 8;
+    /**
+     * Default timeout of the graceful shutdown, in milliseconds.
+     */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final Logger logger = LoggerFactory.getLogger(NioHttpConnection.class);
+    private static final int READ_BUFFER_SIZE = 8192;
+    /**
+     * Default timeout of the connection to Sentry and of its responses, in milliseconds.
+     */
+    private static final int DEFAULT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Number of connections on which a request can be sent before it is considered as failed.
+     * <p>
+     * A kept-alive connection may be closed by the server at any time, in which case the requests waiting for a
+     * response are sent again over a new connection.
+     */
+    private static final int MAX_ATTEMPTS = 2;
+    /**
+     * Request line and headers common to every request sent to Sentry.
+     */
+    private final HttpRequestHead requestHead;
+    /**
+     * Marshaller used to transform the events into the content of the requests.
+     */
+    private final Marshaller marshaller;
+    /**
+     * Maximum number of requests sent to the server before receiving their responses.
+     */
+    private final int pipelineDepth;
+    /**
+     * Requests waiting to be sent.
+     */
+    private final BlockingDeque<Request> pendingRequests;
+    private final Set<EventSendFailureCallback> eventSendFailureCallbacks = new CopyOnWriteArraySet<>();
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
+    private final Selector selector;
+    /**
+     * Whether the selector has already been woken up since its last selection.
+     */
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+    private final Thread selectorThread;
+    /**
+     * Shutdown hook used to stop the connection properly when the JVM quits.
+     */
+    private final ShutDownHook shutDownHook = new ShutDownHook();
+    /**
+     * Requests written, or being written, to the current connection and waiting for their responses, in order.
+     * <p>
+     * Like the state of the current connection below, only accessed by the selector thread.
+     */
+    private final List<Request> inFlightRequests = new ArrayList<>();
+    private final HttpResponseParser responseParser = new HttpResponseParser();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private SocketChannel socketChannel;
+    private SelectionKey selectionKey;
+    private SslChannel sslChannel;
+    /**
+     * Channel used to exchange data with the server, set once the socket is connected.
+     */
+    private ByteChannel channel;
+    private boolean handshaking;
+    /**
+     * Number of requests at the head of {@link #inFlightRequests} which have been entirely written.
+     */
+    private int writtenRequests;
+    /**
+     * Number of responses received over the current connection.
+     */
+    private int receivedResponses;
+    /**
+     * Last time the current connection made progress, in milliseconds.
+     */
+    private long lastActivity;
+    /**
+     * Time until which no new request is sent, in milliseconds.
+     */
+    private long lockdownEnd;
+    /**
+     * Time until which the events are dropped because the server rate limits the client, in milliseconds.
+     */
+    private volatile long rateLimitedUntil;
+    /**
+     * Timeout of the connection to Sentry and of its responses, in milliseconds.
+     */
+    private volatile int timeout = DEFAULT_TIMEOUT;
+    /**
+     * Setting allowing to bypass the verification of the hostname of the server's certificate.
+     */
+    private volatile boolean bypassSecurity;
+    /**
+     * Context used to create the TLS sessions, or null to use the default context of the JVM.
+     */
+    private volatile SSLContext sslContext;
+    /**
+     * Timeout of the graceful shutdown, in milliseconds.
+     */
+    private volatile long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+    /**
+     * Maximum duration for a lockdown.
+     */
+    private volatile long maxWaitingTime = AbstractConnection.DEFAULT_MAX_WAITING_TIME;
+    /**
+     * Base duration for a lockdown.
+     * <p>
+     * On each attempt the time is doubled until it reaches {@link #maxWaitingTime}.
+     */
+    private volatile long baseWaitingTime = AbstractConnection.DEFAULT_BASE_WAITING_TIME;
+    private volatile long waitingTime = baseWaitingTime;
+    /**
+     * Boolean that represents if graceful shutdown is enabled.
+     */
+    private boolean gracefulShutdown;
+    /**
+     * Boolean used to check whether the connection is still open or not.
+     */
+    private volatile boolean closed;
+    /**
+     * Whether the requests still pending must be abandoned because the graceful shutdown timed out.
+     */
+    private volatile boolean aborted;
+
+    /**
+     * Creates a non-blocking HTTP connection to a Sentry server.
+     *
+     * @param sentryUrl        URL to the Sentry API.
+     * @param publicKey        public key of the current project.
+     * @param secretKey        private key of the current project.
+     * @param marshaller       marshaller used to transform the events into the content of the requests.
+     * @param pipelineDepth    maximum number of requests sent to the server before receiving their responses.
+     * @param queueSize        maximum number of events waiting to be sent, or -1 for an unlimited queue.
+     * @param gracefulShutdown Indicates whether or not the shutdown operation should be managed by a ShutdownHook.
+     */
+    public NioHttpConnection(URL sentryUrl, String publicKey, String secretKey, Marshaller marshaller,
+                             int pipelineDepth, int queueSize, boolean gracefulShutdown) {
+        if (pipelineDepth < 1)
+            throw new IllegalArgumentException("At least one request must be in flight, got " + pipelineDepth);
+
+        this.marshaller = marshaller;
+        this.pipelineDepth = pipelineDepth;
+        if (queueSize == -1)
+            this.pendingRequests = new LinkedBlockingDeque<>();
+        else
+            this.pendingRequests = new LinkedBlockingDeque<>(queueSize);
+        this.requestHead = new HttpRequestHead(sentryUrl, AbstractConnection.createAuthHeader(publicKey, secretKey));
+
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't open a selector for the connection to the sentry server.", e);
+        }
+        if (gracefulShutdown) {
+            this.gracefulShutdown = gracefulShutdown;
+            Runtime.getRuntime().addShutdownHook(shutDownHook);
+        }
+
+        selectorThread = new Thread(new SelectorLoop(), "raven-nio-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event is queued, it will be marshalled and sent by the selector thread. While the server rate limits the
+     * client, the event is dropped right away.
+     */
+    @Override
+    public void send(Event event) {
+        if (closed)
+            return;
+        if (System.currentTimeMillis() < rateLimitedUntil) {
+            logger.debug("The sentry server is rate limiting the client, the event {} is dropped.", event.getId());
+            metrics.onDropped();
+            notifyFailure(event, newRateLimitedException());
+            return;
+        }
+
+        Request request = new Request(event);
+        metrics.onEnqueued();
+        // As with the async connection, the oldest events are dropped once the queue is full.
+        while (!pendingRequests.offer(request)) {
+            Request droppedRequest = pendingRequests.poll();
+            if (droppedRequest != null) {
+                logger.debug("Dropping the event '{}', too many events are waiting to be sent.",
+                        droppedRequest.event.getId());
+                metrics.onDropped();
+            }
+        }
+
+        if (wakeupRequested.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    private ByteBuffer createRequest(Event event) {
+        PayloadBuffer content = PayloadBuffer.acquire();
+        try {
+            long start = System.nanoTime();
+            marshaller.marshall(event, content);
+            metrics.onMarshalled(System.nanoTime() - start, content.size());
+            byte[] head = requestHead.create(content.size(),
+                    HttpConnection.getContentEncoding(content.array(), content.size()));
+
+            // The request stays in the pipeline until its response, only the marshalling buffer is recycled.
+            ByteBuffer request = ByteBuffer.allocate(head.length + content.size());
+            request.put(head).put(content.array(), 0, content.size());
+            request.flip();
+            return request;
+        } finally {
+            content.release();
+        }
+    }
+
+    @Override
+    public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        eventSendFailureCallbacks.add(eventSendFailureCallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The metrics are handed over to the marshaller, if it is instrumented.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+        if (marshaller instanceof Instrumented)
+            ((Instrumented) marshaller).setMetrics(metrics);
+    }
+
+    /**
+     * Runs the selector until the connection is closed and every request has been sent.
+     *
+     * @throws IOException if the selector failed.
+     */
+    private void runSelector() throws IOException {
+        while (!closed || (!aborted && hasRequests())) {
+            long now = System.currentTimeMillis();
+            if (socketChannel == null && !pendingRequests.isEmpty() && now >= lockdownEnd)
+                openConnection(now);
+            if (isReady() && now >= lockdownEnd && fillPipeline(now))
+                writeRequests(now);
+            updateInterestOps();
+
+            selector.select(selectTimeout(now));
+            wakeupRequested.set(false);
+
+            now = System.currentTimeMillis();
+            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+            while (selectedKeys.hasNext()) {
+                SelectionKey key = selectedKeys.next();
+                selectedKeys.remove();
+                if (key == selectionKey && key.isValid())
+                    processKey(key, now);
+            }
+            checkTimeout(now);
+        }
+    }
+
+    private boolean hasRequests() {
+        return !pendingRequests.isEmpty() || !inFlightRequests.isEmpty();
+    }
+
+    /**
+     * Whether the current connection is established and can be used to send requests.
+     *
+     * @return true if requests can be written.
+     */
+    private boolean isReady() {
+        return channel != null && !handshaking;
+    }
+
+    private void openConnection(long now) {
+        lastActivity = now;
+        receivedResponses = 0;
+        try {
+            socketChannel = SocketChannel.open();
+            socketChannel.configureBlocking(false);
+            socketChannel.socket().setTcpNoDelay(true);
+            selectionKey = socketChannel.register(selector, SelectionKey.OP_CONNECT);
+            if (socketChannel.connect(new InetSocketAddress(requestHead.getHost(), requestHead.getPort())))
+                onConnected(now);
+        } catch (IOException | UnresolvedAddressException e) {
+            connectionFailed(e);
+        }
+    }
+
+    private void onConnected(long now) throws IOException {
+        lastActivity = now;
+        if (!requestHead.isSecure()) {
+            channel = socketChannel;
+            return;
+        }
+
+        SSLEngine engine;
+        try {
+            SSLContext context = sslContext != null ? sslContext : SSLContext.getDefault();
+            engine = context.createSSLEngine(requestHead.getHost(), requestHead.getPort());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Couldn't create a TLS session with the sentry server.", e);
+        }
+        engine.setUseClientMode(true);
+        if (!bypassSecurity) {
+            SSLParameters sslParameters = engine.getSSLParameters();
+            sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(sslParameters);
+        }
+        sslChannel = new SslChannel(socketChannel, engine);
+        channel = sslChannel;
+        handshaking = !sslChannel.handshake();
+    }
+
+    /**
+     * Marshals pending requests and moves them to the current connection until the pipeline is full.
+     * <p>
+     * An event which can't be marshalled is dropped, the {@link EventSendFailureCallback}s being notified.
+     *
+     * @param now current time, in milliseconds.
+     * @return true if requests have been added.
+     */
+    private boolean fillPipeline(long now) {
+        boolean added = false;
+        while (inFlightRequests.size() < pipelineDepth) {
+            Request request = pendingRequests.poll();
+            if (request == null)
+                break;
+
+            if (request.buffer == null) {
+                try {
+                    request.buffer = createRequest(request.event);
+                } catch (RuntimeException e) {
+                    logger.warn("The event '{}' couldn't be marshalled, it won't be sent.", request.event.getId(), e);
+                    metrics.onDropped();
+                    notifyFailure(request.event, new ConnectionException("The event couldn't be marshalled.", e));
+                    continue;
+                }
+            }
+
+            // The timeout only applies once requests are waiting for a response.
+            if (inFlightRequests.isEmpty())
+                lastActivity = now;
+            request.sendStart = System.nanoTime();
+            inFlightRequests.add(request);
+            added = true;
+        }
+        return added;
+    }
+
+    private void processKey(SelectionKey key, long now) {
+        try {
+            if (key.isConnectable() && socketChannel.finishConnect())
+                onConnected(now);
+            if (handshaking && (key.isReadable() || key.isWritable())) {
+                handshaking = !sslChannel.handshake();
+                lastActivity = now;
+            }
+            if (isReady() && key.isReadable())
+                readResponses(now);
+            if (isReady() && key.isWritable())
+                writeRequests(now);
+        } catch (IOException | RuntimeException e) {
+            connectionFailed(e);
+        }
+    }
+
+    /**
+     * Writes as many requests as the socket accepts without blocking.
+     *
+     * @param now current time, in milliseconds.
+     * @throws IOException if the connection failed.
+     */
+    private void writeRequests(long now) throws IOException {
+        if (sslChannel != null)
+            sslChannel.flush();
+
+        long written = 0;
+        if (sslChannel == null) {
+            // Gathering the requests allows small events to share the same packets.
+            List<ByteBuffer> buffers = new ArrayList<>(inFlightRequests.size() - writtenRequests);
+            for (int i = writtenRequests; i < inFlightRequests.size(); i++) {
+                buffers.add(inFlightRequests.get(i).buffer);
+            }
+            written = socketChannel.write(buffers.toArray(new ByteBuffer[buffers.size()]));
+        } else {
+            for (int i = writtenRequests; i < inFlightRequests.size() && !sslChannel.hasPendingOutput(); i++) {
+                written += sslChannel.write(inFlightRequests.get(i).buffer);
+            }
+        }
+
+        while (writtenRequests < inFlightRequests.size()
+                && !inFlightRequests.get(writtenRequests).buffer.hasRemaining()) {
+            writtenRequests++;
+        }
+        if (written > 0)
+            lastActivity = now;
+    }
+
+    /**
+     * Reads and handles the responses received until no more data is available without blocking.
+     *
+     * @param now current time, in milliseconds.
+     * @throws IOException if the connection failed or the server sent an invalid response.
+     */
+    private void readResponses(long now) throws IOException {
+        while (channel != null) {
+            int read = channel.read(readBuffer);
+            if (read == 0)
+                return;
+
+            if (read < 0) {
+                if (responseParser.endOfStream())
+                    onResponse();
+                if (!inFlightRequests.isEmpty())
+                    throw new EOFException("The sentry server closed the connection before answering every request.");
+                closeConnection();
+                return;
+            }
+
+            lastActivity = now;
+            readBuffer.flip();
+            while (channel != null && readBuffer.hasRemaining()) {
+                if (responseParser.parse(readBuffer))
+                    onResponse();
+            }
+            readBuffer.clear();
+        }
+    }
+
+    /**
+     * Handles the response which has been parsed for the oldest request in flight.
+     *
+     * @throws IOException if no request was waiting for a response.
+     */
+    private void onResponse() throws IOException {
+        if (inFlightRequests.isEmpty())
+            throw new IOException("The sentry server sent a response without request.");
+
+        Request request = inFlightRequests.remove(0);
+        // The server may answer before the end of a request, in which case the connection can't be used anymore.
+        boolean requestComplete = writtenRequests > 0;
+        if (requestComplete)
+            writtenRequests--;
+        receivedResponses++;
+        int status = responseParser.getStatus();
+        boolean keepAlive = responseParser.isKeepAlive() && requestComplete;
+        String errorMessage = responseParser.getBody();
+        Long retryAfter = responseParser.getRetryAfter();
+        responseParser.reset();
+
+        if (status >= HttpURLConnection.HTTP_OK && status < HttpURLConnection.HTTP_MULT_CHOICE) {
+            waitingTime = baseWaitingTime;
+            metrics.onSent(System.nanoTime() - request.sendStart);
+        } else {
+            metrics.onFailure();
+            if (errorMessage.isEmpty())
+                errorMessage = "The sentry server answered with the HTTP status " + status + ".";
+            ConnectionException exception = new ConnectionException(errorMessage, null, status, retryAfter);
+            // The rate limit applies before the callbacks run, so they can rely on the new events being dropped.
+            if (retryAfter != null || status == AbstractConnection.HTTP_TOO_MANY_REQUESTS) {
+                startRateLimit(retryAfter != null ? retryAfter : AbstractConnection.DEFAULT_RETRY_AFTER, exception);
+            } else {
+                logger.warn("An exception due to the connection occurred, a lockdown will be initiated.", exception);
+                lockDown();
+            }
+            notifyFailure(request.event, exception);
+        }
+
+        if (!keepAlive) {
+            // The requests which haven't been answered yet will be sent over a new connection.
+            requeue(takeInFlightRequests());
+            closeConnection();
+        }
+    }
+
+    /**
+     * Closes the current connection after a failure.
+     * <p>
+     * The requests which were waiting for a response are sent again over a new connection, unless they already failed
+     * too many times. If no request was in flight the connection couldn't be established, and the oldest pending
+     * request is considered as failed.
+     *
+     * @param cause failure of the connection.
+     */
+    private void connectionFailed(Exception cause) {
+        boolean reusedConnection = receivedResponses > 0;
+        closeConnection();
+        ConnectionException exception = new ConnectionException(
+                "An exception occurred while submitting the event to the sentry server.", cause);
+
+        List<Request> failedRequests = new ArrayList<>();
+        List<Request> retriedRequests = new ArrayList<>();
+        for (Request request : takeInFlightRequests()) {
+            if (++request.attempts < MAX_ATTEMPTS)
+                retriedRequests.add(request);
+            else
+                failedRequests.add(request);
+        }
+        if (failedRequests.isEmpty() && retriedRequests.isEmpty()) {
+            Request request = pendingRequests.poll();
+            if (request != null)
+                failedRequests.add(request);
+        }
+        requeue(retriedRequests);
+
+        // A kept-alive connection closed by the server is expected and retried immediately.
+        if (reusedConnection && failedRequests.isEmpty()) {
+            logger.debug("The connection to the sentry server has been lost, sending the requests again.", cause);
+            return;
+        }
+
+        logger.warn("An exception due to the connection occurred, a lockdown will be initiated.", exception);
+        for (Request request : failedRequests) {
+            metrics.onFailure();
+            notifyFailure(request.event, exception);
+        }
+        lockDown();
+    }
+
+    private List<Request> takeInFlightRequests() {
+        List<Request> requests = new ArrayList<>(inFlightRequests);
+        inFlightRequests.clear();
+        writtenRequests = 0;
+        return requests;
+    }
+
+    /**
+     * Puts requests back at the head of the queue, in their original order.
+     *
+     * @param requests requests to send again.
+     */
+    private void requeue(List<Request> requests) {
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            Request request = requests.get(i);
+            if (request.buffer != null)
+                request.buffer.rewind();
+            if (!pendingRequests.offerFirst(request)) {
+                logger.debug("Dropping the event '{}', too many events are waiting to be sent.",
+                        request.event.getId());
+                metrics.onDropped();
+            }
+        }
+    }
+
+    private void notifyFailure(Event event, Exception exception) {
+        for (EventSendFailureCallback eventSendFailureCallback : eventSendFailureCallbacks) {
+            try {
+                eventSendFailureCallback.onFailure(event, exception);
+            } catch (Exception exc) {
+                logger.warn("An exception occurred while running an EventSendFailureCallback: "
+                    + eventSendFailureCallback.getClass().getName(), exc);
+            }
+        }
+    }
+
+    /**
+     * Drops the queued events and stops sending new requests until the time requested by the server is over.
+     * <p>
+     * The server being reachable, the duration of the next lockdown is reset.
+     *
+     * @param duration time requested by the server, in milliseconds.
+     * @param cause    exception built from the response of the server.
+     */
+    private void startRateLimit(long duration, ConnectionException cause) {
+        logger.warn("The sentry server is rate limiting the client, the events are dropped for {}ms.", duration, cause);
+        rateLimitedUntil = System.currentTimeMillis() + duration;
+        lockdownEnd = Math.max(lockdownEnd, rateLimitedUntil);
+        waitingTime = baseWaitingTime;
+
+        Request request = pendingRequests.poll();
+        if (request == null)
+            return;
+        ConnectionException exception = newRateLimitedException();
+        while (request != null) {
+            metrics.onDropped();
+            notifyFailure(request.event, exception);
+            request = pendingRequests.poll();
+        }
+    }
+
+    private ConnectionException newRateLimitedException() {
+        long remaining = Math.max(0, rateLimitedUntil - System.currentTimeMillis());
+        return new ConnectionException("The sentry server is rate limiting the client, the event has been dropped.",
+                null, AbstractConnection.HTTP_TOO_MANY_REQUESTS, remaining);
+    }
+
+    /**
+     * Stops sending new requests for {@link #waitingTime}ms, without blocking the selector thread.
+     */
+    private void lockDown() {
+        long duration = waitingTime;
+        logger.warn("Lockdown started for {}ms.", duration);
+        metrics.onCircuitOpened();
+        lockdownEnd = System.currentTimeMillis() + duration;
+
+        // Double the wait until the maximum is reached
+        if (duration < maxWaitingTime)
+            waitingTime = duration << 1;
+    }
+
+    private void closeConnection() {
+        if (socketChannel == null)
+            return;
+
+        if (selectionKey != null)
+            selectionKey.cancel();
+        try {
+            if (sslChannel != null)
+                sslChannel.close();
+            else
+                socketChannel.close();
+        } catch (IOException e) {
+            logger.debug("Couldn't close the connection to the sentry server.", e);
+        } finally {
+            socketChannel = null;
+            selectionKey = null;
+            sslChannel = null;
+            channel = null;
+            handshaking = false;
+            responseParser.reset();
+            readBuffer.clear();
+        }
+    }
+
+    private void updateInterestOps() {
+        if (selectionKey == null)
+            return;
+
+        int interestOps;
+        if (channel == null) {
+            interestOps = SelectionKey.OP_CONNECT;
+        } else {
+            // Reading even when no response is expected allows to notice that the server closed the connection.
+            interestOps = SelectionKey.OP_READ;
+            if (sslChannel != null && sslChannel.hasPendingOutput()
+                    || writtenRequests < inFlightRequests.size()
+                    && (sslChannel == null || !sslChannel.isWaitingForHandshake()))
+                interestOps |= SelectionKey.OP_WRITE;
+        }
+        selectionKey.interestOps(interestOps);
+    }
+
+    /**
+     * Computes how long the selector can wait before something has to be done without any I/O.
+     *
+     * @param now current time, in milliseconds.
+     * @return the time to wait in milliseconds, or 0 to wait until the selector is woken up.
+     */
+    private long selectTimeout(long now) {
+        long deadline = Long.MAX_VALUE;
+        if (socketChannel != null && timeout > 0 && (!isReady() || !inFlightRequests.isEmpty()))
+            deadline = lastActivity + timeout;
+        if (!pendingRequests.isEmpty() && lockdownEnd > now)
+            deadline = Math.min(deadline, lockdownEnd);
+
+        if (deadline == Long.MAX_VALUE)
+            return 0;
+        return Math.max(deadline - now, 1);
+    }
+
+    private void checkTimeout(long now) {
+        if (socketChannel == null || timeout <= 0 || isReady() && inFlightRequests.isEmpty())
+            return;
+
+        if (now - lastActivity >= timeout)
+            connectionFailed(new SocketTimeoutException("The sentry server didn't answer within " + timeout + "ms."));
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the context creating the TLS sessions, instead of the default context of the JVM.
+     *
+     * @param sslContext context used to create the TLS sessions with the server.
+     */
+    void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public void setBypassSecurity(boolean bypassSecurity) {
+        this.bypassSecurity = bypassSecurity;
+    }
+
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    public void setMaxWaitingTime(long maxWaitingTime) {
+        this.maxWaitingTime = maxWaitingTime;
+    }
+
+    /**
+     * Sets the base duration for a lockdown, which is also the duration of the next lockdown.
+     *
+     * @param baseWaitingTime base duration for a lockdown, in milliseconds.
+     */
+    public void setBaseWaitingTime(long baseWaitingTime) {
+        this.baseWaitingTime = baseWaitingTime;
+        this.waitingTime = baseWaitingTime;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Closing the {@link NioHttpConnection} gives the selector thread {@link #shutdownTimeout}ms to send the events
+     * already queued while new events are rejected, after which the remaining events are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (gracefulShutdown)
+            shutDownHook.enabled = false;
+        doClose();
+    }
+
+    /**
+     * Close the connection whether it's from the shutdown hook or not.
+     *
+     * @see #close()
+     */
+    private void doClose() {
+        logger.info("Gracefully shutdown the sentry selector thread.");
+        closed = true;
+        selector.wakeup();
+        try {
+            if (shutdownTimeout == -1L)
+                selectorThread.join();
+            else
+                selectorThread.join(Math.max(shutdownTimeout, 1));
+
+            if (selectorThread.isAlive()) {
+                logger.warn("Graceful shutdown took too much time, forcing the shutdown.");
+                aborted = true;
+                selector.wakeup();
+            }
+            logger.info("Shutdown finished.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Graceful shutdown interrupted, forcing the shutdown.");
+            aborted = true;
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Event to send along with its HTTP request.
+     */
+    private static final class Request {
+        private final Event event;
+        /**
+         * Content of the request, set by the selector thread when the event is marshalled.
+         */
+        private ByteBuffer buffer;
+        /**
+         * Number of connections over which the request has been lost.
+         */
+        private int attempts;
+        /**
+         * Value of {@link System#nanoTime()} when the request has been added to the pipeline.
+         */
+        private long sendStart;
+
+        private Request(Event event) {
+            this.event = event;
+        }
+    }
+
+    /**
+     * Body of the selector thread.
+     */
+    private final class SelectorLoop implements Runnable {
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                runSelector();
+            } catch (Exception e) {
+                logger.error("An exception occurred in the selector thread, no more event will be sent.", e);
+                // Reject the new events, as nothing would send them.
+                closed = true;
+                ConnectionException exception = new ConnectionException(
+                        "The selector thread of the connection to the sentry server stopped.", e);
+                for (Request request : takeInFlightRequests()) {
+                    notifyFailure(request.event, exception);
+                }
+                for (Request request = pendingRequests.poll(); request != null; request = pendingRequests.poll()) {
+                    notifyFailure(request.event, exception);
+                }
+            } finally {
+                closeConnection();
+                int droppedEvents = pendingRequests.size() + inFlightRequests.size();
+                if (droppedEvents > 0)
+                    logger.info("{} events haven't been sent before the shutdown.", droppedEvents);
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.debug("Couldn't close the selector.", e);
+                }
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+
+    private final class ShutDownHook extends Thread {
+        /**
+         * Whether or not this ShutDownHook instance will do anything when run.
+         */
+        private volatile boolean enabled = true;
+
+        @Override
+        public void run() {
+            if (!enabled)
+                return;
+
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                logger.info("Automatic shutdown of the NIO connection");
+                NioHttpConnection.this.doClose();
+            } catch (Exception e) {
+                logger.error("An exception occurred while closing the connection.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
@@ -21,6 +21,10 @@ public class NoopConnection extends AbstractConnection {
     protected void doSend(Event event) throws ConnectionException {
     }
 
+    @Override
+    protected void doSend(Event event, byte[] payload) throws ConnectionException {
+    }
+
     @Override
     public void close() throws IOException {
     }
@@ -2,6 +2,8 @@ package com.getsentry.raven.connection;
 
 import com.getsentry.raven.event.Event;
 import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.RavenMetrics;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -37,6 +39,18 @@ public class OutputStreamConnection extends AbstractConnection {
         }
     }
 
+    @Override
+    protected synchronized void doSend(Event event, byte[] payload) throws ConnectionException {
+        try {
+            outputStream.write("Raven event:\n".getBytes(UTF_8));
+            outputStream.write(payload);
+            outputStream.write("\n".getBytes(UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new ConnectionException("Couldn't sent the event properly", e);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         outputStream.close();
@@ -45,4 +59,16 @@ public class OutputStreamConnection extends AbstractConnection {
     public void setMarshaller(Marshaller marshaller) {
         this.marshaller = marshaller;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The metrics are handed over to the marshaller, if it is instrumented.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        super.setMetrics(metrics);
+        if (marshaller instanceof Instrumented)
+            ((Instrumented) marshaller).setMetrics(metrics);
+    }
 }
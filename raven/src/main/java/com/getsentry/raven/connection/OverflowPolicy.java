@@ -0,0 +1,224 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Way the executor of an {@link AsyncConnection} handles an event once its queue is full.
+ * <p>
+ * Each policy counts the events it dropped, and the events it delayed: held by the sending thread, sent by it, or kept
+ * aside until the queue has room again. The dropped events are also reported to the {@link RavenMetrics}.
+ * <p>
+ * Once the executor is shut down, the events are dropped without being counted.
+ */
+public abstract class OverflowPolicy implements RejectedExecutionHandler, Instrumented {
+    private static final Logger logger = LoggerFactory.getLogger(OverflowPolicy.class);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong delayedCount = new AtomicLong();
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
+
+    /**
+     * Creates a policy dropping the oldest queued event to make room for the new one.
+     *
+     * @return a new policy.
+     */
+    public static OverflowPolicy dropOldest() {
+        return new DropOldest();
+    }
+
+    /**
+     * Creates a policy dropping the new event.
+     *
+     * @return a new policy.
+     */
+    public static OverflowPolicy dropNewest() {
+        return new DropNewest();
+    }
+
+    /**
+     * Creates a policy blocking the sending thread until the queue has room, for a limited time.
+     *
+     * @param timeout maximum time the sending thread is blocked, in milliseconds, the event being dropped after that.
+     * @return a new policy.
+     */
+    public static OverflowPolicy block(long timeout) {
+        return new Block(timeout);
+    }
+
+    /**
+     * Creates a policy sending the event from the thread sending it, so that no event is lost.
+     *
+     * @return a new policy.
+     */
+    public static OverflowPolicy callerRuns() {
+        return new CallerRuns();
+    }
+
+    /**
+     * Creates a policy keeping the events in a secondary buffer, moved to the queue as the executor sends events.
+     *
+     * @param capacity maximum number of events kept in the buffer, the oldest ones being dropped first.
+     * @return a new policy.
+     */
+    public static OverflowPolicy spill(int capacity) {
+        return new Spill(capacity);
+    }
+
+    @Override
+    public final void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown())
+            return;
+        handleOverflow(task, executor);
+    }
+
+    /**
+     * Handles a task which doesn't fit in the queue of the executor.
+     *
+     * @param task     task sending an event.
+     * @param executor executor whose queue is full.
+     */
+    protected abstract void handleOverflow(Runnable task, ThreadPoolExecutor executor);
+
+    /**
+     * Called by the {@link AsyncConnection} each time an event has been sent, once the queue has a free slot.
+     *
+     * @param executor executor which sent the event.
+     */
+    void afterSend(ThreadPoolExecutor executor) {
+    }
+
+    /**
+     * Records that an event has been dropped.
+     */
+    protected void dropped() {
+        droppedCount.incrementAndGet();
+        metrics.onDropped();
+    }
+
+    /**
+     * Records that an event has been delayed.
+     */
+    protected void delayed() {
+        delayedCount.incrementAndGet();
+        metrics.onDelayed();
+    }
+
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    /**
+     * Policy dropping the oldest queued event, as {@link ThreadPoolExecutor.DiscardOldestPolicy} does.
+     */
+    private static final class DropOldest extends OverflowPolicy {
+        @Override
+        protected void handleOverflow(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.getQueue().poll() != null)
+                dropped();
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Policy dropping the new event.
+     */
+    private static final class DropNewest extends OverflowPolicy {
+        @Override
+        protected void handleOverflow(Runnable task, ThreadPoolExecutor executor) {
+            dropped();
+        }
+    }
+
+    /**
+     * Policy blocking the sending thread until the queue has room.
+     */
+    private static final class Block extends OverflowPolicy {
+        private final long timeout;
+
+        private Block(long timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        protected void handleOverflow(Runnable task, ThreadPoolExecutor executor) {
+            try {
+                if (executor.getQueue().offer(task, timeout, TimeUnit.MILLISECONDS)) {
+                    delayed();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dropped();
+        }
+    }
+
+    /**
+     * Policy sending the event from the thread sending it.
+     */
+    private static final class CallerRuns extends OverflowPolicy {
+        @Override
+        protected void handleOverflow(Runnable task, ThreadPoolExecutor executor) {
+            delayed();
+            task.run();
+        }
+    }
+
+    /**
+     * Policy keeping the events in a secondary buffer until the queue has room.
+     * <p>
+     * The buffered events are moved to the queue each time the executor sends an event, after the events queued in
+     * the meantime.
+     */
+    private static final class Spill extends OverflowPolicy {
+        private final BlockingDeque<Runnable> spilledTasks;
+
+        private Spill(int capacity) {
+            this.spilledTasks = new LinkedBlockingDeque<>(capacity);
+        }
+
+        @Override
+        protected void handleOverflow(Runnable task, ThreadPoolExecutor executor) {
+            while (!spilledTasks.offerLast(task)) {
+                if (spilledTasks.pollFirst() != null)
+                    dropped();
+            }
+            delayed();
+        }
+
+        @Override
+        void afterSend(ThreadPoolExecutor executor) {
+            Runnable task = spilledTasks.pollFirst();
+            while (task != null) {
+                if (!executor.getQueue().offer(task)) {
+                    // The queue filled up again, keep the task for the next attempt.
+                    if (!spilledTasks.offerFirst(task)) {
+                        logger.debug("The spill buffer is full, an event is dropped.");
+                        dropped();
+                    }
+                    return;
+                }
+                task = spilledTasks.pollFirst();
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.getsentry.raven.connection;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Buffer receiving the marshalled events, recycled by each thread from one event to the next.
+ * <p>
+ * The buffer is kept by its thread once the payload has been sent, so the steady state sends allocate nothing for the
+ * content of the events. A buffer which grew over {@link #MAX_RETAINED_CAPACITY} for an unusually large event isn't
+ * kept, as it would hold that memory as long as the thread lives.
+ * <p>
+ * The content stays in the buffer until it is released, which lets a connection send it again after a failure without
+ * marshalling the event a second time.
+ */
+final class PayloadBuffer extends ByteArrayOutputStream {
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final ThreadLocal<PayloadBuffer> BUFFERS = new ThreadLocal<>();
+    private boolean inUse;
+
+    private PayloadBuffer() {
+        super(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Gets the empty buffer of the current thread.
+     * <p>
+     * If the buffer of the thread is already in use, a new buffer is created for the time of the call.
+     *
+     * @return an empty buffer, to release once its content has been sent.
+     */
+    static PayloadBuffer acquire() {
+        PayloadBuffer buffer = BUFFERS.get();
+        if (buffer == null || buffer.inUse) {
+            buffer = new PayloadBuffer();
+            if (BUFFERS.get() == null)
+                BUFFERS.set(buffer);
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    /**
+     * Releases the buffer, once its content has been sent, for the next event of the thread.
+     */
+    void release() {
+        inUse = false;
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            if (BUFFERS.get() == this)
+                BUFFERS.remove();
+        } else {
+            reset();
+        }
+    }
+
+    /**
+     * Gets the array backing the buffer, whose first {@link #size()} bytes are the content.
+     *
+     * @return the backing array, valid until the buffer is released or written to.
+     */
+    byte[] array() {
+        return buf;
+    }
+}
@@ -0,0 +1,16 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+
+/**
+ * Connection able to send events which have already been marshalled.
+ */
+public interface PayloadConnection extends Connection {
+    /**
+     * Sends an event which has already been marshalled to the Sentry server.
+     *
+     * @param event   captured event, which may only hold a summary of the marshalled event.
+     * @param payload content of the event, as produced by the marshaller of this connection.
+     */
+    void send(Event event, byte[] payload);
+}
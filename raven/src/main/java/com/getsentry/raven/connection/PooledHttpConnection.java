@@ -0,0 +1,434 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP connection to a Sentry server keeping a fixed number of sockets alive between requests.
+ * <p>
+ * Unlike {@link HttpConnection}, which lets {@link HttpURLConnection} open and close a socket for each event, this
+ * connection speaks HTTP/1.1 directly over a pool of at most {@link #poolSize} sockets, which are reused as long as the
+ * server keeps them open. Every response is fully read before its socket goes back to the pool.<br>
+ * Over HTTPS every socket is created by the same {@link SSLSocketFactory}, so new sockets resume the cached TLS
+ * session instead of running a full handshake.<br>
+ * Sockets which stayed idle for longer than {@link #idleTimeout} milliseconds are closed by a background thread, so
+ * that the pool doesn't keep sockets the server already gave up on. Responses must arrive within the timeout of the
+ * connection, which also applies to each read on a socket.
+ * <p>
+ * The sockets are opened directly, proxies configured through system properties are not used.
+ */
+public class PooledHttpConnection extends HttpConnection {
+    /**
+     * Default time after which an idle socket is closed, in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(20);
+    private static final Logger logger = LoggerFactory.getLogger(PooledHttpConnection.class);
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Maximum number of sockets opened at the same time.
+     */
+    private final int poolSize;
+    /**
+     * Time after which an idle socket is closed, in milliseconds.
+     */
+    private final long idleTimeout;
+    /**
+     * Permits to use a socket, there is one per socket in the pool.
+     */
+    private final Semaphore permits;
+    /**
+     * Sockets available for a new request, the most recently used first.
+     */
+    private final Deque<PooledSocket> idleSockets = new ArrayDeque<>();
+    /**
+     * Factory shared by every socket of the pool, in charge of caching the TLS sessions.
+     */
+    private final SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+    /**
+     * Executor closing the sockets idle for longer than {@link #idleTimeout}.
+     */
+    private final ScheduledExecutorService idleSocketEvictor =
+            Executors.newSingleThreadScheduledExecutor(new EvictorThreadFactory());
+    /**
+     * Request line and headers common to every request sent to Sentry.
+     */
+    private final HttpRequestHead requestHead;
+    /**
+     * Boolean used to check whether the connection is still open or not.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a pooled HTTP connection to a Sentry server.
+     *
+     * @param sentryUrl   URL to the Sentry API.
+     * @param publicKey   public key of the current project.
+     * @param secretKey   private key of the current project.
+     * @param poolSize    maximum number of sockets opened at the same time.
+     * @param idleTimeout time after which an idle socket is closed, in milliseconds.
+     */
+    public PooledHttpConnection(URL sentryUrl, String publicKey, String secretKey, int poolSize, long idleTimeout) {
+        super(sentryUrl, publicKey, secretKey);
+        if (poolSize < 1)
+            throw new IllegalArgumentException("The pool must contain at least one socket, got " + poolSize);
+
+        this.poolSize = poolSize;
+        this.idleTimeout = idleTimeout;
+        this.permits = new Semaphore(poolSize, true);
+        this.requestHead = new HttpRequestHead(sentryUrl, getAuthHeader());
+        if (idleTimeout > 0) {
+            // Checking twice per timeout keeps a socket at most one and a half timeout in the pool.
+            long evictionPeriod = Math.max(idleTimeout / 2, 1);
+            idleSocketEvictor.scheduleWithFixedDelay(new IdleSocketEvictor(), evictionPeriod, evictionPeriod,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event is marshalled into the recycled buffer of the thread.
+     */
+    @Override
+    protected void doSend(Event event) {
+        PayloadBuffer body = PayloadBuffer.acquire();
+        try {
+            long start = System.nanoTime();
+            getMarshaller().marshall(event, body);
+            getMetrics().onMarshalled(System.nanoTime() - start, body.size());
+            post(body.array(), body.size());
+        } finally {
+            body.release();
+        }
+    }
+
+    @Override
+    protected void doSend(Event event, byte[] payload) {
+        post(payload, payload.length);
+    }
+
+    /**
+     * Posts a payload to Sentry over a socket of the pool.
+     * <p>
+     * If a reused socket fails before any byte of the response has been received, the server most likely closed it
+     * while it was idle and never processed the request, which is then attempted once more over a new socket. Once the
+     * response started, or if the server was too slow to answer, the event may already have been stored by Sentry and
+     * the request isn't sent again.
+     *
+     * @param payload content of the request.
+     * @param length  length of the content, from the start of the payload.
+     */
+    private void post(byte[] payload, int length) {
+        acquirePermit();
+        PooledSocket socket = null;
+        Response response = null;
+        try {
+            socket = pollIdleSocket();
+            if (socket == null)
+                socket = openSocket();
+
+            try {
+                response = exchange(socket, payload, length);
+            } catch (IOException e) {
+                if (!socket.reused || socket.responseStarted || e instanceof SocketTimeoutException)
+                    throw e;
+
+                logger.debug("A reused socket to Sentry failed, retrying with a new socket.", e);
+                socket.close();
+                socket = openSocket();
+                response = exchange(socket, payload, length);
+            }
+        } catch (IOException e) {
+            throw new ConnectionException("An exception occurred while submitting the event to the sentry server.", e);
+        } finally {
+            release(socket, response != null && response.keepAlive);
+        }
+
+        if (response.status < HttpURLConnection.HTTP_OK || response.status >= HttpURLConnection.HTTP_MULT_CHOICE) {
+            String errorMessage = response.body;
+            if (errorMessage.isEmpty())
+                errorMessage = "The sentry server answered with the HTTP status " + response.status + ".";
+            throw new ConnectionException(errorMessage, null, response.status, response.retryAfter);
+        }
+    }
+
+    private void acquirePermit() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("Interrupted while waiting for a connection to the sentry server.", e);
+        }
+    }
+
+    /**
+     * Takes the most recently used socket out of the pool, closing the sockets idle for too long.
+     *
+     * @return a socket ready to be reused, or null if none is available.
+     */
+    private PooledSocket pollIdleSocket() {
+        closeExpiredSockets();
+        PooledSocket socket;
+        synchronized (idleSockets) {
+            socket = idleSockets.pollFirst();
+        }
+
+        if (socket != null)
+            socket.reused = true;
+        return socket;
+    }
+
+    /**
+     * Closes the sockets which have been idle for longer than {@link #idleTimeout}.
+     */
+    private void closeExpiredSockets() {
+        List<PooledSocket> expiredSockets = new ArrayList<>();
+        long expiration = System.currentTimeMillis() - idleTimeout;
+        synchronized (idleSockets) {
+            while (!idleSockets.isEmpty() && idleSockets.peekLast().lastUsed < expiration) {
+                expiredSockets.add(idleSockets.pollLast());
+            }
+        }
+
+        for (PooledSocket expiredSocket : expiredSockets) {
+            expiredSocket.close();
+        }
+    }
+
+    /**
+     * Gives a socket back to the pool, or closes it if it can't be reused.
+     *
+     * @param socket    socket used for the request, may be null if no socket could be opened.
+     * @param reusable whether the socket can be used for another request.
+     */
+    private void release(PooledSocket socket, boolean reusable) {
+        try {
+            if (socket == null)
+                return;
+
+            if (reusable && !closed) {
+                socket.lastUsed = System.currentTimeMillis();
+                synchronized (idleSockets) {
+                    idleSockets.offerFirst(socket);
+                }
+                // The pool may have been closed while the socket was given back.
+                if (closed)
+                    closeIdleSockets();
+            } else {
+                socket.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledSocket openSocket() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(getTimeout());
+            socket.connect(new InetSocketAddress(requestHead.getHost(), requestHead.getPort()), getTimeout());
+            if (requestHead.isSecure()) {
+                SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, requestHead.getHost(),
+                        requestHead.getPort(), true);
+                if (!isBypassSecurity()) {
+                    SSLParameters sslParameters = sslSocket.getSSLParameters();
+                    sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    sslSocket.setSSLParameters(sslParameters);
+                }
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+            return new PooledSocket(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request over a socket and reads the entire response.
+     *
+     * @param socket  socket on which the request is sent.
+     * @param payload content of the request.
+     * @param length  length of the content, from the start of the payload.
+     * @return the response of the server.
+     * @throws IOException if the socket failed or the response couldn't be understood.
+     */
+    private Response exchange(PooledSocket socket, byte[] payload, int length) throws IOException {
+        OutputStream outputStream = socket.outputStream;
+        outputStream.write(requestHead.create(length, HttpConnection.getContentEncoding(payload, length)));
+        outputStream.write(payload, 0, length);
+        outputStream.flush();
+
+        HttpResponseParser responseParser = socket.responseParser;
+        ByteBuffer readBuffer = socket.readBuffer;
+        responseParser.reset();
+        socket.responseStarted = false;
+        while (true) {
+            int read = socket.inputStream.read(readBuffer.array());
+            if (read > 0)
+                socket.responseStarted = true;
+            if (read == -1) {
+                if (!responseParser.endOfStream())
+                    throw new EOFException("The sentry server closed the connection before sending a response.");
+                break;
+            }
+
+            readBuffer.clear().limit(read);
+            if (responseParser.parse(readBuffer))
+                break;
+        }
+
+        Response response = new Response();
+        response.status = responseParser.getStatus();
+        // Data following the response would be an answer to no request, the socket can't be trusted anymore.
+        response.keepAlive = responseParser.isKeepAlive() && !readBuffer.hasRemaining();
+        response.body = responseParser.getBody();
+        response.retryAfter = responseParser.getRetryAfter();
+        return response;
+    }
+
+    private void closeIdleSockets() {
+        List<PooledSocket> sockets;
+        synchronized (idleSockets) {
+            sockets = new ArrayList<>(idleSockets);
+            idleSockets.clear();
+        }
+        for (PooledSocket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Number of sockets currently waiting in the pool for a new request.
+     *
+     * @return the number of idle sockets.
+     */
+    int getIdleSocketCount() {
+        synchronized (idleSockets) {
+            return idleSockets.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Closes the idle sockets and stops their eviction, the sockets currently in use are closed as soon as their
+     * request is over.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        idleSocketEvictor.shutdownNow();
+        closeIdleSockets();
+    }
+
+    /**
+     * Socket kept in the pool with its streams and the state used to read its responses.
+     */
+    private static final class PooledSocket {
+        private final Socket socket;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private final HttpResponseParser responseParser = new HttpResponseParser();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /**
+         * Time at which the socket was given back to the pool.
+         */
+        private long lastUsed;
+        /**
+         * Whether the socket was already used for an earlier request.
+         */
+        private boolean reused;
+        /**
+         * Whether a part of the response to the current request has been received.
+         */
+        private boolean responseStarted;
+
+        private PooledSocket(Socket socket) throws IOException {
+            this.socket = socket;
+            this.inputStream = socket.getInputStream();
+            this.outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("Couldn't close a socket to the sentry server.", e);
+            }
+        }
+    }
+
+    /**
+     * Periodic task closing the sockets idle for too long.
+     */
+    private final class IdleSocketEvictor implements Runnable {
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                closeExpiredSockets();
+            } catch (Exception e) {
+                // An exception would cancel the next evictions.
+                logger.warn("An exception occurred while closing the idle sockets to the sentry server.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+
+    /**
+     * Factory creating the daemon thread evicting the idle sockets.
+     */
+    private static final class EvictorThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "raven-http-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Status and content of a response of the Sentry server.
+     */
+    private static final class Response {
+        private int status;
+        private boolean keepAlive;
+        private String body;
+        private Long retryAfter;
+    }
+}
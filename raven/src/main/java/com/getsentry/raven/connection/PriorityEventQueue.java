@@ -0,0 +1,338 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of the tasks of an {@link AsyncConnection}, handing over the events by level rather than in order.
+ * <p>
+ * The events are taken by decreasing level ({@link Event.Level#FATAL} first), in order within a level. The events
+ * without level are handled as {@link Event.Level#ERROR}, which is the level Sentry gives them.
+ * <p>
+ * Each level can have a reserved capacity, only usable by the events of that level. The rest of the capacity is
+ * shared: when it is full, a new event evicts the oldest event of the lowest level using the shared capacity, provided
+ * that level isn't higher than its own. Otherwise the new event is rejected, leaving the rejection to the
+ * {@link java.util.concurrent.RejectedExecutionHandler} of the executor, which should discard it (the
+ * {@link java.util.concurrent.ThreadPoolExecutor.DiscardOldestPolicy} would drop the next event to send instead).
+ */
+public class PriorityEventQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable>, Instrumented {
+    private static final int PRIORITIES = Event.Level.values().length;
+    private final int capacity;
+    private final int[] reserved = new int[PRIORITIES];
+    private final int sharedCapacity;
+    /**
+     * Queued tasks for each level, by decreasing level.
+     */
+    private final ArrayDeque<Runnable>[] queues;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int count;
+    /**
+     * Number of queued tasks using the shared capacity.
+     */
+    private int sharedCount;
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
+
+    /**
+     * Creates a queue with a capacity reserved for some levels.
+     *
+     * @param capacity maximum number of queued tasks.
+     * @param reserved capacity reserved for each level, indexed by the ordinal of the level; may be shorter than the
+     *                 number of levels, the other levels having no reserved capacity.
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityEventQueue(int capacity, int... reserved) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity of the queue must be positive, got " + capacity);
+        if (reserved.length > PRIORITIES)
+            throw new IllegalArgumentException("Too many reserved capacities, got " + reserved.length);
+        int totalReserved = 0;
+        for (int i = 0; i < reserved.length; i++) {
+            if (reserved[i] < 0)
+                throw new IllegalArgumentException("The reserved capacity can't be negative, got " + reserved[i]);
+            this.reserved[i] = reserved[i];
+            totalReserved += reserved[i];
+        }
+        if (totalReserved > capacity)
+            throw new IllegalArgumentException("The reserved capacity (" + totalReserved + ") exceeds the capacity of "
+                    + "the queue (" + capacity + ")");
+        this.capacity = capacity;
+        this.sharedCapacity = capacity - totalReserved;
+        this.queues = new ArrayDeque[PRIORITIES];
+        for (int i = 0; i < PRIORITIES; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Gets the priority of a task, the ordinal of the level of its event (0 being the highest priority).
+     *
+     * @param task task of an {@link AsyncConnection}.
+     * @return the priority of the task.
+     */
+    private static int priority(Runnable task) {
+        Event.Level level = AsyncConnection.getEventLevel(task);
+        return level != null ? level.ordinal() : Event.Level.ERROR.ordinal();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Once the capacity is used, a lower (or equal) priority event may be evicted to make room for the task.
+     */
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null)
+            throw new NullPointerException();
+        int priority = priority(task);
+        lock.lock();
+        try {
+            if (queues[priority].size() >= reserved[priority] && sharedCount >= sharedCapacity && !evict(priority))
+                return false;
+            enqueue(task, priority);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the oldest task of the lowest priority using the shared capacity.
+     *
+     * @param priority priority of the task to enqueue, the tasks with a higher priority being kept.
+     * @return true if a task has been evicted, false if none had a lower or equal priority.
+     */
+    private boolean evict(int priority) {
+        for (int i = PRIORITIES - 1; i >= priority; i--) {
+            if (queues[i].size() > reserved[i]) {
+                queues[i].pollFirst();
+                count--;
+                sharedCount--;
+                metrics.onDropped();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void enqueue(Runnable task, int priority) {
+        if (queues[priority].size() >= reserved[priority])
+            sharedCount++;
+        queues[priority].addLast(task);
+        count++;
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        for (int i = 0; i < PRIORITIES; i++) {
+            Runnable task = queues[i].pollFirst();
+            if (task != null) {
+                if (queues[i].size() >= reserved[i])
+                    sharedCount--;
+                count--;
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The evicted events are reported as dropped.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The task is never waited for, as it is either queued, queued by evicting an other task, or rejected right away.
+     */
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The task is never waited for, as it is either queued, queued by evicting an other task, or rejected right away.
+     *
+     * @throws IllegalStateException if the task is rejected.
+     */
+    @Override
+    public void put(Runnable task) {
+        add(task);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> queue : queues) {
+                if (!queue.isEmpty())
+                    return queue.peekFirst();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Runnable))
+            return false;
+        int priority = priority((Runnable) o);
+        lock.lock();
+        try {
+            boolean usedShared = queues[priority].size() > reserved[priority];
+            if (!queues[priority].remove(o))
+                return false;
+            if (usedShared)
+                sharedCount--;
+            count--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this)
+            throw new IllegalArgumentException();
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && count > 0) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The iterator works on a snapshot of the queue, in the order in which the tasks would be taken.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> queue : queues) {
+                snapshot.addAll(queue);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<Runnable>() {
+            private final Iterator<Runnable> delegate = snapshot.iterator();
+            private Runnable current;
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                current = delegate.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null)
+                    throw new IllegalStateException();
+                PriorityEventQueue.this.remove(current);
+                current = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,310 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous usage of a connection, handing the events over to a single thread through a lock-free ring buffer.
+ * <p>
+ * Unlike {@link AsyncConnection}, sending an event neither allocates a task nor takes the lock of an executor's
+ * queue: the event is stored in a preallocated slot of a {@link MpscRingBuffer}, which is consumed by a single
+ * thread. When the ring is full, the new event is dropped.
+ * <p>
+ * The way the consumer thread waits for new events is chosen with a {@link WaitStrategy}.
+ * <p>
+ * The usage of the ring buffer and the time taken by the actual connection are exposed through
+ * {@link ConnectionLoad}.
+ */
+public class RingBufferAsyncConnection implements Connection, ConnectionLoad, Instrumented {
+    /**
+     * Default timeout of the graceful shutdown, in milliseconds.
+     */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferAsyncConnection.class);
+    /**
+     * Number of times the consumer checks the ring again before yielding or parking.
+     */
+    private static final int SPIN_TRIES = 100;
+    /**
+     * Number of times the consumer yields before parking, with {@link WaitStrategy#PARK}.
+     */
+    private static final int YIELD_TRIES = 100;
+    /**
+     * Maximum time the consumer stays parked, in case a wake-up from a producer was missed.
+     */
+    private static final long PARK_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(10);
+    /**
+     * Connection used to actually send the events.
+     */
+    private final Connection actualConnection;
+    private final MpscRingBuffer<Event> ringBuffer;
+    private final WaitStrategy waitStrategy;
+    /**
+     * Timeout of the graceful shutdown, in milliseconds, or -1 to wait until every event has been sent.
+     */
+    private final long shutdownTimeout;
+    private final Thread consumerThread;
+    /**
+     * Shutdown hook used to stop the async connection properly when the JVM quits.
+     */
+    private final ShutDownHook shutDownHook = new ShutDownHook();
+    private final SendTimeAverage sendTimeAverage = new SendTimeAverage();
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
+    private boolean gracefulShutdown;
+    /**
+     * Whether the consumer is parked, or about to be, and has to be woken up by the producers.
+     */
+    private volatile boolean consumerParked;
+    /**
+     * Whether the connection is closed; the consumer then sends the remaining events and stops.
+     */
+    private volatile boolean closed;
+    /**
+     * Whether the graceful shutdown timed out; the consumer then stops without sending the remaining events.
+     */
+    private volatile boolean abandoned;
+
+    /**
+     * Creates a connection handing the events over to a single thread.
+     * <p>
+     * Will propagate the {@link #close()} operation.
+     *
+     * @param actualConnection connection used to send the events.
+     * @param capacity         maximum number of events waiting to be sent, rounded up to the next power of two.
+     * @param waitStrategy     way the consumer thread waits for new events.
+     * @param threadFactory    factory creating the consumer thread.
+     * @param gracefulShutdown whether the shutdown operation should be managed by a ShutdownHook.
+     * @param shutdownTimeout  timeout of the graceful shutdown, in milliseconds, or -1 to wait until every event has
+     *                         been sent.
+     */
+    public RingBufferAsyncConnection(Connection actualConnection, int capacity, WaitStrategy waitStrategy,
+                                     ThreadFactory threadFactory, boolean gracefulShutdown, long shutdownTimeout) {
+        this.actualConnection = actualConnection;
+        this.ringBuffer = new MpscRingBuffer<>(capacity);
+        this.waitStrategy = waitStrategy;
+        this.shutdownTimeout = shutdownTimeout;
+        this.consumerThread = threadFactory.newThread(new EventConsumer());
+        consumerThread.start();
+        if (gracefulShutdown) {
+            this.gracefulShutdown = gracefulShutdown;
+            // JUL loggers are shutdown by an other shutdown hook, it's possible that nothing will get actually logged.
+            Runtime.getRuntime().addShutdownHook(shutDownHook);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event will be added to the ring buffer and will be handled by a separate {@code Thread} later on.
+     */
+    @Override
+    public void send(Event event) {
+        if (closed)
+            return;
+        if (!ringBuffer.offer(event)) {
+            logger.warn("The async ring buffer is full, the event {} is dropped.", event.getId());
+            metrics.onDropped();
+            return;
+        }
+        metrics.onEnqueued();
+        if (consumerParked)
+            LockSupport.unpark(consumerThread);
+    }
+
+    @Override
+    public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        actualConnection.addEventSendFailureCallback(eventSendFailureCallback);
+    }
+
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+        if (actualConnection instanceof Instrumented)
+            ((Instrumented) actualConnection).setMetrics(metrics);
+    }
+
+    @Override
+    public double getQueueUsage() {
+        return Math.min(1, (double) ringBuffer.size() / ringBuffer.capacity());
+    }
+
+    @Override
+    public int getQueueSize() {
+        return ringBuffer.size();
+    }
+
+    @Override
+    public long getAverageSendTime() {
+        return sendTimeAverage.getAverage();
+    }
+
+    int getCapacity() {
+        return ringBuffer.capacity();
+    }
+
+    /**
+     * {@inheritDoc}.
+     * <p>
+     * Closing the connection lets the consumer thread send the events left in the ring buffer within the timeout of
+     * the graceful shutdown, while new events are dropped. Once the timeout is reached, the remaining events are lost.
+     */
+    @Override
+    public void close() throws IOException {
+        if (gracefulShutdown)
+            shutDownHook.enabled = false;
+        doClose();
+    }
+
+    /**
+     * Close the connection whether it's from the shutdown hook or not.
+     *
+     * @see #close()
+     */
+    private void doClose() throws IOException {
+        logger.info("Gracefully shutdown sentry threads.");
+        closed = true;
+        LockSupport.unpark(consumerThread);
+        try {
+            if (shutdownTimeout == -1L)
+                consumerThread.join();
+            else
+                consumerThread.join(shutdownTimeout);
+
+            if (consumerThread.isAlive()) {
+                logger.warn("Graceful shutdown took too much time, forcing the shutdown.");
+                abandoned = true;
+                consumerThread.interrupt();
+                logger.info("{} events failed to be sent before the shutdown.", ringBuffer.size());
+            } else {
+                logger.info("Shutdown finished.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Graceful shutdown interrupted, forcing the shutdown.");
+            abandoned = true;
+            consumerThread.interrupt();
+        } finally {
+            actualConnection.close();
+        }
+    }
+
+    /**
+     * Waits for new events, according to the {@link #waitStrategy}.
+     *
+     * @param idleCount number of times the consumer already found the ring empty in a row.
+     */
+    private void idle(int idleCount) {
+        switch (waitStrategy) {
+            case SPIN:
+                break;
+            case YIELD:
+                if (idleCount >= SPIN_TRIES)
+                    Thread.yield();
+                break;
+            case PARK:
+            default:
+                if (idleCount < SPIN_TRIES)
+                    break;
+                if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                    break;
+                }
+                consumerParked = true;
+                // Check again once the flag is visible, an event may have been added in the meantime.
+                if (ringBuffer.isEmpty() && !closed)
+                    LockSupport.parkNanos(this, PARK_TIMEOUT);
+                consumerParked = false;
+        }
+    }
+
+    /**
+     * Way the consumer thread waits while the ring buffer is empty.
+     */
+    public enum WaitStrategy {
+        /**
+         * Checks the ring continuously, for the lowest latency at the cost of a busy processor.
+         */
+        SPIN,
+        /**
+         * Yields the processor to other threads between the checks once the ring stayed empty for a while.
+         */
+        YIELD,
+        /**
+         * Spins, then yields, then parks the consumer until a producer wakes it up, using no processor while idle.
+         */
+        PARK
+    }
+
+    /**
+     * Consumes the events of the ring buffer and sends them with the {@link #actualConnection}.
+     */
+    private final class EventConsumer implements Runnable {
+        @Override
+        public void run() {
+            // The current thread is managed by raven
+            RavenEnvironment.startManagingThread();
+            try {
+                int idleCount = 0;
+                while (!abandoned) {
+                    Event event = ringBuffer.poll();
+                    if (event != null) {
+                        idleCount = 0;
+                        submit(event);
+                    } else if (closed) {
+                        break;
+                    } else {
+                        idle(idleCount);
+                        idleCount = Math.min(idleCount + 1, SPIN_TRIES + YIELD_TRIES);
+                    }
+                }
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+
+        private void submit(Event event) {
+            try {
+                long start = System.nanoTime();
+                actualConnection.send(event);
+                sendTimeAverage.record(System.nanoTime() - start);
+            } catch (Exception e) {
+                logger.error("An exception occurred while sending the event to Sentry.", e);
+            }
+        }
+    }
+
+    private final class ShutDownHook extends Thread {
+        /**
+         * Whether or not this ShutDownHook instance will do anything when run.
+         */
+        private volatile boolean enabled = true;
+
+        @Override
+        public void run() {
+            if (!enabled) {
+                return;
+            }
+
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                logger.info("Automatic shutdown of the async connection");
+                RingBufferAsyncConnection.this.doClose();
+            } catch (Exception e) {
+                logger.error("An exception occurred while closing the connection.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.getsentry.raven.connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exponentially weighted moving average of the time taken to send events, updated without lock.
+ * <p>
+ * Each new measure weighs for an eighth of the average, so the average follows the recent send times while smoothing
+ * out a single slow event.
+ */
+final class SendTimeAverage {
+    /**
+     * Weight of a new measure, as a power of two: each measure weighs for 1/2^{@value}.
+     */
+    private static final int WEIGHT_SHIFT = 3;
+    /**
+     * Average send time in nanoseconds, -1 until the first measure.
+     */
+    private final AtomicLong average = new AtomicLong(-1);
+
+    /**
+     * Adds the time taken to send an event to the average.
+     *
+     * @param sendTime time taken to send an event, in nanoseconds.
+     */
+    void record(long sendTime) {
+        while (true) {
+            long current = average.get();
+            long updated = current < 0 ? sendTime : current + ((sendTime - current) >> WEIGHT_SHIFT);
+            if (average.compareAndSet(current, updated))
+                return;
+        }
+    }
+
+    /**
+     * Gets the average send time.
+     *
+     * @return the average time in milliseconds, 0 if nothing has been measured yet.
+     */
+    long getAverage() {
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, average.get()));
+    }
+}
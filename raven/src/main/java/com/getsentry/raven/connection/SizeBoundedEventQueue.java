@@ -0,0 +1,287 @@
+package com.getsentry.raven.connection;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of the tasks of an {@link AsyncConnection} bounded by the size of the events it holds rather than by their
+ * number.
+ * <p>
+ * The size of a task is the size of its marshalled event, see {@link AsyncConnection#setMarshaller}; the tasks
+ * holding events which haven't been marshalled don't count. A task larger than the capacity is still accepted by an
+ * empty queue, so that a large event can't be rejected forever.
+ * <p>
+ * Unlike the other {@link BlockingQueue}s, {@link #remainingCapacity()} is a number of bytes.
+ */
+public class SizeBoundedEventQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private final long maxBytes;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /**
+     * Size of the queued tasks, in bytes.
+     */
+    private long bytes;
+
+    /**
+     * Creates a queue holding at most {@code maxBytes} of marshalled events.
+     *
+     * @param maxBytes capacity of the queue, in bytes.
+     */
+    public SizeBoundedEventQueue(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The capacity of the queue must be positive, got " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    private boolean fits(int taskSize) {
+        return tasks.isEmpty() || bytes + taskSize <= maxBytes;
+    }
+
+    private void enqueue(Runnable task, int taskSize) {
+        tasks.addLast(task);
+        bytes += taskSize;
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        Runnable task = tasks.pollFirst();
+        if (task != null) {
+            bytes -= AsyncConnection.getPayloadSize(task);
+            // The waiting tasks have different sizes, each one checks whether it fits now.
+            notFull.signalAll();
+        }
+        return task;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null)
+            throw new NullPointerException();
+        int taskSize = AsyncConnection.getPayloadSize(task);
+        lock.lock();
+        try {
+            if (!fits(taskSize))
+                return false;
+            enqueue(task, taskSize);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if (task == null)
+            throw new NullPointerException();
+        int taskSize = AsyncConnection.getPayloadSize(task);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!fits(taskSize)) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task, taskSize);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        if (task == null)
+            throw new NullPointerException();
+        int taskSize = AsyncConnection.getPayloadSize(task);
+        lock.lockInterruptibly();
+        try {
+            while (!fits(taskSize)) {
+                notFull.await();
+            }
+            enqueue(task, taskSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (tasks.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (tasks.isEmpty()) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return tasks.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The remaining capacity is the number of bytes which can still be queued, up to {@link Integer#MAX_VALUE}.
+     */
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, maxBytes - bytes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Runnable))
+            return false;
+        lock.lock();
+        try {
+            if (!tasks.remove(o))
+                return false;
+            bytes -= AsyncConnection.getPayloadSize((Runnable) o);
+            notFull.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this)
+            throw new IllegalArgumentException();
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !tasks.isEmpty()) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The iterator works on a snapshot of the queue.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(tasks);
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<Runnable>() {
+            private final Iterator<Runnable> delegate = snapshot.iterator();
+            private Runnable current;
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                current = delegate.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null)
+                    throw new IllegalStateException();
+                SizeBoundedEventQueue.this.remove(current);
+                current = null;
+            }
+        };
+    }
+
+    /**
+     * Gets the proportion of the capacity used by the queued tasks.
+     *
+     * @return the usage of the queue, between 0 and 1.
+     */
+    public double getUsage() {
+        lock.lock();
+        try {
+            // A single task may be larger than the capacity.
+            return Math.min(1, (double) bytes / maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,285 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.RavenMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connection storing the events on the disk before sending them to Sentry.
+ * <p>
+ * Each event is marshalled and appended to a {@link DiskSpool}, then a dedicated thread sends the spooled events in
+ * order and removes them once Sentry accepted them. While Sentry can't be reached, the events accumulate on the disk
+ * up to the size of the spool instead of being lost, and the events still in the spool when the JVM stops are sent
+ * on the next start.
+ * <p>
+ * Events rejected by Sentry with a client error (other than 429 Too Many Requests) would be rejected again and are
+ * dropped from the spool. While Sentry rate limits the client, the events are kept in the spool and sent once the
+ * time requested by the server is over.
+ */
+public class SpoolingConnection implements PayloadConnection, Instrumented {
+    /**
+     * Default size of a segment of the spool, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /**
+     * Default maximum space used by the spool, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingConnection.class);
+    private static final int HTTP_CLIENT_ERROR = 400;
+    private static final int HTTP_SERVER_ERROR = 500;
+    /**
+     * Maximum time to wait for the replay thread to stop when the connection is closed, in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Minimum delay before sending again an event which couldn't be sent, in milliseconds.
+     */
+    private static final long MIN_RETRY_DELAY = 10;
+    /**
+     * Connection used to send the spooled events.
+     */
+    private final HttpConnection actualConnection;
+    private final DiskSpool spool;
+    /**
+     * Interval between two forced writes of the spool to the disk, in milliseconds, 0 to leave it to the system.
+     */
+    private final long forceInterval;
+    private final Lock lock = new ReentrantLock();
+    /**
+     * Condition signalled when an event has been spooled or when the connection is closed.
+     */
+    private final Condition spooled = lock.newCondition();
+    /**
+     * Condition signalled when the connection is closed.
+     */
+    private final Condition closing = lock.newCondition();
+    private final Thread replayThread;
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection spooling the events in a directory before sending them.
+     * <p>
+     * The events left in the directory by a previous process are sent once the connection is created.
+     *
+     * @param actualConnection connection used to send the events, its marshaller is used to spool them.
+     * @param directory        directory in which the events are spooled.
+     * @param segmentSize      size of each file of the spool, in bytes.
+     * @param maxBytes         maximum space used by the spool, in bytes. New events are dropped when it is reached.
+     * @param forceOnAppend    whether each event is forced to the disk once spooled.
+     * @param forceInterval    interval between two forced writes of the spool to the disk, in milliseconds, or 0 to
+     *                         leave it to the system.
+     * @throws IOException if the directory can't be used as a spool.
+     */
+    public SpoolingConnection(HttpConnection actualConnection, File directory, int segmentSize, long maxBytes,
+                              boolean forceOnAppend, long forceInterval) throws IOException {
+        this.actualConnection = actualConnection;
+        this.spool = new DiskSpool(directory, segmentSize, maxBytes, forceOnAppend);
+        this.forceInterval = forceInterval;
+        this.replayThread = new Thread(new Replayer(), "raven-spool-replayer");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    @Override
+    public void send(Event event) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        actualConnection.getMarshaller().marshall(event, outputStream);
+        actualConnection.getMetrics().onMarshalled(System.nanoTime() - start, outputStream.size());
+        send(event, outputStream.toByteArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The payload is spooled as is.
+     */
+    @Override
+    public void send(Event event, byte[] payload) {
+        RavenMetrics metrics = actualConnection.getMetrics();
+        boolean appended;
+        try {
+            appended = spool.append(payload);
+        } catch (IOException e) {
+            logger.warn("The event couldn't be spooled, it is sent directly.", e);
+            actualConnection.send(event, payload);
+            return;
+        }
+
+        if (!appended) {
+            logger.warn("The spool is full, the event {} is dropped.", event.getId());
+            metrics.onDropped();
+            actualConnection.notifyEventSendFailureCallbacks(event,
+                    new ConnectionException("The spool is full, the event couldn't be stored."));
+            return;
+        }
+
+        metrics.onEnqueued();
+        lock.lock();
+        try {
+            spooled.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        actualConnection.addEventSendFailureCallback(eventSendFailureCallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The metrics are shared with the actual connection.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        actualConnection.setMetrics(metrics);
+    }
+
+    /**
+     * Gets the number of events waiting in the spool.
+     *
+     * @return the number of events which haven't been sent yet.
+     */
+    int getPendingCount() {
+        return spool.getPendingCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        lock.lock();
+        try {
+            spooled.signal();
+            closing.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            replayThread.join(CLOSE_TIMEOUT);
+            if (replayThread.isAlive())
+                logger.warn("The spool replay didn't stop in time, the pending events will be sent on the next start.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for the spool replay to stop.", e);
+        } finally {
+            actualConnection.close();
+        }
+    }
+
+    /**
+     * Sends the spooled events in order, until the connection is closed.
+     */
+    private final class Replayer implements Runnable {
+        private long lastForce = System.currentTimeMillis();
+
+        @Override
+        public void run() {
+            // The current thread is managed by raven
+            RavenEnvironment.startManagingThread();
+            try {
+                byte[] payload;
+                while ((payload = nextPayload()) != null) {
+                    replay(payload);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("The spool replay has been interrupted.", e);
+            } finally {
+                try {
+                    spool.close();
+                } catch (IOException e) {
+                    logger.warn("Couldn't close the spool.", e);
+                }
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+
+        /**
+         * Waits for an event to be spooled, forcing the spool to the disk at the configured interval.
+         *
+         * @return the oldest event of the spool, or null once the connection is closed.
+         * @throws InterruptedException if the thread is interrupted while waiting.
+         */
+        private byte[] nextPayload() throws InterruptedException {
+            lock.lock();
+            try {
+                while (!closed) {
+                    if (forceInterval > 0 && System.currentTimeMillis() - lastForce >= forceInterval) {
+                        spool.force();
+                        lastForce = System.currentTimeMillis();
+                    }
+
+                    byte[] payload = spool.peek();
+                    if (payload != null)
+                        return payload;
+
+                    if (forceInterval > 0)
+                        spooled.await(forceInterval, TimeUnit.MILLISECONDS);
+                    else
+                        spooled.await();
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sends a spooled event, removing it from the spool once it has been accepted or definitely rejected.
+         * <p>
+         * When the event couldn't be sent, the next attempt waits for the circuit breaker of the actual connection.
+         *
+         * @param payload marshalled event.
+         * @throws InterruptedException if the thread is interrupted while waiting for the next attempt.
+         */
+        private void replay(byte[] payload) throws InterruptedException {
+            try {
+                actualConnection.sendOrThrow(null, payload);
+                spool.remove();
+            } catch (ConnectionException e) {
+                Integer responseCode = e.getResponseCode();
+                if (responseCode != null && responseCode >= HTTP_CLIENT_ERROR && responseCode < HTTP_SERVER_ERROR
+                        && responseCode != AbstractConnection.HTTP_TOO_MANY_REQUESTS) {
+                    logger.warn("A spooled event has been rejected by the Sentry server and is dropped.", e);
+                    spool.remove();
+                } else {
+                    waitBeforeRetry();
+                }
+            } catch (RuntimeException e) {
+                logger.error("A spooled event couldn't be sent and is dropped.", e);
+                spool.remove();
+            }
+        }
+
+        /**
+         * Waits until the circuit breaker of the actual connection lets a request through, or the connection is closed.
+         *
+         * @throws InterruptedException if the thread is interrupted while waiting.
+         */
+        private void waitBeforeRetry() throws InterruptedException {
+            long delay = Math.max(actualConnection.getRemainingOpenTime(), MIN_RETRY_DELAY);
+            lock.lock();
+            try {
+                if (!closed)
+                    closing.await(delay, TimeUnit.MILLISECONDS);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.getsentry.raven.connection;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking {@link ByteChannel} encrypting and decrypting the content of a {@link SocketChannel} with an
+ * {@link SSLEngine}.
+ * <p>
+ * Reads and writes never block: {@link #read(ByteBuffer)} returns {@code 0} when a complete TLS record isn't available
+ * yet, and {@link #write(ByteBuffer)} stops consuming data when the socket can't accept more of it, in which case
+ * {@link #hasPendingOutput()} tells that the socket must be waited for before writing again.
+ * <p>
+ * This class isn't thread safe, it is meant to be used by a single selector thread.
+ */
+final class SslChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private final SocketChannel socketChannel;
+    private final SSLEngine engine;
+    /**
+     * Encrypted data received from the socket and not yet decrypted, in write mode.
+     */
+    private ByteBuffer netIn;
+    /**
+     * Encrypted data waiting to be written on the socket, in write mode.
+     */
+    private ByteBuffer netOut;
+    /**
+     * Decrypted data not yet returned by {@link #read(ByteBuffer)}, in write mode.
+     */
+    private ByteBuffer appIn;
+    /**
+     * Whether the socket reached the end of the stream.
+     */
+    private boolean endOfStream;
+
+    /**
+     * Creates a secure channel over a connected socket, the handshake is then driven by {@link #handshake()}.
+     *
+     * @param socketChannel non-blocking socket connected to the server.
+     * @param engine        engine in client mode in charge of the TLS session.
+     * @throws SSLException if the handshake can't be started.
+     */
+    SslChannel(SocketChannel socketChannel, SSLEngine engine) throws SSLException {
+        this.socketChannel = socketChannel;
+        this.engine = engine;
+        int packetBufferSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetBufferSize);
+        this.netOut = ByteBuffer.allocate(packetBufferSize);
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        engine.beginHandshake();
+    }
+
+    /**
+     * Makes the handshake progress as far as possible without blocking.
+     *
+     * @return true once the handshake is over, false if the socket must be waited for.
+     * @throws IOException if the handshake failed.
+     */
+    boolean handshake() throws IOException {
+        while (true) {
+            flush();
+            if (hasPendingOutput())
+                return false;
+
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                case NEED_UNWRAP:
+                    if (unwrap() <= 0)
+                        return false;
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Whether a handshake initiated by the server is waiting for data from the socket before more data can be written.
+     *
+     * @return true if writing must wait for the socket to be readable.
+     */
+    boolean isWaitingForHandshake() {
+        return engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP;
+    }
+
+    /**
+     * Whether encrypted data is still waiting to be written on the socket.
+     *
+     * @return true if the socket must be waited for before writing more data.
+     */
+    boolean hasPendingOutput() {
+        return netOut.position() > 0;
+    }
+
+    /**
+     * Writes as much of the encrypted data waiting in {@link #netOut} as the socket accepts.
+     *
+     * @throws IOException if the socket failed.
+     */
+    void flush() throws IOException {
+        if (!hasPendingOutput())
+            return;
+
+        netOut.flip();
+        try {
+            socketChannel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (appIn.position() == 0) {
+            int unwrapped = unwrap();
+            if (unwrapped <= 0)
+                return unwrapped;
+            // The server can initiate a renegotiation or send session tickets at any time.
+            handshake();
+        }
+
+        appIn.flip();
+        int length = Math.min(appIn.remaining(), dst.remaining());
+        ByteBuffer transferred = appIn.duplicate();
+        transferred.limit(appIn.position() + length);
+        dst.put(transferred);
+        appIn.position(appIn.position() + length);
+        appIn.compact();
+        return length;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int initialPosition = src.position();
+        // A renegotiation started by the server has to be over before application data can be wrapped again.
+        while (src.hasRemaining() && handshake()) {
+            wrap(src);
+        }
+        flush();
+        return src.position() - initialPosition;
+    }
+
+    /**
+     * Encrypts data into {@link #netOut}.
+     *
+     * @param src data to encrypt.
+     * @throws IOException if the engine has been closed.
+     */
+    private void wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            SSLEngineResult result = engine.wrap(src, netOut);
+            switch (result.getStatus()) {
+                case OK:
+                    return;
+                case BUFFER_OVERFLOW:
+                    if (hasPendingOutput())
+                        return;
+                    netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                    break;
+                default:
+                    throw new EOFException("The TLS session with the sentry server has been closed.");
+            }
+        }
+    }
+
+    /**
+     * Decrypts a TLS record into {@link #appIn}, reading from the socket if necessary.
+     *
+     * @return 1 if a record has been processed, 0 if more data is needed from the socket, -1 at the end of the stream.
+     * @throws IOException if the socket failed or the record couldn't be decrypted.
+     */
+    private int unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+
+            switch (result.getStatus()) {
+                case OK:
+                    return 1;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining())
+                        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                    if (endOfStream)
+                        return -1;
+                    int read = socketChannel.read(netIn);
+                    if (read == 0)
+                        return 0;
+                    if (read < 0)
+                        endOfStream = true;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    private void runDelegatedTasks() {
+        for (Runnable task = engine.getDelegatedTask(); task != null; task = engine.getDelegatedTask()) {
+            task.run();
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimumCapacity) {
+        ByteBuffer enlarged = ByteBuffer.allocate(Math.max(minimumCapacity, buffer.capacity() * 2));
+        buffer.flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return socketChannel.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Attempts to notify the server before closing the socket, without waiting for its answer.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            // Once the outbound side is closed the engine only produces the close_notify alert.
+            engine.wrap(EMPTY, netOut);
+            flush();
+        } finally {
+            socketChannel.close();
+        }
+    }
+}
@@ -1,23 +1,38 @@
 package com.getsentry.raven.event;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An object that represents a single breadcrumb. Events may include a list
  * of breadcrumbs that help users re-create the path of actions that occurred
  * which lead to the Event happening.
+ * <p>
+ * Many breadcrumbs are kept by each thread, so they are stored compactly: the timestamp as a number, the type, level
+ * and category shared between breadcrumbs and the data flattened into an array.
  */
 public class Breadcrumb {
+    /**
+     * Maximum number of interned types, levels and categories, the interned values being forgotten once it is reached.
+     */
+    private static final int MAX_INTERNED_VALUES = 1024;
+    /**
+     * Types, levels and categories shared by the breadcrumbs, as most breadcrumbs use a handful of them.
+     */
+    private static final ConcurrentMap<String, String> INTERNED_VALUES = new ConcurrentHashMap<>();
 
     /**
      * (Optional) Type of the breadcrumb.
      */
     private final String type;
     /**
-     * Timestamp when the breadcrumb occurred.
+     * Timestamp when the breadcrumb occurred, in milliseconds since the epoch.
      */
-    private final Date timestamp;
+    private final long timestamp;
     /**
      * Level of the breadcrumb.
      */
@@ -31,9 +46,9 @@ public class Breadcrumb {
      */
     private final String category;
     /**
-     * Data related to the breadcrumb.
+     * Data related to the breadcrumb, as its keys and values in turn, or null if it has no data.
      */
-    private final Map<String, String> data;
+    private final String[] data;
 
     /**
      * Create an immutable {@link Breadcrumb} object.
@@ -48,10 +63,6 @@ public class Breadcrumb {
     Breadcrumb(String type, Date timestamp, String level, String message,
         String category, Map<String, String> data) {
 
-        if (timestamp == null) {
-            timestamp = new Date();
-        }
-
         checkNotNull(level, "level");
         checkNotNull(category, "category");
 
@@ -59,12 +70,12 @@ public class Breadcrumb {
             throw new IllegalArgumentException("one of 'message' or 'data' must be set");
         }
 
-        this.type = type;
-        this.timestamp = timestamp;
-        this.level = level;
+        this.type = intern(type);
+        this.timestamp = timestamp != null ? timestamp.getTime() : System.currentTimeMillis();
+        this.level = intern(level);
         this.message = message;
-        this.category = category;
-        this.data = data;
+        this.category = intern(category);
+        this.data = flatten(data);
     }
 
     private void checkNotNull(String str, String name) {
@@ -73,11 +84,55 @@ public class Breadcrumb {
         }
     }
 
+    private static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String interned = INTERNED_VALUES.get(value);
+        if (interned == null) {
+            if (INTERNED_VALUES.size() >= MAX_INTERNED_VALUES) {
+                INTERNED_VALUES.clear();
+            }
+            interned = INTERNED_VALUES.putIfAbsent(value, value);
+            if (interned == null) {
+                interned = value;
+            }
+        }
+        return interned;
+    }
+
+    private static String[] flatten(Map<String, String> data) {
+        if (data == null) {
+            return null;
+        }
+        String[] flattened = new String[data.size() * 2];
+        int index = 0;
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            flattened[index++] = entry.getKey();
+            flattened[index++] = entry.getValue();
+        }
+        return flattened;
+    }
+
     public String getType() {
         return type;
     }
 
+    /**
+     * Gets the time at which the breadcrumb occurred.
+     *
+     * @return a new {@link Date} of the breadcrumb.
+     */
     public Date getTimestamp() {
+        return new Date(timestamp);
+    }
+
+    /**
+     * Gets the time at which the breadcrumb occurred, without allocating a {@link Date}.
+     *
+     * @return the timestamp of the breadcrumb, in milliseconds since the epoch.
+     */
+    public long getTimestampMillis() {
         return timestamp;
     }
 
@@ -93,8 +148,49 @@ public class Breadcrumb {
         return category;
     }
 
+    /**
+     * Gets the data related to the breadcrumb.
+     *
+     * @return an immutable copy of the data, or null if the breadcrumb has no data.
+     */
     public Map<String, String> getData() {
-        return data;
+        if (data == null) {
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<>(data.length);
+        for (int i = 0; i < data.length; i += 2) {
+            map.put(data[i], data[i + 1]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Gets the number of entries in the data related to the breadcrumb, to read them without copying the data.
+     *
+     * @return the number of entries of the data, 0 if the breadcrumb has no data.
+     */
+    public int getDataSize() {
+        return data != null ? data.length / 2 : 0;
+    }
+
+    /**
+     * Gets the key of an entry in the data related to the breadcrumb.
+     *
+     * @param index index of the entry, from 0 to {@link #getDataSize()} excluded.
+     * @return the key of the entry.
+     */
+    public String getDataKey(int index) {
+        return data[index * 2];
+    }
+
+    /**
+     * Gets the value of an entry in the data related to the breadcrumb.
+     *
+     * @param index index of the entry, from 0 to {@link #getDataSize()} excluded.
+     * @return the value of the entry.
+     */
+    public String getDataValue(int index) {
+        return data[index * 2 + 1];
     }
 
 }
@@ -20,9 +20,7 @@ public final class Breadcrumbs {
      * @param breadcrumb Breadcrumb to record
      */
     public static void record(Breadcrumb breadcrumb) {
-        for (RavenContext context : RavenContext.getActiveContexts()) {
-            context.recordBreadcrumb(breadcrumb);
-        }
+        RavenContext.recordBreadcrumbInActiveContexts(breadcrumb);
     }
 
 }
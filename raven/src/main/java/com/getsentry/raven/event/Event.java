@@ -128,6 +128,15 @@ public class Event implements Serializable {
         return (timestamp != null) ? (Date) timestamp.clone() : null;
     }
 
+    /**
+     * Gets the time of the event without copying its timestamp.
+     *
+     * @return the time of the event, in milliseconds since the epoch.
+     */
+    public long getTimestampMillis() {
+        return timestamp.getTime();
+    }
+
     void setTimestamp(Date timestamp) {
         this.timestamp = timestamp;
     }
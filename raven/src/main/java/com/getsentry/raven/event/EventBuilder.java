@@ -1,5 +1,6 @@
 package com.getsentry.raven.event;
 
+import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.interfaces.SentryInterface;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,9 +12,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.Callable;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
@@ -37,16 +37,18 @@ public class EventBuilder {
     public static final long HOSTNAME_CACHE_DURATION = TimeUnit.HOURS.toMillis(5);
     private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final HostnameCache HOSTNAME_CACHE = new HostnameCache(HOSTNAME_CACHE_DURATION);
+    private static volatile EventIdGenerator idGenerator = new ThreadLocalEventIdGenerator();
     private final Event event;
     private boolean alreadyBuilt = false;
 
     /**
      * Creates a new EventBuilder to prepare a new {@link Event}.
      * <p>
-     * Automatically generates the id of the new event.
+     * Automatically generates the id of the new event, with the {@link #setIdGenerator(EventIdGenerator) generator}
+     * of the event ids.
      */
     public EventBuilder() {
-        this(UUID.randomUUID());
+        this(idGenerator.generateId());
     }
 
     /**
@@ -58,6 +60,20 @@ public class EventBuilder {
         this.event = new Event(eventId);
     }
 
+    /**
+     * Sets the generator of the ids of the events built without an explicit id, for the whole JVM.
+     * <p>
+     * By default, the ids are generated by a {@link ThreadLocalEventIdGenerator}, so that the threads building events
+     * don't contend on a shared random number generator.
+     *
+     * @param generator generator of the event ids.
+     */
+    public static void setIdGenerator(EventIdGenerator generator) {
+        if (generator == null)
+            throw new IllegalArgumentException("The generator of the event ids can't be null");
+        idGenerator = generator;
+    }
+
     /**
      * Calculates a checksum for a given string.
      *
@@ -335,6 +351,15 @@ public class EventBuilder {
         return this;
     }
 
+    /**
+     * Gets the level of the event being built.
+     *
+     * @return the level set so far, or null if none has been set.
+     */
+    public Event.Level getLevel() {
+        return event.getLevel();
+    }
+
     /**
      * Finalises the {@link Event} and returns it.
      * <p>
@@ -551,28 +576,40 @@ public class EventBuilder {
      * The {@code InetAddress.getLocalHost().getCanonicalHostName()} call can be quite expensive and could be called
      * for the creation of each {@link Event}. This system will prevent unnecessary costs by keeping track of the
      * hostname for a period defined during the construction.<br>
-     * For performance purposes, the operation of retrieving the hostname will automatically fail after a period of
-     * time
-     * defined by {@link #GET_HOSTNAME_TIMEOUT} without result.
+     * The hostname is never looked up by the thread asking for it: once the cached value expires, the last known value
+     * is still returned while a single daemon thread refreshes it. Failed lookups are retried after a delay doubling
+     * from {@link #MIN_RETRY_DELAY} up to {@link #MAX_RETRY_DELAY}.
      */
     private static final class HostnameCache {
         /**
-         * Time before the get hostname operation times out (in ms).
+         * Delay before retrying a first failed lookup (in ms).
+         */
+        private static final long MIN_RETRY_DELAY = TimeUnit.SECONDS.toMillis(1);
+        /**
+         * Maximum delay between two failed lookups (in ms).
          */
-        public static final long GET_HOSTNAME_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+        private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
         private static final Logger logger = LoggerFactory.getLogger(HostnameCache.class);
         /**
          * Time for which the cache is kept.
          */
         private final long cacheDuration;
+        /**
+         * Whether a refresh of the hostname is running, to run a single one at a time.
+         */
+        private final AtomicBoolean refreshing = new AtomicBoolean();
         /**
          * Current value for hostname (might change over time).
          */
-        private String hostname = DEFAULT_HOSTNAME;
+        private volatile String hostname = DEFAULT_HOSTNAME;
+        /**
+         * Time at which the cache should expire and be refreshed.
+         */
+        private volatile long expirationTimestamp;
         /**
-         * Time at which the cache should expire.
+         * Delay before retrying the next failed lookup, only used by the refreshing thread.
          */
-        private long expirationTimestamp;
+        private long retryDelay = MIN_RETRY_DELAY;
 
         /**
          * Sets up a cache for the hostname.
@@ -586,42 +623,52 @@ public class EventBuilder {
         /**
          * Gets the hostname of the current machine.
          * <p>
-         * Gets the value from the cache if possible otherwise calls {@link #updateCache()}.
+         * Always returns immediately with the cached value, starting a refresh in the background if it has expired.
          *
          * @return the hostname of the current machine.
          */
         public String getHostname() {
-            if (expirationTimestamp < System.currentTimeMillis()) {
-                updateCache();
+            if (expirationTimestamp <= System.currentTimeMillis() && refreshing.compareAndSet(false, true)) {
+                Thread refreshThread = new Thread(new HostRefresher(), "raven-hostname-refresh");
+                refreshThread.setDaemon(true);
+                refreshThread.start();
             }
 
             return hostname;
         }
 
         /**
-         * Force an update of the cache to get the current value of the hostname.
+         * Updates the cache with the current value of the hostname, keeping the last known value on failure.
          */
-        public void updateCache() {
-            FutureTask<String> futureTask = new FutureTask<>(new HostRetriever());
+        private void updateCache() {
             try {
-                new Thread(futureTask).start();
                 logger.debug("Updating the hostname cache");
-                hostname = futureTask.get(GET_HOSTNAME_TIMEOUT, TimeUnit.MILLISECONDS);
+                hostname = InetAddress.getLocalHost().getCanonicalHostName();
+                retryDelay = MIN_RETRY_DELAY;
                 expirationTimestamp = System.currentTimeMillis() + cacheDuration;
             } catch (Exception e) {
-                futureTask.cancel(true);
-                expirationTimestamp = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(1);
-                logger.warn("Localhost hostname lookup failed, keeping the value '{}'", hostname, e);
+                expirationTimestamp = System.currentTimeMillis() + retryDelay;
+                logger.warn("Localhost hostname lookup failed, keeping the value '{}' and retrying in {}ms",
+                    hostname, retryDelay, e);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+            } finally {
+                refreshing.set(false);
             }
         }
 
         /**
-         * Task retrieving the current hostname.
+         * Task refreshing the hostname outside of the threads creating events.
          */
-        private static final class HostRetriever implements Callable<String> {
+        private final class HostRefresher implements Runnable {
             @Override
-            public String call() throws Exception {
-                return InetAddress.getLocalHost().getCanonicalHostName();
+            public void run() {
+                // The current thread is managed by raven
+                RavenEnvironment.startManagingThread();
+                try {
+                    updateCache();
+                } finally {
+                    RavenEnvironment.stopManagingThread();
+                }
             }
         }
     }
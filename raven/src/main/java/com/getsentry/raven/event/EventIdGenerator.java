@@ -0,0 +1,19 @@
+package com.getsentry.raven.event;
+
+import java.util.UUID;
+
+/**
+ * Generator of the unique identifiers of the events, used by the {@link EventBuilder}s which aren't given an id.
+ *
+ * @see EventBuilder#setIdGenerator(EventIdGenerator)
+ */
+public interface EventIdGenerator {
+    /**
+     * Generates the identifier of a new event.
+     * <p>
+     * The generator is called by every thread building events, concurrently.
+     *
+     * @return a new random identifier.
+     */
+    UUID generateId();
+}
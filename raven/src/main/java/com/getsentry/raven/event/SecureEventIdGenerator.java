@@ -0,0 +1,17 @@
+package com.getsentry.raven.event;
+
+import java.util.UUID;
+
+/**
+ * Generator of the identifiers of the events with {@link UUID#randomUUID()}, from a cryptographically strong random
+ * number generator.
+ * <p>
+ * The random number generator is shared by the threads, which contend on it when many events are built at once, and
+ * may block while it gathers entropy on a freshly started host.
+ */
+public class SecureEventIdGenerator implements EventIdGenerator {
+    @Override
+    public UUID generateId() {
+        return UUID.randomUUID();
+    }
+}
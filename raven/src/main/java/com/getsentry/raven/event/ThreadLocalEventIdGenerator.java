@@ -0,0 +1,80 @@
+package com.getsentry.raven.event;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generator of the identifiers of the events with a random number generator for each thread, so that the threads
+ * building events never contend with each other.
+ * <p>
+ * Each thread has a xorshift128+ generator, with a period of 2<sup>128</sup> - 1, seeded once from the time at which
+ * the generator is created, the identity of the thread and a sequence shared by the threads. The identifiers are
+ * random version 4 UUIDs; unlike {@link SecureEventIdGenerator} they aren't unpredictable, which isn't required from
+ * the identifiers of the events.
+ */
+public class ThreadLocalEventIdGenerator implements EventIdGenerator {
+    /**
+     * Increment of the seed sequence, the golden ratio in 64 bits.
+     */
+    private static final long SEED_INCREMENT = 0x9e3779b97f4a7c15L;
+    private static final long VERSION_MASK = 0xf000L;
+    private static final long VERSION_4 = 0x4000L;
+    private static final long VARIANT_MASK = 0xc000000000000000L;
+    private static final long VARIANT_IETF = 0x8000000000000000L;
+    private final AtomicLong seedSequence = new AtomicLong(System.nanoTime() ^ System.currentTimeMillis()
+            ^ ((long) System.identityHashCode(this) << Integer.SIZE));
+    private final ThreadLocal<Xorshift128Plus> generators = new ThreadLocal<Xorshift128Plus>() {
+        @Override
+        protected Xorshift128Plus initialValue() {
+            long threadId = Thread.currentThread().getId();
+            return new Xorshift128Plus(mix(seedSequence.addAndGet(SEED_INCREMENT) ^ threadId),
+                    mix(seedSequence.addAndGet(SEED_INCREMENT) ^ System.nanoTime()));
+        }
+    };
+
+    /**
+     * Mixes the bits of a seed, with the finalizer of SplitMix64.
+     *
+     * @param seed seed to mix.
+     * @return the mixed seed.
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static long mix(long seed) {
+        long z = seed;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public UUID generateId() {
+        Xorshift128Plus generator = generators.get();
+        long mostSigBits = (generator.nextLong() & ~VERSION_MASK) | VERSION_4;
+        long leastSigBits = (generator.nextLong() & ~VARIANT_MASK) | VARIANT_IETF;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * Random number generator of a single thread.
+     */
+    private static final class Xorshift128Plus {
+        private long state0;
+        private long state1;
+
+        private Xorshift128Plus(long state0, long state1) {
+            // The state can't be all zeros
+            this.state0 = state0;
+            this.state1 = (state0 | state1) != 0 ? state1 : SEED_INCREMENT;
+        }
+
+        @SuppressWarnings("checkstyle:magicnumber")
+        private long nextLong() {
+            long s1 = state0;
+            long s0 = state1;
+            state0 = s0;
+            s1 ^= s1 << 23;
+            state1 = s1 ^ s0 ^ (s1 >>> 17) ^ (s0 >>> 26);
+            return state1 + s0;
+        }
+    }
+}
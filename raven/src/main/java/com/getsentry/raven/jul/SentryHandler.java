@@ -178,6 +178,9 @@ public class SentryHandler extends Handler {
         try {
             if (raven == null)
                 initRaven();
+            if (raven.isSampledOut(getLevel(record.getLevel())))
+                return;
+
             Event event = buildEvent(record);
             raven.sendEvent(event);
         } catch (Exception e) {
@@ -0,0 +1,198 @@
+package com.getsentry.raven.marshaller.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.getsentry.raven.event.Event;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the id, timestamp and level of the events straight into the {@link JsonGenerator}, without allocating.
+ * <p>
+ * Each thread has its own encoder, with the buffers in which the id and the timestamp are formatted. The timestamp
+ * is only precise to the second, so the formatted timestamp is kept until an event of an other second is written.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+final class EventHeaderEncoder {
+    private static final SerializableString EVENT_ID_FIELD = new SerializedString(JsonMarshaller.EVENT_ID);
+    private static final SerializableString TIMESTAMP_FIELD = new SerializedString(JsonMarshaller.TIMESTAMP);
+    private static final SerializableString LEVEL_FIELD = new SerializedString(JsonMarshaller.LEVEL);
+    /**
+     * Values of the levels, indexed by their ordinal.
+     */
+    private static final SerializableString[] LEVELS = levels();
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int ID_LENGTH = 32;
+    /**
+     * Length of a timestamp formatted as {@code yyyy-MM-ddTHH:mm:ss}.
+     */
+    private static final int TIMESTAMP_LENGTH = 19;
+    private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
+    /**
+     * First year formatted by the encoder, the {@link SimpleDateFormat} using the Julian calendar before.
+     */
+    private static final int MIN_YEAR = 1583;
+    private static final int MAX_YEAR = 9999;
+    private static final ThreadLocal<EventHeaderEncoder> ENCODERS = new ThreadLocal<EventHeaderEncoder>() {
+        @Override
+        protected EventHeaderEncoder initialValue() {
+            return new EventHeaderEncoder();
+        }
+    };
+    private final char[] id = new char[ID_LENGTH];
+    private final char[] timestamp = new char[TIMESTAMP_LENGTH];
+    /**
+     * Second since the epoch of the formatted timestamp.
+     */
+    private long timestampSecond = Long.MIN_VALUE;
+    /**
+     * Timestamp formatted as the {@link SimpleDateFormat} would, for the seconds out of the years handled by the
+     * encoder; null for the other seconds.
+     */
+    private String uncommonTimestamp;
+
+    private EventHeaderEncoder() {
+    }
+
+    private static SerializableString[] levels() {
+        SerializableString[] levels = new SerializableString[Event.Level.values().length];
+        for (Event.Level level : Event.Level.values()) {
+            levels[level.ordinal()] = new SerializedString(level.name().toLowerCase(Locale.ROOT));
+        }
+        return levels;
+    }
+
+    /**
+     * Gets the encoder of the current thread.
+     *
+     * @return the encoder of the thread.
+     */
+    static EventHeaderEncoder get() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Writes the id of an event as 32 hexadecimal digits, without the dashes of {@link UUID#toString()}.
+     *
+     * @param generator generator of the JSON content.
+     * @param eventId   id of the event.
+     * @throws IOException if the id couldn't be written.
+     */
+    void writeId(JsonGenerator generator, UUID eventId) throws IOException {
+        writeHex(eventId.getMostSignificantBits(), 0);
+        writeHex(eventId.getLeastSignificantBits(), ID_LENGTH / 2);
+        generator.writeFieldName(EVENT_ID_FIELD);
+        generator.writeString(id, 0, ID_LENGTH);
+    }
+
+    private void writeHex(long bits, int offset) {
+        for (int i = ID_LENGTH / 2 - 1; i >= 0; i--) {
+            id[offset + i] = HEX_DIGITS[(int) (bits & 0xf)];
+            bits >>>= 4;
+        }
+    }
+
+    /**
+     * Writes the timestamp of an event in the ISO 8601 format, in UTC.
+     *
+     * @param generator       generator of the JSON content.
+     * @param timestampMillis time of the event, in milliseconds since the epoch.
+     * @throws IOException if the timestamp couldn't be written.
+     */
+    void writeTimestamp(JsonGenerator generator, long timestampMillis) throws IOException {
+        long second = floorDiv(timestampMillis, TimeUnit.SECONDS.toMillis(1));
+        if (second != timestampSecond) {
+            formatTimestamp(second);
+            timestampSecond = second;
+        }
+        generator.writeFieldName(TIMESTAMP_FIELD);
+        if (uncommonTimestamp == null)
+            generator.writeString(timestamp, 0, TIMESTAMP_LENGTH);
+        else
+            generator.writeString(uncommonTimestamp);
+    }
+
+    /**
+     * Writes the level of an event, in lower case.
+     *
+     * @param generator generator of the JSON content.
+     * @param level     level of the event, possibly null.
+     * @throws IOException if the level couldn't be written.
+     */
+    static void writeLevel(JsonGenerator generator, Event.Level level) throws IOException {
+        generator.writeFieldName(LEVEL_FIELD);
+        if (level != null)
+            generator.writeString(LEVELS[level.ordinal()]);
+        else
+            generator.writeNull();
+    }
+
+    /**
+     * Formats a second as {@code yyyy-MM-ddTHH:mm:ss}, computing the date in the proleptic Gregorian calendar.
+     *
+     * @param second second since the epoch.
+     */
+    private void formatTimestamp(long second) {
+        long days = floorDiv(second, SECONDS_PER_DAY);
+        int secondOfDay = (int) (second - days * SECONDS_PER_DAY);
+
+        // Converts the days since the epoch into a date, by eras of 400 years starting on March 1st.
+        long shiftedDays = days + 719468;
+        long era = floorDiv(shiftedDays, 146097);
+        int dayOfEra = (int) (shiftedDays - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            uncommonTimestamp = formatUncommonTimestamp(second);
+            return;
+        }
+        uncommonTimestamp = null;
+        writeDigits((int) year, 0, 4);
+        timestamp[4] = '-';
+        writeDigits(month, 5, 2);
+        timestamp[7] = '-';
+        writeDigits(day, 8, 2);
+        timestamp[10] = 'T';
+        writeDigits(secondOfDay / 3600, 11, 2);
+        timestamp[13] = ':';
+        writeDigits(secondOfDay / 60 % 60, 14, 2);
+        timestamp[16] = ':';
+        writeDigits(secondOfDay % 60, 17, 2);
+    }
+
+    /**
+     * Formats a second out of the years handled by the encoder with a {@link SimpleDateFormat}, which allocates.
+     *
+     * @param second second since the epoch.
+     * @return the formatted timestamp.
+     */
+    private static String formatUncommonTimestamp(long second) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(new Date(TimeUnit.SECONDS.toMillis(second)));
+    }
+
+    private void writeDigits(int value, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            timestamp[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor < 0) ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,116 @@
+package com.getsentry.raven.marshaller.json;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the JSON fragments of the stack frames, encoded in UTF-8, so that the frames found in most stack traces
+ * are written as they are instead of field by field.
+ * <p>
+ * The cache is bounded by the approximate memory retained by the fragments. Once that bound is exceeded, arbitrary
+ * fragments are evicted until a quarter of the cache is free again.
+ */
+final class FrameFragmentCache {
+    /**
+     * Approximate memory retained by an entry besides its fragment: the map entry, the fragment instance and its
+     * arrays headers.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int EVICTION_DIVISOR = 4;
+    private final long maxBytes;
+    /**
+     * Fragments of the frames in-app, which differ by their {@code in_app} field from the other fragments.
+     */
+    private final ConcurrentMap<StackTraceElement, SerializableString> inAppFragments = new ConcurrentHashMap<>();
+    private final ConcurrentMap<StackTraceElement, SerializableString> notInAppFragments = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
+
+    /**
+     * Creates a cache retaining a limited amount of memory.
+     *
+     * @param maxBytes approximate maximum memory retained by the cached fragments, in bytes.
+     */
+    FrameFragmentCache(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The size of the frame cache must be positive, got " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the fragment of a frame.
+     *
+     * @param frame frame of the stack trace.
+     * @param inApp whether the frame is written as in-app.
+     * @return the fragment of the frame, or null if it isn't cached.
+     */
+    SerializableString get(StackTraceElement frame, boolean inApp) {
+        SerializableString fragment = fragments(inApp).get(frame);
+        metrics.onFrameCacheLookup(fragment != null);
+        return fragment;
+    }
+
+    /**
+     * Caches the fragment of a frame, evicting other fragments if the cache is full.
+     *
+     * @param frame    frame of the stack trace.
+     * @param inApp    whether the frame is written as in-app.
+     * @param fragment JSON object of the frame.
+     */
+    void put(StackTraceElement frame, boolean inApp, SerializableString fragment) {
+        long size = sizeOf(fragment);
+        if (size > maxBytes || fragments(inApp).putIfAbsent(frame, fragment) != null)
+            return;
+        if (retainedBytes.addAndGet(size) > maxBytes)
+            evict(maxBytes - maxBytes / EVICTION_DIVISOR);
+        metrics.onFrameCacheSize(retainedBytes.get());
+    }
+
+    private ConcurrentMap<StackTraceElement, SerializableString> fragments(boolean inApp) {
+        return inApp ? inAppFragments : notInAppFragments;
+    }
+
+    /**
+     * Evicts fragments until the retained memory is under a target.
+     *
+     * @param targetBytes memory which may be retained once the fragments are evicted.
+     */
+    private void evict(long targetBytes) {
+        evict(notInAppFragments, targetBytes);
+        evict(inAppFragments, targetBytes);
+    }
+
+    private void evict(ConcurrentMap<StackTraceElement, SerializableString> fragments, long targetBytes) {
+        Iterator<Map.Entry<StackTraceElement, SerializableString>> iterator = fragments.entrySet().iterator();
+        while (retainedBytes.get() > targetBytes && iterator.hasNext()) {
+            Map.Entry<StackTraceElement, SerializableString> entry = iterator.next();
+            if (fragments.remove(entry.getKey(), entry.getValue()))
+                retainedBytes.addAndGet(-sizeOf(entry.getValue()));
+        }
+    }
+
+    /**
+     * Estimates the memory retained by a fragment, kept both as a string and as its UTF-8 encoding.
+     *
+     * @param fragment cached fragment.
+     * @return the approximate size of the fragment, in bytes.
+     */
+    private static long sizeOf(SerializableString fragment) {
+        return ENTRY_OVERHEAD + 2L * fragment.charLength() + fragment.asUnquotedUTF8().length;
+    }
+
+    void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+}
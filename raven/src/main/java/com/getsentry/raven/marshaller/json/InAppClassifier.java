@@ -0,0 +1,136 @@
+package com.getsentry.raven.marshaller.json;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Classifies the frames of a stack trace as {@code in_app} or not, based on the name of their class.
+ * <p>
+ * The prefixes are compiled into a trie, so that a class name is classified in a single pass over its first
+ * characters, whatever the number of prefixes. The longest prefix matching the class name decides, so that an in-app
+ * package can be nested in a package which isn't, and the other way around. A class matching no prefix is in-app.
+ * <p>
+ * The verdicts are cached by class name, as the same classes appear in most stack traces.
+ */
+final class InAppClassifier {
+    /**
+     * Maximum number of cached verdicts, the cache being cleared once it is reached.
+     */
+    private static final int MAX_CACHED_CLASSES = 4096;
+    private static final byte NO_VERDICT = 0;
+    private static final byte IN_APP = 1;
+    private static final byte NOT_IN_APP = 2;
+    private final Node root;
+    private final ConcurrentMap<String, Boolean> verdicts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a classifier from the prefixes of the class names.
+     *
+     * @param inAppPrefixes    prefixes of the classes in-app.
+     * @param notInAppPrefixes prefixes of the classes not in-app; a prefix also in {@code inAppPrefixes} is in-app.
+     */
+    InAppClassifier(Collection<String> inAppPrefixes, Collection<String> notInAppPrefixes) {
+        NodeBuilder builder = new NodeBuilder();
+        for (String prefix : notInAppPrefixes) {
+            builder.add(prefix, NOT_IN_APP);
+        }
+        for (String prefix : inAppPrefixes) {
+            builder.add(prefix, IN_APP);
+        }
+        this.root = builder.build();
+    }
+
+    /**
+     * Tells whether a class is part of the application.
+     *
+     * @param className name of the class of the frame.
+     * @return true if the frame is in-app.
+     */
+    boolean isInApp(String className) {
+        Boolean inApp = verdicts.get(className);
+        if (inApp == null) {
+            inApp = root.match(className) != NOT_IN_APP;
+            if (verdicts.size() >= MAX_CACHED_CLASSES)
+                verdicts.clear();
+            verdicts.put(className, inApp);
+        }
+        return inApp;
+    }
+
+    /**
+     * Node of the compiled trie, with its children sorted by character.
+     */
+    private static final class Node {
+        private final byte verdict;
+        private final char[] labels;
+        private final Node[] children;
+
+        private Node(byte verdict, char[] labels, Node[] children) {
+            this.verdict = verdict;
+            this.labels = labels;
+            this.children = children;
+        }
+
+        /**
+         * Finds the verdict of the longest prefix of a class name.
+         *
+         * @param className name of the class.
+         * @return the verdict of the longest matching prefix, {@link #NO_VERDICT} if no prefix matches.
+         */
+        private byte match(String className) {
+            byte matched = NO_VERDICT;
+            Node node = this;
+            int i = 0;
+            while (node != null) {
+                if (node.verdict != NO_VERDICT)
+                    matched = node.verdict;
+                if (i == className.length())
+                    break;
+                node = node.child(className.charAt(i++));
+            }
+            return matched;
+        }
+
+        private Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            return index >= 0 ? children[index] : null;
+        }
+    }
+
+    /**
+     * Mutable node of the trie, while the prefixes are added.
+     */
+    private static final class NodeBuilder {
+        private final Map<Character, NodeBuilder> children = new TreeMap<>();
+        private byte verdict = NO_VERDICT;
+
+        private void add(String prefix, byte prefixVerdict) {
+            NodeBuilder node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                NodeBuilder child = node.children.get(prefix.charAt(i));
+                if (child == null) {
+                    child = new NodeBuilder();
+                    node.children.put(prefix.charAt(i), child);
+                }
+                node = child;
+            }
+            node.verdict = prefixVerdict;
+        }
+
+        private Node build() {
+            char[] labels = new char[children.size()];
+            Node[] compiledChildren = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, NodeBuilder> child : children.entrySet()) {
+                labels[i] = child.getKey();
+                compiledChildren[i] = child.getValue().build();
+                i++;
+            }
+            return new Node(verdict, labels, compiledChildren);
+        }
+    }
+}
@@ -8,23 +8,36 @@ import com.getsentry.raven.util.Base64OutputStream;
 import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.interfaces.SentryInterface;
 import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 /**
  * Event marshaller using JSON to send the data.
  * <p>
  * The content can also be compressed with {@link DeflaterOutputStream} in which case the binary result is encoded
- * in base 64.
+ * in base 64, or sent as raw gzip with a {@code Content-Encoding} header, which spares the encoding and the third it
+ * adds to the size of the content. The {@link Deflater}s, which hold native memory until they are ended, are pooled
+ * and reset between two events rather than created for each event.
+ * <p>
+ * With a compression threshold, the content is only compressed when the JSON is at least that large, as compressing
+ * and encoding a small event costs more than the few bytes it saves. The Sentry server tells the formats apart, and so
+ * do the connections, which only send the {@code Content-Encoding} header with the gzip content.
  */
-public class JsonMarshaller implements Marshaller {
+public class JsonMarshaller implements Marshaller, Instrumented {
     /**
      * Hexadecimal string representing a uuid4 value.
      */
@@ -90,33 +103,71 @@ public class JsonMarshaller implements Marshaller {
      */
     public static final int MAX_MESSAGE_LENGTH = 1000;
     /**
-     * Date format for ISO 8601.
+     * Maximum number of idle {@link Deflater}s kept for the next events.
      */
-    private static final ThreadLocal<DateFormat> ISO_FORMAT = new ThreadLocal<DateFormat>() {
-        @Override
-        protected DateFormat initialValue() {
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-            return dateFormat;
-        }
-    };
-
+    private static final int DEFLATER_POOL_SIZE = Runtime.getRuntime().availableProcessors();
     private static final Logger logger = LoggerFactory.getLogger(JsonMarshaller.class);
     private final JsonFactory jsonFactory = new JsonFactory();
-    private final Map<Class<? extends SentryInterface>, InterfaceBinding<?>> interfaceBindings = new HashMap<>();
+    private final Map<Class<? extends SentryInterface>, InterfaceBinding<?>> interfaceBindings =
+            new ConcurrentHashMap<>();
+    /**
+     * Binding resolved for each concrete type of {@link SentryInterface}, replaced when a binding is added.
+     */
+    private volatile ClassValue<InterfaceBinding<?>> resolvedBindings = new ResolvedBindings();
+    private volatile RavenMetrics metrics = new NoopRavenMetrics();
     /**
      * Enables disables the compression of JSON.
      */
     private boolean compression = true;
+    /**
+     * Sends the compressed content as raw gzip rather than deflated and encoded in base 64.
+     */
+    private boolean gzip;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+    /**
+     * Minimum size of the JSON content to compress it, in bytes; 0 to always compress.
+     */
+    private int compressionThreshold;
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(DEFLATER_POOL_SIZE);
+    /**
+     * Deflaters without the zlib header and checksum, for the gzip content.
+     */
+    private final BlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<>(DEFLATER_POOL_SIZE);
 
     @Override
     public void marshall(Event event, OutputStream destination) {
         // Prevent the stream from being closed automatically
         destination = new UncloseableOutputStream(destination);
 
-        if (compression)
-            destination = new DeflaterOutputStream(new Base64OutputStream(destination, Base64.NO_WRAP));
+        if (!compression) {
+            writeJson(event, destination);
+        } else if (compressionThreshold <= 0) {
+            boolean gzipContent = gzip;
+            Deflater deflater = acquireDeflater(gzipContent);
+            try {
+                writeJson(event, compressedStream(destination, deflater, gzipContent));
+            } catch (IOException e) {
+                logger.error("An exception occurred while serialising the event.", e);
+            } finally {
+                releaseDeflater(deflater, gzipContent);
+            }
+        } else {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            writeJson(event, json);
+            try {
+                if (json.size() < compressionThreshold) {
+                    json.writeTo(destination);
+                } else {
+                    writeCompressed(json, destination);
+                }
+            } catch (IOException e) {
+                logger.error("An exception occurred while serialising the event.", e);
+            }
+        }
+    }
 
+    private void writeJson(Event event, OutputStream destination) {
         try (JsonGenerator generator = jsonFactory.createGenerator(destination)) {
             writeContent(generator, event);
         } catch (IOException e) {
@@ -124,13 +175,58 @@ public class JsonMarshaller implements Marshaller {
         }
     }
 
+    private void writeCompressed(ByteArrayOutputStream json, OutputStream destination) throws IOException {
+        boolean gzipContent = gzip;
+        Deflater deflater = acquireDeflater(gzipContent);
+        try (OutputStream compressedStream = compressedStream(destination, deflater, gzipContent)) {
+            json.writeTo(compressedStream);
+        } finally {
+            releaseDeflater(deflater, gzipContent);
+        }
+    }
+
+    /**
+     * Creates a stream compressing the content, then either wrapping it in the gzip format or encoding it in base 64.
+     * <p>
+     * Closing the stream finishes the compression, but doesn't end the deflater.
+     *
+     * @param destination stream receiving the compressed content.
+     * @param deflater    deflater compressing the content.
+     * @param gzipContent whether the content is sent as raw gzip.
+     * @return a stream to write the content to.
+     * @throws IOException if the gzip header couldn't be written.
+     */
+    private OutputStream compressedStream(OutputStream destination, Deflater deflater, boolean gzipContent)
+            throws IOException {
+        if (gzipContent)
+            return new GzipOutputStream(destination, deflater);
+        return new DeflaterOutputStream(new Base64OutputStream(destination, Base64.NO_WRAP), deflater);
+    }
+
+    private Deflater acquireDeflater(boolean gzipContent) {
+        Deflater deflater = (gzipContent ? gzipDeflaters : deflaters).poll();
+        if (deflater == null)
+            deflater = new Deflater(compressionLevel, gzipContent);
+        // Both are only applied if they changed since the deflater was created.
+        deflater.setLevel(compressionLevel);
+        deflater.setStrategy(compressionStrategy);
+        return deflater;
+    }
+
+    private void releaseDeflater(Deflater deflater, boolean gzipContent) {
+        deflater.reset();
+        if (!(gzipContent ? gzipDeflaters : deflaters).offer(deflater))
+            deflater.end();
+    }
+
     private void writeContent(JsonGenerator generator, Event event) throws IOException {
         generator.writeStartObject();
 
-        generator.writeStringField(EVENT_ID, formatId(event.getId()));
+        EventHeaderEncoder headerEncoder = EventHeaderEncoder.get();
+        headerEncoder.writeId(generator, event.getId());
         generator.writeStringField(MESSAGE, formatMessage(event.getMessage()));
-        generator.writeStringField(TIMESTAMP, ISO_FORMAT.get().format(event.getTimestamp()));
-        generator.writeStringField(LEVEL, formatLevel(event.getLevel()));
+        headerEncoder.writeTimestamp(generator, event.getTimestampMillis());
+        EventHeaderEncoder.writeLevel(generator, event.getLevel());
         generator.writeStringField(LOGGER, event.getLogger());
         generator.writeStringField(PLATFORM, event.getPlatform());
         generator.writeStringField(CULPRIT, event.getCulprit());
@@ -148,12 +244,14 @@ public class JsonMarshaller implements Marshaller {
 
     private void writeInterfaces(JsonGenerator generator, Map<String, SentryInterface> sentryInterfaces)
             throws IOException {
+        ClassValue<InterfaceBinding<?>> bindings = resolvedBindings;
         for (Map.Entry<String, SentryInterface> interfaceEntry : sentryInterfaces.entrySet()) {
             SentryInterface sentryInterface = interfaceEntry.getValue();
+            InterfaceBinding<? super SentryInterface> binding = getInterfaceBinding(bindings, sentryInterface);
 
-            if (interfaceBindings.containsKey(sentryInterface.getClass())) {
+            if (binding != null) {
                 generator.writeFieldName(interfaceEntry.getKey());
-                getInterfaceBinding(sentryInterface).writeInterface(generator, interfaceEntry.getValue());
+                binding.writeInterface(generator, sentryInterface);
             } else {
                 logger.error("Couldn't parse the content of '{}' provided in {}.",
                         interfaceEntry.getKey(), sentryInterface);
@@ -162,9 +260,43 @@ public class JsonMarshaller implements Marshaller {
     }
 
     @SuppressWarnings("unchecked")
-    private <T extends SentryInterface> InterfaceBinding<? super T> getInterfaceBinding(T sentryInterface) {
+    private static <T extends SentryInterface> InterfaceBinding<? super T> getInterfaceBinding(
+            ClassValue<InterfaceBinding<?>> bindings, T sentryInterface) {
         // Reduces the @SuppressWarnings to a oneliner
-        return (InterfaceBinding<? super T>) interfaceBindings.get(sentryInterface.getClass());
+        return (InterfaceBinding<? super T>) bindings.get(sentryInterface.getClass());
+    }
+
+    /**
+     * Finds the binding of a type of {@link SentryInterface}.
+     * <p>
+     * The binding of the type itself is used first, then the binding of its closest superclass, then the binding of
+     * the first interface found, breadth-first, among the interfaces of the type and of its superclasses.
+     *
+     * @param type type of the SentryInterface to send.
+     * @return the binding of the type, or null if no binding applies.
+     */
+    private InterfaceBinding<?> findInterfaceBinding(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            InterfaceBinding<?> binding = interfaceBindings.get(c);
+            if (binding != null)
+                return binding;
+        }
+
+        Deque<Class<?>> candidates = new ArrayDeque<>();
+        Set<Class<?>> visited = new HashSet<>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            candidates.addAll(Arrays.asList(c.getInterfaces()));
+        }
+        while (!candidates.isEmpty()) {
+            Class<?> candidate = candidates.removeFirst();
+            if (!visited.add(candidate))
+                continue;
+            InterfaceBinding<?> binding = interfaceBindings.get(candidate);
+            if (binding != null)
+                return binding;
+            candidates.addAll(Arrays.asList(candidate.getInterfaces()));
+        }
+        return null;
     }
 
     private void writeExtras(JsonGenerator generator, Map<String, Object> extras) throws IOException {
@@ -239,8 +371,8 @@ public class JsonMarshaller implements Marshaller {
         generator.writeArrayFieldStart("values");
         for (Breadcrumb breadcrumb : breadcrumbs) {
             generator.writeStartObject();
-            // getTime() returns ts in millis, but breadcrumbs expect seconds
-            generator.writeNumberField("timestamp", breadcrumb.getTimestamp().getTime() / 1000);
+            // The timestamp is in millis, but breadcrumbs expect seconds
+            generator.writeNumberField("timestamp", breadcrumb.getTimestampMillis() / 1000);
 
             if (breadcrumb.getType() != null) {
                 generator.writeStringField("type", breadcrumb.getType());
@@ -254,10 +386,10 @@ public class JsonMarshaller implements Marshaller {
             if (breadcrumb.getCategory() != null) {
                 generator.writeStringField("category", breadcrumb.getCategory());
             }
-            if (breadcrumb.getData() != null && breadcrumb.getData().size() > 0) {
+            if (breadcrumb.getDataSize() > 0) {
                 generator.writeObjectFieldStart("data");
-                for (Map.Entry<String, String> entry : breadcrumb.getData().entrySet()) {
-                    generator.writeStringField(entry.getKey(), entry.getValue());
+                for (int i = 0; i < breadcrumb.getDataSize(); i++) {
+                    generator.writeStringField(breadcrumb.getDataKey(i), breadcrumb.getDataValue(i));
                 }
                 generator.writeEndObject();
             }
@@ -281,44 +413,6 @@ public class JsonMarshaller implements Marshaller {
         else return message;
     }
 
-    /**
-     * Formats the {@code UUID} to send only the 32 necessary characters.
-     *
-     * @param id uuid to format.
-     * @return a {@code UUID} stripped from the "-" characters.
-     */
-    private String formatId(UUID id) {
-        return id.toString().replaceAll("-", "");
-    }
-
-    /**
-     * Formats a log level into one of the accepted string representation of a log level.
-     *
-     * @param level log level to format.
-     * @return log level as a String.
-     */
-    private String formatLevel(Event.Level level) {
-        if (level == null)
-            return null;
-
-        switch (level) {
-            case DEBUG:
-                return "debug";
-            case FATAL:
-                return "fatal";
-            case WARNING:
-                return "warning";
-            case INFO:
-                return "info";
-            case ERROR:
-                return "error";
-            default:
-                logger.error("The level '{}' isn't supported, this should NEVER happen, contact Raven developers",
-                        level.name());
-                return null;
-        }
-    }
-
     /**
      * Add an interface binding to send a type of {@link SentryInterface} through a JSON stream.
      *
@@ -330,6 +424,24 @@ public class JsonMarshaller implements Marshaller {
     public <T extends SentryInterface, F extends T> void addInterfaceBinding(Class<F> sentryInterfaceClass,
                                                                              InterfaceBinding<T> binding) {
         this.interfaceBindings.put(sentryInterfaceClass, binding);
+        if (binding instanceof Instrumented)
+            ((Instrumented) binding).setMetrics(metrics);
+        // Resolves the types again, the new binding may be closer to some of them
+        this.resolvedBindings = new ResolvedBindings();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The metrics are handed over to the instrumented interface bindings.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+        for (InterfaceBinding<?> binding : interfaceBindings.values()) {
+            if (binding instanceof Instrumented)
+                ((Instrumented) binding).setMetrics(metrics);
+        }
     }
 
     /**
@@ -340,4 +452,101 @@ public class JsonMarshaller implements Marshaller {
     public void setCompression(boolean compression) {
         this.compression = compression;
     }
+
+    /**
+     * Sends the compressed content as raw gzip, which the connections send with a {@code Content-Encoding} header,
+     * rather than deflated and encoded in base 64.
+     *
+     * @param gzip whether the compressed content is sent as raw gzip.
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Sets the compression level, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     *
+     * @param compressionLevel compression level, or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if ((compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+                && compressionLevel != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Sets the compression strategy.
+     *
+     * @param compressionStrategy {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or
+     *                            {@link Deflater#HUFFMAN_ONLY}.
+     */
+    public void setCompressionStrategy(int compressionStrategy) {
+        if (compressionStrategy != Deflater.DEFAULT_STRATEGY && compressionStrategy != Deflater.FILTERED
+                && compressionStrategy != Deflater.HUFFMAN_ONLY)
+            throw new IllegalArgumentException("Invalid compression strategy " + compressionStrategy);
+        this.compressionStrategy = compressionStrategy;
+    }
+
+    /**
+     * Sets the minimum size of the JSON content for it to be compressed, the smaller events being sent as they are.
+     *
+     * @param compressionThreshold minimum size in bytes, 0 to compress every event.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Bindings resolved once for each concrete type of {@link SentryInterface}, then read without any lookup.
+     */
+    private final class ResolvedBindings extends ClassValue<InterfaceBinding<?>> {
+        @Override
+        protected InterfaceBinding<?> computeValue(Class<?> type) {
+            return findInterfaceBinding(type);
+        }
+    }
+
+    /**
+     * Stream writing the content compressed by a pooled deflater in the gzip format.
+     * <p>
+     * Unlike {@link java.util.zip.GZIPOutputStream}, which creates and ends its own deflater, the deflater is only
+     * finished when the stream is closed.
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static final class GzipOutputStream extends DeflaterOutputStream {
+        /**
+         * Magic number, deflate method, no flag, no modification time, no extra flag and unknown OS.
+         */
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+        private final CRC32 crc = new CRC32();
+
+        private GzipOutputStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, deflater);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished())
+                return;
+            super.finish();
+            writeInt((int) crc.getValue());
+            writeInt((int) def.getBytesRead());
+        }
+
+        private void writeInt(int value) throws IOException {
+            // The gzip trailer is little-endian
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+            out.write((value >> 16) & 0xff);
+            out.write((value >> 24) & 0xff);
+        }
+    }
 }
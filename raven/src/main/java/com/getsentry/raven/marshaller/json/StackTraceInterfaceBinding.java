@@ -1,16 +1,28 @@
 package com.getsentry.raven.marshaller.json;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.getsentry.raven.event.interfaces.StackTraceInterface;
+import com.getsentry.raven.metrics.Instrumented;
+import com.getsentry.raven.metrics.NoopRavenMetrics;
+import com.getsentry.raven.metrics.RavenMetrics;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
 
 /**
  * Binding allowing to convert a {@link StackTraceInterface} into a JSON stream.
+ * <p>
+ * The frames can be kept as JSON fragments in a {@link FrameFragmentCache}, shared by the events.
  */
-public class StackTraceInterfaceBinding implements InterfaceBinding<StackTraceInterface> {
+public class StackTraceInterfaceBinding implements InterfaceBinding<StackTraceInterface>, Instrumented {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final JsonFactory FRAGMENT_FACTORY = new JsonFactory();
     private static final String FRAMES_PARAMETER = "frames";
     private static final String FILENAME_PARAMETER = "filename";
     private static final String FUNCTION_PARAMETER = "function";
@@ -22,34 +34,62 @@ public class StackTraceInterfaceBinding implements InterfaceBinding<StackTraceIn
     private static final String POST_CONTEXT_PARAMETER = "post_context";
     private static final String IN_APP_PARAMETER = "in_app";
     private static final String VARIABLES_PARAMETER = "vars";
+    private Collection<String> inAppFrames = Collections.emptyList();
     private Collection<String> notInAppFrames = Collections.emptyList();
+    private InAppClassifier inAppClassifier = new InAppClassifier(inAppFrames, notInAppFrames);
     private boolean removeCommonFramesWithEnclosing = true;
+    private FrameFragmentCache frameCache;
+    private RavenMetrics metrics = new NoopRavenMetrics();
 
     /**
-     * Writes a single frame based on a {@code StackTraceElement}.
+     * Writes a single frame based on a {@code StackTraceElement}, from its cached fragment if there is one.
      *
      * @param stackTraceElement current frame in the stackTrace.
      */
     private void writeFrame(JsonGenerator generator, StackTraceElement stackTraceElement, boolean commonWithEnclosing)
             throws IOException {
+        boolean inApp = !(removeCommonFramesWithEnclosing && commonWithEnclosing)
+                && inAppClassifier.isInApp(stackTraceElement.getClassName());
+        if (frameCache == null) {
+            writeFrameObject(generator, stackTraceElement, inApp);
+            return;
+        }
+
+        SerializableString fragment = frameCache.get(stackTraceElement, inApp);
+        if (fragment == null) {
+            fragment = encodeFrame(stackTraceElement, inApp);
+            frameCache.put(stackTraceElement, inApp, fragment);
+        }
+        generator.writeRawValue(fragment);
+    }
+
+    private void writeFrameObject(JsonGenerator generator, StackTraceElement stackTraceElement, boolean inApp)
+            throws IOException {
         generator.writeStartObject();
         generator.writeStringField(FILENAME_PARAMETER, stackTraceElement.getFileName());
         generator.writeStringField(MODULE_PARAMETER, stackTraceElement.getClassName());
-        generator.writeBooleanField(IN_APP_PARAMETER, !(removeCommonFramesWithEnclosing && commonWithEnclosing)
-                && isFrameInApp(stackTraceElement));
+        generator.writeBooleanField(IN_APP_PARAMETER, inApp);
         generator.writeStringField(FUNCTION_PARAMETER, stackTraceElement.getMethodName());
         generator.writeNumberField(LINE_NO_PARAMETER, stackTraceElement.getLineNumber());
         generator.writeEndObject();
     }
 
-    private boolean isFrameInApp(StackTraceElement stackTraceElement) {
-        //TODO: A set is absolutely not efficient here, a Trie could be a better solution.
-        for (String notInAppFrame : notInAppFrames) {
-            if (stackTraceElement.getClassName().startsWith(notInAppFrame)) {
-                return false;
-            }
+    /**
+     * Encodes a frame as a standalone JSON fragment, to be cached.
+     *
+     * @param stackTraceElement frame to encode.
+     * @param inApp             whether the frame is in-app.
+     * @return the JSON object of the frame, with its UTF-8 encoding.
+     */
+    private SerializableString encodeFrame(StackTraceElement stackTraceElement, boolean inApp) throws IOException {
+        ByteArrayOutputStream fragment = new ByteArrayOutputStream();
+        try (JsonGenerator fragmentGenerator = FRAGMENT_FACTORY.createGenerator(fragment)) {
+            writeFrameObject(fragmentGenerator, stackTraceElement, inApp);
         }
-        return true;
+        SerializedString serializedFragment = new SerializedString(new String(fragment.toByteArray(), UTF_8));
+        // Encodes the fragment once, rather than on its first use
+        serializedFragment.asUnquotedUTF8();
+        return serializedFragment;
     }
 
     @Override
@@ -69,11 +109,53 @@ public class StackTraceInterfaceBinding implements InterfaceBinding<StackTraceIn
         generator.writeEndObject();
     }
 
+    /**
+     * Enables the cache of the frames, keeping their JSON fragments for the next events.
+     *
+     * @param maxBytes approximate maximum memory retained by the cache, in bytes; 0 to disable the cache.
+     */
+    public void setFrameCacheSize(long maxBytes) {
+        if (maxBytes > 0) {
+            frameCache = new FrameFragmentCache(maxBytes);
+            frameCache.setMetrics(metrics);
+        } else {
+            frameCache = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The lookups in the frame cache and its size are reported, if it is enabled.
+     */
+    @Override
+    public void setMetrics(RavenMetrics metrics) {
+        this.metrics = metrics;
+        if (frameCache != null)
+            frameCache.setMetrics(metrics);
+    }
+
     public void setRemoveCommonFramesWithEnclosing(boolean removeCommonFramesWithEnclosing) {
         this.removeCommonFramesWithEnclosing = removeCommonFramesWithEnclosing;
     }
 
+    /**
+     * Sets the prefixes of the classes which are part of the application, even within a package not in-app.
+     *
+     * @param inAppFrames prefixes of the class names in-app.
+     */
+    public void setInAppFrames(Collection<String> inAppFrames) {
+        this.inAppFrames = inAppFrames;
+        this.inAppClassifier = new InAppClassifier(inAppFrames, notInAppFrames);
+    }
+
+    /**
+     * Sets the prefixes of the classes which aren't part of the application.
+     *
+     * @param notInAppFrames prefixes of the class names not in-app.
+     */
     public void setNotInAppFrames(Collection<String> notInAppFrames) {
         this.notInAppFrames = notInAppFrames;
+        this.inAppClassifier = new InAppClassifier(inAppFrames, notInAppFrames);
     }
 }
@@ -0,0 +1,15 @@
+package com.getsentry.raven.metrics;
+
+/**
+ * Component reporting its measures to a {@link RavenMetrics}.
+ * <p>
+ * Components encapsulating an other component hand the metrics over to it.
+ */
+public interface Instrumented {
+    /**
+     * Sets the metrics receiving the measures of the component.
+     *
+     * @param metrics metrics receiving the measures.
+     */
+    void setMetrics(RavenMetrics metrics);
+}
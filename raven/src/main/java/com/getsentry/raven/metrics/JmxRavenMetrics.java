@@ -0,0 +1,230 @@
+package com.getsentry.raven.metrics;
+
+import com.getsentry.raven.connection.ConnectionLoad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Metrics kept in lock-free counters and histograms, exposed as an MBean.
+ * <p>
+ * The counters are {@link StripedCounter}s, so that measuring the events doesn't make the threads sending them
+ * contend on a shared value. The queue depth is read from the {@link ConnectionLoad} of the connection, if any.
+ */
+public class JmxRavenMetrics implements RavenMetrics, JmxRavenMetricsMBean {
+    private static final Logger logger = LoggerFactory.getLogger(JmxRavenMetrics.class);
+    private static final double PERCENTILE_99 = 99;
+    private final ConnectionLoad connectionLoad;
+    private final StripedCounter enqueuedCount = new StripedCounter();
+    private final StripedCounter droppedCount = new StripedCounter();
+    private final StripedCounter delayedCount = new StripedCounter();
+    private final StripedCounter failureCount = new StripedCounter();
+    private final StripedCounter circuitOpenedCount = new StripedCounter();
+    private final StripedCounter marshalledBytes = new StripedCounter();
+    private final StripedCounter frameCacheHits = new StripedCounter();
+    private final StripedCounter frameCacheMisses = new StripedCounter();
+    private volatile long frameCacheBytes;
+    private final LatencyHistogram buildTime = new LatencyHistogram();
+    private final LatencyHistogram marshalTime = new LatencyHistogram();
+    private final LatencyHistogram sendTime = new LatencyHistogram();
+    private volatile ObjectName objectName;
+
+    /**
+     * Creates metrics for a connection.
+     *
+     * @param connectionLoad load of the connection, providing the queue depth; may be null.
+     */
+    public JmxRavenMetrics(ConnectionLoad connectionLoad) {
+        this.connectionLoad = connectionLoad;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server.
+     * <p>
+     * A failure to register is logged, the metrics being kept without being exposed.
+     *
+     * @param name name of the MBean.
+     */
+    public void register(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            logger.warn("The Raven metrics couldn't be registered as '{}'.", name, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unregisters the MBean.
+     */
+    @Override
+    public void close() {
+        ObjectName name = objectName;
+        if (name == null)
+            return;
+        objectName = null;
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.unregisterMBean(name);
+        } catch (JMException e) {
+            logger.debug("The Raven metrics '{}' couldn't be unregistered.", name, e);
+        }
+    }
+
+    @Override
+    public void onBuilt(long nanos) {
+        buildTime.record(nanos);
+    }
+
+    @Override
+    public void onEnqueued() {
+        enqueuedCount.increment();
+    }
+
+    @Override
+    public void onDropped() {
+        droppedCount.increment();
+    }
+
+    @Override
+    public void onDelayed() {
+        delayedCount.increment();
+    }
+
+    @Override
+    public void onMarshalled(long nanos, long bytes) {
+        marshalTime.record(nanos);
+        marshalledBytes.add(bytes);
+    }
+
+    @Override
+    public void onFrameCacheLookup(boolean hit) {
+        if (hit)
+            frameCacheHits.increment();
+        else
+            frameCacheMisses.increment();
+    }
+
+    @Override
+    public void onFrameCacheSize(long bytes) {
+        frameCacheBytes = bytes;
+    }
+
+    @Override
+    public void onSent(long nanos) {
+        sendTime.record(nanos);
+    }
+
+    @Override
+    public void onFailure() {
+        failureCount.increment();
+    }
+
+    @Override
+    public void onCircuitOpened() {
+        circuitOpenedCount.increment();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return connectionLoad != null ? connectionLoad.getQueueSize() : 0;
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return enqueuedCount.sum();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public long getDelayedCount() {
+        return delayedCount.sum();
+    }
+
+    @Override
+    public long getSentCount() {
+        return sendTime.getCount();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    @Override
+    public long getCircuitOpenedCount() {
+        return circuitOpenedCount.sum();
+    }
+
+    @Override
+    public long getMarshalledBytes() {
+        return marshalledBytes.sum();
+    }
+
+    @Override
+    public double getFrameCacheHitRatio() {
+        long hits = frameCacheHits.sum();
+        long lookups = hits + frameCacheMisses.sum();
+        return lookups > 0 ? hits / (double) lookups : 0;
+    }
+
+    @Override
+    public long getFrameCacheBytes() {
+        return frameCacheBytes;
+    }
+
+    @Override
+    public double getBuildTimeMean() {
+        return buildTime.getMean();
+    }
+
+    @Override
+    public double getBuildTime99thPercentile() {
+        return buildTime.getPercentile(PERCENTILE_99);
+    }
+
+    @Override
+    public double getBuildTimeMax() {
+        return buildTime.getMax();
+    }
+
+    @Override
+    public double getMarshalTimeMean() {
+        return marshalTime.getMean();
+    }
+
+    @Override
+    public double getMarshalTime99thPercentile() {
+        return marshalTime.getPercentile(PERCENTILE_99);
+    }
+
+    @Override
+    public double getMarshalTimeMax() {
+        return marshalTime.getMax();
+    }
+
+    @Override
+    public double getSendTimeMean() {
+        return sendTime.getMean();
+    }
+
+    @Override
+    public double getSendTime99thPercentile() {
+        return sendTime.getPercentile(PERCENTILE_99);
+    }
+
+    @Override
+    public double getSendTimeMax() {
+        return sendTime.getMax();
+    }
+}
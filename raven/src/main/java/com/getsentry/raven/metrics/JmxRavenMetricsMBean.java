@@ -0,0 +1,142 @@
+package com.getsentry.raven.metrics;
+
+/**
+ * Management interface of {@link JmxRavenMetrics}.
+ * <p>
+ * The durations are given in milliseconds.
+ */
+public interface JmxRavenMetricsMBean {
+    /**
+     * Gets the number of events waiting in the queue of the asynchronous connection.
+     *
+     * @return the number of queued events, 0 if the connection has no queue.
+     */
+    int getQueueDepth();
+
+    /**
+     * Gets the number of events queued to be sent asynchronously.
+     *
+     * @return the number of queued events since the creation of the Raven instance.
+     */
+    long getEnqueuedCount();
+
+    /**
+     * Gets the number of events dropped without being sent, because a queue was full or the Sentry server couldn't
+     * receive them.
+     *
+     * @return the number of dropped events.
+     */
+    long getDroppedCount();
+
+    /**
+     * Gets the number of events delayed because the queue was full.
+     *
+     * @return the number of delayed events.
+     */
+    long getDelayedCount();
+
+    /**
+     * Gets the number of events accepted by the Sentry server.
+     *
+     * @return the number of sent events.
+     */
+    long getSentCount();
+
+    /**
+     * Gets the number of attempts to send an event which failed.
+     *
+     * @return the number of failures.
+     */
+    long getFailureCount();
+
+    /**
+     * Gets the number of times the events stopped being sent for a while after a failure.
+     *
+     * @return the number of times the circuit breaker has been opened.
+     */
+    long getCircuitOpenedCount();
+
+    /**
+     * Gets the size of the marshalled events.
+     *
+     * @return the number of bytes produced by the marshaller.
+     */
+    long getMarshalledBytes();
+
+    /**
+     * Gets the proportion of the stack frames found in the cache of the marshaller.
+     *
+     * @return the ratio of cache hits to lookups, 0 if no frame has been looked up.
+     */
+    double getFrameCacheHitRatio();
+
+    /**
+     * Gets the approximate memory retained by the cache of the stack frames.
+     *
+     * @return the size of the cache in bytes.
+     */
+    long getFrameCacheBytes();
+
+    /**
+     * Gets the mean time taken to build the events.
+     *
+     * @return the mean time, 0 if no event has been measured.
+     */
+    double getBuildTimeMean();
+
+    /**
+     * Gets an approximation of the 99th percentile of the time taken to build the events.
+     *
+     * @return the upper bound of the bucket of the percentile, at most twice the actual value.
+     */
+    double getBuildTime99thPercentile();
+
+    /**
+     * Gets the longest time taken to build the events.
+     *
+     * @return the maximum time, 0 if no event has been measured.
+     */
+    double getBuildTimeMax();
+
+    /**
+     * Gets the mean time taken to marshal the events.
+     *
+     * @return the mean time, 0 if no event has been measured.
+     */
+    double getMarshalTimeMean();
+
+    /**
+     * Gets an approximation of the 99th percentile of the time taken to marshal the events.
+     *
+     * @return the upper bound of the bucket of the percentile, at most twice the actual value.
+     */
+    double getMarshalTime99thPercentile();
+
+    /**
+     * Gets the longest time taken to marshal the events.
+     *
+     * @return the maximum time, 0 if no event has been measured.
+     */
+    double getMarshalTimeMax();
+
+    /**
+     * Gets the mean time taken to send the events.
+     *
+     * @return the mean time, 0 if no event has been measured.
+     */
+    double getSendTimeMean();
+
+    /**
+     * Gets an approximation of the 99th percentile of the time taken to send the events.
+     *
+     * @return the upper bound of the bucket of the percentile, at most twice the actual value.
+     */
+    double getSendTime99thPercentile();
+
+    /**
+     * Gets the longest time taken to send the events.
+     *
+     * @return the maximum time, 0 if no event has been measured.
+     */
+    double getSendTimeMax();
+}
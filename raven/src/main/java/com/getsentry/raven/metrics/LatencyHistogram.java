@@ -0,0 +1,101 @@
+package com.getsentry.raven.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, with buckets growing as powers of two.
+ * <p>
+ * The first bucket holds the durations below 1 microsecond, the bucket {@code i} the durations between
+ * 2<sup>i-1</sup> and 2<sup>i</sup> microseconds. The percentiles are approximated by the upper bound of their
+ * bucket, which is at most twice the actual value.
+ */
+public final class LatencyHistogram {
+    /**
+     * Number of buckets, the last one holding the durations above 2<sup>30</sup> microseconds (about 18 minutes).
+     */
+    private static final int BUCKETS = 32;
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double MAX_PERCENTILE = 100;
+    private static final double MICROS_PER_MILLI = TimeUnit.MILLISECONDS.toMicros(1);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter totalNanos = new StripedCounter();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private static int bucketIndex(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos duration in nanoseconds, negative values being recorded as 0.
+     */
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketIndex(duration));
+        count.increment();
+        totalNanos.add(duration);
+        long max = maxNanos.get();
+        while (duration > max && !maxNanos.compareAndSet(max, duration)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return the number of recorded durations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the mean of the recorded durations.
+     *
+     * @return the mean in milliseconds, 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        long recorded = count.sum();
+        return recorded > 0 ? totalNanos.sum() / NANOS_PER_MILLI / recorded : 0;
+    }
+
+    /**
+     * Gets the longest recorded duration.
+     *
+     * @return the maximum in milliseconds, 0 if nothing has been recorded.
+     */
+    public double getMax() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Gets an approximation of a percentile of the recorded durations.
+     *
+     * @param percentile percentile to compute, between 0 and 100.
+     * @return the upper bound of the bucket of the percentile in milliseconds, 0 if nothing has been recorded.
+     */
+    public double getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(total * Math.max(0, Math.min(MAX_PERCENTILE, percentile)) / MAX_PERCENTILE);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0)
+                return (1L << i) / MICROS_PER_MILLI;
+        }
+        return getMax();
+    }
+}
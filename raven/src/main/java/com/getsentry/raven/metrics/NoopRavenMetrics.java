@@ -0,0 +1,50 @@
+package com.getsentry.raven.metrics;
+
+/**
+ * Metrics ignoring every measure, used when the metrics aren't enabled.
+ */
+public class NoopRavenMetrics implements RavenMetrics {
+    @Override
+    public void onBuilt(long nanos) {
+    }
+
+    @Override
+    public void onEnqueued() {
+    }
+
+    @Override
+    public void onDropped() {
+    }
+
+    @Override
+    public void onDelayed() {
+    }
+
+    @Override
+    public void onMarshalled(long nanos, long bytes) {
+    }
+
+    @Override
+    public void onFrameCacheLookup(boolean hit) {
+    }
+
+    @Override
+    public void onFrameCacheSize(long bytes) {
+    }
+
+    @Override
+    public void onSent(long nanos) {
+    }
+
+    @Override
+    public void onFailure() {
+    }
+
+    @Override
+    public void onCircuitOpened() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,78 @@
+package com.getsentry.raven.metrics;
+
+/**
+ * Receiver of the measures taken along the way of the events, from their creation to the Sentry server.
+ * <p>
+ * The methods are called from the threads building and sending the events and must neither block nor throw.
+ * The durations are given in nanoseconds.
+ */
+public interface RavenMetrics {
+    /**
+     * Called once an event has been built by the {@link com.getsentry.raven.Raven} instance.
+     *
+     * @param nanos time spent running the builder helpers and building the event.
+     */
+    void onBuilt(long nanos);
+
+    /**
+     * Called when an event is queued to be sent asynchronously.
+     */
+    void onEnqueued();
+
+    /**
+     * Called when an event is dropped without being sent, because a queue is full or the Sentry server can't receive
+     * it at the moment.
+     */
+    void onDropped();
+
+    /**
+     * Called when an event is delayed because a queue is full, the sending thread either waiting or sending the event
+     * itself, or the event being kept aside until the queue has room.
+     */
+    void onDelayed();
+
+    /**
+     * Called once an event has been marshalled.
+     *
+     * @param nanos time spent marshalling the event.
+     * @param bytes size of the marshalled event.
+     */
+    void onMarshalled(long nanos, long bytes);
+
+    /**
+     * Called each time the marshaller looks for the cached content of a stack frame.
+     *
+     * @param hit whether the content of the frame was cached.
+     */
+    void onFrameCacheLookup(boolean hit);
+
+    /**
+     * Called when the content of stack frames has been added to or evicted from the cache of the marshaller.
+     *
+     * @param bytes approximate memory now retained by the cache.
+     */
+    void onFrameCacheSize(long bytes);
+
+    /**
+     * Called once an event has been accepted by the Sentry server.
+     *
+     * @param nanos time spent sending the event.
+     */
+    void onSent(long nanos);
+
+    /**
+     * Called when an event couldn't be sent to the Sentry server.
+     */
+    void onFailure();
+
+    /**
+     * Called when the events stop being sent for a while after a failure.
+     */
+    void onCircuitOpened();
+
+    /**
+     * Releases the resources held to expose the metrics, once the {@link com.getsentry.raven.Raven} instance is
+     * closed.
+     */
+    void close();
+}
@@ -0,0 +1,56 @@
+package com.getsentry.raven.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter spreading its increments over several cells to avoid contention between threads.
+ * <p>
+ * Each thread updates the cell chosen by its identifier, the cells being far enough from each other not to share a
+ * cache line. Reading the counter sums the cells, without isolation from the concurrent increments.
+ */
+public final class StripedCounter {
+    /**
+     * Number of cells, a power of two at least twice the number of processors.
+     */
+    private static final int CELLS = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()))
+            << 2;
+    /**
+     * Distance between two cells, 8 longs making the 64 bytes of a cache line.
+     */
+    private static final int PADDING = 8;
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+    private static int cellIndex() {
+        // Thread identifiers are sequential, consecutive threads update consecutive cells.
+        return (int) (Thread.currentThread().getId() & (CELLS - 1)) * PADDING;
+    }
+
+    /**
+     * Adds one to the counter.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Adds a value to the counter.
+     *
+     * @param value value to add.
+     */
+    public void add(long value) {
+        cells.getAndAdd(cellIndex(), value);
+    }
+
+    /**
+     * Gets the value of the counter.
+     *
+     * @return the sum of the cells.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,72 @@
+package com.getsentry.raven.sampling;
+
+import com.getsentry.raven.connection.ConnectionLoad;
+import com.getsentry.raven.event.Event;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampler lowering the rate of another sampler while the connection can't keep up with the events.
+ * <p>
+ * The connection is under pressure once its queue is more than half full, or once sending an event takes longer than
+ * the target send time. The pressure grows until the queue is full or the send time is twice the target, the rate of
+ * the other sampler then being multiplied by the minimum factor. Without pressure the rate is left as is.
+ */
+public class AdaptiveSampler implements Sampler {
+    /**
+     * Default factor applied to the rate when the connection is under full pressure.
+     */
+    public static final double DEFAULT_MIN_FACTOR = 0.1;
+    /**
+     * Default time above which sending an event is considered too slow, in milliseconds.
+     */
+    public static final long DEFAULT_TARGET_SEND_TIME = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Proportion of the queue from which the connection is under pressure.
+     */
+    private static final double QUEUE_LOW_WATERMARK = 0.5;
+    private final Sampler baseSampler;
+    private final ConnectionLoad connectionLoad;
+    private final double minFactor;
+    private final long targetSendTime;
+
+    /**
+     * Creates a sampler following the load of a connection.
+     *
+     * @param baseSampler    sampler giving the rate without pressure.
+     * @param connectionLoad load of the connection sending the events.
+     * @param minFactor      factor applied to the rate under full pressure, between 0 and 1.
+     * @param targetSendTime time above which sending an event is considered too slow, in milliseconds.
+     */
+    public AdaptiveSampler(Sampler baseSampler, ConnectionLoad connectionLoad, double minFactor,
+                           long targetSendTime) {
+        if (minFactor < 0 || minFactor > 1)
+            throw new IllegalArgumentException("The minimum factor must be between 0 and 1, got " + minFactor);
+        if (targetSendTime <= 0)
+            throw new IllegalArgumentException("The target send time must be positive, got " + targetSendTime);
+        this.baseSampler = baseSampler;
+        this.connectionLoad = connectionLoad;
+        this.minFactor = minFactor;
+        this.targetSendTime = targetSendTime;
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    @Override
+    public double getSampleRate(Event.Level level) {
+        return baseSampler.getSampleRate(level) * (1 - getPressure() * (1 - minFactor));
+    }
+
+    /**
+     * Gets the pressure on the connection.
+     *
+     * @return a value between 0 (no pressure) and 1 (full pressure).
+     */
+    double getPressure() {
+        double queuePressure = (connectionLoad.getQueueUsage() - QUEUE_LOW_WATERMARK) / (1 - QUEUE_LOW_WATERMARK);
+        double sendTimePressure = (connectionLoad.getAverageSendTime() - targetSendTime) / (double) targetSendTime;
+        return clamp(Math.max(queuePressure, sendTimePressure));
+    }
+}
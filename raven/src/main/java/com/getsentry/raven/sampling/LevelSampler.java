@@ -0,0 +1,49 @@
+package com.getsentry.raven.sampling;
+
+import com.getsentry.raven.event.Event;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Sampler with a static rate for each level.
+ * <p>
+ * The levels without a specific rate, and the events without level, use the default rate.
+ */
+public class LevelSampler implements Sampler {
+    private final double defaultRate;
+    private final Map<Event.Level, Double> levelRates = new EnumMap<>(Event.Level.class);
+
+    /**
+     * Creates a sampler applying the same rate to every level.
+     *
+     * @param defaultRate rate of the levels without a specific rate, between 0 and 1.
+     */
+    public LevelSampler(double defaultRate) {
+        this.defaultRate = checkRate(defaultRate);
+    }
+
+    private static double checkRate(double rate) {
+        if (rate < 0 || rate > 1)
+            throw new IllegalArgumentException("A sample rate must be between 0 and 1, got " + rate);
+        return rate;
+    }
+
+    /**
+     * Sets the rate of a level.
+     *
+     * @param level level of the events.
+     * @param rate  rate of the events of that level, between 0 and 1.
+     * @return the current sampler for chained calls.
+     */
+    public LevelSampler withLevelRate(Event.Level level, double rate) {
+        levelRates.put(level, checkRate(rate));
+        return this;
+    }
+
+    @Override
+    public double getSampleRate(Event.Level level) {
+        Double rate = level != null ? levelRates.get(level) : null;
+        return rate != null ? rate : defaultRate;
+    }
+}
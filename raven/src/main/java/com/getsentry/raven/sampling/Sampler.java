@@ -0,0 +1,19 @@
+package com.getsentry.raven.sampling;
+
+import com.getsentry.raven.event.Event;
+
+/**
+ * Sampler deciding which proportion of the events is sent to Sentry.
+ * <p>
+ * The sampler is consulted by {@link com.getsentry.raven.Raven} before an event is built, the cost of building the
+ * events which aren't sent being saved.
+ */
+public interface Sampler {
+    /**
+     * Gets the probability for an event of the given level to be sent.
+     *
+     * @param level level of the event, possibly null.
+     * @return a rate between 0 (no event is sent) and 1 (every event is sent).
+     */
+    double getSampleRate(Event.Level level);
+}
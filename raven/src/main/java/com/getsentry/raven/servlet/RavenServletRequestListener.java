@@ -17,6 +17,21 @@ public class RavenServletRequestListener implements ServletRequestListener {
         return THREAD_REQUEST.get();
     }
 
+    /**
+     * Binds a request to the current thread, so that the events built by that thread describe it.
+     * <p>
+     * Used to propagate the request to the threads doing part of its work, see
+     * {@link com.getsentry.raven.RavenContextSnapshot}.
+     *
+     * @param servletRequest request handled by the current thread, or null to unbind the current request.
+     */
+    public static void setServletRequest(HttpServletRequest servletRequest) {
+        if (servletRequest != null)
+            THREAD_REQUEST.set(servletRequest);
+        else
+            THREAD_REQUEST.remove();
+    }
+
     @Override
     public void requestDestroyed(ServletRequestEvent servletRequestEvent) {
         THREAD_REQUEST.remove();
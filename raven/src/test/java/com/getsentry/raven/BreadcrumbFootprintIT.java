@@ -0,0 +1,60 @@
+package com.getsentry.raven;
+
+import com.getsentry.raven.event.BreadcrumbBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the heap retained by the breadcrumbs of full contexts, as kept by request threads.
+ */
+public class BreadcrumbFootprintIT {
+    private static final Logger logger = LoggerFactory.getLogger(BreadcrumbFootprintIT.class);
+    private static final int CONTEXT_COUNT = 2000;
+    private static final int BREADCRUMBS_PER_CONTEXT = 100;
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static RavenContext fullContext(int contextIndex) {
+        RavenContext context = new RavenContext(BREADCRUMBS_PER_CONTEXT);
+        for (int i = 0; i < BREADCRUMBS_PER_CONTEXT; i++) {
+            Map<String, String> data = new HashMap<>();
+            data.put("method", "GET");
+            data.put("url", "/orders/" + contextIndex + "/" + i);
+            // Strings built at runtime, as they are when they come from a logging framework
+            context.recordBreadcrumb(new BreadcrumbBuilder()
+                    .setType(new String("http"))
+                    .setLevel(new String("info"))
+                    .setCategory(new String("http.request"))
+                    .setData(data)
+                    .build());
+        }
+        return context;
+    }
+
+    @Test
+    public void measureFootprint() throws Exception {
+        long before = usedMemory();
+        RavenContext[] contexts = new RavenContext[CONTEXT_COUNT];
+        for (int i = 0; i < CONTEXT_COUNT; i++) {
+            contexts[i] = fullContext(i);
+        }
+        long retained = usedMemory() - before;
+
+        logger.info("{} breadcrumbs per context: {} bytes per context, {} bytes per breadcrumb",
+                BREADCRUMBS_PER_CONTEXT, retained / contexts.length,
+                retained / ((long) contexts.length * BREADCRUMBS_PER_CONTEXT));
+    }
+}
@@ -0,0 +1,112 @@
+package com.getsentry.raven;
+
+import com.getsentry.raven.event.Breadcrumb;
+import com.getsentry.raven.event.BreadcrumbBuilder;
+import com.getsentry.raven.util.CircularFifoQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+
+/**
+ * Measures the throughput of the breadcrumb ring, recorded from one thread or from threads sharing a context, and
+ * of the snapshots taken to build the events.
+ */
+public class BreadcrumbRingIT {
+    private static final Logger logger = LoggerFactory.getLogger(BreadcrumbRingIT.class);
+    private static final int CAPACITY = 100;
+    private static final int BREADCRUMBS_PER_THREAD = 5000000;
+    private static final int SNAPSHOT_COUNT = 200000;
+    private static final int MAX_THREAD_COUNT = 8;
+    private static final Breadcrumb BREADCRUMB = new BreadcrumbBuilder()
+            .setLevel("info")
+            .setCategory("benchmark")
+            .setMessage("breadcrumb")
+            .build();
+
+    private static double perSecond(long count, long elapsedNanos) {
+        return count / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private double measureRecords(final BreadcrumbRing ring, int threadCount) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < BREADCRUMBS_PER_THREAD; j++) {
+                            ring.record(BREADCRUMB);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await(1, TimeUnit.MINUTES);
+        return perSecond((long) threadCount * BREADCRUMBS_PER_THREAD, System.nanoTime() - startTime);
+    }
+
+    private double measureQueueRecords(CircularFifoQueue<Breadcrumb> queue) {
+        long startTime = System.nanoTime();
+        for (int j = 0; j < BREADCRUMBS_PER_THREAD; j++) {
+            queue.add(BREADCRUMB);
+        }
+        return perSecond(BREADCRUMBS_PER_THREAD, System.nanoTime() - startTime);
+    }
+
+    private double measureSnapshots(BreadcrumbRing ring) {
+        long startTime = System.nanoTime();
+        for (int j = 0; j < SNAPSHOT_COUNT; j++) {
+            assertThat(ring.snapshot(), hasSize(CAPACITY));
+        }
+        return perSecond(SNAPSHOT_COUNT, System.nanoTime() - startTime);
+    }
+
+    private double measureQueueCopies(CircularFifoQueue<Breadcrumb> queue) {
+        long startTime = System.nanoTime();
+        for (int j = 0; j < SNAPSHOT_COUNT; j++) {
+            List<Breadcrumb> breadcrumbs = new ArrayList<>();
+            Iterator<Breadcrumb> iter = queue.iterator();
+            while (iter.hasNext()) {
+                breadcrumbs.add(iter.next());
+            }
+            assertThat(breadcrumbs, hasSize(CAPACITY));
+        }
+        return perSecond(SNAPSHOT_COUNT, System.nanoTime() - startTime);
+    }
+
+    @Test
+    public void measureThroughput() throws Exception {
+        BreadcrumbRing ring = new BreadcrumbRing(CAPACITY);
+        CircularFifoQueue<Breadcrumb> queue = new CircularFifoQueue<>(CAPACITY);
+        // Warms up both implementations
+        measureRecords(ring, 1);
+        measureQueueRecords(queue);
+        measureSnapshots(ring);
+        measureQueueCopies(queue);
+
+        logger.info("CircularFifoQueue, 1 thread: {} breadcrumbs/s, {} copies/s",
+                Math.round(measureQueueRecords(queue)), Math.round(measureQueueCopies(queue)));
+        logger.info("BreadcrumbRing: {} snapshots/s", Math.round(measureSnapshots(ring)));
+        for (int threadCount = 1; threadCount <= MAX_THREAD_COUNT; threadCount *= 2) {
+            logger.info("BreadcrumbRing, {} threads: {} breadcrumbs/s",
+                    threadCount, Math.round(measureRecords(ring, threadCount)));
+        }
+    }
+}
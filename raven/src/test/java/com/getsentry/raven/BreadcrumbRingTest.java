@@ -0,0 +1,106 @@
+package com.getsentry.raven;
+
+import com.getsentry.raven.event.Breadcrumb;
+import com.getsentry.raven.event.BreadcrumbBuilder;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BreadcrumbRingTest {
+    private static Breadcrumb breadcrumb(String message) {
+        return new BreadcrumbBuilder().setLevel("info").setCategory("test").setMessage(message).build();
+    }
+
+    @Test
+    public void testSnapshotKeepsTheLastBreadcrumbsInOrder() throws Exception {
+        BreadcrumbRing ring = new BreadcrumbRing(3);
+        List<Breadcrumb> recorded = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Breadcrumb breadcrumb = breadcrumb("breadcrumb " + i);
+            recorded.add(breadcrumb);
+            ring.record(breadcrumb);
+        }
+
+        assertThat(ring.snapshot(), contains(recorded.get(2), recorded.get(3), recorded.get(4)));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() throws Exception {
+        BreadcrumbRing ring = new BreadcrumbRing(3);
+        ring.record(breadcrumb("breadcrumb"));
+
+        ring.snapshot().clear();
+    }
+
+    @Test
+    public void testClearForgetsThePreviousBreadcrumbs() throws Exception {
+        BreadcrumbRing ring = new BreadcrumbRing(3);
+        ring.record(breadcrumb("before"));
+        ring.record(breadcrumb("before"));
+
+        ring.clear();
+        assertThat(ring.snapshot(), is(empty()));
+
+        Breadcrumb after = breadcrumb("after");
+        ring.record(after);
+        assertThat(ring.snapshot(), contains(after));
+    }
+
+    @Test
+    public void testSnapshotsAreConsistentWhileThreadsRecord() throws Exception {
+        final int capacity = 16;
+        final int threadCount = 4;
+        final int breadcrumbsPerThread = 20000;
+        final BreadcrumbRing ring = new BreadcrumbRing(capacity);
+        final Breadcrumb[][] breadcrumbs = new Breadcrumb[threadCount][breadcrumbsPerThread];
+        for (int i = 0; i < threadCount; i++) {
+            for (int j = 0; j < breadcrumbsPerThread; j++) {
+                breadcrumbs[i][j] = breadcrumb(i + ":" + j);
+            }
+        }
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < threadCount; i++) {
+            final Breadcrumb[] threadBreadcrumbs = breadcrumbs[i];
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Breadcrumb breadcrumb : threadBreadcrumbs) {
+                            ring.record(breadcrumb);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        while (done.getCount() > 0) {
+            List<Breadcrumb> snapshot = ring.snapshot();
+            assertThat(snapshot.size(), is(lessThanOrEqualTo(capacity)));
+            // Each thread records its breadcrumbs in order, a snapshot never holds them out of order or twice
+            int[] lastIndexes = new int[threadCount];
+            for (Breadcrumb breadcrumb : snapshot) {
+                String[] parts = breadcrumb.getMessage().split(":");
+                int thread = Integer.parseInt(parts[0]);
+                int index = Integer.parseInt(parts[1]) + 1;
+                assertThat(index, is(greaterThan(lastIndexes[thread])));
+                lastIndexes[thread] = index;
+            }
+        }
+        done.await(1, TimeUnit.MINUTES);
+
+        assertThat(failure.get(), is(nullValue()));
+        assertThat(ring.snapshot(), hasSize(capacity));
+    }
+}
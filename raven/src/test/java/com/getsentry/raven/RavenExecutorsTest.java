@@ -0,0 +1,103 @@
+package com.getsentry.raven;
+
+import com.getsentry.raven.event.Breadcrumb;
+import com.getsentry.raven.event.BreadcrumbBuilder;
+import com.getsentry.raven.event.Breadcrumbs;
+import com.getsentry.raven.servlet.RavenServletRequestListener;
+import mockit.Injectable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RavenExecutorsTest {
+    @Injectable
+    private HttpServletRequest mockRequest = null;
+    private Raven raven;
+    private ExecutorService workerThread;
+
+    private static Breadcrumb breadcrumb(String message) {
+        return new BreadcrumbBuilder().setLevel("info").setCategory("test").setMessage(message).build();
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        raven = new Raven();
+        workerThread = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        workerThread.shutdown();
+        RavenServletRequestListener.setServletRequest(null);
+        raven.getContext().deactivate();
+    }
+
+    @Test
+    public void testTasksUseTheContextOfTheSubmittingThread() throws Exception {
+        final RavenContext context = raven.getContext();
+        final Breadcrumb breadcrumb = breadcrumb("recorded by the task");
+        ExecutorService executorService = RavenExecutors.wrap(workerThread);
+
+        RavenContext taskContext = executorService.submit(new Callable<RavenContext>() {
+            @Override
+            public RavenContext call() throws Exception {
+                Breadcrumbs.record(breadcrumb);
+                return raven.getContext();
+            }
+        }).get(1, TimeUnit.MINUTES);
+
+        assertThat(taskContext, is(sameInstance(context)));
+        assertThat(context.getBreadcrumbSnapshot(), contains(breadcrumb));
+    }
+
+    @Test
+    public void testTasksUseTheRequestOfTheSubmittingThread() throws Exception {
+        RavenServletRequestListener.setServletRequest(mockRequest);
+        Callable<HttpServletRequest> task = RavenExecutors.wrap(new Callable<HttpServletRequest>() {
+            @Override
+            public HttpServletRequest call() throws Exception {
+                return RavenServletRequestListener.getServletRequest();
+            }
+        });
+
+        assertThat(workerThread.submit(task).get(1, TimeUnit.MINUTES), is(sameInstance(mockRequest)));
+    }
+
+    @Test
+    public void testStateOfTheRunningThreadIsRestored() throws Exception {
+        final RavenContext[] workerContexts = new RavenContext[2];
+        workerThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                workerContexts[0] = raven.getContext();
+            }
+        }).get(1, TimeUnit.MINUTES);
+        RavenServletRequestListener.setServletRequest(mockRequest);
+
+        RavenExecutors.wrap(workerThread).execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        HttpServletRequest workerRequest = workerThread.submit(new Callable<HttpServletRequest>() {
+            @Override
+            public HttpServletRequest call() throws Exception {
+                workerContexts[1] = raven.getContext();
+                return RavenServletRequestListener.getServletRequest();
+            }
+        }).get(1, TimeUnit.MINUTES);
+
+        assertThat(workerContexts[1], is(sameInstance(workerContexts[0])));
+        assertThat(workerContexts[1], is(not(sameInstance(raven.getContext()))));
+        assertThat(workerRequest, is(nullValue()));
+    }
+}
@@ -9,6 +9,7 @@ import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.EventBuilder;
 import com.getsentry.raven.event.helper.EventBuilderHelper;
 import com.getsentry.raven.event.interfaces.ExceptionInterface;
+import com.getsentry.raven.sampling.LevelSampler;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
@@ -101,6 +102,49 @@ public class RavenTest {
         }};
     }
 
+    @Test
+    public void testSampledOutEventIsNeitherBuiltNorSent() throws Exception {
+        raven.addBuilderHelper(mockEventBuilderHelper);
+        raven.setSampler(new LevelSampler(1).withLevelRate(Event.Level.DEBUG, 0));
+
+        raven.sendEvent(new EventBuilder().withLevel(Event.Level.DEBUG));
+
+        assertThat(raven.getSampledOutCount(), is(1L));
+        assertThat(raven.getSampledOutCount(Event.Level.DEBUG), is(1L));
+        new Verifications() {{
+            mockEventBuilderHelper.helpBuildingEvent((EventBuilder) any);
+            times = 0;
+            mockConnection.send((Event) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testSampleRateIsAttachedToTheEvent() throws Exception {
+        // The rate is below 1, yet the event is kept in practice.
+        final double sampleRate = 1 - 1e-12;
+        raven.setSampler(new LevelSampler(sampleRate));
+
+        raven.sendMessage("Sampled message");
+
+        new Verifications() {{
+            Event event;
+            mockConnection.send(event = withCapture());
+            assertThat(event.getExtra().get(Raven.SAMPLE_RATE_EXTRA), is((Object) sampleRate));
+        }};
+    }
+
+    @Test
+    public void testEventsWithoutSamplerHaveNoSampleRate() throws Exception {
+        raven.sendMessage("Message");
+
+        new Verifications() {{
+            Event event;
+            mockConnection.send(event = withCapture());
+            assertThat(event.getExtra(), not(hasKey(Raven.SAMPLE_RATE_EXTRA)));
+        }};
+    }
+
     @Test
     public void testChangeConnection(@Injectable final Connection mockNewConnection) throws Exception {
         raven.setConnection(mockNewConnection);
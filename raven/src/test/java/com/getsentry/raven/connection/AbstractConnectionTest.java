@@ -4,16 +4,15 @@ import mockit.*;
 import com.getsentry.raven.event.Event;
 import org.testng.annotations.Test;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
 
-import static mockit.Deencapsulation.getField;
 import static mockit.Deencapsulation.setField;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 
 public class AbstractConnectionTest {
@@ -23,10 +22,6 @@ public class AbstractConnectionTest {
     private final String secretKey = "56a9d05e-9032-4fdd-8f67-867d526422f9";
     @Tested
     private AbstractConnection abstractConnection = null;
-    @Injectable
-    private Lock mockLock = null;
-    @Injectable
-    private Condition mockCondition = null;
     //Disable thread sleep during the tests
     @Mocked("sleep")
     private Thread mockThread = null;
@@ -43,9 +38,6 @@ public class AbstractConnectionTest {
 
     @Test
     public void testSuccessfulSendCallsDoSend(@Injectable final Event mockEvent) throws Exception {
-        setField(abstractConnection, "lock", mockLock);
-        setField(abstractConnection, "condition", mockCondition);
-
         abstractConnection.send(mockEvent);
 
         new Verifications() {{
@@ -54,9 +46,8 @@ public class AbstractConnectionTest {
     }
 
     @Test
-    public void testExceptionOnSendStartLockDown(@Injectable final Event mockEvent) throws Exception {
-        setField(abstractConnection, "lock", mockLock);
-        setField(abstractConnection, "condition", mockCondition);
+    public void testExceptionOnSendOpensTheCircuitWithoutSleeping(@Injectable final Event mockEvent)
+            throws Exception {
         new NonStrictExpectations() {{
             abstractConnection.doSend((Event) any);
             result = new ConnectionException();
@@ -64,43 +55,130 @@ public class AbstractConnectionTest {
 
         abstractConnection.send(mockEvent);
 
+        CircuitBreaker circuitBreaker = abstractConnection.getCircuitBreaker();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.getWaitingTime(), is(AbstractConnection.DEFAULT_BASE_WAITING_TIME * 2));
         new Verifications() {{
-            mockLock.lock();
-            mockCondition.signalAll();
-            mockLock.unlock();
+            Thread.sleep(anyLong);
+            times = 0;
         }};
     }
 
     @Test
-    public void testLockDownDoublesTheWaitingTime(@Injectable final Event mockEvent) throws Exception {
+    public void testOpenCircuitBuffersEventsUntilASendSucceeds(@Injectable final Event mockEvent,
+                                                               @Injectable final Event bufferedEvent)
+            throws Exception {
+        abstractConnection.setMaxWaitingTime(0);
+        abstractConnection.setBaseWaitingTime(0);
+        new NonStrictExpectations() {{
+            abstractConnection.doSend(mockEvent);
+            result = new ConnectionException();
+            result = null;
+        }};
+        abstractConnection.send(mockEvent);
+        // Keep the circuit open for the next event only.
+        abstractConnection.setBaseWaitingTime(TimeUnit.MINUTES.toMillis(1));
+        setField(abstractConnection.getCircuitBreaker(), "openUntil", System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+
+        abstractConnection.send(bufferedEvent);
+        setField(abstractConnection.getCircuitBreaker(), "openUntil", System.nanoTime());
+        abstractConnection.send(mockEvent);
+
+        new VerificationsInOrder() {{
+            abstractConnection.doSend(mockEvent);
+            times = 2;
+            abstractConnection.doSend(bufferedEvent);
+            times = 1;
+        }};
+        assertThat(abstractConnection.getCircuitBreaker().getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testOpenCircuitDropsEventsWithDropFallback(@Injectable final Event mockEvent) throws Exception {
+        final List<Exception> failures = new ArrayList<>();
+        abstractConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failures.add(exception);
+            }
+        });
+        abstractConnection.setOpenCircuitFallback(AbstractConnection.OpenCircuitFallback.DROP);
+        abstractConnection.setBaseWaitingTime(TimeUnit.MINUTES.toMillis(1));
         new NonStrictExpectations() {{
             abstractConnection.doSend((Event) any);
             result = new ConnectionException();
         }};
 
+        abstractConnection.send(mockEvent);
         abstractConnection.send(mockEvent);
 
-        long waitingTimeAfter = getField(abstractConnection, "waitingTime");
-        assertThat(waitingTimeAfter, is(AbstractConnection.DEFAULT_BASE_WAITING_TIME * 2));
+        assertThat(failures.size(), is(2));
         new Verifications() {{
-            Thread.sleep(AbstractConnection.DEFAULT_BASE_WAITING_TIME);
+            abstractConnection.doSend((Event) any);
+            times = 1;
         }};
     }
 
     @Test
-    public void testLockDownDoesntDoubleItAtMax(@Injectable final Event mockEvent) throws Exception {
-        setField(abstractConnection, "waitingTime", AbstractConnection.DEFAULT_MAX_WAITING_TIME);
+    public void testRateLimitDropsEventsWithoutOpeningTheCircuit(@Injectable final Event mockEvent)
+            throws Exception {
+        final List<Exception> failures = new ArrayList<>();
+        abstractConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failures.add(exception);
+            }
+        });
         new NonStrictExpectations() {{
             abstractConnection.doSend((Event) any);
-            result = new ConnectionException();
+            result = new ConnectionException("Too many requests", null, 429, TimeUnit.SECONDS.toMillis(30));
         }};
 
+        abstractConnection.send(mockEvent);
+        abstractConnection.send(mockEvent);
+
+        assertThat(abstractConnection.getCircuitBreaker().getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(abstractConnection.getRemainingOpenTime(), is(greaterThan(TimeUnit.SECONDS.toMillis(29))));
+        assertThat(failures.size(), is(2));
+        ConnectionException droppedException = (ConnectionException) failures.get(1);
+        assertThat(droppedException.getResponseCode(), is(429));
+        assertThat(droppedException.getRetryAfter(), is(greaterThan(0L)));
+        new Verifications() {{
+            abstractConnection.doSend((Event) any);
+            times = 1;
+        }};
+    }
+
+    @Test
+    public void testTooManyRequestsWithoutRetryAfterUsesTheDefaultTime(@Injectable final Event mockEvent)
+            throws Exception {
+        new NonStrictExpectations() {{
+            abstractConnection.doSend((Event) any);
+            result = new ConnectionException("Too many requests", null, 429);
+        }};
+
+        abstractConnection.send(mockEvent);
+
+        assertThat(abstractConnection.isRateLimited(), is(true));
+        assertThat(abstractConnection.getRemainingOpenTime(),
+                is(greaterThan(AbstractConnection.DEFAULT_RETRY_AFTER - TimeUnit.SECONDS.toMillis(1))));
+    }
+
+    @Test
+    public void testEventsAreSentAgainOnceTheRateLimitIsOver(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            abstractConnection.doSend((Event) any);
+            result = new ConnectionException("Too many requests", null, 429, TimeUnit.MINUTES.toMillis(1));
+            result = null;
+        }};
+        abstractConnection.send(mockEvent);
+
+        setField(abstractConnection, "rateLimitedUntil", System.nanoTime());
         abstractConnection.send(mockEvent);
 
-        long waitingTimeAfter = getField(abstractConnection, "waitingTime");
-        assertThat(waitingTimeAfter, is(AbstractConnection.DEFAULT_MAX_WAITING_TIME));
         new Verifications() {{
-            Thread.sleep(AbstractConnection.DEFAULT_MAX_WAITING_TIME);
+            abstractConnection.doSend((Event) any);
+            times = 2;
         }};
     }
 
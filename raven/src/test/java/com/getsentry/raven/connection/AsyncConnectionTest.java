@@ -4,12 +4,19 @@ import mockit.*;
 import com.getsentry.raven.Raven;
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.Marshaller;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
 public class AsyncConnectionTest {
     @Tested
     private AsyncConnection asyncConnection = null;
@@ -151,4 +158,56 @@ public class AsyncConnectionTest {
         // Ensure that the shutdown hooks for the used @Tested instance are removed
         asyncConnection.close();
     }
+
+    @Test
+    public void testMarshalledEventSentAsPayload(@Injectable final PayloadConnection mockPayloadConnection,
+                                                 @Injectable final Marshaller mockMarshaller) throws Exception {
+        // Ensure that the shutdown hooks for the unused @Tested instance are removed
+        asyncConnection.close();
+        final Event event = new EventBuilder().withMessage("Message").withLevel(Event.Level.WARNING)
+                .withTag("tag", "value").build();
+        final byte[] content = {1, 2, 3};
+        new NonStrictExpectations() {{
+            mockMarshaller.marshall((Event) any, (OutputStream) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void marshall(Event event, OutputStream destination) throws IOException {
+                    destination.write(content);
+                }
+            };
+            mockExecutorService.execute((Runnable) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        }};
+        AsyncConnection marshallingConnection = new AsyncConnection(mockPayloadConnection, mockExecutorService, false);
+        marshallingConnection.setMarshaller(mockMarshaller);
+
+        marshallingConnection.send(event);
+
+        new Verifications() {{
+            Event summary;
+            byte[] payload;
+            mockPayloadConnection.send(summary = withCapture(), payload = withCapture());
+            assertThat(summary.getId(), is(event.getId()));
+            assertThat(summary.getMessage(), is("Message"));
+            assertThat(summary.getLevel(), is(Event.Level.WARNING));
+            assertThat(summary.getTags().isEmpty(), is(true));
+            assertThat(payload, is(content));
+            mockPayloadConnection.send((Event) any);
+            times = 0;
+        }};
+        marshallingConnection.close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMarshallerNeedsAPayloadConnection(@Injectable final Marshaller mockMarshaller) throws Exception {
+        // Ensure that the shutdown hooks for the unused @Tested instance are removed
+        asyncConnection.close();
+
+        asyncConnection.setMarshaller(mockMarshaller);
+    }
 }
@@ -0,0 +1,74 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static mockit.Deencapsulation.setField;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CircuitBreakerTest {
+    private static final long BASE_WAITING_TIME = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_WAITING_TIME = TimeUnit.MINUTES.toMillis(3);
+
+    private static void endWaitingTime(CircuitBreaker circuitBreaker) {
+        setField(circuitBreaker, "openUntil", System.nanoTime());
+    }
+
+    @Test
+    public void testFailureOpensTheCircuit() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(BASE_WAITING_TIME, MAX_WAITING_TIME);
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+
+        assertThat(circuitBreaker.onFailure(), is(true));
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+        assertThat(circuitBreaker.getRemainingOpenTime() > 0, is(true));
+        // Requests in flight failing as well don't extend the waiting time.
+        assertThat(circuitBreaker.onFailure(), is(false));
+        assertThat(circuitBreaker.getWaitingTime(), is(BASE_WAITING_TIME * 2));
+    }
+
+    @Test
+    public void testHalfOpenCircuitLetsASingleProbeThrough() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(BASE_WAITING_TIME, MAX_WAITING_TIME);
+        circuitBreaker.onFailure();
+        endWaitingTime(circuitBreaker);
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.getWaitingTime(), is(BASE_WAITING_TIME));
+    }
+
+    @Test
+    public void testFailedProbeDoublesTheWaitingTimeUpToTheMaximum() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(BASE_WAITING_TIME, MAX_WAITING_TIME);
+        circuitBreaker.onFailure();
+        endWaitingTime(circuitBreaker);
+        circuitBreaker.tryAcquire();
+
+        assertThat(circuitBreaker.onFailure(), is(true));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.getWaitingTime(), is(MAX_WAITING_TIME));
+        assertThat(circuitBreaker.getRemainingOpenTime() > BASE_WAITING_TIME, is(true));
+    }
+
+    @Test
+    public void testAbortedProbeLetsAnotherProbeThrough() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(BASE_WAITING_TIME, MAX_WAITING_TIME);
+        circuitBreaker.onFailure();
+        endWaitingTime(circuitBreaker);
+        circuitBreaker.tryAcquire();
+
+        circuitBreaker.onAbort();
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+}
@@ -0,0 +1,157 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.event.interfaces.ExceptionInterface;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DeduplicatingConnectionTest {
+    private final List<Event> sentEvents = new CopyOnWriteArrayList<>();
+    private volatile boolean actualConnectionClosed;
+    private final Connection actualConnection = new Connection() {
+        @Override
+        public void send(Event event) {
+            sentEvents.add(event);
+        }
+
+        @Override
+        public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        }
+
+        @Override
+        public void close() throws IOException {
+            actualConnectionClosed = true;
+        }
+    };
+    private DeduplicatingConnection deduplicatingConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        sentEvents.clear();
+        actualConnectionClosed = false;
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (deduplicatingConnection != null)
+            deduplicatingConnection.close();
+        deduplicatingConnection = null;
+    }
+
+    private DeduplicatingConnection createConnection(long window, int maxGroups) {
+        return new DeduplicatingConnection(actualConnection, window, maxGroups, Executors.defaultThreadFactory());
+    }
+
+    private static Event createExceptionEvent(String message) {
+        return new EventBuilder()
+                .withMessage(message)
+                .withSentryInterface(new ExceptionInterface(new IllegalStateException(message)))
+                .build();
+    }
+
+    private void waitForSentEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (sentEvents.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testRepeatsAreFoldedIntoAFollowUpEvent() throws Exception {
+        deduplicatingConnection = createConnection(100, DeduplicatingConnection.DEFAULT_MAX_GROUPS);
+        Event firstEvent = null;
+        for (int i = 0; i < 5; i++) {
+            Event event = createExceptionEvent("Failure");
+            if (firstEvent == null)
+                firstEvent = event;
+            deduplicatingConnection.send(event);
+        }
+
+        assertThat(sentEvents, contains(firstEvent));
+        waitForSentEvents(2);
+        assertThat(sentEvents.size(), is(2));
+        Event followUp = sentEvents.get(1);
+        assertThat(followUp.getExtra().get(DeduplicatingConnection.OCCURRENCES_EXTRA), is((Object) 4));
+        assertThat(followUp.getId(), is(not(firstEvent.getId())));
+        assertThat(followUp.getSentryInterfaces(), hasKey(ExceptionInterface.EXCEPTION_INTERFACE));
+    }
+
+    @Test
+    public void testGroupIsForgottenAfterAQuietWindow() throws Exception {
+        deduplicatingConnection = createConnection(20, DeduplicatingConnection.DEFAULT_MAX_GROUPS);
+        for (int i = 0; i < 2; i++) {
+            deduplicatingConnection.send(createExceptionEvent("Failure"));
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            while (deduplicatingConnection.getGroupCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+
+        assertThat(sentEvents.size(), is(2));
+        assertThat(sentEvents.get(1).getExtra(), not(hasKey(DeduplicatingConnection.OCCURRENCES_EXTRA)));
+    }
+
+    @Test
+    public void testCloseSendsTheFoldedEvents() throws Exception {
+        deduplicatingConnection = createConnection(TimeUnit.MINUTES.toMillis(1),
+                DeduplicatingConnection.DEFAULT_MAX_GROUPS);
+        for (int i = 0; i < 2; i++) {
+            deduplicatingConnection.send(createExceptionEvent("Failure"));
+        }
+
+        deduplicatingConnection.close();
+
+        assertThat(sentEvents.size(), is(2));
+        assertThat(sentEvents.get(1).getExtra().get(DeduplicatingConnection.OCCURRENCES_EXTRA), is((Object) 1));
+        assertThat(actualConnectionClosed, is(true));
+    }
+
+    @Test
+    public void testEventsBeyondTheMaximumNumberOfGroupsAreSentAsIs() throws Exception {
+        deduplicatingConnection = createConnection(TimeUnit.MINUTES.toMillis(1), 1);
+        deduplicatingConnection.send(new EventBuilder().withMessage("First").build());
+        deduplicatingConnection.send(new EventBuilder().withMessage("Second").build());
+        deduplicatingConnection.send(new EventBuilder().withMessage("Second").build());
+
+        assertThat(sentEvents.size(), is(3));
+        assertThat(deduplicatingConnection.getGroupCount(), is(1));
+    }
+
+    @Test
+    public void testExceptionsAreGroupedByTypeAndFrames() throws Exception {
+        // Both exceptions are created from the same line, with the same frames.
+        Event[] events = {createExceptionEvent("First message"), createExceptionEvent("Second message")};
+        Event event = events[0];
+        Event sameSite = events[1];
+        Event otherType = new EventBuilder()
+                .withSentryInterface(new ExceptionInterface(new IllegalArgumentException("First message")))
+                .build();
+
+        assertThat(DeduplicatingConnection.groupingHash(event), is(DeduplicatingConnection.groupingHash(sameSite)));
+        assertThat(DeduplicatingConnection.groupingHash(event),
+                is(not(DeduplicatingConnection.groupingHash(otherType))));
+    }
+
+    @Test
+    public void testFingerprintTakesPrecedence() throws Exception {
+        Event event = new EventBuilder().withMessage("First").withFingerprint("group").build();
+        Event sameFingerprint = new EventBuilder().withMessage("Second").withFingerprint("group").build();
+        Event otherFingerprint = new EventBuilder().withMessage("First").withFingerprint("other").build();
+
+        assertThat(DeduplicatingConnection.groupingHash(event),
+                is(DeduplicatingConnection.groupingHash(sameFingerprint)));
+        assertThat(DeduplicatingConnection.groupingHash(event),
+                is(not(DeduplicatingConnection.groupingHash(otherFingerprint))));
+    }
+}
@@ -0,0 +1,150 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DiskSpoolTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int SEGMENT_SIZE = 64;
+    private File directory;
+    private DiskSpool diskSpool;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("raven-spool").toFile();
+        diskSpool = new DiskSpool(directory, SEGMENT_SIZE, Long.MAX_VALUE, false);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        diskSpool.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(UTF_8);
+    }
+
+    private static String string(byte[] content) {
+        return content == null ? null : new String(content, UTF_8);
+    }
+
+    private File[] segmentFiles() {
+        return directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".spool");
+            }
+        });
+    }
+
+    @Test
+    public void testRecordsAreConsumedInOrder() throws Exception {
+        diskSpool.append(bytes("first"));
+        diskSpool.append(bytes("second"));
+
+        assertThat(diskSpool.getPendingCount(), is(2));
+        assertThat(string(diskSpool.peek()), is("first"));
+        assertThat(string(diskSpool.peek()), is("first"));
+        diskSpool.remove();
+        assertThat(string(diskSpool.peek()), is("second"));
+        diskSpool.remove();
+        assertThat(diskSpool.peek(), is(nullValue()));
+        assertThat(diskSpool.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void testConsumedSegmentsAreDeleted() throws Exception {
+        // Each record takes 28 bytes, two of them fit in a segment.
+        for (int i = 0; i < 5; i++) {
+            assertThat(diskSpool.append(bytes("record-number-" + i + "-----")), is(true));
+        }
+        assertThat(segmentFiles().length, is(3));
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(string(diskSpool.peek()), is("record-number-" + i + "-----"));
+            diskSpool.remove();
+        }
+        assertThat(diskSpool.peek(), is(nullValue()));
+        assertThat(segmentFiles().length, is(1));
+    }
+
+    @Test
+    public void testPendingRecordsAreRecoveredOnReopen() throws Exception {
+        diskSpool.append(bytes("consumed"));
+        diskSpool.append(bytes("pending"));
+        diskSpool.remove();
+        diskSpool.close();
+
+        diskSpool = new DiskSpool(directory, SEGMENT_SIZE, Long.MAX_VALUE, false);
+        diskSpool.append(bytes("new"));
+
+        assertThat(diskSpool.getPendingCount(), is(2));
+        assertThat(string(diskSpool.peek()), is("pending"));
+        diskSpool.remove();
+        assertThat(string(diskSpool.peek()), is("new"));
+    }
+
+    @Test
+    public void testCorruptedRecordTruncatesTheSegment() throws Exception {
+        diskSpool.append(bytes("valid"));
+        diskSpool.append(bytes("torn"));
+        diskSpool.close();
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFiles()[0], "rw")) {
+            // Header of the segment, header and payload of the first record, header of the second record.
+            segment.seek(8 + 8 + 5 + 8);
+            segment.write('x');
+        }
+
+        diskSpool = new DiskSpool(directory, SEGMENT_SIZE, Long.MAX_VALUE, false);
+
+        assertThat(diskSpool.getPendingCount(), is(1));
+        assertThat(string(diskSpool.peek()), is("valid"));
+        diskSpool.remove();
+        assertThat(diskSpool.peek(), is(nullValue()));
+    }
+
+    @Test
+    public void testNewRecordsAreDroppedWhenTheSpoolIsFull() throws Exception {
+        diskSpool.close();
+        diskSpool = new DiskSpool(directory, SEGMENT_SIZE, SEGMENT_SIZE * 2, false);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(diskSpool.append(bytes("record-number-" + i + "-----")), is(true));
+        }
+        assertThat(diskSpool.append(bytes("record-number-4-----")), is(false));
+
+        diskSpool.remove();
+        diskSpool.remove();
+        assertThat(diskSpool.append(bytes("record-number-5-----")), is(true));
+        assertThat(string(diskSpool.peek()), is("record-number-2-----"));
+    }
+
+    @Test
+    public void testRecordLargerThanASegmentIsRejected() throws Exception {
+        assertThat(diskSpool.append(new byte[SEGMENT_SIZE]), is(false));
+        assertThat(diskSpool.getPendingCount(), is(0));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testDirectoryCantBeUsedTwice() throws Exception {
+        new DiskSpool(directory, SEGMENT_SIZE, Long.MAX_VALUE, false);
+    }
+}
@@ -0,0 +1,63 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.dsn.Dsn;
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.json.JsonMarshaller;
+import com.getsentry.raven.stub.SentryStub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Sends raw gzip events to the sentry stub.
+ */
+public class GzipCompressionIT {
+    private static final Logger logger = LoggerFactory.getLogger(GzipCompressionIT.class);
+    private static final Dsn DSN = new Dsn("http://8292bf61d620417282e68a72ae03154a:e3908e05ad874b24b7a168992bfa3577"
+            + "@localhost:8080/1");
+    private SentryStub sentryStub;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        sentryStub = new SentryStub();
+        // The SentryHandler of the integration tests sends its own logs, let it start before counting the events.
+        logger.info("Sending gzip events");
+        sentryStub.removeEvents();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        sentryStub.removeEvents();
+    }
+
+    private void send(HttpConnection connection) throws Exception {
+        JsonMarshaller marshaller = new JsonMarshaller();
+        marshaller.setGzip(true);
+        connection.setMarshaller(marshaller);
+        Event event = new EventBuilder().withMessage("Gzip event").withLevel(Event.Level.ERROR).build();
+        RavenEnvironment.startManagingThread();
+        try {
+            connection.send(event);
+            connection.close();
+        } finally {
+            RavenEnvironment.stopManagingThread();
+        }
+    }
+
+    @Test
+    public void testGzipEventsAreReceived() throws Exception {
+        send(new HttpConnection(HttpConnection.getSentryApiUrl(DSN.getUri(), DSN.getProjectId()),
+                DSN.getPublicKey(), DSN.getSecretKey()));
+        send(new PooledHttpConnection(HttpConnection.getSentryApiUrl(DSN.getUri(), DSN.getProjectId()),
+                DSN.getPublicKey(), DSN.getSecretKey(), 1, PooledHttpConnection.DEFAULT_IDLE_TIMEOUT));
+
+        assertThat(sentryStub.getEventCount(), is(2));
+    }
+}
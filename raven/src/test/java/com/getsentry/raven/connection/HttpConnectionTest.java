@@ -16,6 +16,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -49,6 +50,8 @@ public class HttpConnectionTest {
             result = mockOutputStream;
             mockUrlConnection.getInputStream();
             result = mockInputStream;
+            mockInputStream.read((byte[]) any);
+            result = -1;
         }};
     }
 
@@ -134,6 +137,95 @@ public class HttpConnectionTest {
         httpConnection.doSend(mockEvent);
     }
 
+    @Test
+    public void testRateLimitExposedOnTheException(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            mockUrlConnection.getInputStream();
+            result = new IOException();
+            mockUrlConnection.getErrorStream();
+            result = new ByteArrayInputStream("Too many requests".getBytes());
+            mockUrlConnection.getResponseCode();
+            result = 429;
+            mockUrlConnection.getHeaderField("Retry-After");
+            result = "30";
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with a 429 response", false);
+        } catch (ConnectionException ce) {
+            assertThat(ce.getResponseCode(), is(429));
+            assertThat(ce.getRetryAfter(), is(TimeUnit.SECONDS.toMillis(30)));
+        }
+    }
+
+    @Test
+    public void testResponseIsDrainedAndConnectionKeptAlive(@Injectable final Event mockEvent) throws Exception {
+        httpConnection.send(mockEvent);
+
+        new Verifications() {{
+            mockInputStream.read((byte[]) any);
+            mockInputStream.close();
+            mockUrlConnection.disconnect();
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testConnectionDisconnectedOnError(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            mockUrlConnection.getInputStream();
+            result = new IOException();
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with IOE", false);
+        } catch (ConnectionException ce) {
+            new Verifications() {{
+                mockUrlConnection.disconnect();
+            }};
+        }
+    }
+
+    @Test
+    public void testPayloadSentWithoutMarshalling(@Injectable final Event mockEvent) throws Exception {
+        final byte[] payload = "{}".getBytes("UTF-8");
+
+        httpConnection.send(mockEvent, payload);
+
+        new Verifications() {{
+            mockUrlConnection.setFixedLengthStreamingMode(payload.length);
+            mockOutputStream.write(payload, 0, payload.length);
+            mockMarshaller.marshall((Event) any, (OutputStream) any);
+            times = 0;
+            mockInputStream.read((byte[]) any);
+            mockUrlConnection.disconnect();
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testGzipPayloadSentWithItsEncoding(@Injectable final Event mockEvent) throws Exception {
+        final byte[] payload = {(byte) 0x1f, (byte) 0x8b, 8, 0};
+
+        httpConnection.send(mockEvent, payload);
+
+        new Verifications() {{
+            mockUrlConnection.setRequestProperty("Content-Encoding", "gzip");
+        }};
+    }
+
+    @Test
+    public void testJsonPayloadSentWithoutEncoding(@Injectable final Event mockEvent) throws Exception {
+        httpConnection.send(mockEvent, "{}".getBytes("UTF-8"));
+
+        new Verifications() {{
+            mockUrlConnection.setRequestProperty("Content-Encoding", anyString);
+            times = 0;
+        }};
+    }
+
     @Test
     public void testApiUrlCreation(@Injectable final URI sentryUri) throws Exception {
         final String uri = "http://host/sentry/";
@@ -0,0 +1,143 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class HttpResponseParserTest {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private HttpResponseParser responseParser;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        responseParser = new HttpResponseParser();
+    }
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(ISO_8859_1));
+    }
+
+    @Test
+    public void testResponseSplitAcrossBuffers() throws Exception {
+        assertThat(responseParser.parse(buffer("HTTP/1.1 200 OK\r\nContent-Le")), is(false));
+        assertThat(responseParser.parse(buffer("ngth: 4\r\n\r\n{}")), is(false));
+        assertThat(responseParser.parse(buffer("{}")), is(true));
+
+        assertThat(responseParser.getStatus(), is(200));
+        assertThat(responseParser.isKeepAlive(), is(true));
+    }
+
+    @Test
+    public void testPipelinedResponsesInTheSameBuffer() throws Exception {
+        ByteBuffer buffer = buffer("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}"
+                + "HTTP/1.1 403 Forbidden\r\nContent-Length: 6\r\n\r\nDenied");
+
+        assertThat(responseParser.parse(buffer), is(true));
+        assertThat(responseParser.getStatus(), is(200));
+        assertThat(responseParser.getBody(), is(""));
+        responseParser.reset();
+
+        assertThat(responseParser.parse(buffer), is(true));
+        assertThat(responseParser.getStatus(), is(403));
+        assertThat(responseParser.getBody(), is("Denied"));
+        assertThat(buffer.hasRemaining(), is(false));
+    }
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        ByteBuffer buffer = buffer("HTTP/1.1 500 Error\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "3;ext=1\r\nInt\r\n5\r\nernal\r\n0\r\nX-Trailer: 1\r\n\r\n");
+
+        assertThat(responseParser.parse(buffer), is(true));
+        assertThat(responseParser.getStatus(), is(500));
+        assertThat(responseParser.getBody(), is("Internal"));
+    }
+
+    @Test
+    public void testConnectionCloseHeader() throws Exception {
+        assertThat(responseParser.parse(buffer("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n")),
+                is(true));
+
+        assertThat(responseParser.isKeepAlive(), is(false));
+    }
+
+    @Test
+    public void testRetryAfterInSeconds() throws Exception {
+        assertThat(responseParser.parse(buffer("HTTP/1.1 429 Too Many Requests\r\nRetry-After: 30\r\n"
+                + "Content-Length: 0\r\n\r\n")), is(true));
+
+        assertThat(responseParser.getStatus(), is(429));
+        assertThat(responseParser.getRetryAfter(), is(TimeUnit.SECONDS.toMillis(30)));
+    }
+
+    @Test
+    public void testRetryAfterIsResetForTheNextResponse() throws Exception {
+        ByteBuffer buffer = buffer("HTTP/1.1 429 Too Many Requests\r\nRetry-After: 30\r\nContent-Length: 0\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+
+        assertThat(responseParser.parse(buffer), is(true));
+        responseParser.reset();
+        assertThat(responseParser.parse(buffer), is(true));
+
+        assertThat(responseParser.getRetryAfter(), is(nullValue()));
+    }
+
+    @Test
+    public void testRetryAfterAsAnHttpDate() throws Exception {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        String date = dateFormat.format(new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2)));
+
+        Long retryAfter = HttpResponseParser.parseRetryAfter(date);
+
+        assertThat(retryAfter, is(both(greaterThan(TimeUnit.MINUTES.toMillis(1)))
+                .and(lessThanOrEqualTo(TimeUnit.MINUTES.toMillis(2)))));
+    }
+
+    @Test
+    public void testInvalidRetryAfterIsIgnored() throws Exception {
+        assertThat(HttpResponseParser.parseRetryAfter("soon"), is(nullValue()));
+        assertThat(HttpResponseParser.parseRetryAfter(null), is(nullValue()));
+        assertThat(HttpResponseParser.parseRetryAfter("-5"), is(0L));
+    }
+
+    @Test
+    public void testInformationalResponseIsSkipped() throws Exception {
+        assertThat(responseParser.parse(buffer("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n")),
+                is(true));
+
+        assertThat(responseParser.getStatus(), is(204));
+    }
+
+    @Test
+    public void testBodyWithoutLengthEndsWithTheConnection() throws Exception {
+        assertThat(responseParser.parse(buffer("HTTP/1.0 400 Bad Request\r\n\r\nInvalid")), is(false));
+
+        assertThat(responseParser.endOfStream(), is(true));
+        assertThat(responseParser.getBody(), is("Invalid"));
+        assertThat(responseParser.isKeepAlive(), is(false));
+    }
+
+    @Test
+    public void testEndOfStreamBetweenResponses() throws Exception {
+        assertThat(responseParser.endOfStream(), is(false));
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void testEndOfStreamInTheMiddleOfAResponse() throws Exception {
+        responseParser.parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n{}"));
+
+        responseParser.endOfStream();
+    }
+}
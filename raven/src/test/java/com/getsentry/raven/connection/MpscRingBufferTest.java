@@ -0,0 +1,96 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MpscRingBufferTest {
+    @Test
+    public void testCapacityIsRoundedUpToAPowerOfTwo() throws Exception {
+        assertThat(new MpscRingBuffer<String>(1).capacity(), is(1));
+        assertThat(new MpscRingBuffer<String>(50).capacity(), is(64));
+        assertThat(new MpscRingBuffer<String>(64).capacity(), is(64));
+    }
+
+    @Test
+    public void testElementsArePolledInOrderAcrossLaps() throws Exception {
+        MpscRingBuffer<Integer> ringBuffer = new MpscRingBuffer<>(4);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(ringBuffer.offer(i), is(true));
+            assertThat(ringBuffer.offer(i + 100), is(true));
+            assertThat(ringBuffer.poll(), is(i));
+            assertThat(ringBuffer.poll(), is(i + 100));
+        }
+        assertThat(ringBuffer.poll(), is(nullValue()));
+        assertThat(ringBuffer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testOfferFailsWhenFull() throws Exception {
+        MpscRingBuffer<Integer> ringBuffer = new MpscRingBuffer<>(2);
+
+        assertThat(ringBuffer.offer(1), is(true));
+        assertThat(ringBuffer.offer(2), is(true));
+        assertThat(ringBuffer.offer(3), is(false));
+        assertThat(ringBuffer.size(), is(2));
+
+        assertThat(ringBuffer.poll(), is(1));
+        assertThat(ringBuffer.offer(3), is(true));
+        assertThat(ringBuffer.poll(), is(2));
+        assertThat(ringBuffer.poll(), is(3));
+    }
+
+    @Test
+    public void testConcurrentProducersKeepTheirOrder() throws Exception {
+        final int producerCount = 4;
+        final int elementCount = 100000;
+        final MpscRingBuffer<int[]> ringBuffer = new MpscRingBuffer<>(128);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < elementCount; i++) {
+                        int[] element = {producer, i};
+                        while (!ringBuffer.offer(element)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            producers.add(thread);
+        }
+
+        start.countDown();
+        int[] lastSeen = new int[producerCount];
+        Arrays.fill(lastSeen, -1);
+        int received = 0;
+        while (received < producerCount * elementCount) {
+            int[] element = ringBuffer.poll();
+            if (element == null)
+                continue;
+            assertThat(element[1], is(lastSeen[element[0]] + 1));
+            lastSeen[element[0]] = element[1];
+            received++;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertThat(ringBuffer.poll(), is(nullValue()));
+    }
+}
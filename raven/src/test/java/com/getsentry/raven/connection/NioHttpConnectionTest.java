@@ -0,0 +1,252 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import mockit.Injectable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class NioHttpConnectionTest {
+    private static final String PUBLIC_KEY = "6cc48e8f-380c-44cc-986b-f566247a2af5";
+    private static final String SECRET_KEY = "e30cca23-3f97-470b-a8c2-e29b33dd25e0";
+    private static final int PIPELINE_DEPTH = 4;
+    private final Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final List<String> marshallingThreads = new CopyOnWriteArrayList<>();
+    private final Marshaller marshaller = new Marshaller() {
+        @Override
+        public void marshall(Event event, OutputStream destination) {
+            marshallingThreads.add(Thread.currentThread().getName());
+            if (marshallingFailure)
+                throw new IllegalStateException("Marshalling failure");
+            try {
+                destination.write("{}".getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    private HttpServer server;
+    private volatile int responseStatus;
+    private volatile boolean marshallingFailure;
+    private NioHttpConnection nioHttpConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        responseStatus = 200;
+        marshallingFailure = false;
+        clientPorts.clear();
+        bodies.clear();
+        marshallingThreads.clear();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                bodies.add(read(exchange.getRequestBody()));
+                byte[] response = "{\"id\": \"00000000000000000000000000000000\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(responseStatus, response.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(response);
+                }
+            }
+        });
+        server.start();
+
+        nioHttpConnection = createConnection(server.getAddress().getPort());
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        nioHttpConnection.close();
+        server.stop(0);
+    }
+
+    private NioHttpConnection createConnection(int port) {
+        URI sentryUri = URI.create("http://localhost:" + port + "/");
+        NioHttpConnection connection = new NioHttpConnection(HttpConnection.getSentryApiUrl(sentryUri, "1"),
+                PUBLIC_KEY, SECRET_KEY, marshaller, PIPELINE_DEPTH, -1, false);
+        // Prevent the lockdown from slowing down the tests.
+        connection.setBaseWaitingTime(0);
+        connection.setShutdownTimeout(TimeUnit.SECONDS.toMillis(5));
+        return connection;
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return content.toString("UTF-8");
+    }
+
+    @Test
+    public void testEventsAreSentOverASingleConnection(@Injectable final Event mockEvent) throws Exception {
+        int eventCount = PIPELINE_DEPTH * 5;
+        for (int i = 0; i < eventCount; i++) {
+            nioHttpConnection.send(mockEvent);
+        }
+        nioHttpConnection.close();
+
+        assertThat(bodies.size(), is(eventCount));
+        assertThat(clientPorts.size(), is(1));
+    }
+
+    @Test
+    public void testEventsAreSentWithoutBlockingTheCaller(@Injectable final Event mockEvent) throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        server.createContext("/api/1/store/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bodies.add(read(exchange.getRequestBody()));
+                received.countDown();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+
+        nioHttpConnection.send(mockEvent);
+
+        assertThat(received.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(bodies, contains("{}"));
+    }
+
+    @Test
+    public void testErrorStatusCallsFailureCallback(@Injectable final Event mockEvent) throws Exception {
+        responseStatus = 403;
+        final CountDownLatch failed = new CountDownLatch(1);
+        final List<Event> failedEvents = new CopyOnWriteArrayList<>();
+        nioHttpConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failedEvents.add(event);
+                failed.countDown();
+            }
+        });
+
+        nioHttpConnection.send(mockEvent);
+
+        assertThat(failed.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(failedEvents.get(0), is(sameInstance(mockEvent)));
+    }
+
+    @Test
+    public void testRateLimitedEventsAreDroppedWithoutMarshalling(@Injectable final Event mockEvent)
+            throws Exception {
+        server.createContext("/api/1/store/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bodies.add(read(exchange.getRequestBody()));
+                exchange.getResponseHeaders().add("Retry-After", "60");
+                exchange.sendResponseHeaders(429, -1);
+                exchange.close();
+            }
+        });
+        final CountDownLatch rejected = new CountDownLatch(1);
+        final List<ConnectionException> failures = new CopyOnWriteArrayList<>();
+        nioHttpConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failures.add((ConnectionException) exception);
+                rejected.countDown();
+            }
+        });
+
+        nioHttpConnection.send(mockEvent);
+        assertThat(rejected.await(5, TimeUnit.SECONDS), is(true));
+        nioHttpConnection.send(mockEvent);
+
+        assertThat(failures.size(), is(2));
+        assertThat(failures.get(0).getRetryAfter(), is(TimeUnit.SECONDS.toMillis(60)));
+        assertThat(failures.get(1).getResponseCode(), is(429));
+        assertThat(marshallingThreads.size(), is(1));
+        assertThat(bodies.size(), is(1));
+    }
+
+    @Test
+    public void testUnreachableServerCallsFailureCallback(@Injectable final Event mockEvent) throws Exception {
+        int closedPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            closedPort = serverSocket.getLocalPort();
+        }
+        NioHttpConnection unreachableConnection = createConnection(closedPort);
+        final CountDownLatch failed = new CountDownLatch(1);
+        unreachableConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failed.countDown();
+            }
+        });
+
+        try {
+            unreachableConnection.send(mockEvent);
+
+            assertThat(failed.await(5, TimeUnit.SECONDS), is(true));
+        } finally {
+            unreachableConnection.setShutdownTimeout(0);
+            unreachableConnection.close();
+        }
+    }
+
+    @Test
+    public void testEventsAreDroppedOnceClosed(@Injectable final Event mockEvent) throws Exception {
+        nioHttpConnection.close();
+
+        nioHttpConnection.send(mockEvent);
+
+        assertThat(bodies.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testEventsAreMarshalledBySelectorThread(@Injectable final Event mockEvent) throws Exception {
+        nioHttpConnection.send(mockEvent);
+        nioHttpConnection.close();
+
+        assertThat(marshallingThreads, contains("raven-nio-selector"));
+        assertThat(bodies, contains("{}"));
+    }
+
+    @Test
+    public void testMarshallingFailureCallsFailureCallback(@Injectable final Event mockEvent) throws Exception {
+        marshallingFailure = true;
+        final List<Event> failedEvents = new CopyOnWriteArrayList<>();
+        nioHttpConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failedEvents.add(event);
+            }
+        });
+
+        nioHttpConnection.send(mockEvent);
+        nioHttpConnection.close();
+
+        assertThat(failedEvents, contains(mockEvent));
+        assertThat(bodies.isEmpty(), is(true));
+    }
+}
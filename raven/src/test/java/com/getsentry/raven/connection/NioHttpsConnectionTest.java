@@ -0,0 +1,350 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import mockit.Injectable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class NioHttpsConnectionTest {
+    private static final String PUBLIC_KEY = "6cc48e8f-380c-44cc-986b-f566247a2af5";
+    private static final String SECRET_KEY = "e30cca23-3f97-470b-a8c2-e29b33dd25e0";
+    private static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+    private static final int PIPELINE_DEPTH = 4;
+    private static final int HEXADECIMAL = 16;
+    private static SSLContext sslContext;
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final List<Exception> failures = new CopyOnWriteArrayList<>();
+    private final Marshaller marshaller = new Marshaller() {
+        @Override
+        public void marshall(Event event, OutputStream destination) {
+            try {
+                destination.write("{}".getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    private HttpsServer server;
+    private NioHttpConnection nioHttpConnection;
+
+    @BeforeClass
+    public static void setUpSslContext() throws Exception {
+        // Self-signed certificate for "localhost", trusted by the client and used by the server.
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream keyStoreStream = NioHttpsConnectionTest.class.getResourceAsStream("sentry-test.jks")) {
+            keyStore.load(keyStoreStream, KEYSTORE_PASSWORD);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD);
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        bodies.clear();
+        failures.clear();
+        server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bodies.add(read(exchange.getRequestBody()));
+                byte[] response = "{\"id\": \"00000000000000000000000000000000\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(response);
+                }
+            }
+        });
+        server.start();
+
+        nioHttpConnection = createConnection("localhost", server.getAddress().getPort());
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        nioHttpConnection.close();
+        server.stop(0);
+    }
+
+    private NioHttpConnection createConnection(String host, int port) {
+        URI sentryUri = URI.create("https://" + host + ":" + port + "/");
+        NioHttpConnection connection = new NioHttpConnection(HttpConnection.getSentryApiUrl(sentryUri, "1"),
+                PUBLIC_KEY, SECRET_KEY, marshaller, PIPELINE_DEPTH, -1, false);
+        connection.setSslContext(sslContext);
+        // Prevent the lockdown from slowing down the tests.
+        connection.setBaseWaitingTime(0);
+        connection.setShutdownTimeout(TimeUnit.SECONDS.toMillis(5));
+        connection.setTimeout((int) TimeUnit.SECONDS.toMillis(5));
+        connection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failures.add(exception);
+            }
+        });
+        return connection;
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return content.toString("UTF-8");
+    }
+
+    @Test
+    public void testEventIsSentOverTls(@Injectable final Event mockEvent) throws Exception {
+        nioHttpConnection.send(mockEvent);
+        nioHttpConnection.close();
+
+        assertThat(failures.isEmpty(), is(true));
+        assertThat(bodies, contains("{}"));
+    }
+
+    @Test
+    public void testEventsArePipelinedOverASingleTlsConnection(@Injectable final Event mockEvent) throws Exception {
+        // The JDK's HttpsServer doesn't read pipelined requests, the raw server handles them sequentially.
+        int eventCount = PIPELINE_DEPTH * 5;
+        try (RawTlsServer rawServer = new RawTlsServer(false, false)) {
+            NioHttpConnection rawConnection = createConnection("localhost", rawServer.getPort());
+            try {
+                for (int i = 0; i < eventCount; i++) {
+                    rawConnection.send(mockEvent);
+                }
+            } finally {
+                rawConnection.close();
+            }
+
+            assertThat(failures.isEmpty(), is(true));
+            assertThat(rawServer.requests.size(), is(eventCount));
+            assertThat(rawServer.connections, is(1));
+        }
+    }
+
+    @Test
+    public void testHostnameMismatchFails(@Injectable final Event mockEvent) throws Exception {
+        // The certificate is only valid for "localhost".
+        NioHttpConnection ipConnection = createConnection("127.0.0.1", server.getAddress().getPort());
+        try {
+            ipConnection.send(mockEvent);
+        } finally {
+            ipConnection.close();
+        }
+
+        assertThat(failures.size(), is(1));
+        assertThat(bodies.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testNaiveModeAcceptsHostnameMismatch(@Injectable final Event mockEvent) throws Exception {
+        NioHttpConnection ipConnection = createConnection("127.0.0.1", server.getAddress().getPort());
+        ipConnection.setBypassSecurity(true);
+        try {
+            ipConnection.send(mockEvent);
+        } finally {
+            ipConnection.close();
+        }
+
+        assertThat(failures.isEmpty(), is(true));
+        assertThat(bodies.size(), is(1));
+    }
+
+    @Test
+    public void testConnectionClosedByTheServerIsReopened(@Injectable final Event mockEvent) throws Exception {
+        try (RawTlsServer rawServer = new RawTlsServer(true, false)) {
+            NioHttpConnection rawConnection = createConnection("localhost", rawServer.getPort());
+            try {
+                for (int i = 0; i < PIPELINE_DEPTH; i++) {
+                    rawConnection.send(mockEvent);
+                }
+            } finally {
+                rawConnection.close();
+            }
+
+            assertThat(failures.isEmpty(), is(true));
+            assertThat(rawServer.requests.size(), is(PIPELINE_DEPTH));
+            assertThat(rawServer.connections, is(PIPELINE_DEPTH));
+        }
+    }
+
+    @Test
+    public void testRenegotiationRequestedByTheServer(@Injectable final Event mockEvent) throws Exception {
+        try (RawTlsServer rawServer = new RawTlsServer(false, true)) {
+            NioHttpConnection rawConnection = createConnection("localhost", rawServer.getPort());
+            try {
+                rawConnection.send(mockEvent);
+                // The client takes part in the new handshake without any request to send.
+                assertThat(rawServer.renegotiated.await(5, TimeUnit.SECONDS), is(true));
+                rawConnection.send(mockEvent);
+            } finally {
+                rawConnection.close();
+            }
+
+            assertThat(failures.isEmpty(), is(true));
+            assertThat(rawServer.requests.size(), is(2));
+            assertThat(rawServer.connections, is(1));
+            // The second request has been received over the renegotiated session.
+            assertThat(rawServer.sessionIds.size(), is(2));
+            assertThat(rawServer.sessionIds.get(0), is(not(rawServer.sessionIds.get(1))));
+        }
+    }
+
+    /**
+     * Minimal HTTPS server handling the connections one by one, with control over the TLS session.
+     */
+    private static final class RawTlsServer implements AutoCloseable, Runnable {
+        private final SSLServerSocket serverSocket;
+        private final boolean closeAfterResponse;
+        private final boolean renegotiateAfterResponse;
+        private final List<String> requests = new CopyOnWriteArrayList<>();
+        private final List<String> sessionIds = new CopyOnWriteArrayList<>();
+        private final CountDownLatch renegotiated = new CountDownLatch(1);
+        private final Thread thread = new Thread(this, "raw-tls-server");
+        private volatile int connections;
+
+        private RawTlsServer(boolean closeAfterResponse, boolean renegotiateAfterResponse) throws IOException {
+            this.closeAfterResponse = closeAfterResponse;
+            this.renegotiateAfterResponse = renegotiateAfterResponse;
+            serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0);
+            // Renegotiation only exists up to TLS 1.2.
+            serverSocket.setEnabledProtocols(new String[]{"TLSv1.2"});
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                    connections++;
+                    socket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                        private boolean initialHandshake = true;
+
+                        @Override
+                        public void handshakeCompleted(HandshakeCompletedEvent event) {
+                            if (!initialHandshake)
+                                renegotiated.countDown();
+                            initialHandshake = false;
+                        }
+                    });
+                    handle(socket);
+                } catch (IOException e) {
+                    // The client closed the connection, or the server has been stopped.
+                    continue;
+                }
+            }
+        }
+
+        private void handle(SSLSocket socket) throws IOException {
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            OutputStream outputStream = socket.getOutputStream();
+            while (true) {
+                String body = readRequest(inputStream);
+                if (body == null)
+                    return;
+                requests.add(body);
+                sessionIds.add(new BigInteger(1, socket.getSession().getId()).toString(HEXADECIMAL));
+
+                String response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n"
+                        + (closeAfterResponse ? "Connection: close\r\n" : "") + "\r\n{}";
+                outputStream.write(response.getBytes("ISO-8859-1"));
+                outputStream.flush();
+                if (closeAfterResponse) {
+                    // Like a real server, wait for the client to close the connection rather than resetting it with
+                    // the pipelined requests left unread.
+                    socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(1));
+                    while (inputStream.read() != -1) {
+                        continue;
+                    }
+                    return;
+                }
+                if (renegotiateAfterResponse && requests.size() == 1) {
+                    socket.getSession().invalidate();
+                    socket.startHandshake();
+                }
+            }
+        }
+
+        private static String readRequest(InputStream inputStream) throws IOException {
+            int contentLength = 0;
+            String line = readLine(inputStream);
+            if (line == null)
+                return null;
+            while (!(line = readLine(inputStream)).isEmpty()) {
+                if (line.toLowerCase().startsWith("content-length:"))
+                    contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+
+            byte[] body = new byte[contentLength];
+            int offset = 0;
+            while (offset < contentLength) {
+                int read = inputStream.read(body, offset, contentLength - offset);
+                if (read == -1)
+                    return null;
+                offset += read;
+            }
+            return new String(body, "UTF-8");
+        }
+
+        private static String readLine(InputStream inputStream) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int read;
+            while ((read = inputStream.read()) != '\n') {
+                if (read == -1)
+                    return null;
+                if (read != '\r')
+                    line.append((char) read);
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class OverflowPolicyTest {
+    private final List<String> executedTasks = new CopyOnWriteArrayList<>();
+    private CountDownLatch release;
+    private ThreadPoolExecutor executor;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        executedTasks.clear();
+        release = new CountDownLatch(1);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (executor != null)
+            executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Creates an executor with a single thread, busy until {@link #release} is counted down, and a queue of one task.
+     */
+    private void startBusyExecutor(final OverflowPolicy overflowPolicy) {
+        // As the AsyncConnection does, let the policy know each time a task has been executed.
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(1),
+                overflowPolicy) {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                overflowPolicy.afterSend(this);
+            }
+        };
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executedTasks.add(name);
+            }
+        };
+    }
+
+    private void releaseAndWait() throws InterruptedException {
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        OverflowPolicy overflowPolicy = OverflowPolicy.dropNewest();
+        startBusyExecutor(overflowPolicy);
+
+        executor.execute(task("first"));
+        executor.execute(task("second"));
+        releaseAndWait();
+
+        assertThat(executedTasks, contains("first"));
+        assertThat(overflowPolicy.getDroppedCount(), is(1L));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        OverflowPolicy overflowPolicy = OverflowPolicy.dropOldest();
+        startBusyExecutor(overflowPolicy);
+
+        executor.execute(task("first"));
+        executor.execute(task("second"));
+        releaseAndWait();
+
+        assertThat(executedTasks, contains("second"));
+        assertThat(overflowPolicy.getDroppedCount(), is(1L));
+    }
+
+    @Test
+    public void testBlockDropsTheEventAfterTheTimeout() throws Exception {
+        OverflowPolicy overflowPolicy = OverflowPolicy.block(10);
+        startBusyExecutor(overflowPolicy);
+
+        executor.execute(task("first"));
+        executor.execute(task("second"));
+        releaseAndWait();
+
+        assertThat(executedTasks, contains("first"));
+        assertThat(overflowPolicy.getDroppedCount(), is(1L));
+        assertThat(overflowPolicy.getDelayedCount(), is(0L));
+    }
+
+    @Test
+    public void testBlockWaitsForTheQueue() throws Exception {
+        OverflowPolicy overflowPolicy = OverflowPolicy.block(TimeUnit.SECONDS.toMillis(5));
+        startBusyExecutor(overflowPolicy);
+        executor.execute(task("first"));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        }).start();
+
+        executor.execute(task("second"));
+        releaseAndWait();
+
+        assertThat(executedTasks, contains("first", "second"));
+        assertThat(overflowPolicy.getDelayedCount(), is(1L));
+        assertThat(overflowPolicy.getDroppedCount(), is(0L));
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        OverflowPolicy overflowPolicy = OverflowPolicy.callerRuns();
+        startBusyExecutor(overflowPolicy);
+
+        executor.execute(task("first"));
+        executor.execute(task("second"));
+
+        assertThat(executedTasks, contains("second"));
+        releaseAndWait();
+        assertThat(executedTasks, contains("second", "first"));
+        assertThat(overflowPolicy.getDelayedCount(), is(1L));
+    }
+
+    @Test
+    public void testSpilledEventsAreSentOnceTheQueueHasRoom() throws Exception {
+        OverflowPolicy overflowPolicy = OverflowPolicy.spill(1);
+        startBusyExecutor(overflowPolicy);
+
+        executor.execute(task("first"));
+        executor.execute(task("second"));
+        executor.execute(task("third"));
+        release.countDown();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (executedTasks.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        // The spill holds a single event, the oldest spilled event has been dropped.
+        assertThat(executedTasks, contains("first", "third"));
+        assertThat(overflowPolicy.getDelayedCount(), is(2L));
+        assertThat(overflowPolicy.getDroppedCount(), is(1L));
+    }
+}
@@ -0,0 +1,50 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class PayloadBufferTest {
+    @Test
+    public void testBufferIsRecycledByItsThread() throws Exception {
+        PayloadBuffer buffer = PayloadBuffer.acquire();
+        buffer.write(new byte[]{1, 2, 3});
+        buffer.release();
+
+        PayloadBuffer recycledBuffer = PayloadBuffer.acquire();
+        try {
+            assertThat(recycledBuffer, is(sameInstance(buffer)));
+            assertThat(recycledBuffer.size(), is(0));
+        } finally {
+            recycledBuffer.release();
+        }
+    }
+
+    @Test
+    public void testBufferInUseIsNotShared() throws Exception {
+        PayloadBuffer buffer = PayloadBuffer.acquire();
+        PayloadBuffer otherBuffer = PayloadBuffer.acquire();
+        otherBuffer.release();
+        buffer.release();
+
+        assertThat(otherBuffer, is(not(sameInstance(buffer))));
+        PayloadBuffer recycledBuffer = PayloadBuffer.acquire();
+        recycledBuffer.release();
+        assertThat(recycledBuffer, is(sameInstance(buffer)));
+    }
+
+    @Test
+    public void testLargeBufferIsNotKept() throws Exception {
+        PayloadBuffer buffer = PayloadBuffer.acquire();
+        buffer.write(new byte[2 * 1024 * 1024]);
+        buffer.release();
+
+        PayloadBuffer newBuffer = PayloadBuffer.acquire();
+        newBuffer.release();
+        assertThat(newBuffer, is(not(sameInstance(buffer))));
+        assertThat(newBuffer.array().length, is(8 * 1024));
+    }
+}
@@ -0,0 +1,94 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.dsn.Dsn;
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.json.JsonMarshaller;
+import com.getsentry.raven.stub.SentryStub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Compares the throughput of {@link HttpConnection} and {@link PooledHttpConnection} against the sentry stub.
+ */
+public class PooledHttpConnectionIT {
+    private static final Logger logger = LoggerFactory.getLogger(PooledHttpConnectionIT.class);
+    private static final Dsn DSN = new Dsn("http://8292bf61d620417282e68a72ae03154a:e3908e05ad874b24b7a168992bfa3577"
+            + "@localhost:8080/1");
+    private static final int EVENT_COUNT = 2000;
+    private static final int THREAD_COUNT = 4;
+    private SentryStub sentryStub;
+    private Event event;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        event = new EventBuilder().withMessage("Benchmark event").withLevel(Event.Level.ERROR).build();
+        sentryStub = new SentryStub();
+        sentryStub.removeEvents();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        sentryStub.removeEvents();
+    }
+
+    private static URL sentryUrl() {
+        return HttpConnection.getSentryApiUrl(DSN.getUri(), DSN.getProjectId());
+    }
+
+    private double measure(final HttpConnection connection) throws Exception {
+        connection.setMarshaller(new JsonMarshaller());
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    RavenEnvironment.startManagingThread();
+                    try {
+                        connection.send(event);
+                    } finally {
+                        RavenEnvironment.stopManagingThread();
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        RavenEnvironment.startManagingThread();
+        try {
+            connection.close();
+        } finally {
+            RavenEnvironment.stopManagingThread();
+        }
+
+        return EVENT_COUNT / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void compareThroughput() throws Exception {
+        double currentPath = measure(new HttpConnection(sentryUrl(), DSN.getPublicKey(), DSN.getSecretKey()));
+        assertThat(sentryStub.getEventCount(), is(EVENT_COUNT));
+        sentryStub.removeEvents();
+
+        double pooledPath = measure(new PooledHttpConnection(sentryUrl(), DSN.getPublicKey(), DSN.getSecretKey(),
+                THREAD_COUNT, PooledHttpConnection.DEFAULT_IDLE_TIMEOUT));
+        assertThat(sentryStub.getEventCount(), is(EVENT_COUNT));
+
+        logger.info("HttpConnection: {} events/s, PooledHttpConnection: {} events/s",
+                Math.round(currentPath), Math.round(pooledPath));
+    }
+}
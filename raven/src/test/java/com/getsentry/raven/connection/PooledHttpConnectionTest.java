@@ -0,0 +1,202 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import mockit.Injectable;
+import mockit.Verifications;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class PooledHttpConnectionTest {
+    private static final String PUBLIC_KEY = "6cc48e8f-380c-44cc-986b-f566247a2af5";
+    private static final String SECRET_KEY = "e30cca23-3f97-470b-a8c2-e29b33dd25e0";
+    private final Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private volatile int responseStatus;
+    private volatile boolean chunkedResponse;
+    private volatile long responseDelay;
+    private PooledHttpConnection pooledHttpConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        responseStatus = 200;
+        chunkedResponse = false;
+        responseDelay = 0;
+        clientPorts.clear();
+        bodies.clear();
+        contentEncodings.clear();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                contentEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Content-Encoding")));
+                bodies.add(read(exchange.getRequestBody()));
+                try {
+                    Thread.sleep(responseDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] response = "{\"id\": \"00000000000000000000000000000000\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(responseStatus, chunkedResponse ? 0 : response.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(response);
+                }
+            }
+        });
+        server.start();
+
+        pooledHttpConnection = createConnection(PooledHttpConnection.DEFAULT_IDLE_TIMEOUT);
+    }
+
+    private PooledHttpConnection createConnection(long idleTimeout) {
+        URI sentryUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+        PooledHttpConnection connection = new PooledHttpConnection(HttpConnection.getSentryApiUrl(sentryUri, "1"),
+                PUBLIC_KEY, SECRET_KEY, 1, idleTimeout);
+        connection.setMarshaller(new Marshaller() {
+            @Override
+            public void marshall(Event event, OutputStream destination) {
+                try {
+                    destination.write("{}".getBytes("UTF-8"));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        // Prevent the lockdown from slowing down the tests.
+        connection.setBaseWaitingTime(0);
+        return connection;
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        pooledHttpConnection.close();
+        server.stop(0);
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return content.toString("UTF-8");
+    }
+
+    @Test
+    public void testSocketIsReusedBetweenEvents(@Injectable final Event mockEvent) throws Exception {
+        pooledHttpConnection.send(mockEvent);
+        pooledHttpConnection.send(mockEvent);
+        pooledHttpConnection.send(mockEvent);
+
+        assertThat(bodies, contains("{}", "{}", "{}"));
+        assertThat(clientPorts.size(), is(1));
+    }
+
+    @Test
+    public void testChunkedResponsesAreDrained(@Injectable final Event mockEvent) throws Exception {
+        chunkedResponse = true;
+
+        pooledHttpConnection.send(mockEvent);
+        pooledHttpConnection.send(mockEvent);
+
+        assertThat(bodies.size(), is(2));
+        assertThat(clientPorts.size(), is(1));
+    }
+
+    @Test
+    public void testMarshalledPayloadIsSent(@Injectable final Event mockEvent) throws Exception {
+        pooledHttpConnection.send(mockEvent, "{\"message\": \"payload\"}".getBytes("UTF-8"));
+
+        assertThat(bodies, contains("{\"message\": \"payload\"}"));
+    }
+
+    @Test
+    public void testGzipPayloadIsSentWithItsEncoding(@Injectable final Event mockEvent) throws Exception {
+        ByteArrayOutputStream gzipPayload = new ByteArrayOutputStream();
+        try (OutputStream gzipStream = new GZIPOutputStream(gzipPayload)) {
+            gzipStream.write("{}".getBytes("UTF-8"));
+        }
+
+        pooledHttpConnection.send(mockEvent, gzipPayload.toByteArray());
+        pooledHttpConnection.send(mockEvent);
+
+        assertThat(contentEncodings, contains("gzip", "null"));
+    }
+
+    @Test
+    public void testErrorStatusCallsFailureCallback(@Injectable final Event mockEvent,
+                                                    @Injectable final EventSendFailureCallback mockCallback)
+            throws Exception {
+        responseStatus = 403;
+        pooledHttpConnection.addEventSendFailureCallback(mockCallback);
+
+        pooledHttpConnection.send(mockEvent);
+
+        new Verifications() {{
+            mockCallback.onFailure(mockEvent, (ConnectionException) any);
+        }};
+    }
+
+    @Test
+    public void testIdleSocketsAreClosedInTheBackground(@Injectable final Event mockEvent) throws Exception {
+        PooledHttpConnection evictingConnection = createConnection(50);
+        try {
+            evictingConnection.send(mockEvent);
+            assertThat(evictingConnection.getIdleSocketCount(), is(1));
+
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            while (evictingConnection.getIdleSocketCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertThat(evictingConnection.getIdleSocketCount(), is(0));
+        } finally {
+            evictingConnection.close();
+        }
+    }
+
+    @Test
+    public void testSlowResponseIsNotSentAgain(@Injectable final Event mockEvent) throws Exception {
+        pooledHttpConnection.setTimeout(100);
+        pooledHttpConnection.send(mockEvent);
+        responseDelay = 500;
+
+        try {
+            pooledHttpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with a read timeout", false);
+        } catch (ConnectionException e) {
+            assertThat(e.getCause(), is(instanceOf(SocketTimeoutException.class)));
+        }
+
+        // The request over the reused socket timed out, it wasn't retried over a new socket.
+        assertThat(bodies.size(), is(2));
+    }
+}
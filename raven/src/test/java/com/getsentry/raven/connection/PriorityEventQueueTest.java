@@ -0,0 +1,136 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class PriorityEventQueueTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private AsyncConnection asyncConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        tasks.clear();
+        // Captures the tasks of the async connection instead of running them.
+        ThreadPoolExecutor capturingExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        Connection noopConnection = new Connection() {
+            @Override
+            public void send(Event event) {
+            }
+
+            @Override
+            public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        };
+        asyncConnection = new AsyncConnection(noopConnection, capturingExecutor, false, 0);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        asyncConnection.close();
+    }
+
+    private Runnable task(Event.Level level) {
+        asyncConnection.send(new EventBuilder().withLevel(level).build());
+        return tasks.get(tasks.size() - 1);
+    }
+
+    @Test
+    public void testTasksAreTakenByDecreasingLevelThenInOrder() throws Exception {
+        PriorityEventQueue queue = new PriorityEventQueue(10);
+        Runnable firstWarning = task(Event.Level.WARNING);
+        Runnable debug = task(Event.Level.DEBUG);
+        Runnable secondWarning = task(Event.Level.WARNING);
+        Runnable fatal = task(Event.Level.FATAL);
+        Runnable noLevel = task(null);
+        for (Runnable task : tasks) {
+            assertThat(queue.offer(task), is(true));
+        }
+
+        assertThat(queue.poll(), is(fatal));
+        assertThat(queue.poll(), is(noLevel));
+        assertThat(queue.poll(), is(firstWarning));
+        assertThat(queue.poll(), is(secondWarning));
+        assertThat(queue.poll(), is(debug));
+        assertThat(queue.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void testFullQueueEvictsTheOldestLowestLevelTask() throws Exception {
+        PriorityEventQueue queue = new PriorityEventQueue(3);
+        Runnable oldestInfo = task(Event.Level.INFO);
+        Runnable warning = task(Event.Level.WARNING);
+        Runnable info = task(Event.Level.INFO);
+        Runnable error = task(Event.Level.ERROR);
+        for (Runnable task : tasks) {
+            assertThat(queue.offer(task), is(true));
+        }
+
+        assertThat(queue.size(), is(3));
+        assertThat(queue, not(hasItem(oldestInfo)));
+        assertThat(queue, contains(error, warning, info));
+    }
+
+    @Test
+    public void testFullQueueRejectsLowerLevelTasks() throws Exception {
+        PriorityEventQueue queue = new PriorityEventQueue(1);
+        Runnable error = task(Event.Level.ERROR);
+        Runnable warning = task(Event.Level.WARNING);
+
+        assertThat(queue.offer(error), is(true));
+        assertThat(queue.offer(warning), is(false));
+        assertThat(queue, contains(error));
+    }
+
+    @Test
+    public void testReservedCapacityIsKeptForItsLevel() throws Exception {
+        int[] reserved = new int[Event.Level.values().length];
+        reserved[Event.Level.FATAL.ordinal()] = 1;
+        PriorityEventQueue queue = new PriorityEventQueue(3, reserved);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(task(Event.Level.DEBUG));
+        }
+        Runnable fatal = task(Event.Level.FATAL);
+
+        assertThat(queue.size(), is(2));
+        assertThat(queue.remainingCapacity(), is(1));
+        assertThat(queue.offer(fatal), is(true));
+        assertThat(queue.peek(), is(fatal));
+        assertThat(queue.size(), is(3));
+    }
+
+    @Test
+    public void testRemovedTaskFreesItsCapacity() throws Exception {
+        PriorityEventQueue queue = new PriorityEventQueue(1);
+        Runnable first = task(Event.Level.ERROR);
+        Runnable second = task(Event.Level.FATAL);
+        queue.offer(first);
+
+        assertThat(queue.remove(first), is(true));
+        assertThat(queue.offer(second), is(true));
+        assertThat(queue.poll(1, TimeUnit.MILLISECONDS), is(second));
+        assertThat(queue.poll(1, TimeUnit.MILLISECONDS), is(nullValue()));
+    }
+}
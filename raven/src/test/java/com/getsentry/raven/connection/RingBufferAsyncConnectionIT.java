@@ -0,0 +1,114 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Compares the cost of handing events over to {@link AsyncConnection} and {@link RingBufferAsyncConnection} from
+ * several application threads.
+ * <p>
+ * The events are handed to a connection which only counts them, so only the queueing is measured. Both engines get a
+ * queue large enough to never drop an event.
+ */
+public class RingBufferAsyncConnectionIT {
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferAsyncConnectionIT.class);
+    private static final int EVENT_COUNT = 1 << 20;
+    private static final int THREAD_COUNT = 4;
+    private final AtomicInteger sentEvents = new AtomicInteger();
+    private final Connection countingConnection = new Connection() {
+        @Override
+        public void send(Event event) {
+            sentEvents.incrementAndGet();
+        }
+
+        @Override
+        public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    };
+
+    private double measure(final Connection connection) throws Exception {
+        sentEvents.set(0);
+        final Event event = new EventBuilder().withMessage("Benchmark event").build();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            producers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < EVENT_COUNT / THREAD_COUNT; j++) {
+                        connection.send(event);
+                    }
+                }
+            };
+            producers[i].start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        RavenEnvironment.startManagingThread();
+        try {
+            connection.close();
+        } finally {
+            RavenEnvironment.stopManagingThread();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        assertThat(sentEvents.get(), is(EVENT_COUNT));
+        return EVENT_COUNT / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private AsyncConnection createExecutorConnection() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>(), Executors.defaultThreadFactory());
+        return new AsyncConnection(countingConnection, executor, false, -1);
+    }
+
+    private RingBufferAsyncConnection createRingBufferConnection(RingBufferAsyncConnection.WaitStrategy strategy) {
+        return new RingBufferAsyncConnection(countingConnection, EVENT_COUNT, strategy,
+                Executors.defaultThreadFactory(), false, -1);
+    }
+
+    @Test
+    public void compareThroughput() throws Exception {
+        // Warm up both paths before measuring.
+        measure(createExecutorConnection());
+        measure(createRingBufferConnection(RingBufferAsyncConnection.WaitStrategy.PARK));
+
+        double executor = measure(createExecutorConnection());
+        double spin = measure(createRingBufferConnection(RingBufferAsyncConnection.WaitStrategy.SPIN));
+        double yield = measure(createRingBufferConnection(RingBufferAsyncConnection.WaitStrategy.YIELD));
+        double park = measure(createRingBufferConnection(RingBufferAsyncConnection.WaitStrategy.PARK));
+
+        logger.info("AsyncConnection: {} events/s, RingBufferAsyncConnection spin: {} events/s, "
+                        + "yield: {} events/s, park: {} events/s",
+                Math.round(executor), Math.round(spin), Math.round(yield), Math.round(park));
+    }
+}
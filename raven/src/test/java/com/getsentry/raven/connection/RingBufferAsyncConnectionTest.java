@@ -0,0 +1,169 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RingBufferAsyncConnectionTest {
+    private final List<Event> sentEvents = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch sendLatch;
+    private volatile boolean actualConnectionClosed;
+    private final Connection actualConnection = new Connection() {
+        @Override
+        public void send(Event event) {
+            try {
+                sendLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sentEvents.add(event);
+        }
+
+        @Override
+        public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        }
+
+        @Override
+        public void close() throws IOException {
+            actualConnectionClosed = true;
+        }
+    };
+    private RingBufferAsyncConnection ringBufferAsyncConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        sentEvents.clear();
+        sendLatch = new CountDownLatch(0);
+        actualConnectionClosed = false;
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        sendLatch.countDown();
+        if (ringBufferAsyncConnection != null)
+            ringBufferAsyncConnection.close();
+        ringBufferAsyncConnection = null;
+    }
+
+    private RingBufferAsyncConnection createConnection(int capacity, RingBufferAsyncConnection.WaitStrategy strategy,
+                                                       long shutdownTimeout) {
+        return new RingBufferAsyncConnection(actualConnection, capacity, strategy, Executors.defaultThreadFactory(),
+                false, shutdownTimeout);
+    }
+
+    private static List<Event> createEvents(int count) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(new EventBuilder().withMessage("Event " + i).build());
+        }
+        return events;
+    }
+
+    private void waitForSentEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (sentEvents.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @DataProvider(name = "waitStrategies")
+    public Object[][] waitStrategies() {
+        RingBufferAsyncConnection.WaitStrategy[] strategies = RingBufferAsyncConnection.WaitStrategy.values();
+        Object[][] data = new Object[strategies.length][];
+        for (int i = 0; i < strategies.length; i++) {
+            data[i] = new Object[]{strategies[i]};
+        }
+        return data;
+    }
+
+    @Test(dataProvider = "waitStrategies")
+    public void testEventsAreSentInOrder(RingBufferAsyncConnection.WaitStrategy strategy) throws Exception {
+        ringBufferAsyncConnection = createConnection(16, strategy, RingBufferAsyncConnection.DEFAULT_SHUTDOWN_TIMEOUT);
+        List<Event> events = createEvents(10);
+
+        for (Event event : events) {
+            ringBufferAsyncConnection.send(event);
+            // Let the consumer go idle between the events.
+            Thread.sleep(2);
+        }
+
+        waitForSentEvents(events.size());
+        assertThat(sentEvents, is(events));
+    }
+
+    @Test
+    public void testEventsAreDroppedWhenTheRingIsFull() throws Exception {
+        sendLatch = new CountDownLatch(1);
+        ringBufferAsyncConnection = createConnection(2, RingBufferAsyncConnection.WaitStrategy.PARK,
+                RingBufferAsyncConnection.DEFAULT_SHUTDOWN_TIMEOUT);
+        List<Event> events = createEvents(4);
+
+        ringBufferAsyncConnection.send(events.get(0));
+        // Wait for the consumer to be blocked on the first event.
+        Thread.sleep(50);
+        for (Event event : events.subList(1, 4)) {
+            ringBufferAsyncConnection.send(event);
+        }
+        sendLatch.countDown();
+
+        waitForSentEvents(3);
+        Thread.sleep(50);
+        assertThat(sentEvents, is(events.subList(0, 3)));
+    }
+
+    @Test
+    public void testCloseSendsTheRemainingEvents() throws Exception {
+        sendLatch = new CountDownLatch(1);
+        ringBufferAsyncConnection = createConnection(16, RingBufferAsyncConnection.WaitStrategy.PARK,
+                TimeUnit.SECONDS.toMillis(5));
+        List<Event> events = createEvents(5);
+        for (Event event : events) {
+            ringBufferAsyncConnection.send(event);
+        }
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sendLatch.countDown();
+            }
+        }.start();
+        ringBufferAsyncConnection.close();
+        ringBufferAsyncConnection.send(createEvents(1).get(0));
+
+        assertThat(sentEvents, is(events));
+        assertThat(actualConnectionClosed, is(true));
+    }
+
+    @Test
+    public void testCloseGivesUpAfterTheShutdownTimeout() throws Exception {
+        sendLatch = new CountDownLatch(1);
+        ringBufferAsyncConnection = createConnection(16, RingBufferAsyncConnection.WaitStrategy.PARK, 50);
+        for (Event event : createEvents(5)) {
+            ringBufferAsyncConnection.send(event);
+        }
+
+        ringBufferAsyncConnection.close();
+
+        assertThat(sentEvents.size(), is(lessThan(5)));
+        assertThat(actualConnectionClosed, is(true));
+    }
+}
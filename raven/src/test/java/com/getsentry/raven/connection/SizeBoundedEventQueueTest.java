@@ -0,0 +1,118 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.Marshaller;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SizeBoundedEventQueueTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private AsyncConnection asyncConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        tasks.clear();
+        // Captures the tasks of the async connection instead of running them.
+        ThreadPoolExecutor capturingExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        asyncConnection = new AsyncConnection(new NoopConnection(), capturingExecutor, false, 0);
+        // The marshalled content of an event is its message.
+        asyncConnection.setMarshaller(new Marshaller() {
+            @Override
+            public void marshall(Event event, OutputStream destination) {
+                try {
+                    destination.write(event.getMessage().getBytes("UTF-8"));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        asyncConnection.close();
+    }
+
+    private Runnable task(int size) {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            message.append('x');
+        }
+        asyncConnection.send(new EventBuilder().withMessage(message.toString()).build());
+        return tasks.get(tasks.size() - 1);
+    }
+
+    @Test
+    public void testQueueIsBoundedBySize() throws Exception {
+        SizeBoundedEventQueue queue = new SizeBoundedEventQueue(10);
+        Runnable first = task(4);
+        Runnable second = task(6);
+        Runnable third = task(1);
+
+        assertThat(queue.offer(first), is(true));
+        assertThat(queue.offer(second), is(true));
+        assertThat(queue.offer(third), is(false));
+        assertThat(queue.remainingCapacity(), is(0));
+        assertThat(queue.getUsage(), is(1.0));
+
+        assertThat(queue.poll(), is(first));
+        assertThat(queue.remainingCapacity(), is(4));
+        assertThat(queue.offer(third), is(true));
+        assertThat(queue, contains(second, third));
+    }
+
+    @Test
+    public void testLargeTaskIsAcceptedByAnEmptyQueue() throws Exception {
+        SizeBoundedEventQueue queue = new SizeBoundedEventQueue(10);
+        Runnable large = task(20);
+        Runnable small = task(1);
+
+        assertThat(queue.offer(large), is(true));
+        assertThat(queue.offer(small), is(false));
+        assertThat(queue.getUsage(), is(1.0));
+        assertThat(queue.poll(), is(large));
+        assertThat(queue.offer(small), is(true));
+    }
+
+    @Test
+    public void testOfferWaitsForCapacity() throws Exception {
+        final SizeBoundedEventQueue queue = new SizeBoundedEventQueue(10);
+        final Runnable first = task(10);
+        Runnable second = task(5);
+        queue.offer(first);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                queue.remove(first);
+            }
+        }).start();
+
+        assertThat(queue.offer(second, 1, TimeUnit.MILLISECONDS), is(false));
+        assertThat(queue.offer(second, 5, TimeUnit.SECONDS), is(true));
+        assertThat(queue, contains(second));
+    }
+}
@@ -0,0 +1,204 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import mockit.Injectable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SpoolingConnectionTest {
+    private static final String PUBLIC_KEY = "6cc48e8f-380c-44cc-986b-f566247a2af5";
+    private static final String SECRET_KEY = "e30cca23-3f97-470b-a8c2-e29b33dd25e0";
+    private final List<String> acceptedBodies = new CopyOnWriteArrayList<>();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicInteger eventCounter = new AtomicInteger();
+    private final List<Exception> failures = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private volatile int responseStatus;
+    private File directory;
+    private SpoolingConnection spoolingConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        responseStatus = 200;
+        acceptedBodies.clear();
+        attempts.set(0);
+        eventCounter.set(0);
+        failures.clear();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = read(exchange.getRequestBody());
+                attempts.incrementAndGet();
+                int status = responseStatus;
+                if (status == 200)
+                    acceptedBodies.add(body);
+                byte[] response = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, response.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(response);
+                }
+            }
+        });
+        server.start();
+        directory = Files.createTempDirectory("raven-spool").toFile();
+        spoolingConnection = createConnection(SpoolingConnection.DEFAULT_MAX_BYTES);
+    }
+
+    private SpoolingConnection createConnection(long maxBytes) throws IOException {
+        URI sentryUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+        HttpConnection httpConnection = new HttpConnection(HttpConnection.getSentryApiUrl(sentryUri, "1"),
+                PUBLIC_KEY, SECRET_KEY);
+        httpConnection.setMarshaller(new Marshaller() {
+            @Override
+            public void marshall(Event event, OutputStream destination) {
+                try {
+                    destination.write(String.valueOf(eventCounter.incrementAndGet()).getBytes("UTF-8"));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        httpConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public void onFailure(Event event, Exception exception) {
+                failures.add(exception);
+            }
+        });
+        // Keep the lockdown short to speed up the tests.
+        httpConnection.setBaseWaitingTime(10);
+        httpConnection.setMaxWaitingTime(10);
+        return new SpoolingConnection(httpConnection, directory, 1024, maxBytes, false, 0);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        spoolingConnection.close();
+        server.stop(0);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return content.toString("UTF-8");
+    }
+
+    private void waitUntilSpoolIsEmpty() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (spoolingConnection.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForAttempts(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (attempts.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testEventsAreSent(@Injectable final Event mockEvent) throws Exception {
+        spoolingConnection.send(mockEvent);
+        spoolingConnection.send(mockEvent);
+
+        waitUntilSpoolIsEmpty();
+        assertThat(acceptedBodies, contains("1", "2"));
+    }
+
+    @Test
+    public void testEventsAreReplayedInOrderOnceSentryIsBack(@Injectable final Event mockEvent) throws Exception {
+        responseStatus = 503;
+        spoolingConnection.send(mockEvent);
+        spoolingConnection.send(mockEvent);
+        spoolingConnection.send(mockEvent);
+        waitForAttempts(3);
+        assertThat(spoolingConnection.getPendingCount(), is(3));
+
+        responseStatus = 200;
+        waitUntilSpoolIsEmpty();
+
+        assertThat(acceptedBodies, contains("1", "2", "3"));
+        assertThat(failures, is(empty()));
+    }
+
+    @Test
+    public void testSpooledEventsAreSentOnNextStart(@Injectable final Event mockEvent) throws Exception {
+        responseStatus = 503;
+        spoolingConnection.send(mockEvent);
+        spoolingConnection.send(mockEvent);
+        waitForAttempts(1);
+        spoolingConnection.close();
+
+        responseStatus = 200;
+        spoolingConnection = createConnection(SpoolingConnection.DEFAULT_MAX_BYTES);
+        waitUntilSpoolIsEmpty();
+
+        assertThat(acceptedBodies, contains("1", "2"));
+    }
+
+    @Test
+    public void testEventRejectedBySentryIsDropped(@Injectable final Event mockEvent) throws Exception {
+        responseStatus = 400;
+        spoolingConnection.send(mockEvent);
+        waitUntilSpoolIsEmpty();
+
+        responseStatus = 200;
+        spoolingConnection.send(mockEvent);
+        waitUntilSpoolIsEmpty();
+
+        assertThat(attempts.get(), is(2));
+        assertThat(acceptedBodies, contains("2"));
+    }
+
+    @Test
+    public void testFullSpoolNotifiesTheFailureCallbacks(@Injectable final Event mockEvent) throws Exception {
+        spoolingConnection.close();
+        responseStatus = 503;
+        // A single segment of 1024 bytes holds about a hundred of these small events.
+        spoolingConnection = createConnection(1024);
+        for (int i = 0; i < 90; i++) {
+            spoolingConnection.send(mockEvent);
+        }
+        assertThat(failures, is(empty()));
+
+        for (int i = 0; i < 20; i++) {
+            spoolingConnection.send(mockEvent);
+        }
+
+        assertThat(failures, is(not(empty())));
+        assertThat(failures.get(0), is(instanceOf(ConnectionException.class)));
+    }
+}
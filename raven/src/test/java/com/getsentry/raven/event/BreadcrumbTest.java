@@ -0,0 +1,62 @@
+package com.getsentry.raven.event;
+
+import org.testng.annotations.Test;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BreadcrumbTest {
+    @Test
+    public void testDataIsKeptInOrder() throws Exception {
+        Map<String, String> data = new LinkedHashMap<>();
+        data.put("method", "GET");
+        data.put("url", "/orders");
+
+        Breadcrumb breadcrumb = new BreadcrumbBuilder()
+            .setLevel("info")
+            .setCategory("http")
+            .setData(data)
+            .build();
+
+        assertThat(breadcrumb.getData(), is(data));
+        assertThat(breadcrumb.getDataSize(), is(2));
+        assertThat(breadcrumb.getDataKey(1), is("url"));
+        assertThat(breadcrumb.getDataValue(1), is("/orders"));
+    }
+
+    @Test
+    public void testBreadcrumbWithoutDataHasNoData() throws Exception {
+        Breadcrumb breadcrumb = new BreadcrumbBuilder()
+            .setTimestamp(new Date(1463169342000L))
+            .setLevel("info")
+            .setCategory("foo")
+            .setMessage("test")
+            .build();
+
+        assertThat(breadcrumb.getData(), is(nullValue()));
+        assertThat(breadcrumb.getDataSize(), is(0));
+        assertThat(breadcrumb.getTimestampMillis(), is(1463169342000L));
+        assertThat(breadcrumb.getTimestamp(), is(new Date(1463169342000L)));
+    }
+
+    @Test
+    public void testLevelsAndCategoriesAreShared() throws Exception {
+        Breadcrumb breadcrumb1 = new BreadcrumbBuilder()
+            .setLevel(new String("info"))
+            .setCategory(new String("foo"))
+            .setMessage("test1")
+            .build();
+        Breadcrumb breadcrumb2 = new BreadcrumbBuilder()
+            .setLevel(new String("info"))
+            .setCategory(new String("foo"))
+            .setMessage("test2")
+            .build();
+
+        assertThat(breadcrumb2.getLevel(), is(sameInstance(breadcrumb1.getLevel())));
+        assertThat(breadcrumb2.getCategory(), is(sameInstance(breadcrumb1.getCategory())));
+    }
+}
@@ -5,12 +5,14 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static mockit.Deencapsulation.getField;
 import static mockit.Deencapsulation.setField;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
 
 @Test(singleThreaded = true)
 public class EventBuilderHostnameCacheTest {
@@ -21,15 +23,29 @@ public class EventBuilderHostnameCacheTest {
     @Injectable
     private InetAddress mockTimingOutLocalHost = null;
 
-    private static void resetHostnameCache() {
+    private static void resetHostnameCache() throws Exception {
+        awaitHostnameRefresh();
         setField(getHostnameCache(), "expirationTimestamp", 0L);
         setField(getHostnameCache(), "hostname", EventBuilder.DEFAULT_HOSTNAME);
+        setField(getHostnameCache(), "retryDelay", TimeUnit.SECONDS.toMillis(1));
     }
 
     private static Object getHostnameCache() {
         return getField(EventBuilder.class, "HOSTNAME_CACHE");
     }
 
+    private static long getExpirationTimestamp() {
+        return Deencapsulation.<Long>getField(getHostnameCache(), "expirationTimestamp");
+    }
+
+    private static void awaitHostnameRefresh() throws Exception {
+        AtomicBoolean refreshing = getField(getHostnameCache(), "refreshing");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (refreshing.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
     @BeforeMethod
     public void setUp() throws Exception {
         new NonStrictExpectations() {{
@@ -44,37 +60,43 @@ public class EventBuilderHostnameCacheTest {
     }
 
     @Test
-    public void successfulHostnameRetrievalIsCachedForFiveHours(
-            @SuppressWarnings("unused") @Mocked("currentTimeMillis") final System system)
-            throws Exception {
+    public void successfulHostnameRetrievalIsCachedForFiveHours() throws Exception {
         new NonStrictExpectations(InetAddress.class) {{
-            System.currentTimeMillis();
-            result = 1L;
             InetAddress.getLocalHost();
             result = mockLocalHost;
         }};
 
+        long before = System.currentTimeMillis();
         new EventBuilder().build();
-        final long expirationTime = Deencapsulation.<Long>getField(getHostnameCache(), "expirationTimestamp");
+        awaitHostnameRefresh();
+        long after = System.currentTimeMillis();
 
-        assertThat(expirationTime, is(TimeUnit.HOURS.toMillis(5) + System.currentTimeMillis()));
+        assertThat(getExpirationTimestamp(), is(both(greaterThanOrEqualTo(before + TimeUnit.HOURS.toMillis(5)))
+                .and(lessThanOrEqualTo(after + TimeUnit.HOURS.toMillis(5)))));
+        assertThat(new EventBuilder().build().getServerName(), is(mockLocalHostName));
     }
 
     @Test
-    public void unsuccessfulHostnameRetrievalIsCachedForOneSecond(
-            @SuppressWarnings("unused") @Mocked("currentTimeMillis") final System system)
-            throws Exception {
+    public void unsuccessfulHostnameRetrievalIsRetriedWithABackoff() throws Exception {
         new NonStrictExpectations(InetAddress.class) {{
-            System.currentTimeMillis();
-            result = 1L;
             InetAddress.getLocalHost();
             result = mockTimingOutLocalHost;
         }};
 
+        long before = System.currentTimeMillis();
         new EventBuilder().build();
-        final long expirationTime = Deencapsulation.<Long>getField(getHostnameCache(), "expirationTimestamp");
+        awaitHostnameRefresh();
+        long after = System.currentTimeMillis();
+        assertThat(getExpirationTimestamp(), is(both(greaterThanOrEqualTo(before + TimeUnit.SECONDS.toMillis(1)))
+                .and(lessThanOrEqualTo(after + TimeUnit.SECONDS.toMillis(1)))));
 
-        assertThat(expirationTime, is(TimeUnit.SECONDS.toMillis(1) + System.currentTimeMillis()));
+        setField(getHostnameCache(), "expirationTimestamp", 0L);
+        before = System.currentTimeMillis();
+        new EventBuilder().build();
+        awaitHostnameRefresh();
+        after = System.currentTimeMillis();
+        assertThat(getExpirationTimestamp(), is(both(greaterThanOrEqualTo(before + TimeUnit.SECONDS.toMillis(2)))
+                .and(lessThanOrEqualTo(after + TimeUnit.SECONDS.toMillis(2)))));
     }
 
     @Test
@@ -86,7 +108,10 @@ public class EventBuilderHostnameCacheTest {
         }};
 
         new EventBuilder().build();
-        setField(getHostnameCache(), "expirationTimestamp", 0l);
+        awaitHostnameRefresh();
+        setField(getHostnameCache(), "expirationTimestamp", 0L);
+        new EventBuilder().build();
+        awaitHostnameRefresh();
         Event event = new EventBuilder().build();
 
         assertThat(event.getServerName(), is(mockLocalHostName));
@@ -95,4 +120,39 @@ public class EventBuilderHostnameCacheTest {
             mockTimingOutLocalHost.getCanonicalHostName();
         }};
     }
+
+    @Test
+    public void slowHostnameRetrievalDoesNotBlockTheEvents() throws Exception {
+        final CountDownLatch lookupReleased = new CountDownLatch(1);
+        new NonStrictExpectations(InetAddress.class) {{
+            InetAddress.getLocalHost();
+            result = new Delegate<InetAddress>() {
+                @SuppressWarnings("unused")
+                InetAddress getLocalHost() throws Exception {
+                    lookupReleased.await(5, TimeUnit.SECONDS);
+                    return mockLocalHost;
+                }
+            };
+        }};
+
+        try {
+            long before = System.nanoTime();
+            Event firstEvent = new EventBuilder().build();
+            Event secondEvent = new EventBuilder().build();
+            long elapsed = System.nanoTime() - before;
+
+            assertThat(firstEvent.getServerName(), is(EventBuilder.DEFAULT_HOSTNAME));
+            assertThat(secondEvent.getServerName(), is(EventBuilder.DEFAULT_HOSTNAME));
+            assertThat(elapsed, is(lessThan(TimeUnit.SECONDS.toNanos(1))));
+        } finally {
+            lookupReleased.countDown();
+        }
+        awaitHostnameRefresh();
+
+        assertThat(new EventBuilder().build().getServerName(), is(mockLocalHostName));
+        new Verifications() {{
+            InetAddress.getLocalHost();
+            times = 1;
+        }};
+    }
 }
@@ -10,6 +10,7 @@ import org.testng.annotations.Test;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static mockit.Deencapsulation.getField;
 import static mockit.Deencapsulation.setField;
@@ -20,11 +21,20 @@ public class EventBuilderTest {
     @Injectable
     private InetAddress mockLocalHost = null;
 
-    private static void resetHostnameCache() {
+    private static void resetHostnameCache() throws Exception {
+        awaitHostnameRefresh();
         setField(getHostnameCache(), "expirationTimestamp", 0l);
         setField(getHostnameCache(), "hostname", EventBuilder.DEFAULT_HOSTNAME);
     }
 
+    private static void awaitHostnameRefresh() throws Exception {
+        AtomicBoolean refreshing = getField(getHostnameCache(), "refreshing");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (refreshing.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
     private static Object getHostnameCache() {
         return getField(EventBuilder.class, "HOSTNAME_CACHE");
     }
@@ -40,17 +50,22 @@ public class EventBuilderTest {
     }
 
     @Test
-    public void builtEventHasRandomlyGeneratedUuid(@Injectable final UUID mockUuid)
-            throws Exception {
-        new NonStrictExpectations(UUID.class) {{
-            UUID.randomUUID();
+    public void builtEventHasGeneratedUuid(@Injectable final UUID mockUuid,
+                                           @Injectable final EventIdGenerator mockIdGenerator) throws Exception {
+        new NonStrictExpectations() {{
+            mockIdGenerator.generateId();
             result = mockUuid;
         }};
-        final EventBuilder eventBuilder = new EventBuilder();
+        EventBuilder.setIdGenerator(mockIdGenerator);
+        try {
+            final EventBuilder eventBuilder = new EventBuilder();
 
-        final Event event = eventBuilder.build();
+            final Event event = eventBuilder.build();
 
-        assertThat(event.getId(), is(sameInstance(mockUuid)));
+            assertThat(event.getId(), is(sameInstance(mockUuid)));
+        } finally {
+            EventBuilder.setIdGenerator(new ThreadLocalEventIdGenerator());
+        }
     }
 
     @Test
@@ -262,12 +277,10 @@ public class EventBuilderTest {
             mockLocalHost.getCanonicalHostName();
             result = new RuntimeException("For all intents and purposes, an exception is the same as a timeout");
         }};
-        final EventBuilder eventBuilder = new EventBuilder();
+        new EventBuilder().build();
+        awaitHostnameRefresh();
 
-        final Event event = eventBuilder.build();
-        synchronized (this) {
-            this.notify();
-        }
+        final Event event = new EventBuilder().build();
 
         assertThat(event.getServerName(), is(EventBuilder.DEFAULT_HOSTNAME));
     }
@@ -282,9 +295,10 @@ public class EventBuilderTest {
             mockLocalHost.getCanonicalHostName();
             result = mockServerName;
         }};
-        final EventBuilder eventBuilder = new EventBuilder();
+        new EventBuilder().build();
+        awaitHostnameRefresh();
 
-        final Event event = eventBuilder.build();
+        final Event event = new EventBuilder().build();
 
         assertThat(event.getServerName(), is(mockServerName));
     }
@@ -0,0 +1,61 @@
+package com.getsentry.raven.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the event id generators as the number of threads generating ids grows.
+ */
+public class EventIdGeneratorIT {
+    private static final Logger logger = LoggerFactory.getLogger(EventIdGeneratorIT.class);
+    private static final int IDS_PER_THREAD = 100000;
+    private static final int MAX_THREAD_COUNT = 64;
+
+    private double measure(final EventIdGenerator idGenerator, int threadCount) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < IDS_PER_THREAD; j++) {
+                            idGenerator.generateId();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - startTime;
+
+        return threadCount * IDS_PER_THREAD / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void compareThroughput() throws Exception {
+        EventIdGenerator secureGenerator = new SecureEventIdGenerator();
+        EventIdGenerator threadLocalGenerator = new ThreadLocalEventIdGenerator();
+        // Warms up both generators
+        measure(secureGenerator, 1);
+        measure(threadLocalGenerator, 1);
+
+        for (int threadCount = 1; threadCount <= MAX_THREAD_COUNT; threadCount *= 2) {
+            double secure = measure(secureGenerator, threadCount);
+            double threadLocal = measure(threadLocalGenerator, threadCount);
+            logger.info("{} threads: SecureEventIdGenerator: {} ids/s, ThreadLocalEventIdGenerator: {} ids/s",
+                    threadCount, Math.round(secure), Math.round(threadLocal));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.getsentry.raven.event;
+
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ThreadLocalEventIdGeneratorTest {
+    private final ThreadLocalEventIdGenerator idGenerator = new ThreadLocalEventIdGenerator();
+
+    @Test
+    public void testIdsAreRandomVersion4Uuids() throws Exception {
+        UUID id = idGenerator.generateId();
+
+        assertThat(id.version(), is(4));
+        assertThat(id.variant(), is(2));
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossThreads() throws Exception {
+        final int threadCount = 8;
+        final int idsPerThread = 20000;
+        final Set<UUID> ids = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < idsPerThread; j++) {
+                        ids.add(idGenerator.generateId());
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertThat(ids.size(), is(threadCount * idsPerThread));
+    }
+}
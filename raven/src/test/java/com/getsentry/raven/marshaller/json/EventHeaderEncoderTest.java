@@ -0,0 +1,125 @@
+package com.getsentry.raven.marshaller.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.getsentry.raven.event.Event;
+import org.testng.SkipException;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class EventHeaderEncoderTest {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int EVENT_COUNT = 10000;
+
+    private static JsonNode encode(UUID id, long timestampMillis, Event.Level level) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+            generator.writeStartObject();
+            EventHeaderEncoder.get().writeId(generator, id);
+            EventHeaderEncoder.get().writeTimestamp(generator, timestampMillis);
+            EventHeaderEncoder.writeLevel(generator, level);
+            generator.writeEndObject();
+        }
+        return new ObjectMapper().readTree(outputStream.toByteArray());
+    }
+
+    private static String isoFormat(long timestampMillis) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(new Date(timestampMillis));
+    }
+
+    @DataProvider(name = "timestamps")
+    public Object[][] timestamps() {
+        Random random = new Random(42);
+        Object[][] timestamps = new Object[100][];
+        for (int i = 0; i < timestamps.length; i++) {
+            // Up to about 300 years around the epoch, over the years formatted by the encoder
+            timestamps[i] = new Object[]{(random.nextLong() % 10000000000000L)};
+        }
+        timestamps[0] = new Object[]{0L};
+        timestamps[1] = new Object[]{-1L};
+        timestamps[2] = new Object[]{951782400000L}; // 2000-02-29
+        timestamps[3] = new Object[]{-62135596800000L}; // Year 1, Julian calendar
+        timestamps[4] = new Object[]{253402300800000L}; // Year 10000
+        return timestamps;
+    }
+
+    @Test(dataProvider = "timestamps")
+    public void testTimestampIsWrittenAsTheDateFormatWould(long timestampMillis) throws Exception {
+        JsonNode header = encode(UUID.randomUUID(), timestampMillis, null);
+
+        assertThat(header.get(JsonMarshaller.TIMESTAMP).asText(), is(isoFormat(timestampMillis)));
+    }
+
+    @Test
+    public void testIdIsWrittenWithoutDashes() throws Exception {
+        UUID id = UUID.fromString("3b71fba5-413e-4022-ae98-5f0b80a155a5");
+
+        JsonNode header = encode(id, 0, Event.Level.WARNING);
+
+        assertThat(header.get(JsonMarshaller.EVENT_ID).asText(), is("3b71fba5413e4022ae985f0b80a155a5"));
+        assertThat(header.get(JsonMarshaller.LEVEL).asText(), is("warning"));
+    }
+
+    @Test
+    public void testHeaderIsWrittenWithoutAllocating() throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            throw new SkipException("The allocations of the threads can't be measured on this JVM.");
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isThreadAllocatedMemorySupported() || !threadMXBean.isThreadAllocatedMemoryEnabled())
+            throw new SkipException("The allocations of the threads aren't measured on this JVM.");
+
+        UUID[] ids = new UUID[EVENT_COUNT];
+        long[] timestamps = new long[EVENT_COUNT];
+        Event.Level[] levels = Event.Level.values();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            ids[i] = UUID.randomUUID();
+            // A new second every 10 events
+            timestamps[i] = 1385266295338L + i * 100L;
+        }
+        OutputStream discardingStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        JsonGenerator generator = JSON_FACTORY.createGenerator(discardingStream);
+        generator.writeStartObject();
+        EventHeaderEncoder headerEncoder = EventHeaderEncoder.get();
+
+        long allocatedBytes = 0;
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the code, only the second one is measured
+            long threadId = Thread.currentThread().getId();
+            long start = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                headerEncoder.writeId(generator, ids[i]);
+                headerEncoder.writeTimestamp(generator, timestamps[i]);
+                EventHeaderEncoder.writeLevel(generator, levels[i % levels.length]);
+            }
+            allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+        }
+
+        // Leaves room for the measure itself, far from a single allocation per event
+        assertThat(allocatedBytes, is(lessThan((long) EVENT_COUNT)));
+    }
+}
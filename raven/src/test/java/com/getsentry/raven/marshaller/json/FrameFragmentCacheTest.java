@@ -0,0 +1,51 @@
+package com.getsentry.raven.marshaller.json;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FrameFragmentCacheTest {
+    private static StackTraceElement frame(int lineNumber) {
+        return new StackTraceElement("com.example.Main", "main", "Main.java", lineNumber);
+    }
+
+    @Test
+    public void testFragmentsAreCachedByFrameAndInAppFlag() throws Exception {
+        FrameFragmentCache cache = new FrameFragmentCache(1024 * 1024);
+        SerializableString inAppFragment = new SerializedString("{\"in_app\":true}");
+        SerializableString notInAppFragment = new SerializedString("{\"in_app\":false}");
+
+        assertThat(cache.get(frame(1), true), is(nullValue()));
+        cache.put(frame(1), true, inAppFragment);
+        cache.put(frame(1), false, notInAppFragment);
+
+        assertThat(cache.get(frame(1), true), is(inAppFragment));
+        assertThat(cache.get(frame(1), false), is(notInAppFragment));
+        assertThat(cache.get(frame(2), true), is(nullValue()));
+        assertThat(cache.getRetainedBytes(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void testCacheIsBoundedBySize() throws Exception {
+        long maxBytes = 4096;
+        FrameFragmentCache cache = new FrameFragmentCache(maxBytes);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(frame(i), true, new SerializedString("{\"lineno\":" + i + "}"));
+            assertThat(cache.getRetainedBytes(), is(lessThanOrEqualTo(maxBytes)));
+        }
+    }
+
+    @Test
+    public void testFragmentLargerThanTheCacheIsNotCached() throws Exception {
+        FrameFragmentCache cache = new FrameFragmentCache(16);
+
+        cache.put(frame(1), true, new SerializedString("{\"lineno\":1}"));
+
+        assertThat(cache.get(frame(1), true), is(nullValue()));
+        assertThat(cache.getRetainedBytes(), is(0L));
+    }
+}
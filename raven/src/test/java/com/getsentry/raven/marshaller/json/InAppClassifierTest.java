@@ -0,0 +1,51 @@
+package com.getsentry.raven.marshaller.json;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class InAppClassifierTest {
+    @Test
+    public void testClassesMatchingNoPrefixAreInApp() throws Exception {
+        InAppClassifier classifier = new InAppClassifier(Collections.<String>emptyList(),
+                Arrays.asList("java.", "javax."));
+
+        assertThat(classifier.isInApp("com.example.Main"), is(true));
+        assertThat(classifier.isInApp("jav"), is(true));
+    }
+
+    @Test
+    public void testClassesMatchingANotInAppPrefixAreNotInApp() throws Exception {
+        InAppClassifier classifier = new InAppClassifier(Collections.<String>emptyList(),
+                Arrays.asList("java.", "javax.", "sun."));
+
+        assertThat(classifier.isInApp("java.lang.Thread"), is(false));
+        assertThat(classifier.isInApp("javax.servlet.http.HttpServlet"), is(false));
+        assertThat(classifier.isInApp("sun.reflect.NativeMethodAccessorImpl"), is(false));
+        // Cached verdicts
+        assertThat(classifier.isInApp("java.lang.Thread"), is(false));
+        assertThat(classifier.isInApp("com.example.Main"), is(true));
+    }
+
+    @Test
+    public void testLongestPrefixDecides() throws Exception {
+        InAppClassifier classifier = new InAppClassifier(Arrays.asList("org.springframework.samples."),
+                Arrays.asList("org.springframework.", "org.springframework.samples.internal."));
+
+        assertThat(classifier.isInApp("org.springframework.web.servlet.DispatcherServlet"), is(false));
+        assertThat(classifier.isInApp("org.springframework.samples.petclinic.OwnerController"), is(true));
+        assertThat(classifier.isInApp("org.springframework.samples.internal.Helper"), is(false));
+    }
+
+    @Test
+    public void testInAppPrefixWinsOverTheSameNotInAppPrefix() throws Exception {
+        InAppClassifier classifier = new InAppClassifier(Arrays.asList("com.example."),
+                Arrays.asList("com.example."));
+
+        assertThat(classifier.isInApp("com.example.Main"), is(true));
+    }
+}
@@ -0,0 +1,84 @@
+package com.getsentry.raven.marshaller.json;
+
+import com.getsentry.raven.DefaultRavenFactory;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.event.interfaces.ExceptionInterface;
+import com.getsentry.raven.event.interfaces.MessageInterface;
+import com.getsentry.raven.event.interfaces.StackTraceInterface;
+import com.getsentry.raven.event.interfaces.UserInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Measures the marshalling throughput of the {@link JsonMarshaller}, for events carrying the usual interfaces.
+ */
+public class JsonMarshallerIT {
+    private static final Logger logger = LoggerFactory.getLogger(JsonMarshallerIT.class);
+    private static final int WARMUP_EVENT_COUNT = 100000;
+    private static final int EVENT_COUNT = 100000;
+    private static final int ROUNDS = 5;
+    private static final OutputStream DISCARDING_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    private JsonMarshaller jsonMarshaller;
+    private Event event;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        // Same bindings as the DefaultRavenFactory, without compression to measure the JSON output alone.
+        jsonMarshaller = new JsonMarshaller();
+        jsonMarshaller.setCompression(false);
+        StackTraceInterfaceBinding stackTraceBinding = new StackTraceInterfaceBinding();
+        stackTraceBinding.setFrameCacheSize(DefaultRavenFactory.FRAME_CACHE_SIZE_DEFAULT);
+        jsonMarshaller.addInterfaceBinding(StackTraceInterface.class, stackTraceBinding);
+        jsonMarshaller.addInterfaceBinding(ExceptionInterface.class, new ExceptionInterfaceBinding(stackTraceBinding));
+        jsonMarshaller.addInterfaceBinding(MessageInterface.class, new MessageInterfaceBinding());
+        jsonMarshaller.addInterfaceBinding(UserInterface.class, new UserInterfaceBinding());
+
+        event = new EventBuilder()
+                .withMessage("Benchmark event")
+                .withLevel(Event.Level.ERROR)
+                .withSentryInterface(new MessageInterface("Benchmark %s", "event"))
+                .withSentryInterface(new UserInterface("id", "username", "127.0.0.1", "user@example.com"))
+                .withSentryInterface(new ExceptionInterface(new IllegalStateException("Benchmark exception")))
+                .build();
+    }
+
+    private double measure(int eventCount) {
+        long start = System.nanoTime();
+        for (int i = 0; i < eventCount; i++) {
+            jsonMarshaller.marshall(event, DISCARDING_STREAM);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return eventCount / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void measureThroughput() throws Exception {
+        measure(WARMUP_EVENT_COUNT);
+        // Keeps the best round, the others being slowed down by the garbage collection or the JIT compilation
+        double throughput = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            throughput = Math.max(throughput, measure(EVENT_COUNT));
+        }
+
+        assertThat(throughput, greaterThan(0d));
+        logger.info("JsonMarshaller: {} events/s", Math.round(throughput));
+    }
+}
@@ -10,17 +10,23 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 
 import static com.getsentry.raven.marshaller.json.JsonComparisonUtil.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 
 public class JsonMarshallerTest {
@@ -38,21 +44,19 @@ public class JsonMarshallerTest {
         new NonStrictExpectations() {{
             mockEvent.getId();
             result = UUID.fromString("00000000-0000-0000-0000-000000000000");
-            mockEvent.getTimestamp();
-            result = new Date(0);
+            mockEvent.getTimestampMillis();
+            result = 0L;
             mockEvent.getLevel();
             result = null;
         }};
     }
 
     @Test
-    public void testEventIdWrittenProperly(@Injectable final UUID mockUuid) throws Exception {
+    public void testEventIdWrittenProperly() throws Exception {
         final JsonOutputStreamParser jsonOutputStreamParser = newJsonOutputStream();
         new NonStrictExpectations() {{
             mockEvent.getId();
-            result = mockUuid;
-            mockUuid.toString();
-            result = "3b71fba5-413e-4022-ae98-5f0b80a155a5";
+            result = UUID.fromString("3b71fba5-413e-4022-ae98-5f0b80a155a5");
         }};
 
         jsonMarshaller.marshall(mockEvent, jsonOutputStreamParser.outputStream());
@@ -74,12 +78,10 @@ public class JsonMarshallerTest {
     }
 
     @Test
-    public void testEventTimestampWrittenProperly(@Injectable final Date mockTimestamp) throws Exception {
+    public void testEventTimestampWrittenProperly() throws Exception {
         final JsonOutputStreamParser jsonOutputStreamParser = newJsonOutputStream();
         new NonStrictExpectations() {{
-            mockEvent.getTimestamp();
-            result = mockTimestamp;
-            mockTimestamp.getTime();
+            mockEvent.getTimestampMillis();
             // 2013-11-24T04:11:35.338 (UTC)
             result = 1385266295338L;
         }};
@@ -323,6 +325,78 @@ public class JsonMarshallerTest {
         assertThat(jsonOutputStreamParser.value(), is(jsonResource("/com/getsentry/raven/marshaller/json/jsonmarshallertest/testInterfaceBinding.json")));
     }
 
+    @Test
+    public void testSubclassUsesTheBindingOfItsSuperclass() throws Exception {
+        jsonMarshaller.addInterfaceBinding(BaseInterface.class, new NamedBinding("base"));
+
+        assertThat(marshallInterface(new DerivedInterface()), containsString("\"interfaceKey\":\"base\""));
+    }
+
+    @Test
+    public void testSuperclassBindingIsPreferredToInterfaceBinding() throws Exception {
+        jsonMarshaller.addInterfaceBinding(TaggedInterface.class, new NamedBinding("tagged"));
+        jsonMarshaller.addInterfaceBinding(BaseInterface.class, new NamedBinding("base"));
+
+        assertThat(marshallInterface(new DerivedInterface()), containsString("\"interfaceKey\":\"base\""));
+        assertThat(marshallInterface(new TaggedOnlyInterface()), containsString("\"interfaceKey\":\"tagged\""));
+    }
+
+    @Test
+    public void testBindingAddedAfterMarshallingIsUsed() throws Exception {
+        jsonMarshaller.addInterfaceBinding(BaseInterface.class, new NamedBinding("base"));
+        marshallInterface(new DerivedInterface());
+
+        jsonMarshaller.addInterfaceBinding(DerivedInterface.class, new NamedBinding("derived"));
+
+        assertThat(marshallInterface(new DerivedInterface()), containsString("\"interfaceKey\":\"derived\""));
+    }
+
+    private String marshallInterface(final SentryInterface sentryInterface) throws Exception {
+        new NonStrictExpectations() {{
+            mockEvent.getSentryInterfaces();
+            result = Collections.singletonMap("interfaceKey", sentryInterface);
+        }};
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonMarshaller.marshall(mockEvent, outputStream);
+        return new String(outputStream.toByteArray(), "UTF-8");
+    }
+
+    private interface TaggedInterface extends SentryInterface {
+    }
+
+    private static class BaseInterface implements SentryInterface {
+        @Override
+        public String getInterfaceName() {
+            return "base";
+        }
+    }
+
+    private static class DerivedInterface extends BaseInterface implements TaggedInterface {
+    }
+
+    private static class TaggedOnlyInterface implements TaggedInterface {
+        @Override
+        public String getInterfaceName() {
+            return "tagged";
+        }
+    }
+
+    /**
+     * Binding writing its name in place of the interface.
+     */
+    private static final class NamedBinding implements InterfaceBinding<SentryInterface> {
+        private final String name;
+
+        private NamedBinding(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void writeInterface(JsonGenerator generator, SentryInterface sentryInterface) throws IOException {
+            generator.writeString(name);
+        }
+    }
+
     @Test
     public void testCompressedDataIsWorking() throws Exception {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -337,4 +411,88 @@ public class JsonMarshallerTest {
                 + "Swb5xkVhHNwYFt+0GlGQlmTOmMSzEhDqQXlXwa/YP"
                 + "8k9tv9b9DbsbRo8="));
     }
+
+    @Test
+    public void testDeflaterIsResetBetweenEvents() throws Exception {
+        jsonMarshaller.setCompression(true);
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+        jsonMarshaller.marshall(mockEvent, first);
+        jsonMarshaller.marshall(mockEvent, second);
+
+        assertThat(second.toByteArray(), is(first.toByteArray()));
+    }
+
+    @Test
+    public void testEventsUnderTheThresholdAreNotCompressed() throws Exception {
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        jsonMarshaller.marshall(mockEvent, uncompressed);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.setCompressionThreshold(uncompressed.size() + 1);
+
+        jsonMarshaller.marshall(mockEvent, outputStream);
+
+        assertThat(outputStream.toByteArray(), is(uncompressed.toByteArray()));
+    }
+
+    @Test
+    public void testEventsOverTheThresholdAreCompressed() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.marshall(mockEvent, compressed);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonMarshaller.setCompressionThreshold(1);
+
+        jsonMarshaller.marshall(mockEvent, outputStream);
+
+        assertThat(outputStream.toByteArray(), is(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testCompressionLevelIsApplied() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.marshall(mockEvent, compressed);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonMarshaller.setCompressionLevel(Deflater.NO_COMPRESSION);
+
+        jsonMarshaller.marshall(mockEvent, outputStream);
+
+        assertThat(outputStream.size(), is(greaterThan(compressed.size())));
+    }
+
+    @Test
+    public void testGzipContentIsNotEncoded() throws Exception {
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        jsonMarshaller.marshall(mockEvent, uncompressed);
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.setGzip(true);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        jsonMarshaller.marshall(mockEvent, first);
+        jsonMarshaller.marshall(mockEvent, second);
+
+        assertThat(gunzip(first.toByteArray()), is(uncompressed.toByteArray()));
+        assertThat(gunzip(second.toByteArray()), is(uncompressed.toByteArray()));
+    }
+
+    private static byte[] gunzip(byte[] content) throws IOException {
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                uncompressed.write(buffer, 0, read);
+            }
+        }
+        return uncompressed.toByteArray();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidCompressionLevelIsRejected() throws Exception {
+        jsonMarshaller.setCompressionLevel(Deflater.BEST_COMPRESSION + 1);
+    }
 }
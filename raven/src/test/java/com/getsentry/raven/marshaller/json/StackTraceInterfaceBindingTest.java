@@ -66,4 +66,22 @@ public class StackTraceInterfaceBindingTest {
 
         assertThat(jsonGeneratorParser.value(), is(jsonResource("/com/getsentry/raven/marshaller/json/StackTrace3.json")));
     }
+
+    @Test
+    public void testCachedFramesAreWrittenAsTheyWere() throws Exception {
+        final StackTraceElement stackTraceElement = new StackTraceElement("31b26f01-9b97-442b-9f36-8a317f94ad76",
+                "0cce55c9-478f-4386-8ede-4b6f000da3e6", "File.java", 1);
+        new NonStrictExpectations() {{
+            mockStackTraceInterface.getStackTrace();
+            result = new StackTraceElement[]{stackTraceElement};
+        }};
+        interfaceBinding.setFrameCacheSize(1024 * 1024);
+
+        for (int i = 0; i < 2; i++) {
+            JsonGeneratorParser jsonGeneratorParser = newJsonGenerator();
+            interfaceBinding.writeInterface(jsonGeneratorParser.generator(), mockStackTraceInterface);
+
+            assertThat(jsonGeneratorParser.value(), is(jsonResource("/com/getsentry/raven/marshaller/json/StackTrace1.json")));
+        }
+    }
 }
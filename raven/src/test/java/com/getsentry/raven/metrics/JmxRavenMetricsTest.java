@@ -0,0 +1,81 @@
+package com.getsentry.raven.metrics;
+
+import com.getsentry.raven.connection.ConnectionLoad;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class JmxRavenMetricsTest {
+    private final ConnectionLoad connectionLoad = new ConnectionLoad() {
+        @Override
+        public double getQueueUsage() {
+            return 0.5;
+        }
+
+        @Override
+        public int getQueueSize() {
+            return 3;
+        }
+
+        @Override
+        public long getAverageSendTime() {
+            return 0;
+        }
+    };
+    private final JmxRavenMetrics metrics = new JmxRavenMetrics(connectionLoad);
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName objectName = new ObjectName("com.getsentry.raven:type=Raven,project=test");
+
+    public JmxRavenMetricsTest() throws Exception {
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        metrics.close();
+    }
+
+    @Test
+    public void testMeasuresAreExposedAsAttributes() throws Exception {
+        metrics.register(objectName);
+        metrics.onEnqueued();
+        metrics.onEnqueued();
+        metrics.onDropped();
+        metrics.onMarshalled(TimeUnit.MILLISECONDS.toNanos(2), 100);
+        metrics.onSent(TimeUnit.MILLISECONDS.toNanos(4));
+        metrics.onFailure();
+        metrics.onCircuitOpened();
+        metrics.onFrameCacheLookup(false);
+        metrics.onFrameCacheLookup(true);
+        metrics.onFrameCacheLookup(true);
+        metrics.onFrameCacheLookup(true);
+        metrics.onFrameCacheSize(512);
+
+        assertThat(mBeanServer.getAttribute(objectName, "QueueDepth"), is((Object) 3));
+        assertThat(mBeanServer.getAttribute(objectName, "EnqueuedCount"), is((Object) 2L));
+        assertThat(mBeanServer.getAttribute(objectName, "DroppedCount"), is((Object) 1L));
+        assertThat(mBeanServer.getAttribute(objectName, "SentCount"), is((Object) 1L));
+        assertThat(mBeanServer.getAttribute(objectName, "FailureCount"), is((Object) 1L));
+        assertThat(mBeanServer.getAttribute(objectName, "CircuitOpenedCount"), is((Object) 1L));
+        assertThat(mBeanServer.getAttribute(objectName, "FrameCacheHitRatio"), is((Object) 0.75));
+        assertThat(mBeanServer.getAttribute(objectName, "FrameCacheBytes"), is((Object) 512L));
+        assertThat(mBeanServer.getAttribute(objectName, "MarshalledBytes"), is((Object) 100L));
+        assertThat(mBeanServer.getAttribute(objectName, "MarshalTimeMean"), is((Object) 2.0));
+        assertThat(mBeanServer.getAttribute(objectName, "SendTimeMax"), is((Object) 4.0));
+    }
+
+    @Test
+    public void testCloseUnregistersTheMBean() throws Exception {
+        metrics.register(objectName);
+
+        metrics.close();
+
+        assertThat(mBeanServer.isRegistered(objectName), is(false));
+    }
+}
@@ -0,0 +1,60 @@
+package com.getsentry.raven.metrics;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testEmptyHistogram() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMean(), is(0.0));
+        assertThat(histogram.getPercentile(99), is(0.0));
+    }
+
+    @Test
+    public void testPercentileIsTheUpperBoundOfItsBucket() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertThat(histogram.getCount(), is(100L));
+        // 100us falls in the bucket [64us, 128us).
+        assertThat(histogram.getPercentile(50), is(0.128));
+        assertThat(histogram.getPercentile(99), is(0.128));
+        // 10ms falls in the bucket [8.192ms, 16.384ms).
+        assertThat(histogram.getPercentile(100), is(16.384));
+        assertThat(histogram.getMax(), is(10.0));
+        assertThat(histogram.getMean(), closeTo(0.199, 1e-9));
+    }
+
+    @Test
+    public void testConcurrentRecordsAreAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(1000);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(histogram.getCount(), is(40000L));
+        assertThat(histogram.getMean(), closeTo(0.001, 1e-12));
+    }
+}
@@ -0,0 +1,64 @@
+package com.getsentry.raven.sampling;
+
+import com.getsentry.raven.connection.ConnectionLoad;
+import com.getsentry.raven.event.Event;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+public class AdaptiveSamplerTest {
+    private static final long TARGET_SEND_TIME = 100;
+    private volatile double queueUsage;
+    private volatile long averageSendTime;
+    private final ConnectionLoad connectionLoad = new ConnectionLoad() {
+        @Override
+        public double getQueueUsage() {
+            return queueUsage;
+        }
+
+        @Override
+        public int getQueueSize() {
+            return 0;
+        }
+
+        @Override
+        public long getAverageSendTime() {
+            return averageSendTime;
+        }
+    };
+    private final AdaptiveSampler adaptiveSampler = new AdaptiveSampler(new LevelSampler(0.8), connectionLoad, 0.1,
+            TARGET_SEND_TIME);
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        queueUsage = 0;
+        averageSendTime = 0;
+    }
+
+    @Test
+    public void testRateIsKeptWithoutPressure() throws Exception {
+        queueUsage = 0.5;
+        averageSendTime = TARGET_SEND_TIME;
+
+        assertThat(adaptiveSampler.getSampleRate(Event.Level.INFO), closeTo(0.8, 1e-9));
+    }
+
+    @Test
+    public void testRateDecreasesAsTheQueueFills() throws Exception {
+        queueUsage = 0.75;
+
+        assertThat(adaptiveSampler.getPressure(), closeTo(0.5, 1e-9));
+        assertThat(adaptiveSampler.getSampleRate(Event.Level.INFO), closeTo(0.8 * 0.55, 1e-9));
+    }
+
+    @Test
+    public void testFullPressureAppliesTheMinimumFactor() throws Exception {
+        averageSendTime = TARGET_SEND_TIME * 3;
+
+        assertThat(adaptiveSampler.getPressure(), is(1.0));
+        assertThat(adaptiveSampler.getSampleRate(Event.Level.INFO), closeTo(0.08, 1e-9));
+    }
+}
@@ -0,0 +1,23 @@
+package com.getsentry.raven.sampling;
+
+import com.getsentry.raven.event.Event;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class LevelSamplerTest {
+    @Test
+    public void testLevelRateOverridesTheDefaultRate() throws Exception {
+        LevelSampler levelSampler = new LevelSampler(0.5).withLevelRate(Event.Level.ERROR, 1);
+
+        assertThat(levelSampler.getSampleRate(Event.Level.ERROR), is(1.0));
+        assertThat(levelSampler.getSampleRate(Event.Level.DEBUG), is(0.5));
+        assertThat(levelSampler.getSampleRate(null), is(0.5));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRateAboveOneIsRejected() throws Exception {
+        new LevelSampler(1).withLevelRate(Event.Level.INFO, 1.5);
+    }
+}
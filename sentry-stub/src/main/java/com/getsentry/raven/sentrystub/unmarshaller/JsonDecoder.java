@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
 /**
@@ -20,10 +21,13 @@ import java.util.zip.InflaterInputStream;
  * <li>JSON Stream (nothing to do)
  * <li>Base 64'd JSON streams (base64 decoded)
  * <li>Base 64'd and deflated JSON streams (base64 decoded and inflated)
+ * <li>Gzipped JSON streams, sent with {@code Content-Encoding: gzip} (decompressed)
  * </ul>
  */
 public class JsonDecoder {
     private static Logger logger = Logger.getLogger(JsonDecoder.class.getCanonicalName());
+    private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+    private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
 
     /**
      * Attempts to read the content of the stream and determine if it's compressed, encoded or simple JSON.
@@ -40,6 +44,11 @@ public class JsonDecoder {
         //Make it uncloseable to avoid issues with the InflaterInputStream.
         originalStream = new Uncloseable(new BufferedInputStream(originalStream));
         originalStream.mark(messageSize);
+        if (isGzip(originalStream)) {
+            originalStream.reset();
+            return new GZIPInputStream(originalStream);
+        }
+        originalStream.reset();
         InputStream inputStream = originalStream;
         if (!isJson(originalStream)) {
             inputStream = new Base64InputStream(inputStream, Base64.NO_WRAP);
@@ -58,6 +67,17 @@ public class JsonDecoder {
         return inputStream;
     }
 
+    /**
+     * Checks whether the content starts with the magic number of the gzip format.
+     *
+     * @param inputStream data source.
+     * @return true if the content is gzipped, false otherwise.
+     * @throws IOException if it's impossible to read the content of the Stream.
+     */
+    private boolean isGzip(InputStream inputStream) throws IOException {
+        return inputStream.read() == GZIP_MAGIC_FIRST_BYTE && inputStream.read() == GZIP_MAGIC_SECOND_BYTE;
+    }
+
     /**
      * Checks that the parsed content is JSON content.
      *